@@ -0,0 +1,501 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Vector;
+
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.BuildListener;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.SubBuildListener;
+import org.apache.tools.ant.Target;
+import org.apache.tools.ant.Task;
+
+/**
+ * <p>A build listener that buffers the build events of each module processed in parallel
+ * and passes them to the original listeners of the master project as one contiguous block
+ * per module. While it is {@link #install() installed}, it replaces all listeners of
+ * the master project; the module-specific projects inherit it from the master project.</p>
+ * 
+ * <p>The events are attributed to a module if they are fired by the thread that processes
+ * this module or by a project created while this module is processed. The events that are
+ * not attributed to any module are passed to the original listeners immediately. When
+ * the messages buffered for a module exceed the size limit, the messages that follow are
+ * spilled to a temporary file, which is deleted after the buffer is flushed.</p>
+ * 
+ * <p>The buffers are flushed either in the order the modules finish or in a fixed order
+ * of modules given. In the latter case, a buffer is flushed only after the buffers of all
+ * modules that precede its module are flushed. The listeners of the master project are
+ * invoked by a single thread at a time.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ * 
+ * @see CallTargetForModules#setBufferOutput(boolean)
+ */
+final class BufferedModuleOutput implements SubBuildListener
+{
+    private static final int BUILD_STARTED = 0;
+    private static final int BUILD_FINISHED = 1;
+    private static final int TARGET_STARTED = 2;
+    private static final int TARGET_FINISHED = 3;
+    private static final int TASK_STARTED = 4;
+    private static final int TASK_FINISHED = 5;
+    private static final int MESSAGE_LOGGED = 6;
+    private static final int SUB_BUILD_STARTED = 7;
+    private static final int SUB_BUILD_FINISHED = 8;
+    
+    private final Project project;
+    // The modules in the order their buffers are flushed or null to flush in completion order.
+    private final List<Module> flushOrder;
+    // The number of message characters buffered in memory per module before they are spilled.
+    private final long bufferSize;
+    
+    // The original listeners of the master project. They are invoked under the lock 'this'.
+    private Vector<BuildListener> listeners;
+    
+    // The buffer of the module processed by the current thread, if any.
+    private final ThreadLocal<ModuleBuffer> currentBuffer = new ThreadLocal<ModuleBuffer>();
+    
+    // All the fields below are guarded by the lock 'this'.
+    private final IdentityHashMap<Module, ModuleBuffer> buffers = new IdentityHashMap<Module, ModuleBuffer>();
+    // The buffers of the modules being processed by the projects the events of which are fired.
+    private final IdentityHashMap<Project, ModuleBuffer> projectBuffers =
+            new IdentityHashMap<Project, ModuleBuffer>();
+    // The index of the next module to flush in flushOrder.
+    private int nextToFlush;
+    
+    /**
+     * <p>Creates a {@code BufferedModuleOutput} for the given master project.</p>
+     * 
+     * @param project the master project. It must not be {@code null}.
+     * @param flushOrder the modules in the order the buffers are to be flushed or
+     *      {@code null} if the buffers are to be flushed as soon as the modules finish.
+     * @param bufferSize the number of message characters to be buffered in memory per module
+     *      before they are spilled to a temporary file.
+     */
+    BufferedModuleOutput(final Project project, final List<Module> flushOrder, final long bufferSize)
+    {
+        this.project = project;
+        this.flushOrder = flushOrder;
+        this.bufferSize = bufferSize;
+    }
+    
+    /**
+     * <p>Replaces the listeners of the master project with this {@code BufferedModuleOutput}.</p>
+     */
+    synchronized void install()
+    {
+        listeners = project.getBuildListeners();
+        for (final BuildListener listener : listeners) {
+            project.removeBuildListener(listener);
+        }
+        project.addBuildListener(this);
+    }
+    
+    /**
+     * <p>Flushes the buffers that are not flushed yet and restores the original listeners
+     * of the master project. It must be invoked after all modules are processed or
+     * the processing is aborted.</p>
+     */
+    synchronized void uninstall()
+    {
+        try {
+            if (flushOrder != null) {
+                for (final int n = flushOrder.size(); nextToFlush < n; ++nextToFlush) {
+                    final ModuleBuffer buffer = buffers.remove(flushOrder.get(nextToFlush));
+                    if (buffer != null) {
+                        flush(buffer);
+                    }
+                }
+            }
+            // The modules that do not precede any other module in flushOrder.
+            for (final ModuleBuffer buffer : buffers.values()) {
+                flush(buffer);
+            }
+            buffers.clear();
+            projectBuffers.clear();
+        }
+        finally {
+            project.removeBuildListener(this);
+            for (final BuildListener listener : listeners) {
+                project.addBuildListener(listener);
+            }
+        }
+    }
+    
+    /**
+     * <p>Starts buffering the events attributed to the given module. It must be invoked by
+     * the thread that processes this module.</p>
+     * 
+     * @param module the module whose processing starts.
+     */
+    void moduleStarted(final Module module)
+    {
+        final ModuleBuffer buffer = new ModuleBuffer(module);
+        synchronized (this) {
+            buffers.put(module, buffer);
+        }
+        currentBuffer.set(buffer);
+    }
+    
+    /**
+     * <p>Finishes buffering the events attributed to the given module and flushes the buffers
+     * that can be flushed. It must be invoked by the thread that processed this module.</p>
+     * 
+     * @param module the module whose processing finishes.
+     */
+    void moduleFinished(final Module module)
+    {
+        final ModuleBuffer buffer = currentBuffer.get();
+        currentBuffer.set(null);
+        
+        synchronized (this) {
+            for (final Project p : buffer.projects) {
+                projectBuffers.remove(p);
+            }
+            buffer.finished = true;
+            
+            if (flushOrder == null) {
+                buffers.remove(module);
+                flush(buffer);
+                return;
+            }
+            for (final int n = flushOrder.size(); nextToFlush < n; ++nextToFlush) {
+                final Module next = flushOrder.get(nextToFlush);
+                final ModuleBuffer nextBuffer = buffers.get(next);
+                if (nextBuffer == null || !nextBuffer.finished) {
+                    break;
+                }
+                buffers.remove(next);
+                flush(nextBuffer);
+            }
+        }
+    }
+    
+    public void buildStarted(final BuildEvent event)
+    {
+        handle(BUILD_STARTED, event);
+    }
+    
+    public void buildFinished(final BuildEvent event)
+    {
+        handle(BUILD_FINISHED, event);
+    }
+    
+    public void targetStarted(final BuildEvent event)
+    {
+        handle(TARGET_STARTED, event);
+    }
+    
+    public void targetFinished(final BuildEvent event)
+    {
+        handle(TARGET_FINISHED, event);
+    }
+    
+    public void taskStarted(final BuildEvent event)
+    {
+        handle(TASK_STARTED, event);
+    }
+    
+    public void taskFinished(final BuildEvent event)
+    {
+        handle(TASK_FINISHED, event);
+    }
+    
+    public void messageLogged(final BuildEvent event)
+    {
+        handle(MESSAGE_LOGGED, event);
+    }
+    
+    public void subBuildStarted(final BuildEvent event)
+    {
+        handle(SUB_BUILD_STARTED, event);
+    }
+    
+    public void subBuildFinished(final BuildEvent event)
+    {
+        handle(SUB_BUILD_FINISHED, event);
+    }
+    
+    private void handle(final int type, final BuildEvent event)
+    {
+        final Project eventProject = event.getProject();
+        ModuleBuffer buffer = currentBuffer.get();
+        if (buffer != null) {
+            if (eventProject != project && eventProject != buffer.lastProject) {
+                // Events fired by this project in other threads are attributed to this module, too.
+                synchronized (this) {
+                    if (projectBuffers.put(eventProject, buffer) == null) {
+                        buffer.projects.add(eventProject);
+                    }
+                }
+                buffer.lastProject = eventProject;
+            }
+        } else {
+            synchronized (this) {
+                buffer = projectBuffers.get(eventProject);
+                if (buffer == null) {
+                    dispatch(type, event);
+                    return;
+                }
+            }
+        }
+        if (!buffer.add(type, event, bufferSize)) {
+            // The module has already been flushed.
+            synchronized (this) {
+                dispatch(type, event);
+            }
+        }
+    }
+    
+    // Must be invoked under the lock 'this'.
+    private void flush(final ModuleBuffer buffer)
+    {
+        synchronized (buffer) {
+            buffer.flushed = true;
+            flushEvents(buffer);
+        }
+    }
+    
+    // Must be invoked under the locks 'this' and 'buffer'.
+    private void flushEvents(final ModuleBuffer buffer)
+    {
+        DataInputStream spilledMessages = null;
+        try {
+            if (buffer.spillOut != null) {
+                buffer.spillOut.close();
+                buffer.spillOut = null;
+                spilledMessages = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(buffer.spillFile)));
+            }
+            for (final BufferedEvent bufferedEvent : buffer.events) {
+                final BuildEvent event = bufferedEvent.toBuildEvent();
+                if (bufferedEvent.spilled) {
+                    final byte[] bytes = new byte[spilledMessages.readInt()];
+                    spilledMessages.readFully(bytes);
+                    event.setMessage(new String(bytes, "utf-8"), bufferedEvent.priority);
+                }
+                dispatch(bufferedEvent.type, event);
+            }
+        }
+        catch (IOException ex) {
+            final BuildEvent event = new BuildEvent(project);
+            event.setMessage(MessageFormat.format(
+                    "Unable to read the buffered output of the module ''{0}'': {1}",
+                    buffer.module.getPath(), ex.getMessage()), Project.MSG_ERR);
+            dispatch(MESSAGE_LOGGED, event);
+        }
+        finally {
+            buffer.events.clear();
+            if (spilledMessages != null) {
+                try {
+                    spilledMessages.close();
+                }
+                catch (IOException ex) {
+                    // The file is deleted anyway.
+                }
+            }
+            buffer.deleteSpillFile();
+        }
+    }
+    
+    // Must be invoked under the lock 'this'.
+    private void dispatch(final int type, final BuildEvent event)
+    {
+        for (final BuildListener listener : listeners) {
+            switch (type) {
+            case BUILD_STARTED:
+                listener.buildStarted(event);
+                break;
+            case BUILD_FINISHED:
+                listener.buildFinished(event);
+                break;
+            case TARGET_STARTED:
+                listener.targetStarted(event);
+                break;
+            case TARGET_FINISHED:
+                listener.targetFinished(event);
+                break;
+            case TASK_STARTED:
+                listener.taskStarted(event);
+                break;
+            case TASK_FINISHED:
+                listener.taskFinished(event);
+                break;
+            case MESSAGE_LOGGED:
+                listener.messageLogged(event);
+                break;
+            case SUB_BUILD_STARTED:
+                if (listener instanceof SubBuildListener) {
+                    ((SubBuildListener) listener).subBuildStarted(event);
+                }
+                break;
+            case SUB_BUILD_FINISHED:
+                if (listener instanceof SubBuildListener) {
+                    ((SubBuildListener) listener).subBuildFinished(event);
+                }
+                break;
+            default:
+                throw new IllegalStateException();
+            }
+        }
+    }
+    
+    private static final class BufferedEvent
+    {
+        final int type;
+        // Either the task, the target or the project the event is fired for.
+        final Object source;
+        final String message;
+        final int priority;
+        final Throwable exception;
+        // If true then the message is stored in the spill file rather than in this event.
+        final boolean spilled;
+        
+        BufferedEvent(final int type, final BuildEvent event, final boolean spilled)
+        {
+            this.type = type;
+            final Task task = event.getTask();
+            if (task != null) {
+                source = task;
+            } else {
+                final Target target = event.getTarget();
+                source = target != null ? target : event.getProject();
+            }
+            message = spilled ? null : event.getMessage();
+            priority = event.getPriority();
+            exception = event.getException();
+            this.spilled = spilled;
+        }
+        
+        BuildEvent toBuildEvent()
+        {
+            final BuildEvent event;
+            if (source instanceof Task) {
+                event = new BuildEvent((Task) source);
+            } else if (source instanceof Target) {
+                event = new BuildEvent((Target) source);
+            } else {
+                event = new BuildEvent((Project) source);
+            }
+            if (type == MESSAGE_LOGGED && !spilled) {
+                event.setMessage(message, priority);
+            }
+            event.setException(exception);
+            return event;
+        }
+    }
+    
+    private static final class ModuleBuffer
+    {
+        final Module module;
+        // Guarded by the lock of this buffer.
+        final ArrayList<BufferedEvent> events = new ArrayList<BufferedEvent>();
+        // The number of message characters buffered in memory.
+        long bufferedChars;
+        File spillFile;
+        DataOutputStream spillOut;
+        // If true then spilling has failed and all messages are kept in memory.
+        boolean spillFailed;
+        
+        // The projects the events of which are attributed to this module.
+        final ArrayList<Project> projects = new ArrayList<Project>();
+        // The project of the latest event fired by the thread that processes this module.
+        Project lastProject;
+        // Guarded by the lock of the BufferedModuleOutput.
+        boolean finished;
+        // Guarded by the lock of this buffer.
+        boolean flushed;
+        
+        ModuleBuffer(final Module module)
+        {
+            this.module = module;
+        }
+        
+        synchronized boolean add(final int type, final BuildEvent event, final long bufferSize)
+        {
+            if (flushed) {
+                return false;
+            }
+            final String message = event.getMessage();
+            if (type == MESSAGE_LOGGED && message != null && !spillFailed &&
+                    bufferedChars + message.length() > bufferSize) {
+                try {
+                    spill(message);
+                    events.add(new BufferedEvent(type, event, true));
+                    return true;
+                }
+                catch (IOException ex) {
+                    // The messages that follow are kept in memory.
+                    spillFailed = true;
+                }
+            }
+            if (message != null) {
+                bufferedChars += message.length();
+            }
+            events.add(new BufferedEvent(type, event, false));
+            return true;
+        }
+        
+        private void spill(final String message) throws IOException
+        {
+            if (spillOut == null) {
+                spillFile = File.createTempFile("antmodular", ".log");
+                spillOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile)));
+            }
+            final byte[] bytes = message.getBytes("utf-8");
+            spillOut.writeInt(bytes.length);
+            spillOut.write(bytes);
+        }
+        
+        void deleteSpillFile()
+        {
+            if (spillFile == null) {
+                return;
+            }
+            if (spillOut != null) {
+                try {
+                    spillOut.close();
+                }
+                catch (IOException ex) {
+                    // The file is deleted anyway.
+                }
+                spillOut = null;
+            }
+            spillFile.delete();
+            spillFile = null;
+        }
+    }
+}
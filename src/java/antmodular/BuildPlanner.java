@@ -0,0 +1,345 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * <p>Plans the processing of a set of {@link Module modules} without processing them. The plan
+ * is built by replaying the {@link SerialDependencyResolver} or {@link ParallelDependencyResolver}
+ * (depending on the number of threads) against the estimated durations of the module targets.
+ * It defines the order in which modules are dispatched, the thread each module is processed by,
+ * and the estimated total time of processing.</p>
+ * 
+ * <p>The duration of each module is {@code 1} unless it is defined explicitly. The durations are
+ * abstract time units which are interpreted as milliseconds if they are recorded by
+ * {@link ModuleDurations}.</p>
+ * 
+ * <p>{@code BuildPlanner} is not thread-safe.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ * 
+ * @see CallTargetForModules
+ * @see SimulateBuild
+ */
+final class BuildPlanner
+{
+    /**
+     * <p>The scheduling policy that gives the priority to the module that has become available
+     * for processing most recently. This is the default policy of {@link ParallelDependencyResolver}.</p>
+     */
+    static final String POLICY_DEPTH_FIRST = "depthFirst";
+    /**
+     * <p>The scheduling policy that gives the priority to the module with the longest path
+     * (the sum of durations) to the end of processing among the modules that depend upon it.</p>
+     */
+    static final String POLICY_CRITICAL_PATH = "criticalPath";
+    
+    private final Collection<Module> rootModules;
+    // All modules involved in the order they are processed by a single thread.
+    private final ArrayList<Module> modules;
+    private final IdentityHashMap<Module, Long> durations;
+    
+    /**
+     * <p>Creates a {@code BuildPlanner} for a given set of root modules and all their direct and
+     * indirect dependee modules.</p>
+     * 
+     * @param rootModules the root modules. This collection and all of its elements must be
+     *      non-{@code null}. It must not be modified while this {@code BuildPlanner} is in use.
+     * 
+     * @throws CyclicDependenciesDetectedException if there are cyclic dependencies between
+     *      the modules.
+     */
+    BuildPlanner(final Collection<Module> rootModules) throws CyclicDependenciesDetectedException
+    {
+        assert rootModules != null;
+        
+        this.rootModules = rootModules;
+        modules = new ArrayList<Module>();
+        final SerialDependencyResolver dependencyResolver = new SerialDependencyResolver();
+        dependencyResolver.init(rootModules);
+        Module module;
+        while ((module = dependencyResolver.getFreeModule()) != null) {
+            modules.add(module);
+            dependencyResolver.moduleProcessed(module);
+        }
+        durations = new IdentityHashMap<Module, Long>(modules.size());
+    }
+    
+    /**
+     * <p>Returns all modules involved in the order they are processed by a single thread.</p>
+     */
+    List<Module> getModules()
+    {
+        return Collections.unmodifiableList(modules);
+    }
+    
+    long getDuration(final Module module)
+    {
+        final Long duration = durations.get(module);
+        return duration == null ? 1 : duration.longValue();
+    }
+    
+    void setDuration(final Module module, final long duration)
+    {
+        assert duration >= 0;
+        
+        durations.put(module, Long.valueOf(duration));
+    }
+    
+    /**
+     * <p>Sets the durations of all modules involved to the durations recorded. The modules whose
+     * durations are not recorded are assigned with the mean of the durations recorded.</p>
+     * 
+     * @return {@code true} if at least one duration is recorded; {@code false} if the durations
+     *      of modules are left unchanged.
+     */
+    boolean setDurations(final ModuleDurations recorded)
+    {
+        final long mean = recorded.mean();
+        if (mean < 0) {
+            return false;
+        }
+        for (int i = 0, n = modules.size(); i < n; ++i) {
+            final Module module = modules.get(i);
+            final long duration = recorded.get(module.getPath());
+            setDuration(module, duration < 0 ? mean : duration);
+        }
+        return true;
+    }
+    
+    /**
+     * <p>Returns the priority of modules that implements a given scheduling policy, or {@code null}
+     * if all modules have the same priority under this policy.</p>
+     * 
+     * @see ParallelDependencyResolver#init(Collection, Comparator)
+     */
+    Comparator<Module> getPriority(final String policy)
+    {
+        if (!POLICY_CRITICAL_PATH.equals(policy)) {
+            return null;
+        }
+        
+        final IdentityHashMap<Module, long[]> pathLengths = computePathLengths();
+        return new Comparator<Module>()
+        {
+            public int compare(final Module m1, final Module m2)
+            {
+                final long l1 = pathLengths.get(m1)[0];
+                final long l2 = pathLengths.get(m2)[0];
+                return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+            }
+        };
+    }
+    
+    /**
+     * <p>Returns the length of the critical path, that is the greatest sum of durations of
+     * the modules in a chain of modules each of which depends upon the previous one. No plan
+     * could take less time than this regardless of the number of threads.</p>
+     */
+    long getCriticalPathLength()
+    {
+        long result = 0;
+        for (final long[] pathLength : computePathLengths().values()) {
+            result = Math.max(result, pathLength[0]);
+        }
+        return result;
+    }
+    
+    /**
+     * <p>Returns the sum of durations of all modules involved.</p>
+     */
+    long getTotalDuration()
+    {
+        long result = 0;
+        for (int i = 0, n = modules.size(); i < n; ++i) {
+            result += getDuration(modules.get(i));
+        }
+        return result;
+    }
+    
+    private IdentityHashMap<Module, long[]> computePathLengths()
+    {
+        /* The length of the path from a module to the end of processing is its own duration plus
+         * the greatest length among the modules that depend upon it. These modules precede it
+         * in the reverse processing order.
+         */
+        final IdentityHashMap<Module, long[]> pathLengths = new IdentityHashMap<Module, long[]>(modules.size());
+        for (int i = modules.size() - 1; i >= 0; --i) {
+            final Module module = modules.get(i);
+            long[] pathLength = pathLengths.get(module);
+            if (pathLength == null) {
+                pathLength = new long[1];
+                pathLengths.put(module, pathLength);
+            }
+            pathLength[0] += getDuration(module);
+            for (final Module dep : module.dependencies) {
+                long[] depPathLength = pathLengths.get(dep);
+                if (depPathLength == null) {
+                    depPathLength = new long[1];
+                    pathLengths.put(dep, depPathLength);
+                }
+                depPathLength[0] = Math.max(depPathLength[0], pathLength[0]);
+            }
+        }
+        return pathLengths;
+    }
+    
+    /**
+     * <p>Plans the processing of the modules by a given number of threads under a given scheduling
+     * policy. If a single thread is used then the policy is ignored.</p>
+     * 
+     * @param threadCount the number of threads. It must be positive.
+     * @param policy the scheduling policy.
+     * 
+     * @return the plan. It is never {@code null}.
+     */
+    Plan plan(final int threadCount, final String policy)
+    {
+        assert threadCount > 0;
+        
+        final ArrayList<Dispatch> dispatches = new ArrayList<Dispatch>(modules.size());
+        if (threadCount == 1) {
+            long time = 0;
+            for (int i = 0, n = modules.size(); i < n; ++i) {
+                final Module module = modules.get(i);
+                final long end = time + getDuration(module);
+                dispatches.add(new Dispatch(module, 0, time, end));
+                time = end;
+            }
+            return new Plan(1, dispatches);
+        }
+        
+        final ParallelDependencyResolver dependencyResolver = new ParallelDependencyResolver();
+        try {
+            dependencyResolver.init(rootModules, getPriority(policy));
+        }
+        catch (CyclicDependenciesDetectedException ex) {
+            // Cyclic dependencies are detected by the constructor.
+            throw new IllegalStateException(ex);
+        }
+        
+        final PriorityQueue<Dispatch> running = new PriorityQueue<Dispatch>(threadCount, new Comparator<Dispatch>()
+        {
+            public int compare(final Dispatch d1, final Dispatch d2)
+            {
+                if (d1.end != d2.end) {
+                    return d1.end < d2.end ? -1 : 1;
+                }
+                return d1.worker - d2.worker;
+            }
+        });
+        final boolean[] busy = new boolean[threadCount];
+        long time = 0;
+        for (;;) {
+            // Each idle thread acquires a free module, if any.
+            for (int worker = 0; worker < threadCount; ++worker) {
+                if (busy[worker]) {
+                    continue;
+                }
+                final Module module = dependencyResolver.pollFreeModule();
+                if (module == null) {
+                    break;
+                }
+                final Dispatch dispatch = new Dispatch(module, worker, time, time + getDuration(module));
+                dispatches.add(dispatch);
+                running.add(dispatch);
+                busy[worker] = true;
+            }
+            if (running.isEmpty()) {
+                return new Plan(threadCount, dispatches);
+            }
+            // All modules that finish at the same time are released before the next dispatch.
+            time = running.peek().end;
+            while (!running.isEmpty() && running.peek().end == time) {
+                final Dispatch dispatch = running.poll();
+                busy[dispatch.worker] = false;
+                dependencyResolver.moduleProcessed(dispatch.module);
+            }
+        }
+    }
+    
+    /**
+     * <p>Defines when and by which thread a module is processed.</p>
+     */
+    static final class Dispatch
+    {
+        final Module module;
+        // The zero-based index of the thread that processes the module.
+        final int worker;
+        final long start;
+        final long end;
+        
+        Dispatch(final Module module, final int worker, final long start, final long end)
+        {
+            this.module = module;
+            this.worker = worker;
+            this.start = start;
+            this.end = end;
+        }
+    }
+    
+    /**
+     * <p>The plan of processing of modules.</p>
+     */
+    static final class Plan
+    {
+        final int threadCount;
+        // The dispatches in the order the modules are dispatched.
+        final List<Dispatch> dispatches;
+        // The estimated total time.
+        final long makespan;
+        
+        Plan(final int threadCount, final List<Dispatch> dispatches)
+        {
+            this.threadCount = threadCount;
+            this.dispatches = dispatches;
+            long makespan = 0;
+            for (int i = 0, n = dispatches.size(); i < n; ++i) {
+                makespan = Math.max(makespan, dispatches.get(i).end);
+            }
+            this.makespan = makespan;
+        }
+        
+        /**
+         * <p>Returns the dispatches of a given thread in the order they are processed.</p>
+         */
+        List<Dispatch> getTimeline(final int worker)
+        {
+            final ArrayList<Dispatch> timeline = new ArrayList<Dispatch>();
+            for (int i = 0, n = dispatches.size(); i < n; ++i) {
+                final Dispatch dispatch = dispatches.get(i);
+                if (dispatch.worker == worker) {
+                    timeline.add(dispatch);
+                }
+            }
+            return timeline;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.ProjectComponent;
+
+/**
+ * <p>Serves as the nested element {@code <cachingModuleLoader>} of the task
+ * {@link CallTargetForModules &lt;callTargetForModules&gt;}. This element defines a
+ * {@link ModuleLoader} that is to be used by the parent task
+ * {@code CallTargetForModules}.</p>
+ * 
+ * <p>{@code CachingModuleLoader} decorates a module loader defined by the nested element whose
+ * type is a descendant of {@code ModuleLoader}. One and only one such element must be specified.
+ * The results of {@link #normalisePath(String)} and {@link #loadModule(String)} of the nested
+ * module loader are memoised, so that the metadata of each module are loaded once even if
+ * the module is loaded by multiple tasks or {@link ModuleRegistry module registries}.</p>
+ * 
+ * <p>If the nested module loader is a {@link ValidatingModuleLoader} (e.g.
+ * {@link ManifestModuleLoader}) then the memoised metadata of a module are returned only if
+ * the validity key of the module is unchanged since the metadata were loaded. Otherwise, the
+ * metadata of a module are never reloaded.</p>
+ * 
+ * <p>If the {@link #setCacheFile(File) cacheFile} attribute is defined then the metadata
+ * loaded are stored in this file when the build finishes and are reused by subsequent builds
+ * if the validity keys of the modules are unchanged. This requires the nested module loader
+ * to be a {@code ValidatingModuleLoader}. Only the modules whose attributes are either strings
+ * or {@link org.apache.tools.ant.types.Path} objects are stored in the cache file.</p>
+ * 
+ * <p>{@code CachingModuleLoader} is thread-safe if the nested module loader is thread-safe.</p>
+ * 
+ * <h3>Attributes</h3>
+ * <table border="1">
+ * <thead>
+ *  <tr><th>Attribute</th>
+ *      <th>Required?</th>
+ *      <th>Description</th></tr>
+ * </thead>
+ * <tbody>
+ *  <tr><td>{@link  #setCacheFile(File) cacheFile}</td>
+ *      <td>no</td>
+ *      <td>Defines the file module metadata are cached in between builds. If unspecified
+ *          then module metadata are cached in memory only.</td></tr>
+ * </tbody>
+ * </table>
+ * 
+ * <h3>Usage example</h3>
+ * <pre>{@literal
+ * <am:callTargetForModules target="build">
+ *     <am:cachingModuleLoader cacheFile="build/modules.cache">
+ *         <xmlModuleLoader/>
+ *     </am:cachingModuleLoader>
+ *     <module path="foo"/>
+ * </am:callTargetForModules>}</pre>
+ * 
+ * @see ValidatingModuleLoader
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+public class CachingModuleLoader extends ProjectComponent implements ValidatingModuleLoader
+{
+    private ModuleLoader moduleLoader;
+    private File cacheFile;
+    
+    // Module path -> normalised module path.
+    private final ConcurrentHashMap<String, String> normalisedPaths = new ConcurrentHashMap<String, String>();
+    // Normalised module path -> memoised module metadata.
+    private final ConcurrentHashMap<String, Entry> modules = new ConcurrentHashMap<String, Entry>();
+    
+    // Created lazily with the first module being loaded if the cache file is defined.
+    private ModuleMetadataCache cache;
+    
+    private static class Entry
+    {
+        final String validityKey;
+        final ModuleInfo moduleInfo;
+        
+        Entry(final String validityKey, final ModuleInfo moduleInfo)
+        {
+            this.validityKey = validityKey;
+            this.moduleInfo = moduleInfo;
+        }
+    }
+    
+    /**
+     * <p>Returns the normalised path that corresponds to a given module path. The path is
+     * normalised by the nested module loader. The result is memoised.</p>
+     * 
+     * @param path the module path to be normalised. It must be not {@code null}.
+     * 
+     * @return the normalised path that corresponds to the given module path.
+     *      It is never {@code null}.
+     * 
+     * @throws NullPointerException if <em>path</em> is {@code null}.
+     * @throws BuildException if no module loader is defined.
+     */
+    public String normalisePath(final String path)
+    {
+        if (path == null) {
+            throw new NullPointerException("path");
+        }
+        String normalisedPath = normalisedPaths.get(path);
+        if (normalisedPath == null) {
+            normalisedPath = getModuleLoader().normalisePath(path);
+            normalisedPaths.put(path, normalisedPath);
+        }
+        return normalisedPath;
+    }
+    
+    /**
+     * <p>Loads metadata of the module with a given path, not necessarily normalised. The
+     * metadata are loaded by the nested module loader unless they are memoised or cached
+     * in the cache file and are still valid.</p>
+     * 
+     * @param path the module path. This path is allowed to be a non-normalised module path
+     *      but must be not {@code null}.
+     * 
+     * @return a {@link antmodular.ModuleInfo} object that is initialised
+     *      with the module path, dependencies and attributes. It could be shared by
+     *      multiple callers and therefore must not be modified.
+     * 
+     * @throws NullPointerException if <em>path</em> is {@code null}.
+     * @throws ModuleNotLoadedException if the module meta information cannot be loaded.
+     * @throws BuildException if this {@code CachingModuleLoader} is configured incorrectly.
+     */
+    public ModuleInfo loadModule(final String path) throws ModuleNotLoadedException
+    {
+        final String normalisedPath = normalisePath(path);
+        final String validityKey = getValidityKey(normalisedPath);
+        final Entry entry = modules.get(normalisedPath);
+        final MetadataMetrics metrics = MetadataMetrics.current();
+        if (entry != null && entry.validityKey.equals(validityKey)) {
+            if (metrics != null) {
+                metrics.loaderCacheHits.incrementAndGet();
+            }
+            return entry.moduleInfo;
+        }
+        if (metrics != null) {
+            metrics.loaderCacheMisses.incrementAndGet();
+        }
+        
+        final ModuleInfo moduleInfo = loadModule(path, normalisedPath, validityKey);
+        /* The metadata of a module which has no validity key cannot be validated
+         * and therefore are not memoised.
+         */
+        if (moduleInfo != null && validityKey != null) {
+            moduleInfo.setValidityKey(validityKey);
+            modules.put(normalisedPath, new Entry(validityKey, moduleInfo));
+        } else {
+            modules.remove(normalisedPath);
+        }
+        return moduleInfo;
+    }
+    
+    private ModuleInfo loadModule(final String path, final String normalisedPath, final String validityKey)
+            throws ModuleNotLoadedException
+    {
+        if (cacheFile == null || validityKey == null) {
+            return moduleLoader.loadModule(path);
+        }
+        final ModuleMetadataCache cache = getCache();
+        final byte[] data = cache.get(normalisedPath, validityKey);
+        if (data != null) {
+            try {
+                return ModuleMetadataCache.decode(data, this, getProject());
+            }
+            catch (IOException ex) {
+                // The cached record is corrupted. Loading the module by the nested module loader.
+                cache.remove(normalisedPath);
+            }
+        }
+        final ModuleInfo moduleInfo = moduleLoader.loadModule(path);
+        if (moduleInfo != null) {
+            final byte[] newData = ModuleMetadataCache.encode(moduleInfo);
+            if (newData != null) {
+                cache.put(normalisedPath, validityKey, newData);
+            }
+        }
+        return moduleInfo;
+    }
+    
+    /**
+     * <p>Returns the validity key of the module with a given normalised path. If the nested
+     * module loader is a {@link ValidatingModuleLoader} then its validity key is returned.
+     * Otherwise, an empty string is returned for all modules because their memoised metadata
+     * are never reloaded.</p>
+     * 
+     * @param normalisedPath the normalised path of the module. It must be not {@code null}.
+     * 
+     * @return the validity key of the module, or {@code null} if the validity key is
+     *      undefined (e.g. the module does not exist).
+     * 
+     * @throws NullPointerException if <em>normalisedPath</em> is {@code null}.
+     * @throws BuildException if no module loader is defined.
+     */
+    public String getValidityKey(final String normalisedPath)
+    {
+        if (normalisedPath == null) {
+            throw new NullPointerException("normalisedPath");
+        }
+        final ModuleLoader moduleLoader = getModuleLoader();
+        if (moduleLoader instanceof ValidatingModuleLoader) {
+            return ((ValidatingModuleLoader) moduleLoader).getValidityKey(normalisedPath);
+        }
+        return "";
+    }
+    
+    private ModuleLoader getModuleLoader()
+    {
+        if (moduleLoader == null) {
+            throw new BuildException("No module loader is defined.");
+        }
+        return moduleLoader;
+    }
+    
+    /* Creates the cache and loads its content from the cache file with the first module
+     * being loaded. The cache is written to the cache file when the build finishes.
+     */
+    private synchronized ModuleMetadataCache getCache()
+    {
+        if (cache != null) {
+            return cache;
+        }
+        if (!(moduleLoader instanceof ValidatingModuleLoader)) {
+            throw new BuildException(MessageFormat.format(
+                    "The attribute ''cacheFile'' requires the nested module loader to implement ''{0}''.",
+                    ValidatingModuleLoader.class.getName()));
+        }
+        return cache = ModuleMetadataCache.open(cacheFile,
+                ModuleMetadataCache.getLoaderSignature(moduleLoader, getProject()), getProject());
+    }
+    
+    /**
+     * <p>Sets the file module metadata are cached in between builds. If it is not set or
+     * is {@code null} then module metadata are cached in memory only. The nested module loader
+     * must be a {@link ValidatingModuleLoader} if the cache file is set.</p>
+     * 
+     * @param cacheFile the cache file to be set.
+     */
+    public void setCacheFile(final File cacheFile)
+    {
+        this.cacheFile = cacheFile;
+    }
+    
+    /**
+     * <p>Sets a {@link ModuleLoader} that is to be decorated by this
+     * {@code <cachingModuleLoader>}. One and only one module loader must be defined.</p>
+     * 
+     * @param moduleLoader the {@code ModuleLoader} instance to be used.
+     *      {@code null} value is not allowed.
+     * 
+     * @throws BuildException if more than one {@code ModuleLoader} is defined.
+     * @throws NullPointerException if <em>moduleLoader</em> is {@code null}.
+     */
+    public void addConfigured(final ModuleLoader moduleLoader)
+    {
+        if (moduleLoader == null) {
+            throw new NullPointerException("moduleLoader");
+        }
+        if (this.moduleLoader != null) {
+            throw new BuildException("Only a single module loader element is allowed.");
+        }
+        this.moduleLoader = moduleLoader;
+    }
+}
@@ -22,12 +22,25 @@
    SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
 package antmodular;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Method;
 import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -40,7 +53,9 @@ import org.apache.tools.ant.Task;
 import org.apache.tools.ant.taskdefs.Ant;
 import org.apache.tools.ant.taskdefs.Property;
 import org.apache.tools.ant.types.Path;
+import org.apache.tools.ant.types.PatternSet;
 import org.apache.tools.ant.types.PropertySet;
+import org.apache.tools.ant.types.Reference;
 
 /**
  * <p>An Ant task that executes a target for each module specified and all their dependee modules.
@@ -62,7 +77,9 @@ import org.apache.tools.ant.types.PropertySet;
  * 
  * <p>Module metadata are loaded by a {@link ModuleLoader} specified by the nested element
  * whose type is a descendant of {@code ModuleLoader}. One and only one such element must
- * be specified.</p>
+ * be specified unless the attribute {@link #setModuleRegistryRefId(Reference) moduleRegistryRefId}
+ * refers to a {@link SharedModuleRegistry &lt;moduleRegistry&gt;}, which could be shared by
+ * multiple tasks so that module metadata are loaded only once.</p>
  * 
  * <p>For the sake of performance, modules can be processed in parallel. That is, independent
  * modules could be processed simultaneously, each within its own thread. There is no way to
@@ -99,6 +116,160 @@ import org.apache.tools.ant.types.PropertySet;
  *          independent modules in parallel. If <em>1</em> is passed then modules are built
  *          sequentally. It must be a positive value.</td>
  *      <td>{@code 1}</td></tr>
+ *  <tr><td>{@link #setBufferOutput(boolean) bufferOutput}</td>
+ *      <td>no</td>
+ *      <td>If {@code true} then the output of each module processed in parallel is buffered
+ *          and written as one contiguous block after the module is processed. It is ignored
+ *          if <em>threadCount</em> is <em>1</em>.</td>
+ *      <td>{@code false}</td></tr>
+ *  <tr><td>{@link #setOutputOrder(String) outputOrder}</td>
+ *      <td>no</td>
+ *      <td>Either {@code completion} or {@code topological}. If {@code completion} is set then
+ *          the buffered output of modules is written in the order the modules finish. If
+ *          {@code topological} is set then it is written in the order the modules would be
+ *          processed by a single thread.</td>
+ *      <td>{@code completion}</td></tr>
+ *  <tr><td>{@link #setOutputBufferSize(long) outputBufferSize}</td>
+ *      <td>no</td>
+ *      <td>The number of characters of log messages buffered in memory per module. The messages
+ *          that exceed it are spilled to a temporary file.</td>
+ *      <td>{@code 1048576}</td></tr>
+ *  <tr><td>{@link #setIncremental(boolean) incremental}</td>
+ *      <td>no</td>
+ *      <td>If {@code true} then the target is not invoked for a module whose fingerprint
+ *          (computed from the module path, the target name, the module attributes, the input
+ *          files and the fingerprints of the modules it depends upon) is unchanged since
+ *          the last successful invocation.</td>
+ *      <td>{@code false}</td></tr>
+ *  <tr><td>{@link #setFingerprintFile(File) fingerprintFile}</td>
+ *      <td>if <em>incremental</em> is {@code true}</td>
+ *      <td>The file the fingerprints of the modules processed successfully are stored in.</td>
+ *      <td>N/A</td></tr>
+ *  <tr><td>{@link #setFingerprintProperties(String) fingerprintProperties}</td>
+ *      <td>no</td>
+ *      <td>The comma-separated names of the properties whose values are a part of
+ *          the module fingerprints.</td>
+ *      <td>N/A</td></tr>
+ *  <tr><td>{@link #setBuildCacheDir(File) buildCacheDir}</td>
+ *      <td>no</td>
+ *      <td>The directory of the local build cache. If it is defined then the outputs of each
+ *          module are stored in the cache under the module fingerprint after the module target
+ *          succeeds, and restored from the cache instead of invoking the target if they are
+ *          already cached.</td>
+ *      <td>N/A</td></tr>
+ *  <tr><td>{@link #setBuildCacheMode(String) buildCacheMode}</td>
+ *      <td>no</td>
+ *      <td>Either {@code copy} or {@code link}. Defines whether the outputs are copied from
+ *          the build cache or hard-linked to it where possible. The outputs restored in
+ *          {@code link} mode are read-only.</td>
+ *      <td>{@code copy}</td></tr>
+ *  <tr><td>{@link #setRemoteCacheUrl(String) remoteCacheUrl}</td>
+ *      <td>no</td>
+ *      <td>The base URL of the remote build cache. If it is defined then the outputs of each
+ *          module are fetched from the remote cache instead of invoking the module target if
+ *          they are cached there, and uploaded to it asynchronously otherwise.</td>
+ *      <td>N/A</td></tr>
+ *  <tr><td>{@link #setRemoteCacheUpload(boolean) remoteCacheUpload}</td>
+ *      <td>no</td>
+ *      <td>If {@code false} then the outputs are only fetched from the remote cache.</td>
+ *      <td>{@code true}</td></tr>
+ *  <tr><td>{@link #setRemoteCacheTimeout(int) remoteCacheTimeout}</td>
+ *      <td>no</td>
+ *      <td>The connect and read timeout of the remote cache requests in milliseconds.</td>
+ *      <td>{@code 30000}</td></tr>
+ *  <tr><td>{@link #setSchedulingPolicy(String) schedulingPolicy}</td>
+ *      <td>no</td>
+ *      <td>Either {@code depthFirst} or {@code criticalPath}. Defines which module is processed
+ *          next if multiple modules are available for processing in parallel. If
+ *          {@code depthFirst} is set then the module that has become available most recently
+ *          is processed. If {@code criticalPath} is set then the module with the longest chain
+ *          of modules that depend upon it (with respect to their durations) is processed. It is
+ *          ignored if <em>threadCount</em> is <em>1</em>.</td>
+ *      <td>{@code depthFirst}</td></tr>
+ *  <tr><td>{@link #setDurationsFile(File) durationsFile}</td>
+ *      <td>no</td>
+ *      <td>The file the durations of the module targets invoked are recorded in. The durations
+ *          recorded are used by the scheduling policy {@code criticalPath} and by dry runs.</td>
+ *      <td>N/A</td></tr>
+ *  <tr><td>{@link #setDryRun(boolean) dryRun}</td>
+ *      <td>no</td>
+ *      <td>If {@code true} then no module is processed. Instead, the plan of processing is
+ *          written to the build log: the sequence in which modules are dispatched, the timeline
+ *          of each thread and the estimated total time.</td>
+ *      <td>{@code false}</td></tr>
+ *  <tr><td>{@link #setCheckpointFile(File) checkpointFile}</td>
+ *      <td>if <em>resume</em> is {@code true}</td>
+ *      <td>The file the modules processed successfully are recorded in while the build is in
+ *          progress. It is deleted after the build succeeds.</td>
+ *      <td>N/A</td></tr>
+ *  <tr><td>{@link #setResume(boolean) resume}</td>
+ *      <td>no</td>
+ *      <td>If {@code true} then the modules recorded in the checkpoint file by a build that has
+ *          failed are not processed again unless their metadata or targets have changed.</td>
+ *      <td>{@code false}</td></tr>
+ *  <tr><td>{@link #setExecutionMetrics(boolean) executionMetrics}</td>
+ *      <td>no</td>
+ *      <td>If {@code true} then the metrics of processing of modules (the time each module
+ *          waits for a thread, its wall-clock and CPU time and the bytes it allocates, and
+ *          the utilisation of each thread) are written to the build log.</td>
+ *      <td>{@code false}</td></tr>
+ *  <tr><td>{@link #setExecutionMetricsFile(File) executionMetricsFile}</td>
+ *      <td>no</td>
+ *      <td>The file the metrics of processing of modules are written to as a JSON object.
+ *          If it is defined then the metrics are written to the build log as well.</td>
+ *      <td>N/A</td></tr>
+ *  <tr><td>{@link #setTraceFile(File) traceFile}</td>
+ *      <td>no</td>
+ *      <td>The file the timeline of processing of modules is written to in the Chrome trace
+ *          event format. It could be viewed in {@code chrome://tracing} or Perfetto.</td>
+ *      <td>N/A</td></tr>
+ *  <tr><td>{@link #setModuleRegistryRefId(Reference) moduleRegistryRefId}</td>
+ *      <td>no</td>
+ *      <td>The ID of the reference that holds a {@link SharedModuleRegistry &lt;moduleRegistry&gt;}
+ *          to be used to resolve modules. If it is defined then no module loader element is
+ *          allowed and <em>loaderThreadCount</em> is ignored. Modules resolved by a shared
+ *          registry are reused by all tasks that refer to it.</td>
+ *      <td>N/A</td></tr>
+ *  <tr><td>{@link #setLoaderThreadCount(int) loaderThreadCount}</td>
+ *      <td>no</td>
+ *      <td>The number of threads to be used by this {@code <callTargetForModules>} task to load
+ *          module metadata. If <em>1</em> is passed then module metadata are loaded sequentally.
+ *          Otherwise the module loader must be thread-safe. It must be a positive value.</td>
+ *      <td>{@code 1}</td></tr>
+ *  <tr><td>{@link #setMetrics(boolean) metrics}</td>
+ *      <td>no</td>
+ *      <td>If {@code true} then the metrics of module metadata loading (the time of the phases
+ *          normalise, load, parse and link, the cache hits and misses, and the slowest modules
+ *          to load) are written to the build log.</td>
+ *      <td>{@code false}</td></tr>
+ *  <tr><td>{@link #setMetricsFile(File) metricsFile}</td>
+ *      <td>no</td>
+ *      <td>The file the metrics of module metadata loading are written to as a JSON object.
+ *          If it is defined then the metrics are written to the build log as well.</td>
+ *      <td>N/A</td></tr>
+ *  <tr><td>{@link #setCacheBuildFile(boolean) cacheBuildFile}</td>
+ *      <td>no</td>
+ *      <td>If {@code true} then the build file of the current Ant project is parsed once and
+ *          the module-specific Ant projects are configured from the result, rather than each
+ *          of them parsing the build file again. The build file is parsed again if it changes.</td>
+ *      <td>{@code false}</td></tr>
+ *  <tr><td>{@link #setIsolation(String) isolation}</td>
+ *      <td>no</td>
+ *      <td>Either {@code full} or {@code light}. If {@code full} is set then the target is
+ *          executed for each module in a new Ant project configured from the build file, as
+ *          {@code <ant>} does. If {@code light} is set then the target is executed in a thin
+ *          child project that sees the properties and references of the current project
+ *          without copying them and fires no build started/finished events.</td>
+ *      <td>{@code full}</td></tr>
+ *  <tr><td>{@link #setInheritance(String) inheritance}</td>
+ *      <td>no</td>
+ *      <td>Either {@code copy} or {@code layered}. If {@code copy} is set then the inherited
+ *          properties and references are copied to each module-specific Ant project, as
+ *          {@code <ant>} does. If {@code layered} is set then they are seen through
+ *          a copy-on-write view of the current project, and only module-specific properties and
+ *          references are stored in the module-specific project. It is ignored if
+ *          <em>isolation</em> is {@code light}.</td>
+ *      <td>{@code copy}</td></tr>
  *  <tr><td>{@link #setInheritAll(boolean) inheritAll}</td>
  *      <td>no</td>
  *      <td>Indicates whether or not the properties of the current Ant project are to be passed
@@ -120,10 +291,17 @@ import org.apache.tools.ant.types.PropertySet;
  * <h4>Elements</h4>
  * <h5>{@link #createModule() module}</h5>
  * <p>The module this element refers to will be built by this {@code <callTargetForModules>} along
- * with all modules it depends upon (directly or indirectly). At least one {@code <module>} element
- * must be specified. Multiple nested elements are allowed.</p>
+ * with all modules it depends upon (directly or indirectly). At least one {@code <module>} or
+ * {@code <moduleset>} element must be specified. Multiple nested elements are allowed.</p>
  * <p>Refer to {@link ModuleElement} for the attribute/element description.</p>
  * 
+ * <h5>{@link #createModuleset() moduleset}</h5>
+ * <p>Defines a set of modules which are discovered by walking a directory tree. The modules
+ * discovered are built by this {@code <callTargetForModules>} as if they were defined by
+ * {@code <module>} elements. Either a {@code <module>} or a {@code <moduleset>} element must
+ * be specified. Multiple nested elements are allowed.</p>
+ * <p>Refer to {@link ModuleSet} for the attribute/element description.</p>
+ * 
  * <h5>{@link #addConfigured(ModuleLoader) moduleLoaderElement}</h5>
  * <p>Defines a {@link ModuleLoader} that is to be used by this task. One and only one module
  * loader must be defined. The name of the nested element is defined by the name of the Ant type
@@ -146,6 +324,23 @@ import org.apache.tools.ant.types.PropertySet;
  * <p>Refer to the Ant task {@link PropertySet &lt;propertyset&gt;} for the attribute/element
  * description.</p>
  * 
+ * <h5>{@link #createInputs() inputs}</h5>
+ * <p>Defines the input files of each module for incremental mode. The patterns are relative
+ * to the module directory. If no {@code <inputs>} element is defined then all files in
+ * the module directory but the {@link #createOutputs() outputs} are inputs. At least one
+ * {@code <inputs>} or {@code <outputs>} element is required if <em>incremental</em> mode is
+ * enabled. Multiple nested elements are allowed.</p>
+ * <p>Refer to the Ant type {@link PatternSet &lt;patternset&gt;} for the attribute/element
+ * description.</p>
+ * 
+ * <h5>{@link #createOutputs() outputs}</h5>
+ * <p>Defines the output files of each module to be stored in the build cache. The output files
+ * are never inputs in incremental mode. The patterns are relative to the module directory.
+ * At least one {@code <outputs>} element is required if <em>buildCacheDir</em> or
+ * <em>remoteCacheUrl</em> is defined. Multiple nested elements are allowed.</p>
+ * <p>Refer to the Ant type {@link PatternSet &lt;patternset&gt;} for the attribute/element
+ * description.</p>
+ * 
  * <h5>{@link #addReference(org.apache.tools.ant.taskdefs.Ant.Reference) reference}</h5>
  * <p>Defines a reference to be inherited by the module-specific Ant projects. If there is
  * a reference with the ID requested defined in the module-specific Ant project then it is
@@ -183,7 +378,10 @@ import org.apache.tools.ant.types.PropertySet;
 public class CallTargetForModules extends Task
 {
     private ArrayList<ModuleElement> moduleElements = new ArrayList<ModuleElement>();
+    private final ArrayList<ModuleSet> moduleSets = new ArrayList<ModuleSet>();
     private ModuleLoader moduleLoader;
+    // If defined then the shared module registry is used instead of moduleLoader.
+    private Reference moduleRegistryRef;
     /* If defined then the correspondent Module object is passed via this reference
      * for each module being processed.
      */
@@ -200,6 +398,105 @@ public class CallTargetForModules extends Task
     
     // The number of threads used to build modules.
     private int threadCount = 1;
+    // The number of threads used to load module metadata.
+    private int loaderThreadCount = 1;
+    
+    // If true then the metrics of module metadata loading are logged.
+    private boolean metricsEnabled;
+    // If defined then the metrics of module metadata loading are written to this file.
+    private File metricsFile;
+    
+    // If true then module-specific projects are configured from the parsed build file template.
+    private boolean cacheBuildFile;
+    
+    private static final String ISOLATION_FULL = "full";
+    private static final String ISOLATION_LIGHT = "light";
+    
+    // Defines how module-specific projects are created.
+    private String isolation = ISOLATION_FULL;
+    
+    private static final String INHERITANCE_COPY = "copy";
+    private static final String INHERITANCE_LAYERED = "layered";
+    
+    // Defines how module-specific projects inherit properties and references.
+    private String inheritance = INHERITANCE_COPY;
+    
+    private static final String OUTPUT_ORDER_COMPLETION = "completion";
+    private static final String OUTPUT_ORDER_TOPOLOGICAL = "topological";
+    
+    // If true then the output of each module is buffered in parallel mode.
+    private boolean bufferOutput;
+    // Defines the order in which the buffered output of modules is flushed.
+    private String outputOrder = OUTPUT_ORDER_COMPLETION;
+    // The number of message characters buffered in memory per module before they are spilled.
+    private long outputBufferSize = 1024 * 1024;
+    
+    // If true then the modules whose fingerprints are unchanged are not processed.
+    private boolean incremental;
+    // The file the fingerprints of the modules processed successfully are stored in.
+    private File fingerprintFile;
+    // The pattern sets which define the input files of each module.
+    private final ArrayList<PatternSet> inputs = new ArrayList<PatternSet>();
+    // The names of the properties whose values are a part of the module fingerprints.
+    private final ArrayList<String> fingerprintProperties = new ArrayList<String>();
+    
+    private static final String BUILD_CACHE_MODE_COPY = "copy";
+    private static final String BUILD_CACHE_MODE_LINK = "link";
+    
+    // If defined then the outputs of modules are stored in and restored from this directory.
+    private File buildCacheDir;
+    // Defines how the outputs of modules are restored from the build cache.
+    private String buildCacheMode = BUILD_CACHE_MODE_COPY;
+    // The pattern sets which define the output files of each module.
+    private final ArrayList<PatternSet> outputs = new ArrayList<PatternSet>();
+    
+    // If defined then the outputs of modules are shared via the remote cache with this URL.
+    private String remoteCacheUrl;
+    // If false then the outputs of modules are only downloaded from the remote cache.
+    private boolean remoteCacheUpload = true;
+    // The connect and read timeout of the remote cache in milliseconds.
+    private int remoteCacheTimeout = 30000;
+    
+    // Defines which module is processed next in parallel mode.
+    private String schedulingPolicy = BuildPlanner.POLICY_DEPTH_FIRST;
+    // If defined then the durations of the module targets invoked are recorded in this file.
+    private File durationsFile;
+    // If true then the plan of processing is logged instead of processing modules.
+    private boolean dryRun;
+    
+    // The minimal interval in milliseconds between writes of the checkpoint file.
+    private static final long CHECKPOINT_INTERVAL = 1000;
+    
+    // If defined then the modules processed successfully are recorded in this file.
+    private File checkpointFile;
+    // If true then the modules recorded in the checkpoint file are not processed.
+    private boolean resume;
+    
+    // If true then the metrics of processing of modules are logged.
+    private boolean executionMetricsEnabled;
+    // If defined then the metrics of processing of modules are written to this file.
+    private File executionMetricsFile;
+    // If defined then the timeline of processing of modules is written to this file.
+    private File traceFile;
+    
+    // Defined for the duration of an execution that needs module fingerprints.
+    private ModuleFingerprinter fingerprinter;
+    private FingerprintStore fingerprintStore;
+    private LocalBuildCache buildCache;
+    // The templates of the build files parsed by the current execution if cacheBuildFile is set.
+    private TemplateProjectHelper.TemplateCache templateCache;
+    private RemoteBuildCache remoteCache;
+    // Defined for the duration of an execution if durationsFile is defined.
+    private ModuleDurations durations;
+    // Defined for the duration of an execution if checkpointFile is defined.
+    private ModuleFingerprinter checkpointFingerprinter;
+    private FingerprintStore checkpoint;
+    // The time the checkpoint file is written last time. It is guarded by checkpoint.
+    private long checkpointWriteTime;
+    /* Defined for the duration of an execution if the metrics of processing of modules are collected.
+     * They are collected for the trace file as well.
+     */
+    private ModuleExecutionMetrics executionMetrics;
     
     /**
      * <p>Executes this {@code <callTargetForModules>} task. See the
@@ -214,13 +511,38 @@ public class CallTargetForModules extends Task
         if (target == null) {
             throw new BuildException("The attribute 'target' is undefined.");
         }
-        if (moduleLoader == null) {
+        if (moduleLoader == null && moduleRegistryRef == null) {
             throw new BuildException("No module loader is defined.");
         }
+        if (moduleLoader != null && moduleRegistryRef != null) {
+            throw new BuildException(
+                    "A module loader element and the attribute 'moduleRegistryRefId' cannot be defined together.");
+        }
         
         final int moduleCount = moduleElements.size();
-        if (moduleCount == 0) {
-            throw new BuildException("At least one <module> element is required.");
+        if (moduleCount == 0 && moduleSets.isEmpty()) {
+            throw new BuildException("At least one <module> or <moduleset> element is required.");
+        }
+        if (incremental && fingerprintFile == null) {
+            throw new BuildException("The attribute 'fingerprintFile' is required if incremental mode is enabled.");
+        }
+        /* Otherwise all files in a module directory would be inputs, including the files
+         * the module target writes there, so that the module would never be up to date.
+         */
+        if (incremental && inputs.isEmpty() && outputs.isEmpty()) {
+            throw new BuildException(
+                    "At least one <inputs> or <outputs> element is required if incremental mode is enabled.");
+        }
+        if (resume && checkpointFile == null) {
+            throw new BuildException("The attribute 'checkpointFile' is required if resume mode is enabled.");
+        }
+        if (buildCacheDir != null && outputs.isEmpty()) {
+            throw new BuildException(
+                    "At least one <outputs> element is required if the attribute 'buildCacheDir' is defined.");
+        }
+        if (remoteCacheUrl != null && outputs.isEmpty()) {
+            throw new BuildException(
+                    "At least one <outputs> element is required if the attribute 'remoteCacheUrl' is defined.");
         }
         
         for (int i = 0; i < moduleCount; ++i) {
@@ -230,40 +552,92 @@ public class CallTargetForModules extends Task
             }
         }
         
-        final ModuleRegistry registry = new ModuleRegistry(moduleLoader);
+        final ModuleRegistry registry = moduleRegistryRef == null ?
+                new ModuleRegistry(moduleLoader, loaderThreadCount) :
+                SharedModuleRegistry.getRegistry(moduleRegistryRef);
         
+        /* The module directory trees are walked in the background while the modules defined
+         * explicitly are resolved.
+         */
+        final ArrayList<ModuleSet.Discovery> discoveries = new ArrayList<ModuleSet.Discovery>(moduleSets.size());
+        final MetadataMetrics metrics = metricsEnabled || metricsFile != null ? new MetadataMetrics() : null;
         try {
+            for (final ModuleSet moduleSet : moduleSets) {
+                discoveries.add(moduleSet.discover());
+            }
+            
             final ArrayList<Module> modules = new ArrayList<Module>(moduleCount);
             // These targets will be invoked for these modules despite of the default target name.
             final IdentityHashMap<Module, String> overriddenTargets =
                     new IdentityHashMap<Module, String>(modules.size());
             
-            for (int i = 0, n = moduleCount; i < n; ++i) {
-                final ModuleElement moduleParam = moduleElements.get(i);
-                
-                final Module module = registry.resolveModule(moduleParam.path);
-                modules.add(module);
-                
-                /* Resolving the name of the target to be invoked for this module. If the choice
-                 * if ambiguous (i.e. there are multiple <module> elements that define the same
-                 * module whose target name configured is different) then a BuildException
-                 * is thrown to terminate the build.
-                 */
-                String moduleTarget = moduleParam.target == null ? target : moduleParam.target;
-                final String oldTarget = overriddenTargets.put(module, moduleTarget);
-                if (oldTarget != null && !oldTarget.equals(moduleTarget)) {
-                    throw new BuildException(MessageFormat.format(
-                            "Ambiguous choice of the target to be invoked for the module ''{0}''. " +
-                            "At least the targets ''{1}'' and ''{2}'' are configured.",
-                            module.getPath(), oldTarget, moduleTarget));
+            if (metrics != null) {
+                registry.setMetrics(metrics);
+            }
+            try {
+                resolveModules(registry, discoveries, modules, overriddenTargets);
+            }
+            finally {
+                if (metrics != null) {
+                    registry.setMetrics(null);
+                    reportMetrics(metrics);
                 }
             }
             
+            final boolean cacheOutputs = buildCacheDir != null || remoteCacheUrl != null;
+            if (incremental || cacheOutputs) {
+                fingerprinter = new ModuleFingerprinter(getProject(), inputs, outputs, fingerprintProperties,
+                        cacheOutputs);
+            }
+            if (incremental) {
+                fingerprintStore = openFingerprintStore();
+            }
+            if (durationsFile != null) {
+                durations = openDurations();
+            }
+            if (checkpointFile != null) {
+                // Only the module metadata are fingerprinted so that checking the modules is cheap.
+                checkpointFingerprinter = new ModuleFingerprinter(getProject(), null,
+                        Collections.<PatternSet>emptyList(), fingerprintProperties, false);
+                checkpoint = openCheckpoint();
+            }
+            if (dryRun) {
+                planModules(modules, overriddenTargets);
+                return;
+            }
+            
+            // Shared property files are loaded once rather than once per module.
+            for (int i = 0, n = params.size(); i < n; ++i) {
+                params.get(i).loadSource(this);
+            }
+            
+            if (cacheBuildFile) {
+                templateCache = new TemplateProjectHelper.TemplateCache();
+            }
+            if (buildCacheDir != null) {
+                buildCache = new LocalBuildCache(buildCacheDir, BUILD_CACHE_MODE_LINK.equals(buildCacheMode));
+            }
+            if (remoteCacheUrl != null) {
+                remoteCache = new RemoteBuildCache(remoteCacheUrl, remoteCacheTimeout, this);
+            }
+            if (executionMetricsEnabled || executionMetricsFile != null || traceFile != null) {
+                executionMetrics = new ModuleExecutionMetrics();
+            }
+            
             if (threadCount == 1) {
                 processModulesSerial(modules, overriddenTargets);
             } else {
                 processModulesParallel(modules, overriddenTargets);
             }
+            
+            if (checkpoint != null) {
+                // There is nothing to resume after the build succeeds.
+                checkpoint = null;
+                if (checkpointFile.exists() && !checkpointFile.delete()) {
+                    log(MessageFormat.format("Unable to delete the checkpoint file ''{0}''.", checkpointFile),
+                            Project.MSG_WARN);
+                }
+            }
         }
         catch (ModuleNotLoadedException ex) {
             throw new BuildException(ex.getMessage(), ex);
@@ -271,93 +645,662 @@ public class CallTargetForModules extends Task
         catch (CyclicDependenciesDetectedException ex) {
             throw new BuildException(ex.getMessage(), ex);
         }
+        finally {
+            for (final ModuleSet.Discovery discovery : discoveries) {
+                discovery.cancel();
+            }
+            for (int i = 0, n = params.size(); i < n; ++i) {
+                params.get(i).unloadSource();
+            }
+            if (remoteCache != null) {
+                // The pending uploads are finished even if the build fails.
+                remoteCache.close();
+                remoteCache = null;
+            }
+            if (executionMetrics != null) {
+                // The metrics are reported even if the build fails.
+                executionMetrics.finish();
+                reportExecutionMetrics(executionMetrics);
+                executionMetrics = null;
+            }
+            if (fingerprintStore != null) {
+                // The fingerprints of the modules processed are stored even if the build fails.
+                writeFingerprintStore(fingerprintStore);
+            }
+            if (durations != null) {
+                writeDurations(durations);
+            }
+            if (checkpoint != null && checkpoint.isModified()) {
+                // The modules processed are recorded so that the build could be resumed.
+                writeCheckpoint();
+            }
+            fingerprinter = null;
+            fingerprintStore = null;
+            buildCache = null;
+            templateCache = null;
+            durations = null;
+            checkpointFingerprinter = null;
+            checkpoint = null;
+        }
     }
     
-    private void callTarget(final Module module, final String target)
+    private FingerprintStore openFingerprintStore()
     {
+        final FingerprintStore store = new FingerprintStore(fingerprintFile);
         try {
-            final Project project = getProject();
-            final Ant antcall = (Ant) project.createTask("ant");
-            antcall.init();
-            antcall.setAntfile(project.getProperty(MagicNames.ANT_FILE));
-            
-            for (int i = 0, n = params.size(); i < n; ++i) {
-                final ParamElement param = params.get(i);
-                param.populate(antcall.createProperty());
+            store.read();
+        }
+        catch (IOException ex) {
+            // All modules are processed in this case.
+            log(MessageFormat.format("Unable to read the fingerprint file ''{0}'': {1}",
+                    fingerprintFile, ex.getMessage()), Project.MSG_WARN);
+        }
+        return store;
+    }
+    
+    private void writeFingerprintStore(final FingerprintStore store)
+    {
+        if (!store.isModified()) {
+            return;
+        }
+        try {
+            store.write();
+        }
+        catch (IOException ex) {
+            // The modules are processed again by the next build in this case.
+            log(MessageFormat.format("Unable to write the fingerprint file ''{0}'': {1}",
+                    fingerprintFile, ex.getMessage()), Project.MSG_WARN);
+        }
+    }
+    
+    private FingerprintStore openCheckpoint()
+    {
+        final FingerprintStore store = new FingerprintStore(checkpointFile);
+        if (!resume) {
+            // The build starts from scratch so the checkpoint file of the previous build is discarded.
+            if (!dryRun) {
+                checkpointFile.delete();
             }
-            
-            if (moduleRefId != null) {
-                final Method m = Ant.class.getDeclaredMethod("getNewProject");
-                m.setAccessible(true);
-                
-                final Project newProject = (Project) m.invoke(antcall);
-                newProject.addReference(moduleRefId, module);
+            return store;
+        }
+        try {
+            store.read();
+        }
+        catch (IOException ex) {
+            // All modules are processed in this case.
+            log(MessageFormat.format("Unable to read the checkpoint file ''{0}'': {1}",
+                    checkpointFile, ex.getMessage()), Project.MSG_WARN);
+        }
+        return store;
+    }
+    
+    private void writeCheckpoint()
+    {
+        try {
+            checkpoint.write();
+        }
+        catch (IOException ex) {
+            // The build could not be resumed from this point in this case.
+            log(MessageFormat.format("Unable to write the checkpoint file ''{0}'': {1}",
+                    checkpointFile, ex.getMessage()), Project.MSG_WARN);
+        }
+    }
+    
+    private ModuleDurations openDurations()
+    {
+        final ModuleDurations result = new ModuleDurations(durationsFile);
+        try {
+            result.read();
+        }
+        catch (IOException ex) {
+            // Unit durations are used in this case.
+            log(MessageFormat.format("Unable to read the durations file ''{0}'': {1}",
+                    durationsFile, ex.getMessage()), Project.MSG_WARN);
+        }
+        return result;
+    }
+    
+    private void writeDurations(final ModuleDurations durations)
+    {
+        if (!durations.isModified()) {
+            return;
+        }
+        try {
+            durations.write();
+        }
+        catch (IOException ex) {
+            // The durations are auxiliary information so the build does not fail.
+            log(MessageFormat.format("Unable to write the durations file ''{0}'': {1}",
+                    durationsFile, ex.getMessage()), Project.MSG_WARN);
+        }
+    }
+    
+    private BuildPlanner createPlanner(final ArrayList<Module> modules) throws CyclicDependenciesDetectedException
+    {
+        final BuildPlanner planner = new BuildPlanner(modules);
+        if (durations != null) {
+            planner.setDurations(durations);
+        }
+        return planner;
+    }
+    
+    private void planModules(final ArrayList<Module> modules, final IdentityHashMap<Module, String> overriddenTargets)
+            throws CyclicDependenciesDetectedException
+    {
+        final BuildPlanner planner = createPlanner(modules);
+        final String unit = durations != null && durations.size() != 0 ? "ms" : "units";
+        
+        /* The modules that are up to date or completed by the build being resumed take no time.
+         * Dependee modules are fingerprinted first.
+         */
+        final IdentityHashMap<Module, String> skipped = new IdentityHashMap<Module, String>();
+        for (final Module module : planner.getModules()) {
+            final String target = targetOf(module, overriddenTargets);
+            if (checkpoint != null && resume && checkpoint.contains(module.getPath(), target,
+                    checkpointFingerprinter.fingerprint(module, target))) {
+                skipped.put(module, "completed");
             }
-            for (int i = 0, n = references.size(); i < n; ++i) {
-                antcall.addReference(references.get(i));
+            if (fingerprintStore != null && fingerprintStore.contains(module.getPath(), target,
+                    fingerprinter.fingerprint(module, target)) && !skipped.containsKey(module)) {
+                skipped.put(module, "up to date");
+            }
+            if (skipped.containsKey(module)) {
+                planner.setDuration(module, 0);
             }
-            antcall.addPropertyset(propertySet);
-            antcall.setInheritAll(inheritAll);
-            antcall.setInheritRefs(inheritRefs);
-            antcall.setTarget(target);
-            
-            antcall.perform();
         }
-        catch (Exception ex) {
-            throw buildExceptionForModule(ex, module);
+        
+        final BuildPlanner.Plan plan = planner.plan(threadCount, schedulingPolicy);
+        log(MessageFormat.format("Build plan: {0} modules, thread count {1}, scheduling policy ''{2}''.",
+                String.valueOf(plan.dispatches.size()), String.valueOf(threadCount), schedulingPolicy));
+        log("Dispatch sequence:");
+        for (int i = 0, n = plan.dispatches.size(); i < n; ++i) {
+            final BuildPlanner.Dispatch dispatch = plan.dispatches.get(i);
+            final Module module = dispatch.module;
+            log(MessageFormat.format("  {0}. [{1}] thread {2}: ''{3}'' (target ''{4}''), {5}",
+                    String.valueOf(i + 1), String.valueOf(dispatch.start), String.valueOf(dispatch.worker + 1),
+                    module.getPath(), targetOf(module, overriddenTargets), skipped.containsKey(module) ?
+                            skipped.get(module) : String.valueOf(dispatch.end - dispatch.start) + ' ' + unit));
+        }
+        log("Thread timelines:");
+        for (int worker = 0; worker < plan.threadCount; ++worker) {
+            final StringBuilder timeline = new StringBuilder();
+            long busy = 0;
+            for (final BuildPlanner.Dispatch dispatch : plan.getTimeline(worker)) {
+                timeline.append(timeline.length() == 0 ? " " : ", ").append('\'').append(dispatch.module.getPath())
+                        .append("' ").append(dispatch.start).append('-').append(dispatch.end);
+                busy += dispatch.end - dispatch.start;
+            }
+            log(MessageFormat.format("  thread {0}:{1}; busy {2} of {3} {4}.", String.valueOf(worker + 1),
+                    timeline.toString(), String.valueOf(busy), String.valueOf(plan.makespan), unit));
         }
+        log(MessageFormat.format("Estimated total time: {0} {1}.", String.valueOf(plan.makespan), unit));
     }
     
-    private BuildException buildExceptionForModule(final Throwable cause, final Module module)
+    private String targetOf(final Module module, final IdentityHashMap<Module, String> overriddenTargets)
     {
-        final BuildException ex = new BuildException(MessageFormat.format(
-                "Module ''{0}'': {1}", module.getPath(), cause.getMessage()), cause);
-        
-        // Gathering all information available from the original build exception.
-        if (cause instanceof BuildException) {
-            /* The thread that generated this exception is either the current thread or
-               a dead thread so synchronisation is not needed to read location. */
-            final Location location = ((BuildException) cause).getLocation();
-            ex.setLocation(location == null ? Location.UNKNOWN_LOCATION : location);
-            ex.setStackTrace(cause.getStackTrace());
+        final String moduleTarget = overriddenTargets.get(module);
+        return moduleTarget == null ? target : moduleTarget;
+    }
+    
+    private void resolveModules(final ModuleRegistry registry, final ArrayList<ModuleSet.Discovery> discoveries,
+            final ArrayList<Module> modules, final IdentityHashMap<Module, String> overriddenTargets)
+            throws ModuleNotLoadedException
+    {
+        final ArrayList<String> paths = new ArrayList<String>(moduleElements.size());
+        for (int i = 0, n = moduleElements.size(); i < n; ++i) {
+            paths.add(moduleElements.get(i).path);
+        }
+        // The metadata of all root modules are scheduled for loading before any of them is linked.
+        final List<Module> rootModules = registry.resolveModules(paths);
+        for (int i = 0, n = moduleElements.size(); i < n; ++i) {
+            addModule(rootModules.get(i), moduleElements.get(i).target, modules, overriddenTargets);
+        }
+        for (int i = 0, n = moduleSets.size(); i < n; ++i) {
+            // The modules discovered are resolved while the walk is in progress.
+            final List<Module> moduleSetModules = registry.resolveModules(discoveries.get(i));
+            // The modules are sorted so that the build order does not depend on the walk order.
+            Collections.sort(moduleSetModules, new Comparator<Module>()
+            {
+                public int compare(final Module m1, final Module m2)
+                {
+                    return m1.getPath().compareTo(m2.getPath());
+                }
+            });
+            final String moduleSetTarget = moduleSets.get(i).getTarget();
+            for (final Module module : moduleSetModules) {
+                addModule(module, moduleSetTarget, modules, overriddenTargets);
+            }
+        }
+    }
+    
+    private void reportMetrics(final MetadataMetrics metrics)
+    {
+        metrics.log(this);
+        if (metricsFile == null) {
+            return;
+        }
+        try {
+            metrics.writeJson(metricsFile);
+        }
+        catch (IOException ex) {
+            // The metrics are auxiliary information so the build does not fail.
+            log(MessageFormat.format("Unable to write the metrics to the file ''{0}'': {1}",
+                    metricsFile, ex.getMessage()), Project.MSG_WARN);
+        }
+    }
+    
+    private void reportExecutionMetrics(final ModuleExecutionMetrics metrics)
+    {
+        if (executionMetricsEnabled || executionMetricsFile != null) {
+            metrics.log(this);
+        }
+        if (executionMetricsFile != null) {
+            try {
+                metrics.writeJson(executionMetricsFile);
+            }
+            catch (IOException ex) {
+                // The metrics are auxiliary information so the build does not fail.
+                log(MessageFormat.format("Unable to write the execution metrics to the file ''{0}'': {1}",
+                        executionMetricsFile, ex.getMessage()), Project.MSG_WARN);
+            }
+        }
+        if (traceFile != null) {
+            try {
+                metrics.writeTrace(traceFile);
+            }
+            catch (IOException ex) {
+                log(MessageFormat.format("Unable to write the trace to the file ''{0}'': {1}",
+                        traceFile, ex.getMessage()), Project.MSG_WARN);
+            }
         }
+    }
+    
+    private void addModule(final Module module, final String moduleTarget, final ArrayList<Module> modules,
+            final IdentityHashMap<Module, String> overriddenTargets)
+    {
+        modules.add(module);
         
-        return ex;
+        /* Resolving the name of the target to be invoked for this module. If the choice
+         * if ambiguous (i.e. there are multiple <module> elements that define the same
+         * module whose target name configured is different) then a BuildException
+         * is thrown to terminate the build.
+         */
+        final String effectiveTarget = moduleTarget == null ? target : moduleTarget;
+        final String oldTarget = overriddenTargets.put(module, effectiveTarget);
+        if (oldTarget != null && !oldTarget.equals(effectiveTarget)) {
+            throw new BuildException(MessageFormat.format(
+                    "Ambiguous choice of the target to be invoked for the module ''{0}''. " +
+                    "At least the targets ''{1}'' and ''{2}'' are configured.",
+                    module.getPath(), oldTarget, effectiveTarget));
+        }
     }
     
-    private void processModulesSerial(final ArrayList<Module> modules,
-            final IdentityHashMap<Module, String> overriddenTargets) throws CyclicDependenciesDetectedException
+    private void processModule(final Module module, final String target)
     {
-        final SerialDependencyResolver dependencyResolver = new SerialDependencyResolver();
-        dependencyResolver.init(modules);
+        final ModuleExecutionMetrics metrics = executionMetrics;
+        if (metrics == null) {
+            checkpointModule(module, target);
+            return;
+        }
         
-        Module module;
-        while ((module = dependencyResolver.getFreeModule()) != null) {
-            String target = overriddenTargets.get(module);
-            if (target == null) {
-                target = this.target;
-            }
-            
-            callTarget(module, target);
-            
-            dependencyResolver.moduleProcessed(module);
+        final ModuleExecutionMetrics.Sample sample = metrics.moduleStarted(module, target);
+        boolean failed = true;
+        try {
+            checkpointModule(module, target);
+            failed = false;
+        }
+        finally {
+            metrics.moduleFinished(sample, failed);
         }
     }
     
-    private void processModulesParallel(final ArrayList<Module> modules,
-            final IdentityHashMap<Module, String> overriddenTargets) throws CyclicDependenciesDetectedException
+    private void checkpointModule(final Module module, final String target)
     {
-        final ParallelDependencyResolver dependencyResolver = new ParallelDependencyResolver();
-        dependencyResolver.init(modules);
+        if (checkpoint == null) {
+            buildModule(module, target);
+            return;
+        }
         
-        final AtomicBoolean buildFailed = new AtomicBoolean(false);
-        final AtomicReference<Throwable> buildFailureException = new AtomicReference<Throwable>();
+        final String path = module.getPath();
+        final String checkpointFingerprint = checkpointFingerprinter.fingerprint(module, target);
+        if (resume && checkpoint.contains(path, target, checkpointFingerprint)) {
+            if (fingerprinter != null) {
+                // The fingerprints of the modules that depend upon this module include its fingerprint.
+                fingerprinter.fingerprint(module, target);
+            }
+            log(MessageFormat.format("The module ''{0}'' is already processed by the build being resumed.", path),
+                    Project.MSG_VERBOSE);
+            return;
+        }
         
-        /* A stateless worker to process modules using ParallelDependencyResolver.
-         * This instance can be used by multiple threads simultaneously.
-         * 
-         * It does not throw an exception outside run() and preserves the
-         * interrupted status of the thread it is executed in.
+        // The old record must not survive if the target fails.
+        checkpoint.remove(path);
+        buildModule(module, target);
+        checkpoint.put(path, target, checkpointFingerprint);
+        
+        /* The checkpoint file is written as modules complete, but not too often so that the cost
+         * of rewriting it does not grow quadratically with the number of modules. It is written
+         * anyway when this task finishes.
+         */
+        synchronized (checkpoint) {
+            final long now = System.currentTimeMillis();
+            if (now - checkpointWriteTime < CHECKPOINT_INTERVAL) {
+                return;
+            }
+            checkpointWriteTime = now;
+            writeCheckpoint();
+        }
+    }
+    
+    private void buildModule(final Module module, final String target)
+    {
+        if (fingerprinter == null) {
+            invokeTarget(module, target);
+            return;
+        }
+        
+        final String fingerprint = fingerprinter.fingerprint(module, target);
+        if (fingerprintStore != null && fingerprintStore.contains(module.getPath(), target, fingerprint)) {
+            log(MessageFormat.format("The module ''{0}'' is up to date.", module.getPath()), Project.MSG_VERBOSE);
+            return;
+        }
+        
+        final File moduleDir = new File(getProject().getBaseDir(), module.getPath());
+        if (buildCache != null && restoreOutputs(module, moduleDir, fingerprint)) {
+            if (fingerprintStore != null) {
+                fingerprintStore.put(module.getPath(), target, fingerprint);
+            }
+            return;
+        }
+        if (remoteCache != null && fetchOutputs(module, moduleDir, fingerprint)) {
+            if (buildCache != null) {
+                storeOutputs(module, moduleDir, fingerprint, false);
+            }
+            if (fingerprintStore != null) {
+                fingerprintStore.put(module.getPath(), target, fingerprint);
+            }
+            return;
+        }
+        
+        if (fingerprintStore != null) {
+            // The old fingerprint must not survive if the target fails.
+            fingerprintStore.remove(module.getPath());
+        }
+        if (buildCache != null && BUILD_CACHE_MODE_LINK.equals(buildCacheMode)) {
+            deleteOutputs(module, moduleDir);
+        }
+        invokeTarget(module, target);
+        if (fingerprintStore != null) {
+            fingerprintStore.put(module.getPath(), target, fingerprint);
+        }
+        if (buildCache != null || (remoteCache != null && remoteCacheUpload)) {
+            storeOutputs(module, moduleDir, fingerprint, remoteCacheUpload);
+        }
+    }
+    
+    private boolean restoreOutputs(final Module module, final File moduleDir, final String fingerprint)
+    {
+        try {
+            if (!buildCache.restore(fingerprint, moduleDir)) {
+                return false;
+            }
+        }
+        catch (IOException ex) {
+            // The target is invoked to produce the outputs in this case.
+            log(MessageFormat.format("Unable to restore the outputs of the module ''{0}'' from the build cache: {1}",
+                    module.getPath(), ex.getMessage()), Project.MSG_WARN);
+            return false;
+        }
+        log(MessageFormat.format("The outputs of the module ''{0}'' are restored from the build cache.",
+                module.getPath()));
+        return true;
+    }
+    
+    private boolean fetchOutputs(final Module module, final File moduleDir, final String fingerprint)
+    {
+        try {
+            if (!remoteCache.fetch(fingerprint, moduleDir)) {
+                return false;
+            }
+        }
+        catch (IOException ex) {
+            // The target is invoked to produce the outputs in this case.
+            log(MessageFormat.format("Unable to fetch the outputs of the module ''{0}'' from the remote cache: {1}",
+                    module.getPath(), ex.getMessage()), Project.MSG_WARN);
+            return false;
+        }
+        log(MessageFormat.format("The outputs of the module ''{0}'' are fetched from the remote cache.",
+                module.getPath()));
+        return true;
+    }
+    
+    /* The outputs restored in link mode are read-only and could share the content with the cache.
+     * They are deleted so that the target writes new files instead of modifying the cached ones.
+     */
+    private void deleteOutputs(final Module module, final File moduleDir)
+    {
+        final Collection<String> files =
+                ModuleFingerprinter.scan(getProject(), moduleDir, outputs, Collections.<PatternSet>emptyList());
+        for (final String path : files) {
+            final File file = new File(moduleDir, path);
+            if (!file.delete() && file.exists()) {
+                throw new BuildException(MessageFormat.format(
+                        "Unable to delete the output file ''{0}'' of the module ''{1}''.", file, module.getPath()));
+            }
+        }
+    }
+    
+    private void storeOutputs(final Module module, final File moduleDir, final String fingerprint,
+            final boolean upload)
+    {
+        final Collection<String> files =
+                ModuleFingerprinter.scan(getProject(), moduleDir, outputs, Collections.<PatternSet>emptyList());
+        if (buildCache != null) {
+            try {
+                buildCache.store(fingerprint, moduleDir, files);
+            }
+            catch (IOException ex) {
+                // The build cache is an optimisation so the build does not fail.
+                log(MessageFormat.format("Unable to store the outputs of the module ''{0}'' in the build cache: {1}",
+                        module.getPath(), ex.getMessage()), Project.MSG_WARN);
+            }
+        }
+        if (remoteCache != null && upload) {
+            try {
+                remoteCache.upload(module, fingerprint, moduleDir, files);
+            }
+            catch (IOException ex) {
+                log(MessageFormat.format("Unable to upload the outputs of the module ''{0}'' to the remote cache: {1}",
+                        module.getPath(), ex.getMessage()), Project.MSG_WARN);
+            }
+        }
+    }
+    
+    private void invokeTarget(final Module module, final String target)
+    {
+        if (durations == null) {
+            callTarget(module, target);
+            return;
+        }
+        final long start = System.nanoTime();
+        callTarget(module, target);
+        durations.put(module.getPath(), (System.nanoTime() - start) / 1000000);
+    }
+    
+    private void callTarget(final Module module, final String target)
+    {
+        if (ISOLATION_LIGHT.equals(isolation)) {
+            callTargetLight(module, target);
+            return;
+        }
+        try {
+            final Project project = getProject();
+            final boolean layered = INHERITANCE_LAYERED.equals(inheritance);
+            final Ant antcall;
+            final LayeredProject layeredProject;
+            if (layered) {
+                /* The module-specific project is created here rather than by <ant>. <ant> is
+                 * told to inherit nothing because the project inherits everything by itself.
+                 */
+                layeredProject = new LayeredProject(project, inheritAll, inheritRefs);
+                antcall = new LayeredAnt(layeredProject);
+                antcall.setProject(project);
+                antcall.setTaskType("ant");
+                antcall.setTaskName("ant");
+            }
+            else {
+                layeredProject = null;
+                antcall = (Ant) project.createTask("ant");
+            }
+            antcall.init();
+            antcall.setAntfile(project.getProperty(MagicNames.ANT_FILE));
+            
+            for (int i = 0, n = params.size(); i < n; ++i) {
+                final ParamElement param = params.get(i);
+                param.populate(antcall.createProperty());
+            }
+            
+            if (moduleRefId != null && layeredProject != null) {
+                layeredProject.addReference(moduleRefId, module);
+            }
+            else if (moduleRefId != null) {
+                final Method m = Ant.class.getDeclaredMethod("getNewProject");
+                m.setAccessible(true);
+                
+                final Project newProject = (Project) m.invoke(antcall);
+                newProject.addReference(moduleRefId, module);
+            }
+            for (int i = 0, n = references.size(); i < n; ++i) {
+                antcall.addReference(references.get(i));
+            }
+            antcall.addPropertyset(propertySet);
+            antcall.setInheritAll(inheritAll && !layered);
+            antcall.setInheritRefs(inheritRefs && !layered);
+            antcall.setTarget(target);
+            
+            if (templateCache != null) {
+                final TemplateProjectHelper.TemplateCache outerCache =
+                        TemplateProjectHelper.enterTemplateMode(templateCache);
+                try {
+                    antcall.perform();
+                }
+                finally {
+                    TemplateProjectHelper.exitTemplateMode(outerCache);
+                }
+            }
+            else {
+                antcall.perform();
+            }
+        }
+        catch (Exception ex) {
+            throw buildExceptionForModule(ex, module);
+        }
+    }
+    
+    private void callTargetLight(final Module module, final String target)
+    {
+        try {
+            final Project project = getProject();
+            final LightProject newProject = new LightProject(project, inheritAll, inheritRefs);
+            
+            // The properties are set in the same order as <ant> sets them.
+            for (final Map.Entry<Object, Object> property : propertySet.getProperties().entrySet()) {
+                final String name = property.getKey().toString();
+                if (newProject.getProperty(name) == null) {
+                    newProject.setNewProperty(name, property.getValue().toString());
+                }
+            }
+            // If multiple parameters have the same name then the last one wins.
+            final HashSet<String> paramNames = new HashSet<String>();
+            for (int i = params.size() - 1; i >= 0; --i) {
+                final ParamElement param = params.get(i);
+                if (param.nameSet && !paramNames.add(param.name)) {
+                    continue;
+                }
+                final ParamProperty property = new ParamProperty();
+                property.setProject(newProject);
+                property.setTaskName("property");
+                param.populate(property);
+                property.execute();
+            }
+            
+            for (int i = 0, n = references.size(); i < n; ++i) {
+                final Ant.Reference ref = references.get(i);
+                final String refId = ref.getRefId();
+                final Object value = project.getReference(refId);
+                if (value == null) {
+                    throw new BuildException(MessageFormat.format(
+                            "The reference ''{0}'' is undefined.", refId));
+                }
+                final String toRefId = ref.getToRefid();
+                newProject.addReference(toRefId == null || toRefId.length() == 0 ? refId : toRefId, value);
+            }
+            if (moduleRefId != null) {
+                newProject.addReference(moduleRefId, module);
+            }
+            
+            newProject.executeTarget(target);
+        }
+        catch (Exception ex) {
+            throw buildExceptionForModule(ex, module);
+        }
+    }
+    
+    private BuildException buildExceptionForModule(final Throwable cause, final Module module)
+    {
+        final BuildException ex = new BuildException(MessageFormat.format(
+                "Module ''{0}'': {1}", module.getPath(), cause.getMessage()), cause);
+        
+        // Gathering all information available from the original build exception.
+        if (cause instanceof BuildException) {
+            /* The thread that generated this exception is either the current thread or
+               a dead thread so synchronisation is not needed to read location. */
+            final Location location = ((BuildException) cause).getLocation();
+            ex.setLocation(location == null ? Location.UNKNOWN_LOCATION : location);
+            ex.setStackTrace(cause.getStackTrace());
+        }
+        
+        return ex;
+    }
+    
+    private void processModulesSerial(final ArrayList<Module> modules,
+            final IdentityHashMap<Module, String> overriddenTargets) throws CyclicDependenciesDetectedException
+    {
+        final SerialDependencyResolver dependencyResolver = new SerialDependencyResolver();
+        dependencyResolver.init(modules);
+        
+        Module module;
+        while ((module = dependencyResolver.getFreeModule()) != null) {
+            String target = overriddenTargets.get(module);
+            if (target == null) {
+                target = this.target;
+            }
+            
+            processModule(module, target);
+            
+            dependencyResolver.moduleProcessed(module);
+        }
+    }
+    
+    private void processModulesParallel(final ArrayList<Module> modules,
+            final IdentityHashMap<Module, String> overriddenTargets) throws CyclicDependenciesDetectedException
+    {
+        final ParallelDependencyResolver dependencyResolver = new ParallelDependencyResolver();
+        dependencyResolver.init(modules, BuildPlanner.POLICY_DEPTH_FIRST.equals(schedulingPolicy) ? null :
+                createPlanner(modules).getPriority(schedulingPolicy));
+        
+        final AtomicBoolean buildFailed = new AtomicBoolean(false);
+        final AtomicReference<Throwable> buildFailureException = new AtomicReference<Throwable>();
+        
+        final BufferedModuleOutput output = bufferOutput ? new BufferedModuleOutput(getProject(),
+                OUTPUT_ORDER_TOPOLOGICAL.equals(outputOrder) ? topologicalOrder(modules) : null,
+                outputBufferSize) : null;
+        
+        /* A stateless worker to process modules using ParallelDependencyResolver.
+         * This instance can be used by multiple threads simultaneously.
+         * 
+         * It does not throw an exception outside run() and preserves the
+         * interrupted status of the thread it is executed in.
          */
         final Runnable parallelBuildWorker = new Runnable()
         {
@@ -385,7 +1328,17 @@ public class CallTargetForModules extends Task
                          * 
                          * Instead, dependencyResolver#abort() is called.
                          */
-                        callTarget(module, target);
+                        if (output == null) {
+                            processModule(module, target);
+                        } else {
+                            output.moduleStarted(module);
+                            try {
+                                processModule(module, target);
+                            }
+                            finally {
+                                output.moduleFinished(module);
+                            }
+                        }
                         
                         // Reporting this module as processed if no error is encountered.
                         dependencyResolver.moduleProcessed(module);
@@ -410,6 +1363,9 @@ public class CallTargetForModules extends Task
          */
         int startedThreadCount = 0;
         
+        if (output != null) {
+            output.install();
+        }
         try {
             for (; startedThreadCount < threadsToCreate; ++startedThreadCount) {
                 final Thread t = new Thread(parallelBuildWorker);
@@ -432,7 +1388,15 @@ public class CallTargetForModules extends Task
              * a module that was being processed by this thread. This will allow the
              * 'build failed' message to be the last one.
              */
-            joinThreads(threads, startedThreadCount);
+            try {
+                joinThreads(threads, startedThreadCount);
+            }
+            finally {
+                if (output != null) {
+                    // The output of all modules processed is flushed even if the build fails.
+                    output.uninstall();
+                }
+            }
         }
         
         if (buildFailed.get()) {
@@ -447,99 +1411,773 @@ public class CallTargetForModules extends Task
         }
     }
     
-    private static void joinThreads(final Thread[] threads, final int n)
+    private static List<Module> topologicalOrder(final ArrayList<Module> modules)
+            throws CyclicDependenciesDetectedException
+    {
+        // The order is deterministic because it is defined by the serial resolver.
+        final SerialDependencyResolver dependencyResolver = new SerialDependencyResolver();
+        dependencyResolver.init(modules);
+        
+        final ArrayList<Module> order = new ArrayList<Module>();
+        Module module;
+        while ((module = dependencyResolver.getFreeModule()) != null) {
+            order.add(module);
+            dependencyResolver.moduleProcessed(module);
+        }
+        return order;
+    }
+    
+    private static void joinThreads(final Thread[] threads, final int n)
+    {
+        /* parallelBuildWorker preserves the interrupted status of the current thread
+         * so an InterruptedException is thrown if this thread starts waiting
+         * for a helper thread to join. This leads to all helper threads interrupted
+         * so that the build finished rapidly and gracefully.
+         */
+        try {
+            for (int i = 0; i < n; ++i) {
+                threads[i].join();
+            }
+        }
+        catch (InterruptedException ex) {
+            /* Interrupting all the activities so that the build finishes as quick as possible.
+             * This is fine if an already finished thread is interrupted.
+             */
+            for (int i = 0; i < n; ++i) {
+                threads[i].interrupt();
+            }
+            
+            Thread.currentThread().interrupt();
+            throw new BuildException("The build thread was interrupted.");
+        }
+    }
+    
+    /**
+     * <p>Creates a new {@link ModuleElement ModuleElement} container that backs the
+     * nested element {@code <module>} of this {@code <callTargetForModules>} task.
+     * The module it refers to will be built by this {@code <callTargetForModules>} along
+     * with all modules it depends upon (directly or indirectly).</p>
+     * 
+     * <p>At least one {@code <module>} or {@code <moduleset>} element must be specified. Otherwise
+     * the build process fails.</p>
+     * 
+     * @return the {@code ModuleElement} created. It is never {@code null}.
+     * 
+     * @see #setTarget(String)
+     */
+    public ModuleElement createModule()
+    {
+        final ModuleElement module = new ModuleElement();
+        moduleElements.add(module);
+        return module;
+    }
+    
+    /**
+     * <p>Creates a new {@link ModuleSet} that backs the nested element {@code <moduleset>}
+     * of this {@code <callTargetForModules>} task. The modules it discovers will be built by
+     * this {@code <callTargetForModules>} along with all modules they depend upon (directly
+     * or indirectly).</p>
+     * 
+     * @return the {@code ModuleSet} created. It is never {@code null}.
+     */
+    public ModuleSet createModuleset()
+    {
+        final ModuleSet moduleSet = new ModuleSet();
+        moduleSet.setProject(getProject());
+        moduleSets.add(moduleSet);
+        return moduleSet;
+    }
+    
+    /**
+     * <p>Sets a {@link ModuleLoader} that is to be used by this {@code <callTargetForModules>}
+     * task. One and only one module loader must be defined for a {@code <callTargetForModules>}
+     * task. The name of the nested element is defined by the name of the Ant type used to pass
+     * this instance of {@code ModuleLoader}.</p>
+     * 
+     * @param moduleLoader the {@code ModuleLoader} instance to be used by this
+     *      {@code <callTargetForModules>} task. {@code null} value is not allowed.
+     * 
+     * @throws BuildException if more than one {@code ModuleLoader} is defined for this
+     *      {@code <callTargetForModules>} task.
+     * @throws NullPointerException if <em>moduleLoader</em> is {@code null}.
+     */
+    public void addConfigured(final ModuleLoader moduleLoader)
+    {
+        if (moduleLoader == null) {
+            throw new NullPointerException("moduleLoader");
+        }
+        if (this.moduleLoader != null) {
+            throw new BuildException("Only a single module loader element is allowed.");
+        }
+        this.moduleLoader = moduleLoader;
+    }
+    
+    /**
+     * <p>Sets the number of threads to be used by this {@code <callTargetForModules>}
+     * task to build independent modules in parallel. If <em>1</em> is passed then
+     * modules are built sequentally. By default, the number of threads used is
+     * <em>1</em>.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code threadCount} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param threadCount the number of threads to be set. It must be a positive value.
+     * 
+     * @throws BuildException if <em>threadCount</em> is non-positive.
+     * 
+     * @see SerialDependencyResolver
+     * @see ParallelDependencyResolver
+     */
+    public void setThreadCount(final int threadCount)
+    {
+        if (threadCount <= 0) {
+            throw new BuildException(MessageFormat.format(
+                    "Invalid thread count: ''{0}''. It must be a positive value.",
+                    String.valueOf(threadCount)));
+        }
+        this.threadCount = threadCount;
+    }
+    
+    /**
+     * <p>Sets the reference to a {@link SharedModuleRegistry &lt;moduleRegistry&gt;} that is
+     * to be used by this {@code <callTargetForModules>} task to resolve modules. The modules resolved
+     * by a shared registry are reused by all tasks that refer to it. If it is set then no
+     * module loader element is allowed.</p>
+     * 
+     * @param ref the reference to the shared module registry.
+     * 
+     * @see InvalidateModules
+     */
+    public void setModuleRegistryRefId(final Reference ref)
+    {
+        moduleRegistryRef = ref;
+    }
+    
+    /**
+     * <p>Sets the number of threads to be used by this {@code <callTargetForModules>}
+     * task to load module metadata. If <em>1</em> is passed then module metadata are
+     * loaded sequentally by the build thread. Otherwise the metadata of each module is loaded
+     * by a pool of helper threads as soon as the module is found to be a dependee module of
+     * an already loaded module, and the module loader must be thread-safe. By default, the
+     * number of threads used is <em>1</em>.</p>
+     * 
+     * <p>Modules which cannot be loaded are reported in the same way regardless of
+     * the number of loader threads.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code loaderThreadCount} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param loaderThreadCount the number of threads to be set. It must be a positive value.
+     * 
+     * @throws BuildException if <em>loaderThreadCount</em> is non-positive.
+     * 
+     * @see ModuleRegistry#ModuleRegistry(ModuleLoader, int)
+     */
+    public void setLoaderThreadCount(final int loaderThreadCount)
+    {
+        if (loaderThreadCount <= 0) {
+            throw new BuildException(MessageFormat.format(
+                    "Invalid loader thread count: ''{0}''. It must be a positive value.",
+                    String.valueOf(loaderThreadCount)));
+        }
+        this.loaderThreadCount = loaderThreadCount;
+    }
+    
+    /**
+     * <p>Enables or disables collecting the metrics of module metadata loading. If they are
+     * enabled then the time of the phases of metadata loading, the cache hits and misses, and
+     * the slowest modules to load are written to the build log after all modules are resolved.
+     * The metrics are disabled by default.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code metrics} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param metrics {@code true} to collect the metrics; {@code false} otherwise.
+     * 
+     * @see #setMetricsFile(File)
+     */
+    public void setMetrics(final boolean metrics)
+    {
+        metricsEnabled = metrics;
+    }
+    
+    /**
+     * <p>Sets the file the metrics of module metadata loading are written to as a JSON object.
+     * If it is set then the metrics are collected and written to the build log as well, regardless
+     * of what is set to the attribute {@link #setMetrics(boolean) metrics}. The file is
+     * replaced atomically. If it cannot be written then a warning is logged.</p>
+     * 
+     * <p>The JSON object has the following members: {@code phases} (the objects {@code normalise},
+     * {@code load}, {@code parse} and {@code link} with the number of operations timed and
+     * the time in nanoseconds), {@code registry} (the module registry cache hits, misses,
+     * negative cache hits and load failures), {@code loaderCache} (the hits and misses of
+     * the module loader caches) and {@code slowestModules} (the paths and load times of
+     * the slowest modules to load, from the slowest one).</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code metricsFile} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param file the file to write the metrics to.
+     */
+    public void setMetricsFile(final File file)
+    {
+        metricsFile = file;
+    }
+    
+    /**
+     * <p>Enables or disables caching the parsed build file of the current Ant project. If it is
+     * enabled then the build file is parsed once into a template and each module-specific Ant
+     * project is configured from this template by {@link TemplateProjectHelper}, so that
+     * the build file is not parsed once per module. The template is parsed again if the size
+     * or the modification time of the build file change. The files imported by the build file
+     * are processed for each module-specific project as usual. The template is kept only until
+     * this task finishes. Caching is disabled by default.</p>
+     * 
+     * <p>Note that {@code TemplateProjectHelper} stays registered with Ant for the rest of
+     * the JVM lifetime once caching is used, since Ant does not allow a project helper to be
+     * unregistered. It is inactive outside of this task.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code cacheBuildFile} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param cacheBuildFile {@code true} to cache the parsed build file; {@code false} otherwise.
+     */
+    public void setCacheBuildFile(final boolean cacheBuildFile)
+    {
+        this.cacheBuildFile = cacheBuildFile;
+    }
+    
+    /**
+     * <p>Sets how the module-specific Ant projects are created. Either {@code full} or
+     * {@code light} is allowed.</p>
+     * 
+     * <p>If {@code full} is set (the default) then the target is executed for each module
+     * as {@code <ant>} executes it: a new Ant project is configured from the build file, the
+     * properties and references of the current project are copied to it as required, and
+     * the events {@code buildStarted} and {@code buildFinished} are fired for it.</p>
+     * 
+     * <p>If {@code light} is set then the target is executed in a thin child project that
+     * takes the targets and the task and type definitions from the current project. No build
+     * file is parsed and no build started/finished events are fired. The properties of
+     * the current project and its references (if they are inherited) are visible through
+     * the child project without copying; module-specific properties and references are stored
+     * in the child project. The inherited references and the objects passed by the nested
+     * {@code <reference>} elements are shared rather than copied. This mode decreases
+     * the overhead per module considerably for large sets of modules with trivial targets.
+     * The target and its dependencies must not contain tasks with IDs that have already been
+     * executed in the current project.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code isolation} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param isolation the isolation mode.
+     * 
+     * @throws BuildException if an unsupported isolation mode is passed.
+     */
+    public void setIsolation(final String isolation)
+    {
+        if (!ISOLATION_FULL.equals(isolation) && !ISOLATION_LIGHT.equals(isolation)) {
+            throw new BuildException(MessageFormat.format(
+                    "Unsupported isolation mode: ''{0}''. Expected: ''full'' or ''light''.", isolation));
+        }
+        this.isolation = isolation;
+    }
+    
+    /**
+     * <p>Sets how the module-specific Ant projects inherit the properties and references of
+     * the current project if {@link #setInheritAll(boolean) inheritAll} or
+     * {@link #setInheritRefs(boolean) inheritRefs} is set. Either {@code copy} or
+     * {@code layered} is allowed.</p>
+     * 
+     * <p>If {@code copy} is set (the default) then the properties and references are copied
+     * to each module-specific project, as {@code <ant>} does. The objects the references refer
+     * to are cloned if possible.</p>
+     * 
+     * <p>If {@code layered} is set then a module-specific project sees the properties and
+     * references of the current project through a layered, copy-on-write view. Nothing is
+     * copied; a property or a reference that is not defined in the module-specific project is
+     * looked up in the current project. The module-specific properties and references (such as
+     * those defined by the nested elements {@code <param>} and {@code <reference>} or by
+     * the module target itself) are stored in the module-specific project and never affect
+     * the current project. The precedence of user properties, inherited properties and
+     * regular properties is the same as with {@code copy}. The inherited references are shared
+     * with the current project rather than cloned. The references whose IDs start with
+     * {@code ant.} are internal to Ant and are never inherited. This mode decreases the time
+     * and garbage per module if the current project has many properties or references.</p>
+     * 
+     * <p>This setting is ignored if {@link #setIsolation(String) isolation} is {@code light}
+     * because the thin child projects always use the layered view.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code inheritance} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param inheritance the inheritance mode.
+     * 
+     * @throws BuildException if an unsupported inheritance mode is passed.
+     */
+    public void setInheritance(final String inheritance)
+    {
+        if (!INHERITANCE_COPY.equals(inheritance) && !INHERITANCE_LAYERED.equals(inheritance)) {
+            throw new BuildException(MessageFormat.format(
+                    "Unsupported inheritance mode: ''{0}''. Expected: ''copy'' or ''layered''.", inheritance));
+        }
+        this.inheritance = inheritance;
+    }
+    
+    /**
+     * <p>Enables or disables buffering the output of modules that are processed in parallel.
+     * If it is enabled then the build events fired while a module is processed (including
+     * the events of the projects created for this module) are buffered per module and passed
+     * to the build listeners of the current project as one contiguous block after the module
+     * is processed, so that the output of modules processed simultaneously is not interleaved
+     * and the build listeners are invoked by one thread at a time. The order of the blocks is
+     * defined by the attribute {@link #setOutputOrder(String) outputOrder}. The events that do
+     * not belong to any module are passed to the build listeners immediately. Buffering is
+     * disabled by default. It is ignored if {@link #setThreadCount(int) threadCount} is
+     * <em>1</em>.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code bufferOutput} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param bufferOutput {@code true} to buffer the output of modules; {@code false} otherwise.
+     * 
+     * @see #setOutputBufferSize(long)
+     */
+    public void setBufferOutput(final boolean bufferOutput)
+    {
+        this.bufferOutput = bufferOutput;
+    }
+    
+    /**
+     * <p>Sets the order in which the buffered output of modules is flushed if
+     * {@link #setBufferOutput(boolean) bufferOutput} is enabled. Either {@code completion} or
+     * {@code topological} is allowed.</p>
+     * 
+     * <p>If {@code completion} is set (the default) then the output of a module is flushed
+     * as soon as the module is processed. If {@code topological} is set then the output of
+     * modules is flushed in the order the modules would be processed by a single thread, which
+     * does not depend on the timing of the build. The output of a module is then held until
+     * the output of all modules that precede it in this order is flushed. If the build fails
+     * then the output of all modules processed is flushed in this order.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code outputOrder} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param outputOrder the output order.
+     * 
+     * @throws BuildException if an unsupported output order is passed.
+     */
+    public void setOutputOrder(final String outputOrder)
+    {
+        if (!OUTPUT_ORDER_COMPLETION.equals(outputOrder) && !OUTPUT_ORDER_TOPOLOGICAL.equals(outputOrder)) {
+            throw new BuildException(MessageFormat.format(
+                    "Unsupported output order: ''{0}''. Expected: ''completion'' or ''topological''.",
+                    outputOrder));
+        }
+        this.outputOrder = outputOrder;
+    }
+    
+    /**
+     * <p>Sets the number of characters of log messages that are buffered in memory for
+     * a module if {@link #setBufferOutput(boolean) bufferOutput} is enabled. The messages
+     * that exceed this limit are spilled to a temporary file which is deleted after
+     * the output of the module is flushed. By default, the limit is <em>1048576</em>.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code outputBufferSize} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param outputBufferSize the number of characters to be set. It must be a non-negative value.
+     * 
+     * @throws BuildException if <em>outputBufferSize</em> is negative.
+     */
+    public void setOutputBufferSize(final long outputBufferSize)
+    {
+        if (outputBufferSize < 0) {
+            throw new BuildException(MessageFormat.format(
+                    "Invalid output buffer size: ''{0}''. It must be a non-negative value.",
+                    String.valueOf(outputBufferSize)));
+        }
+        this.outputBufferSize = outputBufferSize;
+    }
+    
+    /**
+     * <p>Enables or disables incremental mode. If it is enabled then a fingerprint is computed
+     * for each module from the module path, the name of the target, the module attributes,
+     * the paths, sizes and modification times of the input files of the module (defined by
+     * the nested elements {@link #createInputs() &lt;inputs&gt;} or, if they are not defined,
+     * all files in the module directory except the {@link #createOutputs() &lt;outputs&gt;})
+     * and the fingerprints of the modules it depends upon. If the fingerprint of a module is
+     * equal to the fingerprint stored in the {@link #setFingerprintFile(File) fingerprintFile}
+     * after the last successful execution of its target then the module is considered processed
+     * without invoking its target. Otherwise the target is invoked and the new fingerprint is stored if it succeeds.
+     * Thus, a change in a module causes all modules that depend upon it to be processed again.
+     * At least one {@code <inputs>} or {@code <outputs>} element is required in incremental
+     * mode. Incremental mode is disabled by default.</p>
+     * 
+     * <p>Note that the properties and references passed to module-specific projects are not
+     * a part of the fingerprint, except the properties listed by
+     * {@link #setFingerprintProperties(String) fingerprintProperties}.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code incremental} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param incremental {@code true} to enable incremental mode; {@code false} otherwise.
+     */
+    public void setIncremental(final boolean incremental)
     {
-        /* parallelBuildWorker preserves the interrupted status of the current thread
-         * so an InterruptedException is thrown if this thread starts waiting
-         * for a helper thread to join. This leads to all helper threads interrupted
-         * so that the build finished rapidly and gracefully.
-         */
-        try {
-            for (int i = 0; i < n; ++i) {
-                threads[i].join();
-            }
-        }
-        catch (InterruptedException ex) {
-            /* Interrupting all the activities so that the build finishes as quick as possible.
-             * This is fine if an already finished thread is interrupted.
-             */
-            for (int i = 0; i < n; ++i) {
-                threads[i].interrupt();
+        this.incremental = incremental;
+    }
+    
+    /**
+     * <p>Sets the file the fingerprints of the modules processed successfully are stored in
+     * if {@link #setIncremental(boolean) incremental} mode is enabled. The file is read when
+     * this task is executed and replaced atomically after all modules are processed or
+     * the build fails. If it cannot be read or written then a warning is logged.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code fingerprintFile} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param file the file to store the fingerprints in.
+     */
+    public void setFingerprintFile(final File file)
+    {
+        fingerprintFile = file;
+    }
+    
+    /**
+     * <p>Sets the names of the properties of the current project whose values are a part of
+     * the module fingerprints used by {@link #setIncremental(boolean) incremental} mode and
+     * the {@link #setBuildCacheDir(File) build cache}. The names are separated by commas.
+     * If the value of any of these properties changes then all modules are processed again.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code fingerprintProperties} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param propertyNames the comma-separated list of property names.
+     */
+    public void setFingerprintProperties(final String propertyNames)
+    {
+        fingerprintProperties.clear();
+        for (final String name : propertyNames.split(",")) {
+            final String trimmedName = name.trim();
+            if (trimmedName.length() != 0) {
+                fingerprintProperties.add(trimmedName);
             }
-            
-            Thread.currentThread().interrupt();
-            throw new BuildException("The build thread was interrupted.");
         }
     }
     
     /**
-     * <p>Creates a new {@link ModuleElement ModuleElement} container that backs the
-     * nested element {@code <module>} of this {@code <callTargetForModules>} task.
-     * The module it refers to will be built by this {@code <callTargetForModules>} along
-     * with all modules it depends upon (directly or indirectly).</p>
+     * <p>Sets the directory of the local build cache. If it is set then the output files of
+     * each module (defined by the nested elements {@link #createOutputs() &lt;outputs&gt;}) are
+     * stored in the cache after the module target succeeds, under the fingerprint of the module.
+     * The fingerprint is computed as in {@link #setIncremental(boolean) incremental} mode,
+     * except that the content of the input files is hashed instead of using their sizes and
+     * modification times. The file paths in the module attributes are made relative to
+     * the project base directory.
+     * If the outputs of a module with the same fingerprint are already cached then they are
+     * restored to the module directory instead of invoking the module target. Thus, the outputs
+     * could be reused by different workspaces and branches on the same machine.</p>
      * 
-     * <p>At least one {@code <module>} element must be specified. Otherwise the build
-     * process fails.</p>
+     * <p>The cache is content-addressed: equal output files are stored once. The cache
+     * directory could be shared by concurrent builds. If the outputs cannot be stored or
+     * restored then a warning is logged and the build continues as if the cache is not
+     * used. Stale entries are never removed by this task.</p>
      * 
-     * @return the {@code ModuleElement} created. It is never {@code null}.
+     * <p>This setter is accessible via the attribute {@code buildCacheDir} of this
+     * {@code <callTargetForModules>} task.</p>
      * 
-     * @see #setTarget(String)
+     * @param dir the build cache directory.
+     * 
+     * @see #setBuildCacheMode(String)
      */
-    public ModuleElement createModule()
+    public void setBuildCacheDir(final File dir)
     {
-        final ModuleElement module = new ModuleElement();
-        moduleElements.add(module);
-        return module;
+        buildCacheDir = dir;
     }
     
     /**
-     * <p>Sets a {@link ModuleLoader} that is to be used by this {@code <callTargetForModules>}
-     * task. One and only one module loader must be defined for a {@code <callTargetForModules>}
-     * task. The name of the nested element is defined by the name of the Ant type used to pass
-     * this instance of {@code ModuleLoader}.</p>
+     * <p>Sets how the output files of modules are restored from the
+     * {@link #setBuildCacheDir(File) build cache}. Either {@code copy} or {@code link} is
+     * allowed. If {@code copy} is set (the default) then the files are copied. If {@code link}
+     * is set then hard links to the cached files are created where the JVM and the file system
+     * allow this, and the files are copied otherwise. The files restored in {@code link} mode
+     * are read-only, whether they are linked or copied, because hard-linked files share
+     * the content with the cache. The files matched by the {@link #createOutputs() outputs}
+     * are deleted before a module target is invoked in {@code link} mode, so that the target
+     * writes new files instead of modifying the cached ones.</p>
      * 
-     * @param moduleLoader the {@code ModuleLoader} instance to be used by this
-     *      {@code <callTargetForModules>} task. {@code null} value is not allowed.
+     * <p>This setter is accessible via the attribute {@code buildCacheMode} of this
+     * {@code <callTargetForModules>} task.</p>
      * 
-     * @throws BuildException if more than one {@code ModuleLoader} is defined for this
-     *      {@code <callTargetForModules>} task.
-     * @throws NullPointerException if <em>moduleLoader</em> is {@code null}.
+     * @param mode the build cache mode.
+     * 
+     * @throws BuildException if an unsupported build cache mode is passed.
      */
-    public void addConfigured(final ModuleLoader moduleLoader)
+    public void setBuildCacheMode(final String mode)
     {
-        if (moduleLoader == null) {
-            throw new NullPointerException("moduleLoader");
-        }
-        if (this.moduleLoader != null) {
-            throw new BuildException("Only a single module loader element is allowed.");
+        if (!BUILD_CACHE_MODE_COPY.equals(mode) && !BUILD_CACHE_MODE_LINK.equals(mode)) {
+            throw new BuildException(MessageFormat.format(
+                    "Unsupported build cache mode: ''{0}''. Expected: ''copy'' or ''link''.", mode));
         }
-        this.moduleLoader = moduleLoader;
+        buildCacheMode = mode;
     }
     
     /**
-     * <p>Sets the number of threads to be used by this {@code <callTargetForModules>}
-     * task to build independent modules in parallel. If <em>1</em> is passed then
-     * modules are built sequentally. By default, the number of threads used is
-     * <em>1</em>.</p>
+     * <p>Sets the base URL of the remote build cache. If it is set then the output files of
+     * each module (defined by the nested elements {@link #createOutputs() &lt;outputs&gt;})
+     * are shared via the remote cache under the fingerprint of the module, computed as for
+     * the {@link #setBuildCacheDir(File) local build cache}. If the outputs of a module are
+     * neither up to date nor cached locally then they are requested from the remote cache
+     * ({@code GET <url>/<fingerprint>}) and extracted to the module directory instead of
+     * invoking the module target. Otherwise the target is invoked and, if it succeeds,
+     * the outputs are archived and uploaded to the remote cache ({@code PUT <url>/<fingerprint>})
+     * by a helper thread, so that the build does not wait for the upload. This task waits for
+     * the pending uploads to finish before it finishes.</p>
      * 
-     * <p>This setter is accessible via the attribute {@code threadCount} of this
+     * <p>The archives are compressed ZIP files. The outputs fetched from the remote cache are
+     * stored in the local build cache, if it is used. If the remote cache cannot be read or
+     * written then a warning is logged and the build continues as if the remote cache is not
+     * used. In parallel mode, a module is fetched by the thread that processes it while other
+     * threads proceed with other modules. The archives to be uploaded are spooled to temporary
+     * files. If too many of them are waiting to be uploaded then the thread that has processed
+     * a module uploads its outputs itself.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code remoteCacheUrl} of this
      * {@code <callTargetForModules>} task.</p>
      * 
-     * @param threadCount the number of threads to be set. It must be a positive value.
+     * @param url the base URL of the remote cache.
      * 
-     * @throws BuildException if <em>threadCount</em> is non-positive.
+     * @see #setRemoteCacheUpload(boolean)
+     * @see #setRemoteCacheTimeout(int)
+     */
+    public void setRemoteCacheUrl(final String url)
+    {
+        remoteCacheUrl = url;
+    }
+    
+    /**
+     * <p>Enables or disables uploading the outputs of modules to the
+     * {@link #setRemoteCacheUrl(String) remote cache}. If it is disabled then the outputs are
+     * only fetched from the remote cache, which is useful for developer machines that read
+     * the outputs uploaded by CI agents. Uploading is enabled by default.</p>
      * 
-     * @see SerialDependencyResolver
-     * @see ParallelDependencyResolver
+     * <p>This setter is accessible via the attribute {@code remoteCacheUpload} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param upload {@code true} to upload the outputs; {@code false} otherwise.
      */
-    public void setThreadCount(final int threadCount)
+    public void setRemoteCacheUpload(final boolean upload)
     {
-        if (threadCount <= 0) {
+        remoteCacheUpload = upload;
+    }
+    
+    /**
+     * <p>Sets the connect and read timeout of the {@link #setRemoteCacheUrl(String) remote cache}
+     * requests in milliseconds. By default, the timeout is <em>30000</em>.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code remoteCacheTimeout} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param timeout the timeout to be set. It must be a positive value.
+     * 
+     * @throws BuildException if <em>timeout</em> is non-positive.
+     */
+    public void setRemoteCacheTimeout(final int timeout)
+    {
+        if (timeout <= 0) {
             throw new BuildException(MessageFormat.format(
-                    "Invalid thread count: ''{0}''. It must be a positive value.",
-                    String.valueOf(threadCount)));
+                    "Invalid remote cache timeout: ''{0}''. It must be a positive value.",
+                    String.valueOf(timeout)));
         }
-        this.threadCount = threadCount;
+        remoteCacheTimeout = timeout;
+    }
+    
+    /**
+     * <p>Sets the policy that defines which module is processed next if multiple modules
+     * are available for processing in parallel. Either {@code depthFirst} or {@code criticalPath}
+     * is allowed. If {@code depthFirst} is set (the default) then the module that has become
+     * available for processing most recently is processed next. If {@code criticalPath} is set
+     * then the module with the longest path to the end of the build is processed next. The length
+     * of the path is the sum of the durations of the module and the modules that depend upon it,
+     * directly or indirectly. The durations are taken from the {@link #setDurationsFile(File)
+     * durations file}; the modules whose durations are not recorded take the mean duration,
+     * and all modules take the same time if no durations are recorded.</p>
+     * 
+     * <p>The scheduling policy is ignored if modules are processed by a single thread.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code schedulingPolicy} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param policy the scheduling policy.
+     * 
+     * @throws BuildException if an unsupported scheduling policy is passed.
+     */
+    public void setSchedulingPolicy(final String policy)
+    {
+        if (!BuildPlanner.POLICY_DEPTH_FIRST.equals(policy) && !BuildPlanner.POLICY_CRITICAL_PATH.equals(policy)) {
+            throw new BuildException(MessageFormat.format(
+                    "Unsupported scheduling policy: ''{0}''. Expected: ''depthFirst'' or ''criticalPath''.", policy));
+        }
+        schedulingPolicy = policy;
+    }
+    
+    /**
+     * <p>Sets the file the durations of the module targets are recorded in. If it is set then
+     * the duration of each module target invoked successfully is recorded in this file, replacing
+     * the duration recorded by the previous builds. The modules that are up to date or restored
+     * from a build cache keep their durations. The durations recorded are used to plan
+     * the processing of modules by {@link #setDryRun(boolean) dry runs} and the scheduling policy
+     * {@link #setSchedulingPolicy(String) criticalPath}.</p>
+     * 
+     * <p>The file is written atomically. If it cannot be read or written then a warning is
+     * logged and the build continues.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code durationsFile} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param file the file to be set.
+     */
+    public void setDurationsFile(final File file)
+    {
+        durationsFile = file;
+    }
+    
+    /**
+     * <p>Sets whether this {@code <callTargetForModules>} task only plans the processing of modules
+     * rather than processes them. If it is set to {@code true} then the modules are resolved as
+     * usual, but no target is invoked. Instead, the processing of modules by
+     * {@link #setThreadCount(int) threadCount} threads under the {@link #setSchedulingPolicy(String)
+     * scheduling policy} is simulated against the durations {@link #setDurationsFile(File) recorded}
+     * (or unit durations if none are recorded), and the plan is written to the build log. The plan
+     * includes the sequence in which modules are dispatched to threads, the timeline of each thread
+     * and the estimated total time. In {@link #setIncremental(boolean) incremental} mode, the modules
+     * that are up to date are planned as taking no time. The build caches are not consulted.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code dryRun} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param dryRun {@code true} to plan the processing of modules; {@code false} to process them.
+     */
+    public void setDryRun(final boolean dryRun)
+    {
+        this.dryRun = dryRun;
+    }
+    
+    /**
+     * <p>Sets the checkpoint file of this {@code <callTargetForModules>} task. If it is set then
+     * each module whose target succeeds is recorded in this file along with the name of
+     * the target and the fingerprint of the module metadata. The fingerprint is computed from
+     * the module path, the target name, the module attributes, the values of the properties
+     * defined by {@link #setFingerprintProperties(String) fingerprintProperties} and
+     * the fingerprints of the modules it depends upon. The files of the module are not a part of
+     * it. If the build fails then the file records the modules processed before the failure, so
+     * that the build could be {@link #setResume(boolean) resumed}. If the build succeeds then
+     * the file is deleted.</p>
+     * 
+     * <p>The file is updated atomically as modules complete, at most once per second, and when
+     * this task finishes. Unless the build is resumed, the file left by the previous build is
+     * deleted when this task starts.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code checkpointFile} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param file the file to be set.
+     */
+    public void setCheckpointFile(final File file)
+    {
+        checkpointFile = file;
+    }
+    
+    /**
+     * <p>Sets whether this {@code <callTargetForModules>} task resumes the build that has failed.
+     * If it is set to {@code true} then the modules recorded in the {@link #setCheckpointFile(File)
+     * checkpoint file} are considered processed, so that their targets are not invoked again,
+     * unless the target or the fingerprint of the module metadata has changed. The modules that
+     * were not processed successfully, including the module that has failed, are processed as
+     * usual. If the checkpoint file does not exist then all modules are processed.</p>
+     * 
+     * <p>Changes to the files of a module do not make its record invalid. The attribute
+     * {@link #setIncremental(boolean) incremental} is to be used to rebuild the modules whose
+     * files have changed.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code resume} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param resume {@code true} to resume the build; {@code false} to start it from scratch.
+     */
+    public void setResume(final boolean resume)
+    {
+        this.resume = resume;
+    }
+    
+    /**
+     * <p>Enables or disables collecting the metrics of processing of modules. If they are
+     * enabled then the following is measured for each module processed: the time it is ready
+     * to be processed but waits for a thread, the wall-clock time of processing it, and the CPU
+     * time and the bytes allocated by the thread that processes it. The CPU time and the bytes
+     * allocated are measured via {@link java.lang.management.ThreadMXBean} if the JVM supports
+     * this. The summary of the metrics, including the utilisation of each thread, is written to
+     * the build log after the modules are processed. The metrics are disabled by default.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code executionMetrics} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param metrics {@code true} to collect the metrics; {@code false} otherwise.
+     * 
+     * @see #setExecutionMetricsFile(File)
+     */
+    public void setExecutionMetrics(final boolean metrics)
+    {
+        executionMetricsEnabled = metrics;
+    }
+    
+    /**
+     * <p>Sets the file the metrics of processing of modules are written to as a JSON object.
+     * If it is set then the metrics are collected and written to the build log as well, regardless
+     * of what is set to the attribute {@link #setExecutionMetrics(boolean) executionMetrics}.
+     * The file is replaced atomically. If it cannot be written then a warning is logged.</p>
+     * 
+     * <p>The JSON object has the following members: {@code elapsedNanos} (the time of processing
+     * of all modules), {@code modules} (for each module processed, in the order they have
+     * started: {@code path}, {@code target}, {@code thread}, {@code queueNanos}, {@code wallNanos},
+     * {@code cpuNanos}, {@code allocatedBytes} and {@code failed}) and {@code threads} (for each
+     * thread: {@code name}, the number of {@code modules} processed, {@code busyNanos},
+     * {@code cpuNanos}, {@code allocatedBytes} and {@code utilisationPercent}). The CPU time and
+     * the bytes allocated are {@code -1} if they cannot be measured.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code executionMetricsFile} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param file the file to write the metrics to.
+     */
+    public void setExecutionMetricsFile(final File file)
+    {
+        executionMetricsFile = file;
+    }
+    
+    /**
+     * <p>Sets the file the timeline of processing of modules is written to in the Chrome trace
+     * event format, so that idle threads and long chains of modules processed one after another
+     * could be seen in {@code chrome://tracing} or Perfetto. The file is written after
+     * the modules are processed, even if the build fails. It is replaced atomically. If it cannot
+     * be written then a warning is logged.</p>
+     * 
+     * <p>The timeline has a track per thread that processes modules, with a span per module
+     * processed by this thread. The name of each span is the module path; the module path and
+     * the target name are its arguments. In addition, it has the counter {@code ready modules}
+     * (the number of modules whose dependee modules are processed but which wait for a thread)
+     * and the counter {@code active threads} (the number of threads that process modules).</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code traceFile} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param file the file to write the timeline to.
+     * 
+     * @see #setExecutionMetrics(boolean)
+     */
+    public void setTraceFile(final File file)
+    {
+        traceFile = file;
     }
     
     /**
@@ -636,6 +2274,11 @@ public class CallTargetForModules extends Task
      * 
      * <p>This allows you to parameterise targets that are invoked for modules.</p>
      * 
+     * <p>The properties defined by the attributes {@code file}, {@code url} and {@code resource}
+     * are loaded once when this task is executed rather than once per module. They are kept
+     * in memory and passed to each module-specific project. References to other properties
+     * within them are still resolved against each module-specific project.</p>
+     * 
      * @return the {@code ParamElement} created. It is never {@code null}.
      */
     public ParamElement createParam()
@@ -694,6 +2337,49 @@ public class CallTargetForModules extends Task
         this.propertySet.addPropertyset(propertySet);
     }
     
+    /**
+     * <p>Creates a new {@link PatternSet org.apache.tools.ant.types.PatternSet} container that
+     * backs the nested element {@code <inputs>} of this {@code <callTargetForModules>} task.
+     * Multiple nested {@code <inputs>} elements are allowed.</p>
+     * 
+     * <p>This element defines the input files of each module for
+     * {@link #setIncremental(boolean) incremental} mode. The patterns are relative to
+     * the module directory. If no {@code <inputs>} element is defined then all files in
+     * the module directory are inputs. The files matched by the nested elements
+     * {@link #createOutputs() &lt;outputs&gt;} are never inputs. The default excludes of Ant
+     * are applied.</p>
+     * 
+     * @return the {@code PatternSet} created. It is never {@code null}.
+     */
+    public PatternSet createInputs()
+    {
+        final PatternSet patternSet = new PatternSet();
+        patternSet.setProject(getProject());
+        inputs.add(patternSet);
+        return patternSet;
+    }
+    
+    /**
+     * <p>Creates a new {@link PatternSet org.apache.tools.ant.types.PatternSet} container that
+     * backs the nested element {@code <outputs>} of this {@code <callTargetForModules>} task.
+     * Multiple nested {@code <outputs>} elements are allowed.</p>
+     * 
+     * <p>This element defines the output files of each module which are stored in
+     * the {@link #setBuildCacheDir(File) build cache}. The include patterns are relative to
+     * the module directory. They are shared via the {@link #setRemoteCacheUrl(String) remote cache}
+     * as well. The files that match the include patterns of an {@code <outputs>}
+     * element are never input files of the module.</p>
+     * 
+     * @return the {@code PatternSet} created. It is never {@code null}.
+     */
+    public PatternSet createOutputs()
+    {
+        final PatternSet patternSet = new PatternSet();
+        patternSet.setProject(getProject());
+        outputs.add(patternSet);
+        return patternSet;
+    }
+    
     /**
      * <p>Serves as the nested element {@code <module>} of the task
      * {@link CallTargetForModules &lt;callTargetForModules&gt;} and defines the root modules
@@ -791,6 +2477,12 @@ public class CallTargetForModules extends Task
         private boolean referenceSet;
         private boolean prefixSet;
         
+        /* The properties loaded from the file, the URL or the resource of this element once
+         * per execution of <callTargetForModules>. They are passed to module-specific projects
+         * from memory via this URL instead of being loaded for each module.
+         */
+        private URL loadedSource;
+        
         /**
          * <p>Has the same semantics as
          * {@link org.apache.tools.ant.taskdefs.Property#setName(String)} have.</p>
@@ -951,6 +2643,25 @@ public class CallTargetForModules extends Task
             if (locationSet) {
                 property.setLocation(location);
             }
+            if (loadedSource != null) {
+                property.setUrl(loadedSource);
+            }
+            else {
+                populateSource(property);
+            }
+            if (environmentSet) {
+                property.setEnvironment(environment);
+            }
+            if (referenceSet) {
+                property.setRefid(reference);
+            }
+            if (prefixSet) {
+                property.setPrefix(prefix);
+            }
+        }
+        
+        private void populateSource(final Property property)
+        {
             if (fileSet) {
                 property.setFile(file);
             }
@@ -969,15 +2680,92 @@ public class CallTargetForModules extends Task
             if (classpathRefSet) {
                 property.setClasspathRef(classpathRef);
             }
-            if (environmentSet) {
-                property.setEnvironment(environment);
+        }
+        
+        /* Loads the properties from the file, the URL or the resource of this element, if any,
+         * so that they are not loaded again for each module. The properties are not resolved here
+         * because they are resolved against each module-specific project.
+         */
+        private void loadSource(final Task owner)
+        {
+            if (!fileSet && !urlSet && !resourceSet) {
+                return;
             }
-            if (referenceSet) {
-                property.setRefid(reference);
+            final ParamSourceLoader loader = new ParamSourceLoader();
+            loader.setProject(owner.getProject());
+            loader.setOwningTarget(owner.getOwningTarget());
+            loader.setLocation(owner.getLocation());
+            loader.setTaskName(owner.getTaskName());
+            populateSource(loader);
+            loader.execute();
+            
+            final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            try {
+                loader.loaded.store(buf, null);
+                final String source = fileSet ? file.getPath() : urlSet ? url.toString() : resource;
+                // The suffix prevents <property> from reading the data as XML.
+                loadedSource = new URL("antmodular-param", null, -1, source + ".properties",
+                        new InMemoryURLStreamHandler(buf.toByteArray()));
             }
-            if (prefixSet) {
-                property.setPrefix(prefix);
+            catch (IOException ex) {
+                throw new BuildException(ex.getMessage(), ex);
             }
         }
+        
+        private void unloadSource()
+        {
+            loadedSource = null;
+        }
+    }
+    
+    // A <property> task that collects the properties it loads rather than setting them.
+    private static final class ParamSourceLoader extends Property
+    {
+        final Properties loaded = new Properties();
+        
+        @Override
+        protected void addProperties(final Properties props)
+        {
+            loaded.putAll(props);
+        }
+    }
+    
+    // Serves the given data for any URL it handles.
+    private static final class InMemoryURLStreamHandler extends URLStreamHandler
+    {
+        private final byte[] data;
+        
+        InMemoryURLStreamHandler(final byte[] data)
+        {
+            this.data = data;
+        }
+        
+        @Override
+        protected URLConnection openConnection(final URL u)
+        {
+            return new URLConnection(u)
+            {
+                @Override
+                public void connect()
+                {
+                    connected = true;
+                }
+                
+                @Override
+                public InputStream getInputStream()
+                {
+                    return new ByteArrayInputStream(data);
+                }
+            };
+        }
+    }
+    
+    // A <property> task that sets user properties, as the properties passed by <ant> are.
+    private static final class ParamProperty extends Property
+    {
+        ParamProperty()
+        {
+            super(true);
+        }
     }
 }
@@ -0,0 +1,733 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.types.Reference;
+
+/**
+ * <p>An Ant task that writes the graph of {@link Module modules} to a file in either
+ * the <a href="https://graphviz.org/doc/info/lang.html">DOT</a> or JSON format. The graph
+ * consists of the modules specified and all their direct and indirect dependee modules.
+ * An edge goes from a depender module to a module it depends upon.</p>
+ * 
+ * <p>The output is deterministic: modules and their dependencies are written in the order
+ * of their paths, so that the files generated for two versions of the module graph can be
+ * compared with a text diff tool. The output is streamed to a buffered file channel as it is
+ * generated, so that memory consumed by this task does not depend upon the size of the output
+ * apart from the module graph itself.</p>
+ * 
+ * <p>Module metadata are loaded by a {@link ModuleLoader} specified by the nested element
+ * whose type is a descendant of {@code ModuleLoader}. One and only one such element must
+ * be specified.</p>
+ * 
+ * <h3>Task input</h3>
+ * <h4>Attributes</h4>
+ * <table border="1">
+ * <thead>
+ *  <tr><th>Attribute</th>
+ *      <th>Required?</th>
+ *      <th>Description</th>
+ *      <th>Default value</th></tr>
+ * </thead>
+ * <tbody>
+ *  <tr><td>{@link #setFile(File) file}</td>
+ *      <td>yes</td>
+ *      <td>The file to write the module graph to. If it exists then it is overwritten.</td>
+ *      <td>N/A</td></tr>
+ *  <tr><td>{@link #setFormat(String) format}</td>
+ *      <td>no</td>
+ *      <td>The format of the output. Either {@code dot} or {@code json}.</td>
+ *      <td>{@code dot}</td></tr>
+ *  <tr><td>{@link #setModuleRegistryRefId(Reference) moduleRegistryRefId}</td>
+ *      <td>no</td>
+ *      <td>The ID of the reference that holds a {@link SharedModuleRegistry &lt;moduleRegistry&gt;}
+ *          to be used to resolve modules. If it is defined then no module loader element
+ *          is allowed.</td>
+ *      <td>N/A</td></tr>
+ *  <tr><td>{@link #setTransitiveReduction(boolean) transitiveReduction}</td>
+ *      <td>no</td>
+ *      <td>If {@code true} then an edge is omitted if the dependee module is reachable from
+ *          the depender module via another path. The module graph must be acyclic in
+ *          this case.</td>
+ *      <td>{@code false}</td></tr>
+ * </tbody>
+ * </table>
+ * <h4>Elements</h4>
+ * <h5>{@link #createModule() module}</h5>
+ * <p>Defines a root module of the graph by its attribute {@code path}. At least one
+ * {@code <module>} element must be specified. Multiple nested elements are allowed.</p>
+ * 
+ * <h5>{@link #createAttribute() attribute}</h5>
+ * <p>Defines by its attribute {@code name} a module attribute that is written for each module
+ * that has this attribute defined. Attribute values are converted to strings. It is an optional
+ * element. Multiple nested elements are allowed.</p>
+ * 
+ * <h5>{@link #addConfigured(ModuleLoader) moduleLoaderElement}</h5>
+ * <p>Defines a {@link ModuleLoader} that is to be used by this task. One and only one module
+ * loader must be defined unless the attribute {@code moduleRegistryRefId} is defined.</p>
+ * 
+ * <h3>Usage example</h3>
+ * <pre>{@literal
+ * <am:exportModuleGraph file="modules.dot" transitiveReduction="true">
+ *     <module path="foo"/>
+ *     <attribute name="Module-Version"/>
+ *     <am:manifestModuleLoader/>
+ * </am:exportModuleGraph>}</pre>
+ * 
+ * @see CallTargetForModules
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+public class ExportModuleGraph extends Task
+{
+    private static final String FORMAT_DOT = "dot";
+    private static final String FORMAT_JSON = "json";
+    
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    private static final Comparator<Module> modulePathComparator = new Comparator<Module>()
+    {
+        public int compare(final Module m1, final Module m2)
+        {
+            return m1.getPath().compareTo(m2.getPath());
+        }
+    };
+    
+    private final ArrayList<ModuleElement> moduleElements = new ArrayList<ModuleElement>();
+    private final ArrayList<AttributeElement> attributeElements = new ArrayList<AttributeElement>();
+    private ModuleLoader moduleLoader;
+    private Reference moduleRegistryRef;
+    private File file;
+    private String format = FORMAT_DOT;
+    private boolean transitiveReduction;
+    
+    /**
+     * <p>Executes this task. See the {@link ExportModuleGraph class description} for the
+     * details.</p>
+     * 
+     * @throws BuildException if the task is configured incorrectly, if some module cannot be
+     *      loaded, if the transitive reduction is requested for a cyclic module graph, or
+     *      if an I/O error occurs while writing the output file.
+     */
+    @Override
+    public void execute()
+    {
+        if (file == null) {
+            throw new BuildException("The attribute 'file' is undefined.");
+        }
+        if (moduleLoader == null && moduleRegistryRef == null) {
+            throw new BuildException("No module loader is defined.");
+        }
+        if (moduleLoader != null && moduleRegistryRef != null) {
+            throw new BuildException(
+                    "A module loader element and the attribute 'moduleRegistryRefId' cannot be defined together.");
+        }
+        if (moduleElements.isEmpty()) {
+            throw new BuildException("At least one <module> element is required.");
+        }
+        for (final ModuleElement moduleElement : moduleElements) {
+            if (moduleElement.path == null) {
+                throw new BuildException("There is a <module> element with the attribute 'path' undefined.");
+            }
+        }
+        final String[] attributeNames = new String[attributeElements.size()];
+        for (int i = 0; i < attributeNames.length; ++i) {
+            final String name = attributeElements.get(i).name;
+            if (name == null) {
+                throw new BuildException("There is an <attribute> element with the attribute 'name' undefined.");
+            }
+            attributeNames[i] = name;
+        }
+        
+        final ModuleRegistry registry = moduleRegistryRef == null ?
+                new ModuleRegistry(moduleLoader) : SharedModuleRegistry.getRegistry(moduleRegistryRef);
+        final ArrayList<String> paths = new ArrayList<String>(moduleElements.size());
+        for (final ModuleElement moduleElement : moduleElements) {
+            paths.add(moduleElement.path);
+        }
+        final List<Module> rootModules;
+        try {
+            rootModules = registry.resolveModules(paths);
+        }
+        catch (ModuleNotLoadedException ex) {
+            throw new BuildException(ex.getMessage(), ex);
+        }
+        
+        if (transitiveReduction) {
+            // Transitive reduction is ambiguous for cyclic graphs.
+            try {
+                new SerialDependencyResolver().init(rootModules);
+            }
+            catch (CyclicDependenciesDetectedException ex) {
+                throw new BuildException(ex.getMessage(), ex);
+            }
+        }
+        
+        final Module[] modules = collectModules(rootModules);
+        Arrays.sort(modules, modulePathComparator);
+        
+        try {
+            final FileOutputStream out = new FileOutputStream(file);
+            try {
+                final FileChannel channel = out.getChannel();
+                final Writer writer = new BufferedWriter(Channels.newWriter(channel, "utf-8"), BUFFER_SIZE);
+                final GraphWriter graphWriter = FORMAT_JSON.equals(format) ?
+                        new JsonGraphWriter(writer) : new DotGraphWriter(writer);
+                writeGraph(modules, attributeNames, graphWriter);
+                writer.flush();
+            }
+            finally {
+                out.close();
+            }
+        }
+        catch (IOException ex) {
+            throw new BuildException(MessageFormat.format(
+                    "An I/O error is encountered while writing the module graph to the file ''{0}''.",
+                    file), ex, getLocation());
+        }
+        
+        log(MessageFormat.format("{0} modules are written to ''{1}''.", String.valueOf(modules.length), file));
+    }
+    
+    private void writeGraph(final Module[] modules, final String[] attributeNames, final GraphWriter writer)
+            throws IOException
+    {
+        final Reachability reachability = transitiveReduction ? new Reachability(modules) : null;
+        
+        writer.startGraph();
+        for (int i = 0; i < modules.length; ++i) {
+            final Module module = modules[i];
+            writer.startModule(module, i == 0);
+            
+            boolean first = true;
+            for (final String name : attributeNames) {
+                final Object value = module.getAttributes().get(name);
+                if (value == null) {
+                    continue;
+                }
+                writer.attribute(name, String.valueOf(value), first);
+                first = false;
+            }
+            
+            final Module[] deps = module.dependencies.clone();
+            Arrays.sort(deps, modulePathComparator);
+            if (reachability != null) {
+                reachability.markIndirectDependencies(module);
+            }
+            first = true;
+            for (final Module dep : deps) {
+                if (reachability != null && reachability.isMarked(dep)) {
+                    continue;
+                }
+                writer.dependency(module, dep, first);
+                first = false;
+            }
+            
+            writer.endModule(module);
+        }
+        writer.endGraph();
+    }
+    
+    // Returns the given modules and all their direct and indirect dependee modules.
+    private static Module[] collectModules(final List<Module> rootModules)
+    {
+        final IdentityHashMap<Module, Object> visited = new IdentityHashMap<Module, Object>();
+        final ArrayList<Module> stack = new ArrayList<Module>();
+        for (final Module root : rootModules) {
+            if (visited.put(root, root) == null) {
+                stack.add(root);
+            }
+        }
+        while (!stack.isEmpty()) {
+            final Module module = stack.remove(stack.size() - 1);
+            for (final Module dep : module.dependencies) {
+                if (visited.put(dep, dep) == null) {
+                    stack.add(dep);
+                }
+            }
+        }
+        return visited.keySet().toArray(new Module[visited.size()]);
+    }
+    
+    /* Marks the modules that are reachable from a given module via a path of at least two edges.
+     * The data structures are allocated once and reused for each module so that memory
+     * consumption does not depend upon the number of edges in the graph. The graph is
+     * expected to be acyclic.
+     */
+    private static class Reachability
+    {
+        private final IdentityHashMap<Module, Integer> indices;
+        private final int[] marks;
+        private final Module[] stack;
+        private int stamp;
+        
+        Reachability(final Module[] modules)
+        {
+            indices = new IdentityHashMap<Module, Integer>(modules.length);
+            for (int i = 0; i < modules.length; ++i) {
+                indices.put(modules[i], Integer.valueOf(i));
+            }
+            marks = new int[modules.length];
+            stack = new Module[modules.length];
+        }
+        
+        void markIndirectDependencies(final Module module)
+        {
+            ++stamp;
+            int size = 0;
+            for (final Module dep : module.dependencies) {
+                for (final Module indirectDep : dep.dependencies) {
+                    size = mark(indirectDep, size);
+                }
+            }
+            while (size > 0) {
+                final Module next = stack[--size];
+                for (final Module dep : next.dependencies) {
+                    size = mark(dep, size);
+                }
+            }
+        }
+        
+        private int mark(final Module module, final int size)
+        {
+            final int i = indices.get(module).intValue();
+            if (marks[i] == stamp) {
+                return size;
+            }
+            marks[i] = stamp;
+            stack[size] = module;
+            return size + 1;
+        }
+        
+        boolean isMarked(final Module module)
+        {
+            return marks[indices.get(module).intValue()] == stamp;
+        }
+    }
+    
+    private static abstract class GraphWriter
+    {
+        protected final Writer out;
+        
+        GraphWriter(final Writer out)
+        {
+            this.out = out;
+        }
+        
+        abstract void startGraph() throws IOException;
+        
+        abstract void startModule(Module module, boolean first) throws IOException;
+        
+        abstract void attribute(String name, String value, boolean first) throws IOException;
+        
+        abstract void dependency(Module module, Module dependency, boolean first) throws IOException;
+        
+        abstract void endModule(Module module) throws IOException;
+        
+        abstract void endGraph() throws IOException;
+    }
+    
+    /* Each module is written as a node statement with the selected attributes
+     * followed by the edge statements to its dependee modules.
+     */
+    private static class DotGraphWriter extends GraphWriter
+    {
+        private boolean nodeClosed;
+        
+        DotGraphWriter(final Writer out)
+        {
+            super(out);
+        }
+        
+        @Override
+        void startGraph() throws IOException
+        {
+            out.write("digraph modules {\n");
+        }
+        
+        @Override
+        void startModule(final Module module, final boolean first) throws IOException
+        {
+            out.write("    ");
+            writeId(module.getPath());
+            out.write(" [");
+            nodeClosed = false;
+        }
+        
+        @Override
+        void attribute(final String name, final String value, final boolean first) throws IOException
+        {
+            if (!first) {
+                out.write(", ");
+            }
+            writeId(name);
+            out.write('=');
+            writeId(value);
+        }
+        
+        @Override
+        void dependency(final Module module, final Module dependency, final boolean first) throws IOException
+        {
+            if (!nodeClosed) {
+                out.write("];\n");
+                nodeClosed = true;
+            }
+            out.write("    ");
+            writeId(module.getPath());
+            out.write(" -> ");
+            writeId(dependency.getPath());
+            out.write(";\n");
+        }
+        
+        @Override
+        void endModule(final Module module) throws IOException
+        {
+            if (!nodeClosed) {
+                out.write("];\n");
+            }
+        }
+        
+        @Override
+        void endGraph() throws IOException
+        {
+            out.write("}\n");
+        }
+        
+        private void writeId(final String s) throws IOException
+        {
+            out.write('"');
+            for (int i = 0, n = s.length(); i < n; ++i) {
+                final char c = s.charAt(i);
+                switch (c) {
+                case '"':
+                case '\\':
+                    out.write('\\');
+                    out.write(c);
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    break;
+                default:
+                    out.write(c);
+                }
+            }
+            out.write('"');
+        }
+    }
+    
+    /* The graph is written as a JSON object with the single field "modules", which is an array
+     * of objects with the fields "path", "attributes" and "dependencies".
+     */
+    private static class JsonGraphWriter extends GraphWriter
+    {
+        private boolean dependenciesStarted;
+        
+        JsonGraphWriter(final Writer out)
+        {
+            super(out);
+        }
+        
+        @Override
+        void startGraph() throws IOException
+        {
+            out.write("{\"modules\": [");
+        }
+        
+        @Override
+        void startModule(final Module module, final boolean first) throws IOException
+        {
+            out.write(first ? "\n" : ",\n");
+            out.write("  {\"path\": ");
+            writeString(module.getPath());
+            out.write(", \"attributes\": {");
+            dependenciesStarted = false;
+        }
+        
+        @Override
+        void attribute(final String name, final String value, final boolean first) throws IOException
+        {
+            if (!first) {
+                out.write(", ");
+            }
+            writeString(name);
+            out.write(": ");
+            writeString(value);
+        }
+        
+        @Override
+        void dependency(final Module module, final Module dependency, final boolean first) throws IOException
+        {
+            if (first) {
+                out.write("}, \"dependencies\": [");
+                dependenciesStarted = true;
+            } else {
+                out.write(", ");
+            }
+            writeString(dependency.getPath());
+        }
+        
+        @Override
+        void endModule(final Module module) throws IOException
+        {
+            out.write(dependenciesStarted ? "]}" : "}, \"dependencies\": []}");
+        }
+        
+        @Override
+        void endGraph() throws IOException
+        {
+            out.write("\n]}\n");
+        }
+        
+        private void writeString(final String s) throws IOException
+        {
+            out.write('"');
+            for (int i = 0, n = s.length(); i < n; ++i) {
+                final char c = s.charAt(i);
+                switch (c) {
+                case '"':
+                case '\\':
+                    out.write('\\');
+                    out.write(c);
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.write("\\u00");
+                        out.write(Character.forDigit(c >> 4, 16));
+                        out.write(Character.forDigit(c & 0xf, 16));
+                    } else {
+                        out.write(c);
+                    }
+                }
+            }
+            out.write('"');
+        }
+    }
+    
+    /**
+     * <p>Creates a new {@link ModuleElement ModuleElement} container that backs the
+     * nested element {@code <module>} of this {@code <exportModuleGraph>} task.
+     * The module it refers to is written along with all modules it depends upon
+     * (directly or indirectly).</p>
+     * 
+     * @return the {@code ModuleElement} created. It is never {@code null}.
+     */
+    public ModuleElement createModule()
+    {
+        final ModuleElement module = new ModuleElement();
+        moduleElements.add(module);
+        return module;
+    }
+    
+    /**
+     * <p>Creates a new {@link AttributeElement AttributeElement} container that backs the
+     * nested element {@code <attribute>} of this {@code <exportModuleGraph>} task. The module
+     * attribute it refers to is written for each module that has this attribute defined.</p>
+     * 
+     * @return the {@code AttributeElement} created. It is never {@code null}.
+     */
+    public AttributeElement createAttribute()
+    {
+        final AttributeElement attribute = new AttributeElement();
+        attributeElements.add(attribute);
+        return attribute;
+    }
+    
+    /**
+     * <p>Sets a {@link ModuleLoader} that is to be used by this {@code <exportModuleGraph>}
+     * task. One and only one module loader must be defined.</p>
+     * 
+     * @param moduleLoader the {@code ModuleLoader} instance to be used by this
+     *      {@code <exportModuleGraph>} task. {@code null} value is not allowed.
+     * 
+     * @throws BuildException if more than one {@code ModuleLoader} is defined for this
+     *      {@code <exportModuleGraph>} task.
+     * @throws NullPointerException if <em>moduleLoader</em> is {@code null}.
+     */
+    public void addConfigured(final ModuleLoader moduleLoader)
+    {
+        if (moduleLoader == null) {
+            throw new NullPointerException("moduleLoader");
+        }
+        if (this.moduleLoader != null) {
+            throw new BuildException("Only a single module loader element is allowed.");
+        }
+        this.moduleLoader = moduleLoader;
+    }
+    
+    /**
+     * <p>Sets the reference to a {@link SharedModuleRegistry &lt;moduleRegistry&gt;} that is
+     * to be used by this {@code <exportModuleGraph>} task to resolve modules. The modules resolved
+     * by a shared registry are reused by all tasks that refer to it. If it is set then no
+     * module loader element is allowed.</p>
+     * 
+     * @param ref the reference to the shared module registry.
+     * 
+     * @see InvalidateModules
+     */
+    public void setModuleRegistryRefId(final Reference ref)
+    {
+        moduleRegistryRef = ref;
+    }
+    
+    /**
+     * <p>Sets the file the module graph is to be written to. If the file exists then it
+     * is overwritten.</p>
+     * 
+     * @param file the output file. It must be not {@code null}. Otherwise an
+     *      {@link BuildException org.apache.tools.ant.BuildException} is thrown
+     *      by {@link #execute()}.
+     */
+    public void setFile(final File file)
+    {
+        this.file = file;
+    }
+    
+    /**
+     * <p>Sets the format of the output. Either {@code dot} or {@code json} is allowed.
+     * {@code dot} is the default value.</p>
+     * 
+     * @param format the format to be set.
+     * 
+     * @throws BuildException if an unsupported format is passed.
+     */
+    public void setFormat(final String format)
+    {
+        if (!FORMAT_DOT.equals(format) && !FORMAT_JSON.equals(format)) {
+            throw new BuildException(MessageFormat.format(
+                    "Unsupported graph format: ''{0}''. Expected: ''dot'' or ''json''.", format));
+        }
+        this.format = format;
+    }
+    
+    /**
+     * <p>Sets the flag whether or not the transitive reduction of the module graph is
+     * to be written. If {@code true} is set then an edge from a module to its dependee
+     * module is omitted if the latter is reachable from the former via another path.
+     * {@code false} is the default value.</p>
+     * 
+     * @param transitiveReduction the flag value to be set.
+     */
+    public void setTransitiveReduction(final boolean transitiveReduction)
+    {
+        this.transitiveReduction = transitiveReduction;
+    }
+    
+    /**
+     * <p>Serves as the nested element {@code <module>} of the task
+     * {@link ExportModuleGraph &lt;exportModuleGraph&gt;} and defines a root module of
+     * the module graph.</p>
+     * 
+     * <h3>Attributes</h3>
+     * <table border="1">
+     * <thead>
+     *  <tr><th>Attribute</th>
+     *      <th>Required?</th>
+     *      <th>Description</th></tr>
+     * </thead>
+     * <tbody>
+     *  <tr><td>path</td>
+     *      <td>yes</td>
+     *      <td>The path of the module.</td></tr>
+     * </tbody>
+     * </table>
+     */
+    public static class ModuleElement
+    {
+        private String path;
+        
+        /**
+         * <p>Sets the path of the module.</p>
+         * 
+         * @param path the module path. It must be not {@code null}. The parent
+         *      {@link ExportModuleGraph} throws an
+         *      {@link BuildException org.apache.tools.ant.BuildException} otherwise.
+         */
+        public void setPath(final String path)
+        {
+            this.path = path;
+        }
+    }
+    
+    /**
+     * <p>Serves as the nested element {@code <attribute>} of the task
+     * {@link ExportModuleGraph &lt;exportModuleGraph&gt;} and defines a module attribute
+     * to be written.</p>
+     * 
+     * <h3>Attributes</h3>
+     * <table border="1">
+     * <thead>
+     *  <tr><th>Attribute</th>
+     *      <th>Required?</th>
+     *      <th>Description</th></tr>
+     * </thead>
+     * <tbody>
+     *  <tr><td>name</td>
+     *      <td>yes</td>
+     *      <td>The name of the module attribute.</td></tr>
+     * </tbody>
+     * </table>
+     */
+    public static class AttributeElement
+    {
+        private String name;
+        
+        /**
+         * <p>Sets the name of the module attribute.</p>
+         * 
+         * @param name the attribute name. It must be not {@code null}. The parent
+         *      {@link ExportModuleGraph} throws an
+         *      {@link BuildException org.apache.tools.ant.BuildException} otherwise.
+         */
+        public void setName(final String name)
+        {
+            this.name = name;
+        }
+    }
+}
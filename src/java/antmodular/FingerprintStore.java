@@ -0,0 +1,200 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>Stores the fingerprints of the modules whose targets have succeeded in a file so that
+ * they can be compared with the fingerprints computed by subsequent builds. Each record is
+ * keyed by the module path and holds the name of the target and the fingerprint of the module.</p>
+ * 
+ * <p>The file is written atomically, in the same way as {@link ModuleMetadataCache} writes its
+ * file, so that concurrent builds that share the file do not corrupt it.</p>
+ * 
+ * <p>{@code FingerprintStore} is thread-safe.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ * 
+ * @see ModuleFingerprinter
+ */
+final class FingerprintStore
+{
+    private static final int MAGIC = 0x414d4650; // AMFP
+    private static final int VERSION = 1;
+    
+    private final File file;
+    
+    // Module path -> record. The records are sorted so that the file content is stable.
+    private final TreeMap<String, Record> records = new TreeMap<String, Record>();
+    private boolean modified;
+    
+    private static class Record
+    {
+        final String target;
+        final String fingerprint;
+        
+        Record(final String target, final String fingerprint)
+        {
+            this.target = target;
+            this.fingerprint = fingerprint;
+        }
+    }
+    
+    /**
+     * <p>Creates an empty {@code FingerprintStore} that is backed by a given file.</p>
+     * 
+     * @param file the file. It must be not {@code null}.
+     */
+    FingerprintStore(final File file)
+    {
+        assert file != null;
+        
+        this.file = file;
+    }
+    
+    File getFile()
+    {
+        return file;
+    }
+    
+    /**
+     * <p>Returns {@code true} if the module with a given path is stored with a given target
+     * and fingerprint.</p>
+     */
+    synchronized boolean contains(final String path, final String target, final String fingerprint)
+    {
+        final Record record = records.get(path);
+        return record != null && record.target.equals(target) && record.fingerprint.equals(fingerprint);
+    }
+    
+    /**
+     * <p>Stores the module with a given path along with its target and fingerprint.</p>
+     */
+    synchronized void put(final String path, final String target, final String fingerprint)
+    {
+        records.put(path, new Record(target, fingerprint));
+        modified = true;
+    }
+    
+    /**
+     * <p>Removes the module with a given path from this store.</p>
+     */
+    synchronized void remove(final String path)
+    {
+        if (records.remove(path) != null) {
+            modified = true;
+        }
+    }
+    
+    synchronized boolean isModified()
+    {
+        return modified;
+    }
+    
+    /**
+     * <p>Reads the records from the file, replacing the records of this store. If the file does
+     * not exist then this store is left empty.</p>
+     * 
+     * @throws IOException if the file cannot be read or is corrupted. This store is left empty
+     *      in this case.
+     */
+    synchronized void read() throws IOException
+    {
+        records.clear();
+        modified = false;
+        
+        final DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        }
+        catch (FileNotFoundException ex) {
+            return;
+        }
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(MessageFormat.format("''{0}'' is not a fingerprint file.", file));
+            }
+            if (in.readInt() != VERSION) {
+                return;
+            }
+            for (int i = 0, n = in.readInt(); i < n; ++i) {
+                final String path = ModuleMetadataCache.readString(in);
+                final String target = ModuleMetadataCache.readString(in);
+                final String fingerprint = ModuleMetadataCache.readString(in);
+                records.put(path, new Record(target, fingerprint));
+            }
+        }
+        catch (EOFException ex) {
+            records.clear();
+            throw new IOException(MessageFormat.format("The fingerprint file ''{0}'' is truncated.", file));
+        }
+        catch (IOException ex) {
+            records.clear();
+            throw ex;
+        }
+        catch (RuntimeException ex) {
+            // Corrupted sizes lead to NegativeArraySizeException and the like.
+            records.clear();
+            throw new IOException(MessageFormat.format("The fingerprint file ''{0}'' is corrupted.", file));
+        }
+        finally {
+            in.close();
+        }
+    }
+    
+    /**
+     * <p>Writes the records of this store to the file atomically.</p>
+     * 
+     * @throws IOException if the file cannot be written. The file is left unchanged in this case.
+     */
+    synchronized void write() throws IOException
+    {
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream(64 * 1024);
+        final DataOutputStream out = new DataOutputStream(buf);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(records.size());
+        for (final Map.Entry<String, Record> entry : records.entrySet()) {
+            final Record record = entry.getValue();
+            ModuleMetadataCache.writeString(out, entry.getKey());
+            ModuleMetadataCache.writeString(out, record.target);
+            ModuleMetadataCache.writeString(out, record.fingerprint);
+        }
+        out.flush();
+        
+        ModuleMetadataCache.writeAtomically(file, buf);
+        modified = false;
+    }
+}
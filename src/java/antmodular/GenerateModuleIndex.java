@@ -0,0 +1,301 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.TreeMap;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+
+/**
+ * <p>An Ant task that generates a module index file to be used by
+ * {@link IndexModuleLoader &lt;indexModuleLoader&gt;}. The index contains the metadata of
+ * the modules defined by the nested elements {@code <module>} and of all modules they depend
+ * upon, directly or indirectly. Module metadata are loaded by a {@link ModuleLoader} specified
+ * by the nested element whose type is a descendant of {@code ModuleLoader}. One and only one
+ * such element must be specified.</p>
+ * 
+ * <p>If the module loader is a {@link ValidatingModuleLoader} (e.g.
+ * {@link ManifestModuleLoader}) then the index is regenerated only if the metadata of a module
+ * in the index have changed since the index was generated (e.g. a module manifest is modified),
+ * or if the configuration of the module loader or the set of root modules have changed.
+ * Otherwise, or if the attribute {@code force} is set to {@code true}, the index is always
+ * regenerated. The index file is written atomically.</p>
+ * 
+ * <p>Module attributes must be either strings or {@link org.apache.tools.ant.types.Path}
+ * objects, which is the case with {@code ManifestModuleLoader}.</p>
+ * 
+ * <h3>Task input</h3>
+ * <h4>Attributes</h4>
+ * <table border="1">
+ * <thead>
+ *  <tr><th>Attribute</th>
+ *      <th>Required?</th>
+ *      <th>Description</th>
+ *      <th>Default value</th></tr>
+ * </thead>
+ * <tbody>
+ *  <tr><td>{@link #setFile(File) file}</td>
+ *      <td>yes</td>
+ *      <td>The module index file to be generated.</td>
+ *      <td>N/A</td></tr>
+ *  <tr><td>{@link #setForce(boolean) force}</td>
+ *      <td>no</td>
+ *      <td>If {@code true} then the index is regenerated even if it is up to date.</td>
+ *      <td>{@code false}</td></tr>
+ * </tbody>
+ * </table>
+ * <h4>Elements</h4>
+ * <h5>{@link #createModule() module}</h5>
+ * <p>Defines by its attribute {@code path} a root module of the index. At least one
+ * element is required. Multiple nested elements are allowed.</p>
+ * <h5>{@link #addConfigured(ModuleLoader) module loader}</h5>
+ * <p>Defines the module loader the module metadata are loaded by. It is a required
+ * element. Only a single nested element is allowed.</p>
+ * 
+ * <h3>Usage example</h3>
+ * <pre>{@literal
+ * <am:generateModuleIndex file="modules.idx">
+ *     <am:manifestModuleLoader/>
+ *     <module path="foo"/>
+ * </am:generateModuleIndex>}</pre>
+ * 
+ * @see IndexModuleLoader
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+public class GenerateModuleIndex extends Task
+{
+    private File file;
+    private ModuleLoader moduleLoader;
+    private final ArrayList<ModuleElement> moduleElements = new ArrayList<ModuleElement>();
+    private boolean force;
+    
+    /**
+     * <p>Executes this task. See the {@link GenerateModuleIndex class description} for the
+     * details.</p>
+     * 
+     * @throws BuildException if the task is configured incorrectly or if the metadata of
+     *      a module cannot be loaded or stored in the index.
+     */
+    @Override
+    public void execute()
+    {
+        if (file == null) {
+            throw new BuildException("The attribute 'file' is undefined.");
+        }
+        if (moduleLoader == null) {
+            throw new BuildException("No module loader is defined.");
+        }
+        if (moduleElements.isEmpty()) {
+            throw new BuildException("At least one <module> element is required.");
+        }
+        final ArrayList<String> roots = new ArrayList<String>(moduleElements.size());
+        for (final ModuleElement moduleElement : moduleElements) {
+            if (moduleElement.path == null) {
+                throw new BuildException("There is a <module> element with the attribute 'path' undefined.");
+            }
+            roots.add(moduleLoader.normalisePath(moduleElement.path));
+        }
+        
+        final String signature = ModuleMetadataCache.getLoaderSignature(moduleLoader, getProject());
+        if (!force && isUpToDate(signature, roots)) {
+            log(MessageFormat.format("The module index ''{0}'' is up to date.", file), Project.MSG_VERBOSE);
+            return;
+        }
+        
+        final ValidatingModuleLoader validatingLoader = moduleLoader instanceof ValidatingModuleLoader ?
+                (ValidatingModuleLoader) moduleLoader : null;
+        final TreeMap<String, ModuleIndex.Record> records = new TreeMap<String, ModuleIndex.Record>();
+        final LinkedList<String> queue = new LinkedList<String>(roots);
+        while (!queue.isEmpty()) {
+            final String path = queue.removeFirst();
+            if (records.containsKey(path)) {
+                continue;
+            }
+            /* The validity key is obtained before the module is loaded so that the index is
+             * regenerated next time if the metadata are modified while they are being loaded.
+             */
+            final String validityKey = validatingLoader == null ? null : validatingLoader.getValidityKey(path);
+            final ModuleInfo moduleInfo;
+            try {
+                moduleInfo = moduleLoader.loadModule(path);
+            }
+            catch (ModuleNotLoadedException ex) {
+                throw new BuildException(ex.getMessage(), ex);
+            }
+            final byte[] data = ModuleMetadataCache.encode(moduleInfo);
+            if (data == null) {
+                throw new BuildException(MessageFormat.format(
+                        "The module ''{0}'' has an attribute that cannot be stored in the module index. " +
+                        "Only string and path attributes are supported.", path));
+            }
+            records.put(path, new ModuleIndex.Record(validityKey, data));
+            queue.addAll(moduleInfo.getDependencies());
+        }
+        
+        try {
+            ModuleIndex.write(file, signature, records);
+        }
+        catch (IOException ex) {
+            throw new BuildException(MessageFormat.format("Unable to write the module index file ''{0}'': {1}",
+                    file, ex.getMessage()), ex);
+        }
+        log(MessageFormat.format("The module index ''{0}'' is generated with {1} modules.",
+                file, String.valueOf(records.size())));
+    }
+    
+    /* The index is up to date if it is generated by a module loader with the same configuration,
+     * contains all root modules, and the metadata of none of its modules have changed.
+     * Only validating loaders are able to tell the latter.
+     */
+    private boolean isUpToDate(final String signature, final ArrayList<String> roots)
+    {
+        if (!(moduleLoader instanceof ValidatingModuleLoader)) {
+            return false;
+        }
+        final ValidatingModuleLoader validatingLoader = (ValidatingModuleLoader) moduleLoader;
+        final ModuleIndex index;
+        try {
+            index = ModuleIndex.read(file);
+        }
+        catch (FileNotFoundException ex) {
+            return false;
+        }
+        catch (IOException ex) {
+            log(MessageFormat.format("Unable to read the module index file ''{0}'': {1}", file, ex.getMessage()),
+                    Project.MSG_VERBOSE);
+            return false;
+        }
+        if (!signature.equals(index.getSignature()) || !index.getPaths().containsAll(roots)) {
+            return false;
+        }
+        for (final String path : index.getPaths()) {
+            final String validityKey = index.getValidityKey(path);
+            if (validityKey == null || !validityKey.equals(validatingLoader.getValidityKey(path))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * <p>Sets the module index file to be generated.</p>
+     * 
+     * @param file the module index file. It must be not {@code null}.
+     *      Otherwise an {@link BuildException org.apache.tools.ant.BuildException} is
+     *      thrown by {@link #execute()}.
+     */
+    public void setFile(final File file)
+    {
+        this.file = file;
+    }
+    
+    /**
+     * <p>Sets the flag whether or not the index is to be regenerated even if it is up to date.
+     * {@code false} is the default value.</p>
+     * 
+     * @param force the flag value to be set.
+     */
+    public void setForce(final boolean force)
+    {
+        this.force = force;
+    }
+    
+    /**
+     * <p>Sets a {@link ModuleLoader} that is to be used by this {@code <generateModuleIndex>}
+     * task to load module metadata. One and only one module loader must be defined.</p>
+     * 
+     * @param moduleLoader the {@code ModuleLoader} instance to be used.
+     *      {@code null} value is not allowed.
+     * 
+     * @throws BuildException if more than one {@code ModuleLoader} is defined.
+     * @throws NullPointerException if <em>moduleLoader</em> is {@code null}.
+     */
+    public void addConfigured(final ModuleLoader moduleLoader)
+    {
+        if (moduleLoader == null) {
+            throw new NullPointerException("moduleLoader");
+        }
+        if (this.moduleLoader != null) {
+            throw new BuildException("Only a single module loader element is allowed.");
+        }
+        this.moduleLoader = moduleLoader;
+    }
+    
+    /**
+     * <p>Creates a new {@link ModuleElement ModuleElement} container that backs the
+     * nested element {@code <module>} of this {@code <generateModuleIndex>} task.</p>
+     * 
+     * @return the {@code ModuleElement} created. It is never {@code null}.
+     */
+    public ModuleElement createModule()
+    {
+        final ModuleElement module = new ModuleElement();
+        moduleElements.add(module);
+        return module;
+    }
+    
+    /**
+     * <p>Serves as the nested element {@code <module>} of the task
+     * {@link GenerateModuleIndex &lt;generateModuleIndex&gt;} and defines a root module
+     * of the index.</p>
+     * 
+     * <h3>Attributes</h3>
+     * <table border="1">
+     * <thead>
+     *  <tr><th>Attribute</th>
+     *      <th>Required?</th>
+     *      <th>Description</th></tr>
+     * </thead>
+     * <tbody>
+     *  <tr><td>path</td>
+     *      <td>yes</td>
+     *      <td>The path of the module.</td></tr>
+     * </tbody>
+     * </table>
+     */
+    public static class ModuleElement
+    {
+        private String path;
+        
+        /**
+         * <p>Sets the path of the module.</p>
+         * 
+         * @param path the module path. It must be not {@code null}. The parent
+         *      {@link GenerateModuleIndex} throws an
+         *      {@link BuildException org.apache.tools.ant.BuildException} otherwise.
+         */
+        public void setPath(final String path)
+        {
+            this.path = path;
+        }
+    }
+}
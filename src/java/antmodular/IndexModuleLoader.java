@@ -0,0 +1,196 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.text.MessageFormat;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.ProjectComponent;
+
+/**
+ * <p>Serves as the nested element {@code <indexModuleLoader>} of the task
+ * {@link CallTargetForModules &lt;callTargetForModules&gt;}. This element defines a
+ * {@link ModuleLoader} that is to be used by the parent task
+ * {@code CallTargetForModules}.</p>
+ * 
+ * <p>{@code IndexModuleLoader} loads module metadata from a single module index file that
+ * is generated by the task {@link GenerateModuleIndex &lt;generateModuleIndex&gt;} from the
+ * metadata loaded by another module loader (e.g. {@link ManifestModuleLoader}). The index file
+ * is read once, with the first module being loaded, and then the metadata of each module are
+ * decoded from memory. Therefore, a single file is opened regardless of the number of modules
+ * loaded.</p>
+ * 
+ * <p>Module paths are normalised against the Ant project base directory by
+ * {@link ModuleUtil#normalisePath(String, File)}, in the same way as {@code ManifestModuleLoader}
+ * does. Therefore, the index file must be generated within a project with the same base
+ * directory.</p>
+ * 
+ * <p>{@code IndexModuleLoader} is thread-safe.</p>
+ * 
+ * <h3>Attributes</h3>
+ * <table border="1">
+ * <thead>
+ *  <tr><th>Attribute</th>
+ *      <th>Required?</th>
+ *      <th>Description</th></tr>
+ * </thead>
+ * <tbody>
+ *  <tr><td>{@link  #setFile(File) file}</td>
+ *      <td>yes</td>
+ *      <td>Defines the module index file to load module metadata from.</td></tr>
+ * </tbody>
+ * </table>
+ * 
+ * <h3>Usage example</h3>
+ * <pre>{@literal
+ * <am:generateModuleIndex file="modules.idx">
+ *     <am:manifestModuleLoader/>
+ *     <module path="foo"/>
+ * </am:generateModuleIndex>
+ * 
+ * <am:callTargetForModules target="build">
+ *     <am:indexModuleLoader file="modules.idx"/>
+ *     <module path="foo"/>
+ * </am:callTargetForModules>}</pre>
+ * 
+ * @see GenerateModuleIndex
+ * @see CallTargetForModules
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+public class IndexModuleLoader extends ProjectComponent implements ModuleLoader
+{
+    private File file;
+    
+    // Read lazily with the first module being loaded.
+    private ModuleIndex index;
+    /* Normalises module paths against the project base directory. Re-created if the base
+     * directory changes.
+     */
+    private volatile PathNormaliser pathNormaliser;
+    
+    /**
+     * <p>Returns the normalised path that corresponds to a given module path. Each module
+     * path has exactly one normalised path, even if the module with this path does not
+     * exist. Moreover, all paths that point to the same module w.r.t. this
+     * {@code ModuleLoader} have the same normalised path. A normalised path is never
+     * {@code null}.</p>
+     * 
+     * <p>{@link ModuleUtil#normalisePath(String, File)} is used to normalise module
+     * paths. They are normalised against the Ant project base directory. A
+     * {@link PathNormaliser} bound to the base directory is used to compute the
+     * normalised paths, so that recently normalised paths are not normalised again.</p>
+     * 
+     * @param path the module path to be normalised. It must be not {@code null}.
+     * 
+     * @return the normalised path that corresponds to the given module path.
+     *      It is never {@code null}.
+     * 
+     * @throws NullPointerException if <em>path</em> is {@code null}.
+     * 
+     * @see ModuleUtil#normalisePath(String, java.io.File)
+     */
+    public String normalisePath(final String path)
+    {
+        final File baseDir = getProject().getBaseDir();
+        PathNormaliser normaliser = pathNormaliser;
+        if (normaliser == null || !normaliser.getBaseDir().equals(baseDir)) {
+            normaliser = new PathNormaliser(baseDir);
+            pathNormaliser = normaliser;
+        }
+        return normaliser.normalise(path);
+    }
+    
+    /**
+     * <p>Loads metadata of the module with a given path, not necessarily normalised, from
+     * the module index. If the module is not in the index then a {@link ModuleNotLoadedException}
+     * is thrown.</p>
+     * 
+     * @param path the module path. It is a path relative to the Ant project base directory.
+     *      This path is allowed to be a non-normalised module path but must be not {@code null}.
+     * 
+     * @return a {@link antmodular.ModuleInfo} object that is initialised
+     *      with the module path, dependencies and attributes. It is never {@code null}
+     *      and is initialised with the {@link #normalisePath(String) normalised module path}.
+     * 
+     * @throws NullPointerException if <em>path</em> is {@code null}.
+     * @throws ModuleNotLoadedException if the module meta information cannot be loaded.
+     * @throws BuildException if the module index file is undefined or cannot be read.
+     */
+    public ModuleInfo loadModule(final String path) throws ModuleNotLoadedException
+    {
+        final String normalisedPath = normalisePath(path);
+        final ModuleIndex index = getIndex();
+        final ModuleInfo moduleInfo;
+        try {
+            moduleInfo = index.getModule(normalisedPath, this, getProject());
+        }
+        catch (IOException ex) {
+            throw new ModuleNotLoadedException(MessageFormat.format(
+                    "The metadata of the module ''{0}'' is corrupted in the module index (''{1}'').",
+                    path, file), ex);
+        }
+        if (moduleInfo == null) {
+            throw new ModuleNotLoadedException(MessageFormat.format(
+                    "The module ''{0}'' is not found in the module index (''{1}'').", path, file));
+        }
+        return moduleInfo;
+    }
+    
+    private synchronized ModuleIndex getIndex()
+    {
+        if (index != null) {
+            return index;
+        }
+        if (file == null) {
+            throw new BuildException("The attribute 'file' is undefined.");
+        }
+        try {
+            return index = ModuleIndex.read(file);
+        }
+        catch (FileNotFoundException ex) {
+            throw new BuildException(MessageFormat.format("The module index file ''{0}'' does not exist.", file),
+                    ex);
+        }
+        catch (IOException ex) {
+            throw new BuildException(MessageFormat.format("Unable to read the module index file ''{0}'': {1}",
+                    file, ex.getMessage()), ex);
+        }
+    }
+    
+    /**
+     * <p>Sets the module index file to load module metadata from.</p>
+     * 
+     * @param file the module index file. It must be not {@code null}. Otherwise
+     *      an {@link BuildException org.apache.tools.ant.BuildException} is thrown
+     *      when the first module is loaded.
+     */
+    public synchronized void setFile(final File file)
+    {
+        this.file = file;
+        index = null;
+    }
+}
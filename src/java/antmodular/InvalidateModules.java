@@ -0,0 +1,189 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.types.Reference;
+
+/**
+ * <p>An Ant task that invalidates modules in a {@link SharedModuleRegistry}, so that their
+ * metadata are loaded again when they are used next time. An invalidated module is removed
+ * from the registry along with all modules that depend upon it, directly or indirectly.</p>
+ * 
+ * <p>The modules to be invalidated are defined by the nested elements {@code <module>}. If
+ * there is no such element then the modules whose metadata have changed since they were loaded
+ * are invalidated. This requires the module loader of the registry to be
+ * a {@link ValidatingModuleLoader}. If the attribute {@code all} is set to {@code true} then
+ * all modules are invalidated.</p>
+ * 
+ * <h3>Task input</h3>
+ * <h4>Attributes</h4>
+ * <table border="1">
+ * <thead>
+ *  <tr><th>Attribute</th>
+ *      <th>Required?</th>
+ *      <th>Description</th>
+ *      <th>Default value</th></tr>
+ * </thead>
+ * <tbody>
+ *  <tr><td>{@link #setModuleRegistryRefId(Reference) moduleRegistryRefId}</td>
+ *      <td>yes</td>
+ *      <td>The ID of the reference which holds the {@code <moduleRegistry>}.</td>
+ *      <td>N/A</td></tr>
+ *  <tr><td>{@link #setAll(boolean) all}</td>
+ *      <td>no</td>
+ *      <td>If {@code true} then all modules are invalidated.</td>
+ *      <td>{@code false}</td></tr>
+ * </tbody>
+ * </table>
+ * <h4>Elements</h4>
+ * <h5>{@link #createModule() module}</h5>
+ * <p>Defines by its attribute {@code path} a module to be invalidated. It is an optional
+ * element. Multiple nested elements are allowed.</p>
+ * 
+ * <h3>Usage example</h3>
+ * <pre>{@literal
+ * <am:invalidateModules moduleRegistryRefId="registry">
+ *     <module path="foo"/>
+ * </am:invalidateModules>}</pre>
+ * 
+ * @see SharedModuleRegistry
+ * @see ModuleRegistry#invalidate(java.util.Collection)
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+public class InvalidateModules extends Task
+{
+    private Reference moduleRegistryRef;
+    private final ArrayList<ModuleElement> moduleElements = new ArrayList<ModuleElement>();
+    private boolean all;
+    
+    /**
+     * <p>Executes this task. See the {@link InvalidateModules class description} for the
+     * details.</p>
+     * 
+     * @throws BuildException if the task is configured incorrectly.
+     */
+    @Override
+    public void execute()
+    {
+        if (moduleRegistryRef == null) {
+            throw new BuildException("The attribute 'moduleRegistryRefId' is undefined.");
+        }
+        final ArrayList<String> paths = new ArrayList<String>(moduleElements.size());
+        for (final ModuleElement moduleElement : moduleElements) {
+            if (moduleElement.path == null) {
+                throw new BuildException("There is a <module> element with the attribute 'path' undefined.");
+            }
+            paths.add(moduleElement.path);
+        }
+        
+        final ModuleRegistry registry = SharedModuleRegistry.getRegistry(moduleRegistryRef);
+        final int count;
+        if (all) {
+            count = registry.invalidateAll();
+        } else if (paths.isEmpty()) {
+            count = registry.invalidateChanged();
+        } else {
+            count = registry.invalidate(paths);
+        }
+        log(MessageFormat.format("{0} modules are invalidated.", String.valueOf(count)));
+    }
+    
+    /**
+     * <p>Sets the reference which holds the {@link SharedModuleRegistry} whose modules are to
+     * be invalidated.</p>
+     * 
+     * @param ref the reference to the registry. It must be not {@code null}.
+     *      Otherwise an {@link BuildException org.apache.tools.ant.BuildException} is
+     *      thrown by {@link #execute()}.
+     */
+    public void setModuleRegistryRefId(final Reference ref)
+    {
+        moduleRegistryRef = ref;
+    }
+    
+    /**
+     * <p>Sets the flag whether or not all modules are to be invalidated. {@code false} is
+     * the default value.</p>
+     * 
+     * @param all the flag value to be set.
+     */
+    public void setAll(final boolean all)
+    {
+        this.all = all;
+    }
+    
+    /**
+     * <p>Creates a new {@link ModuleElement ModuleElement} container that backs the
+     * nested element {@code <module>} of this {@code <invalidateModules>} task.</p>
+     * 
+     * @return the {@code ModuleElement} created. It is never {@code null}.
+     */
+    public ModuleElement createModule()
+    {
+        final ModuleElement module = new ModuleElement();
+        moduleElements.add(module);
+        return module;
+    }
+    
+    /**
+     * <p>Serves as the nested element {@code <module>} of the task
+     * {@link InvalidateModules &lt;invalidateModules&gt;} and defines a module to be
+     * invalidated.</p>
+     * 
+     * <h3>Attributes</h3>
+     * <table border="1">
+     * <thead>
+     *  <tr><th>Attribute</th>
+     *      <th>Required?</th>
+     *      <th>Description</th></tr>
+     * </thead>
+     * <tbody>
+     *  <tr><td>path</td>
+     *      <td>yes</td>
+     *      <td>The path of the module.</td></tr>
+     * </tbody>
+     * </table>
+     */
+    public static class ModuleElement
+    {
+        private String path;
+        
+        /**
+         * <p>Sets the path of the module.</p>
+         * 
+         * @param path the module path. It must be not {@code null}. The parent
+         *      {@link InvalidateModules} throws an
+         *      {@link BuildException org.apache.tools.ant.BuildException} otherwise.
+         */
+        public void setPath(final String path)
+        {
+            this.path = path;
+        }
+    }
+}
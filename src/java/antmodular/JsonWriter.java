@@ -0,0 +1,179 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * <p>Writes JSON values to a {@link Writer} as a stream, with no whitespace between tokens.
+ * Commas between object members and array elements are inserted automatically. The structure
+ * of the document is not validated.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+final class JsonWriter
+{
+    private final Writer out;
+    
+    /* The state of the objects and arrays opened: true at the index of the nesting level
+     * if the next value at this level is the first one. The element 0 is the top level.
+     */
+    private boolean[] first = new boolean[8];
+    private int depth;
+    // If true then the next value is the value of an object member whose name is written.
+    private boolean afterName;
+    
+    JsonWriter(final Writer out)
+    {
+        this.out = out;
+        first[0] = true;
+    }
+    
+    JsonWriter beginObject() throws IOException
+    {
+        return begin('{');
+    }
+    
+    JsonWriter endObject() throws IOException
+    {
+        return end('}');
+    }
+    
+    JsonWriter beginArray() throws IOException
+    {
+        return begin('[');
+    }
+    
+    JsonWriter endArray() throws IOException
+    {
+        return end(']');
+    }
+    
+    JsonWriter name(final String name) throws IOException
+    {
+        separate();
+        writeString(name);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+    
+    JsonWriter value(final String value) throws IOException
+    {
+        separate();
+        if (value == null) {
+            out.write("null");
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+    
+    JsonWriter value(final long value) throws IOException
+    {
+        separate();
+        out.write(String.valueOf(value));
+        return this;
+    }
+    
+    JsonWriter value(final boolean value) throws IOException
+    {
+        separate();
+        out.write(value ? "true" : "false");
+        return this;
+    }
+    
+    // Writes a line break, which is allowed between any two tokens.
+    JsonWriter newLine() throws IOException
+    {
+        out.write('\n');
+        return this;
+    }
+    
+    private JsonWriter begin(final char c) throws IOException
+    {
+        separate();
+        out.write(c);
+        if (++depth == first.length) {
+            final boolean[] newFirst = new boolean[depth << 1];
+            System.arraycopy(first, 0, newFirst, 0, depth);
+            first = newFirst;
+        }
+        first[depth] = true;
+        return this;
+    }
+    
+    private JsonWriter end(final char c) throws IOException
+    {
+        --depth;
+        out.write(c);
+        return this;
+    }
+    
+    private void separate() throws IOException
+    {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (first[depth]) {
+            first[depth] = false;
+        } else {
+            out.write(',');
+        }
+    }
+    
+    private void writeString(final String s) throws IOException
+    {
+        out.write('"');
+        for (int i = 0, n = s.length(); i < n; ++i) {
+            final char c = s.charAt(i);
+            switch (c) {
+            case '"':
+            case '\\':
+                out.write('\\');
+                out.write(c);
+                break;
+            case '\n':
+                out.write("\\n");
+                break;
+            case '\r':
+                out.write("\\r");
+                break;
+            case '\t':
+                out.write("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    out.write("\\u00");
+                    out.write(Character.forDigit(c >> 4, 16));
+                    out.write(Character.forDigit(c & 0xf, 16));
+                } else {
+                    out.write(c);
+                }
+            }
+        }
+        out.write('"');
+    }
+}
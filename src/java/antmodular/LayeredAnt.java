@@ -0,0 +1,94 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.taskdefs.Ant;
+
+/**
+ * <p>An {@code <ant>} task that executes the target in a given {@link LayeredProject} instead
+ * of a project created by {@link Project#createSubProject()}. It is used by
+ * {@link CallTargetForModules} with {@link CallTargetForModules#setInheritance(String)
+ * inheritance="layered"}.</p>
+ * 
+ * <p>{@link Ant#init()} creates the project the target is executed in by invoking
+ * {@code createSubProject()} of the project returned by {@link #getProject()}. While
+ * {@code LayeredAnt} is being initialised, {@code getProject()} returns a stand-in project
+ * whose {@code createSubProject()} returns the given {@code LayeredProject}. If {@code <ant>}
+ * creates its project in another way then {@link #init()} fails.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+final class LayeredAnt extends Ant
+{
+    private final LayeredProject newProject;
+    // Returned by #getProject() while this task is being initialised.
+    private Project initProject;
+    
+    /**
+     * <p>Creates a {@code LayeredAnt} that executes the target in the given project.</p>
+     * 
+     * @param newProject the project the target is to be executed in.
+     */
+    LayeredAnt(final LayeredProject newProject)
+    {
+        this.newProject = newProject;
+    }
+    
+    /**
+     * <p>Initialises this task so that the target is executed in the {@code LayeredProject}
+     * this {@code LayeredAnt} is created with.</p>
+     * 
+     * @throws BuildException if {@code <ant>} of this version of Ant does not create its
+     *      project by means of {@link Project#createSubProject()}.
+     */
+    @Override
+    public void init()
+    {
+        initProject = new Project()
+        {
+            @Override
+            public Project createSubProject()
+            {
+                return newProject;
+            }
+        };
+        try {
+            super.init();
+        }
+        finally {
+            initProject = null;
+        }
+        if (getNewProject() != newProject) {
+            throw new BuildException("Layered inheritance is not supported by this version of Ant. " +
+                    "The task <ant> does not create its project by means of Project#createSubProject().");
+        }
+    }
+    
+    @Override
+    public Project getProject()
+    {
+        return initProject != null ? initProject : super.getProject();
+    }
+}
@@ -0,0 +1,127 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.util.Map;
+
+import org.apache.tools.ant.MagicNames;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.PropertyHelper;
+
+/**
+ * <p>A child Ant project that sees the properties and references of its parent project
+ * through a layered, copy-on-write view instead of copying them. The properties of the parent
+ * project are visible through a {@link LayeredPropertyHelper}, and its references are visible
+ * if they are inherited. The references whose IDs start with {@code ant.} are internal to Ant
+ * and are never inherited. The properties and references set in a {@code LayeredProject} are
+ * stored locally and are not visible to the parent project.</p>
+ * 
+ * <p>The inherited references are shared with the parent project rather than copied, so that
+ * the objects they refer to still belong to the parent project.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ * 
+ * @see CallTargetForModules#setInheritance(String)
+ */
+class LayeredProject extends Project
+{
+    // The prefix of the IDs of the references which are internal to Ant.
+    private static final String INTERNAL_REFERENCE_PREFIX = "ant.";
+    
+    private final Project parent;
+    private final boolean inheritRefs;
+    
+    /**
+     * <p>Creates a {@code LayeredProject} which is a child of the given project. The task and
+     * type definitions of the parent project are copied to it.</p>
+     * 
+     * @param parent the parent project.
+     * @param inheritAll {@code true} if all properties of the parent project are visible in
+     *      this project; {@code false} if only the user properties of the parent project are
+     *      visible.
+     * @param inheritRefs {@code true} if the references of the parent project are visible
+     *      in this project; {@code false} otherwise.
+     */
+    LayeredProject(final Project parent, final boolean inheritAll, final boolean inheritRefs)
+    {
+        this.parent = parent;
+        this.inheritRefs = inheritRefs;
+        
+        addReference(MagicNames.REFID_PROPERTY_HELPER,
+                new LayeredPropertyHelper(this, PropertyHelper.getPropertyHelper(parent), inheritAll));
+        parent.initSubProject(this);
+    }
+    
+    /**
+     * <p>Returns the parent project of this {@code LayeredProject}.</p>
+     * 
+     * @return the parent project.
+     */
+    Project getParent()
+    {
+        return parent;
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getReference(final String key)
+    {
+        final Object value = getReferences().get(key);
+        if (value != null) {
+            return (T) value;
+        }
+        if (isInherited(key)) {
+            final Object parentValue = parent.getReferences().get(key);
+            if (parentValue != null) {
+                return (T) parentValue;
+            }
+        }
+        // Logs the warning on the undefined reference.
+        return super.<T>getReference(key);
+    }
+    
+    @Override
+    public boolean hasReference(final String key)
+    {
+        return super.hasReference(key) || isInherited(key) && parent.hasReference(key);
+    }
+    
+    @Override
+    public Map<String, Object> getCopyOfReferences()
+    {
+        final Map<String, Object> result = super.getCopyOfReferences();
+        if (inheritRefs) {
+            for (final Map.Entry<String, Object> ref : parent.getCopyOfReferences().entrySet()) {
+                if (!result.containsKey(ref.getKey()) && isInherited(ref.getKey())) {
+                    result.put(ref.getKey(), ref.getValue());
+                }
+            }
+        }
+        return result;
+    }
+    
+    private boolean isInherited(final String key)
+    {
+        return inheritRefs && !key.startsWith(INTERNAL_REFERENCE_PREFIX);
+    }
+}
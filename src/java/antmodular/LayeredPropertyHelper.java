@@ -0,0 +1,162 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.util.Hashtable;
+import java.util.Map;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.PropertyHelper;
+
+/**
+ * <p>A {@link PropertyHelper} that shows the properties of a parent project through the
+ * properties of its own project. The properties of the parent project are not copied.
+ * Instead, a property which is not defined in this {@code LayeredPropertyHelper} is looked up
+ * in the property helper of the parent project. The properties set in this
+ * {@code LayeredPropertyHelper} are stored locally and never affect the parent project.</p>
+ * 
+ * <p>The user properties of the parent project are always visible and cannot be overridden,
+ * as if they were copied to this project as user properties. The other properties of the parent
+ * project are visible only if all properties are inherited. They cannot be overridden by
+ * {@link #setNewProperty(String, Object)}, as if they were copied to this project as
+ * regular properties.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+final class LayeredPropertyHelper extends PropertyHelper
+{
+    private final PropertyHelper parent;
+    private final boolean inheritAll;
+    
+    /**
+     * <p>Creates a {@code LayeredPropertyHelper} for the given project.</p>
+     * 
+     * @param project the project this {@code LayeredPropertyHelper} is the property helper of.
+     * @param parent the property helper of the parent project.
+     * @param inheritAll {@code true} if all properties of the parent project are visible;
+     *      {@code false} if only the user properties of the parent project are visible.
+     */
+    LayeredPropertyHelper(final Project project, final PropertyHelper parent, final boolean inheritAll)
+    {
+        setProject(project);
+        this.parent = parent;
+        this.inheritAll = inheritAll;
+    }
+    
+    @Override
+    public Object getProperty(final String name)
+    {
+        final Object value = super.getProperty(name);
+        if (value != null || name == null) {
+            return value;
+        }
+        return getParentProperty(name);
+    }
+    
+    @Override
+    public Object getUserProperty(final String name)
+    {
+        final Object value = super.getUserProperty(name);
+        if (value != null || name == null) {
+            return value;
+        }
+        return parent.getUserProperty(name);
+    }
+    
+    @Override
+    public boolean setProperty(final String name, final Object value, final boolean verbose)
+    {
+        if (super.getUserProperty(name) == null && parent.getUserProperty(name) != null) {
+            if (verbose) {
+                getProject().log("Override ignored for user property \"" + name + "\"", Project.MSG_VERBOSE);
+            }
+            return false;
+        }
+        return super.setProperty(name, value, verbose);
+    }
+    
+    @Override
+    public void setNewProperty(final String name, final Object value)
+    {
+        for (final PropertySetter setter : getDelegates(PropertySetter.class)) {
+            if (setter.setNew(name, value, this)) {
+                return;
+            }
+        }
+        if (!getInternalProperties().containsKey(name) && getParentProperty(name) != null) {
+            getProject().log("Override ignored for property \"" + name + "\"", Project.MSG_VERBOSE);
+            return;
+        }
+        super.setNewProperty(name, value);
+    }
+    
+    @Override
+    public Hashtable<String, Object> getProperties()
+    {
+        final Hashtable<String, Object> result = inheritAll ? parent.getProperties() : parent.getUserProperties();
+        result.putAll(super.getProperties());
+        return result;
+    }
+    
+    @Override
+    public Hashtable<String, Object> getUserProperties()
+    {
+        final Hashtable<String, Object> result = parent.getUserProperties();
+        result.putAll(super.getUserProperties());
+        return result;
+    }
+    
+    @Override
+    public Hashtable<String, Object> getInheritedProperties()
+    {
+        final Hashtable<String, Object> result = parent.getInheritedProperties();
+        result.putAll(super.getInheritedProperties());
+        return result;
+    }
+    
+    @Override
+    public void copyUserProperties(final Project other)
+    {
+        final Hashtable<String, Object> inherited = getInheritedProperties();
+        for (final Map.Entry<String, Object> property : getUserProperties().entrySet()) {
+            if (!inherited.containsKey(property.getKey())) {
+                other.setUserProperty(property.getKey(), property.getValue().toString());
+            }
+        }
+    }
+    
+    @Override
+    public void copyInheritedProperties(final Project other)
+    {
+        for (final Map.Entry<String, Object> property : getInheritedProperties().entrySet()) {
+            if (other.getUserProperty(property.getKey()) == null) {
+                other.setInheritedProperty(property.getKey(), property.getValue().toString());
+            }
+        }
+    }
+    
+    private Object getParentProperty(final String name)
+    {
+        return inheritAll ? parent.getProperty(name) : parent.getUserProperty(name);
+    }
+}
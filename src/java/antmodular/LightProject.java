@@ -0,0 +1,112 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.LinkedList;
+
+import org.apache.tools.ant.BuildListener;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Target;
+
+/**
+ * <p>A lightweight child Ant project that is used by {@link CallTargetForModules} to execute
+ * module targets with {@link CallTargetForModules#setIsolation(String) isolation="light"}.
+ * It is cheap to create because nothing is copied from the parent project except for
+ * task and type definitions and the build listeners, and no build file is parsed.</p>
+ * 
+ * <p>The properties and references of the parent project are visible in a {@code LightProject}
+ * as in a {@link LayeredProject}. The targets of the parent project are copied to
+ * a {@code LightProject} on demand by {@link #executeTarget(String)}, along with the targets
+ * they depend upon. The events {@code buildStarted} and {@code buildFinished} are not fired
+ * for a {@code LightProject}.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+final class LightProject extends LayeredProject
+{
+    /**
+     * <p>Creates a {@code LightProject} which is a child of the given project.</p>
+     * 
+     * @param parent the parent project.
+     * @param inheritAll {@code true} if all properties of the parent project are visible in
+     *      this project; {@code false} if only the user properties of the parent project are
+     *      visible in addition to the built-in properties of this project.
+     * @param inheritRefs {@code true} if the references of the parent project are visible
+     *      in this project; {@code false} otherwise.
+     */
+    LightProject(final Project parent, final boolean inheritAll, final boolean inheritRefs)
+    {
+        super(parent, inheritAll, inheritRefs);
+        
+        setInputHandler(parent.getInputHandler());
+        for (final BuildListener listener : parent.getBuildListeners()) {
+            addBuildListener(listener);
+        }
+        if (!inheritAll) {
+            initProperties();
+        }
+        if (parent.getName() != null) {
+            setName(parent.getName());
+        }
+        setBaseDir(parent.getBaseDir());
+    }
+    
+    /**
+     * <p>Executes the given target of the parent project within this project. The target
+     * and all targets it depends upon are copied from the parent project if they are not
+     * copied yet.</p>
+     * 
+     * @param targetName the name of the target to execute.
+     */
+    @Override
+    public void executeTarget(final String targetName)
+    {
+        copyTargets(targetName);
+        super.executeTarget(targetName);
+    }
+    
+    private void copyTargets(final String targetName)
+    {
+        final Hashtable<String, Target> targets = getTargets();
+        final Hashtable<String, Target> parentTargets = getParent().getTargets();
+        final LinkedList<String> queue = new LinkedList<String>();
+        queue.add(targetName);
+        while (!queue.isEmpty()) {
+            final String name = queue.removeFirst();
+            if (targets.containsKey(name)) {
+                continue;
+            }
+            final Target parentTarget = parentTargets.get(name);
+            if (parentTarget == null) {
+                // An undefined target is reported by Project#executeTarget(String).
+                continue;
+            }
+            addOrReplaceTarget(name, TemplateProjectHelper.copyTarget(parentTarget, this));
+            for (final Enumeration<String> deps = parentTarget.getDependencies(); deps.hasMoreElements();) {
+                queue.add(deps.nextElement());
+            }
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.nio.channels.FileChannel;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * <p>A content-addressed store of the output files of modules on the local file system.
+ * The outputs of a module are stored under a key which is the fingerprint of the module
+ * computed by {@link ModuleFingerprinter}, so that they could be reused by any workspace or
+ * branch on the same machine whose module has the same fingerprint.</p>
+ * 
+ * <p>The cache directory contains two subdirectories. The directory {@code objects} contains
+ * the content of the output files, each file named after the SHA-1 hash of its content, so that
+ * equal files are stored once. The directory {@code entries} contains an entry per key that lists
+ * the relative paths, modification times and hashes of the output files of a module. The objects
+ * and the entries are written atomically so that concurrent builds that share the cache do not
+ * corrupt it. The objects are made read-only.</p>
+ * 
+ * <p>The output files are restored either by copying the objects or, if link mode is set, by
+ * creating hard links to the objects where the JVM and the file system allow this; otherwise
+ * they are copied. Hard-linked files share the content with the cache, so they must not be
+ * modified in place. Copy-on-write clones are not supported by the JVM. Instead, all files
+ * restored in link mode are read-only, whether they are linked or copied, so that an attempt
+ * to modify them fails rather than corrupts the cache, and the files behave the same way
+ * regardless of the file system. A file is to be replaced by deleting it first.</p>
+ * 
+ * <p>{@code LocalBuildCache} is thread-safe.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ * 
+ * @see CallTargetForModules#setBuildCacheDir(File)
+ */
+final class LocalBuildCache
+{
+    private static final String ENTRY_HEADER = "antmodular-build-cache 1";
+    
+    // Files.createLink(Path, Path) and File.toPath() if they are supported by this JVM.
+    private static final Method createLinkMethod;
+    private static final Method toPathMethod;
+    
+    static {
+        Method createLink = null;
+        Method toPath = null;
+        try {
+            final Class<?> pathClass = Class.forName("java.nio.file.Path");
+            createLink = Class.forName("java.nio.file.Files").getMethod("createLink", pathClass, pathClass);
+            toPath = File.class.getMethod("toPath");
+        }
+        catch (Exception ex) {
+            // Hard links are not supported by this JVM. The files are copied.
+            createLink = null;
+            toPath = null;
+        }
+        createLinkMethod = createLink;
+        toPathMethod = toPath;
+    }
+    
+    private final File dir;
+    private final boolean link;
+    
+    /**
+     * <p>Creates a {@code LocalBuildCache} that is backed by a given directory.</p>
+     * 
+     * @param dir the cache directory. It is created if it does not exist.
+     * @param link {@code true} if the output files are to be restored as read-only hard links
+     *      where possible and read-only copies otherwise; {@code false} if they are to be copied.
+     */
+    LocalBuildCache(final File dir, final boolean link)
+    {
+        assert dir != null;
+        
+        this.dir = dir;
+        this.link = link;
+    }
+    
+    /**
+     * <p>Restores the output files stored under a given key to a given module directory.
+     * The existing files with the same paths are replaced. If there is no entry for this key
+     * or some object it refers to is missing then nothing is restored.</p>
+     * 
+     * @param key the key of the outputs.
+     * @param moduleDir the module directory the outputs are restored to.
+     * 
+     * @return {@code true} if the outputs are restored; {@code false} if they are not cached.
+     * 
+     * @throws IOException if an I/O error occurs. The outputs could be restored partially
+     *      in this case.
+     */
+    boolean restore(final String key, final File moduleDir) throws IOException
+    {
+        final ArrayList<String[]> records = readEntry(key);
+        if (records == null) {
+            return false;
+        }
+        for (final String[] record : records) {
+            if (!getObjectFile(record[0]).isFile()) {
+                return false;
+            }
+        }
+        for (final String[] record : records) {
+            final File object = getObjectFile(record[0]);
+            final File file = new File(moduleDir, record[2]);
+            if (file.exists() && !file.delete()) {
+                throw new IOException(MessageFormat.format("Unable to delete the file ''{0}''.", file));
+            }
+            mkdirs(file.getParentFile());
+            if (!(link && createLink(file, object))) {
+                copy(object, file);
+                file.setLastModified(Long.parseLong(record[1]));
+                if (link) {
+                    file.setReadOnly();
+                }
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * <p>Stores the given output files of a given module directory under a given key.
+     * The entry of this key is replaced.</p>
+     * 
+     * @param key the key of the outputs.
+     * @param moduleDir the module directory.
+     * @param files the paths of the output files relative to the module directory.
+     * 
+     * @throws IOException if an I/O error occurs. The entry is not replaced in this case.
+     */
+    void store(final String key, final File moduleDir, final Collection<String> files) throws IOException
+    {
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        final Writer entry = new OutputStreamWriter(buf, "utf-8");
+        entry.write(ENTRY_HEADER);
+        entry.write('\n');
+        for (final String path : files) {
+            final File file = new File(moduleDir, path);
+            final long lastModified = file.lastModified();
+            final String hash = storeObject(file);
+            entry.write(hash + ' ' + lastModified + ' ' + path.replace(File.separatorChar, '/') + '\n');
+        }
+        entry.flush();
+        
+        ModuleMetadataCache.writeAtomically(getEntryFile(key), buf);
+    }
+    
+    private String storeObject(final File file) throws IOException
+    {
+        final String hash = ModuleFingerprinter.hash(file);
+        final File object = getObjectFile(hash);
+        if (object.isFile()) {
+            return hash;
+        }
+        final File objectDir = object.getParentFile();
+        mkdirs(objectDir);
+        final File tmp = File.createTempFile(hash, ".tmp", objectDir);
+        try {
+            copy(file, tmp);
+            tmp.setReadOnly();
+            // Another build could have stored the same object concurrently.
+            if (!tmp.renameTo(object) && !object.isFile()) {
+                throw new IOException(MessageFormat.format("Unable to rename ''{0}'' to ''{1}''.", tmp, object));
+            }
+        }
+        finally {
+            tmp.delete();
+        }
+        return hash;
+    }
+    
+    private ArrayList<String[]> readEntry(final String key) throws IOException
+    {
+        final File entryFile = getEntryFile(key);
+        final BufferedReader in;
+        try {
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(entryFile), "utf-8"));
+        }
+        catch (FileNotFoundException ex) {
+            return null;
+        }
+        try {
+            if (!ENTRY_HEADER.equals(in.readLine())) {
+                return null;
+            }
+            final ArrayList<String[]> records = new ArrayList<String[]>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                final String[] record = line.split(" ", 3);
+                if (record.length != 3) {
+                    throw new IOException(MessageFormat.format(
+                            "The build cache entry ''{0}'' is corrupted.", entryFile));
+                }
+                records.add(record);
+            }
+            return records;
+        }
+        finally {
+            in.close();
+        }
+    }
+    
+    private File getEntryFile(final String key)
+    {
+        return new File(dir, "entries/" + key.substring(0, 2) + '/' + key);
+    }
+    
+    private File getObjectFile(final String hash)
+    {
+        return new File(dir, "objects/" + hash.substring(0, 2) + '/' + hash);
+    }
+    
+    private static boolean createLink(final File link, final File existing)
+    {
+        if (createLinkMethod == null) {
+            return false;
+        }
+        try {
+            createLinkMethod.invoke(null, toPathMethod.invoke(link), toPathMethod.invoke(existing));
+            return true;
+        }
+        catch (Exception ex) {
+            // The file system does not support hard links or the files are on different devices.
+            return false;
+        }
+    }
+    
+    private static void copy(final File from, final File to) throws IOException
+    {
+        final FileInputStream in = new FileInputStream(from);
+        try {
+            final FileOutputStream out = new FileOutputStream(to);
+            try {
+                final FileChannel inChannel = in.getChannel();
+                final FileChannel outChannel = out.getChannel();
+                final long size = inChannel.size();
+                long position = 0;
+                while (position < size) {
+                    position += inChannel.transferTo(position, size - position, outChannel);
+                }
+            }
+            finally {
+                out.close();
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+    
+    private static void mkdirs(final File dir) throws IOException
+    {
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException(MessageFormat.format("Unable to create the directory ''{0}''.", dir));
+        }
+    }
+}
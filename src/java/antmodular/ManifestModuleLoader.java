@@ -24,19 +24,18 @@ package antmodular;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
-import java.util.Map;
-import java.util.jar.Attributes;
-import java.util.jar.Manifest;
-import java.util.jar.Attributes.Name;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
 import org.apache.tools.ant.ProjectComponent;
 import org.apache.tools.ant.types.Path;
 import org.apache.tools.ant.types.Path.PathElement;
@@ -62,7 +61,24 @@ import org.apache.tools.ant.types.Path.PathElement;
  * 
  * <p>The manifest file for each module is located within the module directory as the file
  * {@code META-INF/MANIFEST.MF}. This file must be present for each module that is loaded by
- * this {@code ManifestModuleLoader}.</p>
+ * this {@code ManifestModuleLoader}. Manifests are parsed by the rules of
+ * {@link java.util.jar.Manifest}, though only the manifest entry that contains module metadata
+ * is materialised.</p>
+ * 
+ * <p>If the {@link #setCacheFile(File) cacheFile} attribute is defined then the metadata
+ * loaded are stored in this file when the build finishes. Subsequent builds take the metadata
+ * of a module from the cache file if the size and the modification time of its manifest
+ * (and optionally the manifest content hash) are unchanged, so that unchanged manifests are
+ * neither read nor parsed.</p>
+ * 
+ * <p>The {@link #setReadMode(String) readMode} attribute defines how manifests are read.
+ * In the mode {@code stream} a manifest is read by a {@code FileInputStream} into a heap buffer.
+ * In the mode {@code channel} it is read by a {@code FileChannel} into a direct buffer that is
+ * reused by all manifests loaded by the same thread. In the mode {@code mmap} it is mapped
+ * into memory. In all modes a manifest is parsed directly from the buffer it is read into.
+ * Which mode is the fastest depends on the platform and the file system. Note that on some
+ * platforms a mapped manifest cannot be modified or deleted until the mapping is released by
+ * the garbage collector.</p>
  * 
  * <h3>Attributes</h3>
  * <table border="1">
@@ -76,6 +92,19 @@ import org.apache.tools.ant.types.Path.PathElement;
  *      <td>no</td>
  *      <td>Defines the name of the entry in the module manifest file that contains module
  *          metadata. If unspecified then the main entry is used.</td></tr>
+ *  <tr><td>{@link  #setReadMode(String) readMode}</td>
+ *      <td>no</td>
+ *      <td>Defines how manifests are read. One of {@code stream}, {@code channel} or
+ *          {@code mmap}. {@code stream} by default.</td></tr>
+ *  <tr><td>{@link  #setCacheFile(File) cacheFile}</td>
+ *      <td>no</td>
+ *      <td>Defines the file module metadata are cached in between builds. If unspecified
+ *          then module metadata are not cached.</td></tr>
+ *  <tr><td>{@link  #setCacheHash(boolean) cacheHash}</td>
+ *      <td>no</td>
+ *      <td>If {@code true} then the cached metadata of a module are used only if the content
+ *          hash of its manifest is unchanged, in addition to its size and modification time.
+ *          {@code false} by default.</td></tr>
  *  <tr><td>{@link  #createClasspathAttribute() classpathAttribute} (nested element, can be
  *          used multiple times)</td>
  *      <td>no</td>
@@ -90,11 +119,19 @@ import org.apache.tools.ant.types.Path.PathElement;
  * 
  * @author D&#378;mitry La&#365;&#269;uk
  */
-public class ManifestModuleLoader extends ProjectComponent implements ModuleLoader
+public class ManifestModuleLoader extends ProjectComponent implements ValidatingModuleLoader
 {
-    private static final Name ATTRIB_DEPENDENCIES = new Name("Depends");
+    private static final String ATTRIB_DEPENDENCIES = "Depends";
     
-    private static final Pattern listElementPattern = Pattern.compile("\\S+");
+    // The initial size of the buffer a manifest is read into.
+    private static final int MANIFEST_BUFFER_SIZE = 8192;
+    
+    private static final String READ_MODE_STREAM = "stream";
+    private static final String READ_MODE_CHANNEL = "channel";
+    private static final String READ_MODE_MMAP = "mmap";
+    
+    // The direct buffers manifests are read into in the mode 'channel', one per thread.
+    private static final ThreadLocal<ByteBuffer> directBuffers = new ThreadLocal<ByteBuffer>();
     
     /* The name of the manifest entry to read module metadata from.
      * If it is null then the main entry is used.
@@ -109,6 +146,19 @@ public class ManifestModuleLoader extends ProjectComponent implements ModuleLoad
      */
     private final ArrayList<ClasspathAttribute> classpathAttributes = new ArrayList<ClasspathAttribute>();
     
+    private String readMode = READ_MODE_STREAM;
+    
+    // The file module metadata are cached in. If it is null then module metadata are not cached.
+    private File cacheFile;
+    // If true then the manifest content hash is a part of the validity key of the cached metadata.
+    private boolean cacheHash;
+    // Initialised lazily with the first module loaded.
+    private ModuleMetadataCache cache;
+    /* Normalises module paths against the project base directory. Re-created if the base
+     * directory changes.
+     */
+    private volatile PathNormaliser pathNormaliser;
+    
     /**
      * <p>Returns the normalised path that corresponds to a given module path. Each module
      * path has exactly one normalised path, even if the module with this path does not
@@ -117,7 +167,9 @@ public class ManifestModuleLoader extends ProjectComponent implements ModuleLoad
      * {@code null}.</p>
      * 
      * <p>{@link ModuleUtil#normalisePath(String, File)} is used to normalise module
-     * paths. They are normalised against the Ant project base directory.</p>
+     * paths. They are normalised against the Ant project base directory. A
+     * {@link PathNormaliser} bound to the base directory is used to compute the
+     * normalised paths, so that recently normalised paths are not normalised again.</p>
      * 
      * @param path the module path to be normalised. It must be not {@code null}.
      * 
@@ -130,7 +182,13 @@ public class ManifestModuleLoader extends ProjectComponent implements ModuleLoad
      */
     public String normalisePath(final String path)
     {
-        return ModuleUtil.normalisePath(path, getProject().getBaseDir());
+        final File baseDir = getProject().getBaseDir();
+        PathNormaliser normaliser = pathNormaliser;
+        if (normaliser == null || !normaliser.getBaseDir().equals(baseDir)) {
+            normaliser = new PathNormaliser(baseDir);
+            pathNormaliser = normaliser;
+        }
+        return normaliser.normalise(path);
     }
     
     /**
@@ -153,7 +211,107 @@ public class ManifestModuleLoader extends ProjectComponent implements ModuleLoad
      */
     public ModuleInfo loadModule(final String path) throws ModuleNotLoadedException
     {
-        final Attributes attributes = readManifestBuildSection(path);
+        if (cacheFile == null) {
+            return createModuleInfo(path, readManifestBuildSection(path));
+        }
+        return loadModuleCached(path);
+    }
+    
+    private ModuleInfo loadModuleCached(final String path) throws ModuleNotLoadedException
+    {
+        final ModuleMetadataCache cache = getCache();
+        final String normalisedPath = normalisePath(path);
+        final File manifestFile = new File(new File(getProject().getBaseDir(), path), "META-INF/MANIFEST.MF");
+        
+        final String statKey = getValidityKey(manifestFile);
+        if (statKey == null) {
+            // The manifest is inaccessible. The reason is diagnosed by the non-cached loading.
+            cache.remove(normalisedPath);
+            return createModuleInfo(path, readManifestBuildSection(path));
+        }
+        ByteBuffer content = null;
+        final String key;
+        if (cacheHash) {
+            content = readManifest(path, manifestFile);
+            key = statKey + ':' + md5(content);
+        } else {
+            key = statKey;
+        }
+        
+        final byte[] data = cache.get(normalisedPath, key);
+        if (data != null) {
+            try {
+                final ModuleInfo moduleInfo = ModuleMetadataCache.decode(data, this, getProject());
+                moduleInfo.setValidityKey(statKey);
+                return moduleInfo;
+            }
+            catch (IOException ex) {
+                // The cached record is corrupted. Loading the module from its manifest.
+                cache.remove(normalisedPath);
+            }
+        }
+        
+        final ManifestParser.Section attributes = content == null ?
+                readManifestBuildSection(path) : parseManifestBuildSection(path, manifestFile, content);
+        final ModuleInfo moduleInfo = createModuleInfo(path, attributes);
+        final byte[] newData = ModuleMetadataCache.encode(moduleInfo);
+        if (newData != null) {
+            cache.put(normalisedPath, key, newData);
+        }
+        // The key is passed to ModuleRegistry so that it does not stat the manifest again.
+        moduleInfo.setValidityKey(statKey);
+        return moduleInfo;
+    }
+    
+    /**
+     * <p>Returns the validity key of the module with a given normalised path. The key consists
+     * of the size and the modification time of the module manifest. If the manifest does not
+     * exist then {@code null} is returned.</p>
+     * 
+     * @param normalisedPath the normalised path of the module. It must be not {@code null}.
+     * 
+     * @return the validity key of the module, or {@code null} if the module manifest
+     *      does not exist.
+     * 
+     * @throws NullPointerException if <em>normalisedPath</em> is {@code null}.
+     */
+    public String getValidityKey(final String normalisedPath)
+    {
+        if (normalisedPath == null) {
+            throw new NullPointerException("normalisedPath");
+        }
+        return getValidityKey(new File(new File(getProject().getBaseDir(), normalisedPath), "META-INF/MANIFEST.MF"));
+    }
+    
+    private static String getValidityKey(final File manifestFile)
+    {
+        final long lastModified = manifestFile.lastModified();
+        if (lastModified == 0) {
+            return null;
+        }
+        return String.valueOf(manifestFile.length()) + ':' + lastModified;
+    }
+    
+    private ModuleInfo createModuleInfo(final String path, final ManifestParser.Section attributes)
+            throws ModuleNotLoadedException
+    {
+        final MetadataMetrics metrics = MetadataMetrics.current();
+        if (metrics == null) {
+            return doCreateModuleInfo(path, attributes);
+        }
+        // Tokenising and decoding the attribute values is reported as parsing.
+        final long start = System.nanoTime();
+        try {
+            return doCreateModuleInfo(path, attributes);
+        }
+        finally {
+            metrics.parse.add(System.nanoTime() - start);
+        }
+    }
+    
+    private ModuleInfo doCreateModuleInfo(final String path, final ManifestParser.Section attributes)
+            throws ModuleNotLoadedException
+    {
         final ModuleInfo moduleInfo = new ModuleInfo(path, this);
         
         /* Both addDependencies and addClasspathAttributes remove the dependencies
@@ -167,39 +325,36 @@ public class ManifestModuleLoader extends ProjectComponent implements ModuleLoad
         addClasspathAttributes(attributes, moduleInfo);
         
         // Merging the remaining attributes without modification.
-        for (final Map.Entry<Object, Object> entry : attributes.entrySet()) {
-            final Name key = (Name) entry.getKey();
-            moduleInfo.addAttribute(key.toString(), entry.getValue());
+        for (final ManifestParser.Attribute attribute : attributes) {
+            moduleInfo.addAttribute(attribute.getName(), attribute.getValue());
         }
         return moduleInfo;
     }
     
-    private static void addDependencies(final Attributes attributes, final ModuleInfo moduleInfo)
+    private static void addDependencies(final ManifestParser.Section attributes, final ModuleInfo moduleInfo)
             throws ModuleNotLoadedException
     {
-        final String deps = (String) attributes.remove(ATTRIB_DEPENDENCIES);
+        final ManifestParser.Attribute deps = attributes.remove(ATTRIB_DEPENDENCIES);
         if (deps == null) {
             return;
         }
-        final Matcher m = listElementPattern.matcher(deps);
-        while (m.find()) {
-            final String url = m.group();
-            
+        final ManifestParser.ListElements elements = deps.getListElements();
+        while (elements.next()) {
             final String dependeeModulePath;
             try {
-                dependeeModulePath = decodeUrl(url);
+                dependeeModulePath = decodeUrl(elements);
             }
             catch (RuntimeException ex) {
                 throw new ModuleNotLoadedException(MessageFormat.format(
                     "Unable to load the module ''{1}''. This dependee module path is an invalid URL: ''{0}''.",
-                        m.group(), moduleInfo.getPath()), ex);
+                        elements.getRawElement(), moduleInfo.getPath()), ex);
             }
             
             moduleInfo.addDependency(dependeeModulePath);
         }
     }
     
-    private void addClasspathAttributes(final Attributes attributes, final ModuleInfo moduleInfo)
+    private void addClasspathAttributes(final ManifestParser.Section attributes, final ModuleInfo moduleInfo)
             throws ModuleNotLoadedException
     {
         for (final ClasspathAttribute attrib : classpathAttributes) {
@@ -207,24 +362,22 @@ public class ManifestModuleLoader extends ProjectComponent implements ModuleLoad
             if (attributeName == null) {
                 throw new BuildException("A 'classpathAttribute' element with undefined name is encountered.");
             }
-            final String value = (String) attributes.remove(new Name(attributeName));
+            final ManifestParser.Attribute value = attributes.remove(attributeName);
             if (value == null) {
                 continue;
             }
             final Path classpath = new Path(getProject());
-            final Matcher m = listElementPattern.matcher(value);
-            while (m.find()) {
-                final String url = m.group();
-                
+            final ManifestParser.ListElements elements = value.getListElements();
+            while (elements.next()) {
                 final String classpathElement;
                 try {
-                    classpathElement = decodeUrl(url);
+                    classpathElement = decodeUrl(elements);
                 }
                 catch (RuntimeException ex) {
                     throw new ModuleNotLoadedException(MessageFormat.format(
                             "Unable to load the module ''{2}''. The classpath attribute ''{1}'' " +
                             "contains an invalid URL element: ''{0}''.",
-                            m.group(), attributeName, moduleInfo.getPath()), ex);
+                            elements.getRawElement(), attributeName, moduleInfo.getPath()), ex);
                 }
                 
                 final PathElement element = classpath.createPathElement();
@@ -234,55 +387,195 @@ public class ManifestModuleLoader extends ProjectComponent implements ModuleLoad
         }
     }
     
-    private Attributes readManifestBuildSection(final String path) throws ModuleNotLoadedException
+    private ManifestParser.Section readManifestBuildSection(final String path) throws ModuleNotLoadedException
+    {
+        final File manifestFile = new File(new File(getProject().getBaseDir(), path), "META-INF/MANIFEST.MF");
+        return parseManifestBuildSection(path, manifestFile, readManifest(path, manifestFile));
+    }
+    
+    private ByteBuffer readManifest(final String path, final File manifestFile) throws ModuleNotLoadedException
+    {
+        /* The manifest is opened directly, without checking the module directory and
+         * the manifest file beforehand. This saves a number of file system calls for each
+         * module, which matters on network file systems. The reason of a failure is diagnosed
+         * after the manifest cannot be opened.
+         */
+        final FileInputStream in;
+        try {
+            in = new FileInputStream(manifestFile);
+        }
+        catch (FileNotFoundException ex) {
+            throw diagnoseManifestNotOpened(path, manifestFile, ex);
+        }
+        try {
+            try {
+                if (READ_MODE_STREAM.equals(readMode)) {
+                    return readStream(in);
+                }
+                final FileChannel channel = in.getChannel();
+                if (READ_MODE_MMAP.equals(readMode)) {
+                    // The mapping remains valid after the channel is closed.
+                    return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+                return readChannel(channel);
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException ex) {
+            throw manifestIOError(path, manifestFile, ex);
+        }
+    }
+    
+    private static ByteBuffer readStream(final FileInputStream in) throws IOException
+    {
+        byte[] content = new byte[MANIFEST_BUFFER_SIZE];
+        int length = 0;
+        int n;
+        while ((n = in.read(content, length, content.length - length)) != -1) {
+            length += n;
+            if (length == content.length) {
+                final byte[] newContent = new byte[length * 2];
+                System.arraycopy(content, 0, newContent, 0, length);
+                content = newContent;
+            }
+        }
+        return ByteBuffer.wrap(content, 0, length);
+    }
+    
+    /* Reads the manifest into the direct buffer of the current thread. The buffer is reused
+     * by the next manifest read by this thread, so the result must be used before that.
+     */
+    private static ByteBuffer readChannel(final FileChannel channel) throws IOException
+    {
+        final long size = channel.size();
+        ByteBuffer buffer = directBuffers.get();
+        // The buffer is larger than the manifest so that the end of the file is read without growing it.
+        if (buffer == null || buffer.capacity() <= size) {
+            if (size >= Integer.MAX_VALUE) {
+                throw new IOException("The manifest is too large.");
+            }
+            final int capacity = buffer == null ? MANIFEST_BUFFER_SIZE : buffer.capacity() * 2;
+            buffer = ByteBuffer.allocateDirect(Math.max(capacity, (int) size + 1));
+            directBuffers.set(buffer);
+        }
+        buffer.clear();
+        while (channel.read(buffer) != -1) {
+            if (!buffer.hasRemaining()) {
+                // The manifest has grown since its size was obtained.
+                final ByteBuffer newBuffer = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+                buffer.flip();
+                newBuffer.put(buffer);
+                buffer = newBuffer;
+                directBuffers.set(buffer);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+    
+    private ModuleNotLoadedException diagnoseManifestNotOpened(final String path, final File manifestFile,
+            final FileNotFoundException cause)
     {
         final File moduleDir = new File(getProject().getBaseDir(), path);
         if (!moduleDir.exists()) {
-            throw new ModuleNotLoadedException(MessageFormat.format(
+            return new ModuleNotLoadedException(MessageFormat.format(
                     "The module ''{0}'' (''{1}'') does not exist.", path, moduleDir.getAbsolutePath()));
         }
         if (!moduleDir.isDirectory()) {
-            throw new ModuleNotLoadedException(MessageFormat.format(
+            return new ModuleNotLoadedException(MessageFormat.format(
                     "The module path ''{0}'' (''{1}'') is not a directory.", path, moduleDir.getAbsolutePath()));
         }
-        
-        final File manifestFile = new File(moduleDir, "META-INF/MANIFEST.MF");
         if (!manifestFile.exists()) {
-            throw new ModuleNotLoadedException(MessageFormat.format(
+            return new ModuleNotLoadedException(MessageFormat.format(
                     "The module ''{0}'' does not have the manifest (''{1}'').",
                     path, manifestFile.getAbsolutePath()));
         }
         if (!manifestFile.isFile()) {
-            throw new ModuleNotLoadedException(MessageFormat.format(
+            return new ModuleNotLoadedException(MessageFormat.format(
                     "The module ''{0}'' has the manifest that is not a file (''{1}'').",
                     path, manifestFile.getAbsolutePath()));
         }
-        
+        // The manifest exists but cannot be opened (e.g. access is denied).
+        return manifestIOError(path, manifestFile, cause);
+    }
+    
+    private ManifestParser.Section parseManifestBuildSection(final String path, final File manifestFile,
+            final ByteBuffer content) throws ModuleNotLoadedException
+    {
+        final MetadataMetrics metrics = MetadataMetrics.current();
+        final long start = metrics == null ? 0 : System.nanoTime();
+        final ManifestParser.Section buildAttributes;
         try {
-            final FileInputStream in = new FileInputStream(manifestFile);
-            try {
-                final Manifest manifest = new Manifest(in);
-                if (manifestEntry == null) {
-                    return manifest.getMainAttributes();
-                } else {
-                    final Attributes buildAttributes = manifest.getAttributes(manifestEntry);
-                    if (buildAttributes == null) {
-                        throw new ModuleNotLoadedException(MessageFormat.format(
-                                "The module ''{0}'' does not have the entry ''{2}'' in the manifest (''{1}'').",
-                                path, manifestFile.getAbsolutePath(), manifestEntry));
-                    }
-                    return buildAttributes;
-                }
-            }
-            finally {
-                in.close();
-            }
+            buildAttributes = ManifestParser.parse(content, manifestEntry);
         }
         catch (IOException ex) {
+            throw manifestIOError(path, manifestFile, ex);
+        }
+        finally {
+            if (metrics != null) {
+                metrics.parse.add(System.nanoTime() - start);
+            }
+        }
+        if (buildAttributes == null) {
             throw new ModuleNotLoadedException(MessageFormat.format(
-                    "An I/O error is encountered while loading the manifest of the module ''{0}'' (''{1}'').",
-                    path, manifestFile.getAbsolutePath()), ex);
+                    "The module ''{0}'' does not have the entry ''{2}'' in the manifest (''{1}'').",
+                    path, manifestFile.getAbsolutePath(), manifestEntry));
+        }
+        return buildAttributes;
+    }
+    
+    private static ModuleNotLoadedException manifestIOError(final String path, final File manifestFile,
+            final IOException cause)
+    {
+        return new ModuleNotLoadedException(MessageFormat.format(
+                "An I/O error is encountered while loading the manifest of the module ''{0}'' (''{1}'').",
+                path, manifestFile.getAbsolutePath()), cause);
+    }
+    
+    private static String md5(final ByteBuffer content)
+    {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new BuildException("The message digest algorithm 'MD5' is not supported by this JVM.", ex);
+        }
+        digest.update(content.duplicate());
+        final byte[] hash = digest.digest();
+        final StringBuilder result = new StringBuilder(hash.length * 2);
+        for (final byte b : hash) {
+            result.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.toString();
+    }
+    
+    /* Returns a string that describes the configuration of this loader which affects the metadata
+     * loaded. The metadata stored with a different signature must not be reused.
+     */
+    String getConfigurationSignature()
+    {
+        final StringBuilder signature = new StringBuilder();
+        signature.append("baseDir=").append(getProject().getBaseDir().getAbsolutePath());
+        signature.append("\nmanifestEntry=").append(manifestEntry);
+        for (final ClasspathAttribute attrib : classpathAttributes) {
+            signature.append("\nclasspathAttribute=").append(attrib.name);
         }
+        return signature.toString();
+    }
+    
+    /* Creates the cache and loads its content from the cache file with the first module
+     * being loaded. The cache is written to the cache file when the build finishes.
+     */
+    private synchronized ModuleMetadataCache getCache()
+    {
+        if (cache != null) {
+            return cache;
+        }
+        final String signature = getConfigurationSignature() + "\ncacheHash=" + cacheHash;
+        return cache = ModuleMetadataCache.open(cacheFile, signature, getProject());
     }
     
     /**
@@ -301,6 +594,67 @@ public class ManifestModuleLoader extends ProjectComponent implements ModuleLoad
         manifestEntry = entryName;
     }
     
+    /**
+     * <p>Sets the mode manifests are to be read in. The following modes are supported:</p>
+     * <ul>
+     *  <li>{@code stream} &mdash; a manifest is read by a {@code FileInputStream} into a heap
+     *      buffer. It is the default mode</li>
+     *  <li>{@code channel} &mdash; a manifest is read by a {@code FileChannel} into a direct
+     *      buffer which is reused by all manifests read by the same thread</li>
+     *  <li>{@code mmap} &mdash; a manifest is mapped into memory</li>
+     * </ul>
+     * <p>In all modes a manifest is parsed directly from the buffer. The module metadata
+     * loaded do not depend on the mode.</p>
+     * 
+     * @param readMode the read mode to be set.
+     * 
+     * @throws BuildException if an unsupported mode is passed.
+     */
+    public void setReadMode(final String readMode)
+    {
+        if (!READ_MODE_STREAM.equals(readMode) && !READ_MODE_CHANNEL.equals(readMode) &&
+                !READ_MODE_MMAP.equals(readMode)) {
+            throw new BuildException(MessageFormat.format(
+                    "Unsupported read mode: ''{0}''. Expected: ''stream'', ''channel'' or ''mmap''.", readMode));
+        }
+        this.readMode = readMode;
+    }
+    
+    /**
+     * <p>Sets the file module metadata are to be cached in between builds. The metadata of
+     * each module loaded are stored in this file when the build finishes, keyed by the normalised
+     * module path and the size and the modification time of the module manifest. The metadata of
+     * a module whose manifest is unchanged are taken from this file instead of parsing its
+     * manifest. If the cache file is not set or is {@code null} then metadata are not cached.</p>
+     * 
+     * <p>The cache file is written atomically, so that it is not corrupted by concurrent builds
+     * that share it. The cache file content is ignored if it was created by a
+     * {@code ManifestModuleLoader} with a different configuration.</p>
+     * 
+     * @param cacheFile the cache file to be set.
+     * 
+     * @see #setCacheHash(boolean)
+     */
+    public void setCacheFile(final File cacheFile)
+    {
+        this.cacheFile = cacheFile;
+    }
+    
+    /**
+     * <p>Sets the flag whether or not the content hash of a module manifest is to be checked
+     * in addition to its size and modification time to validate the cached metadata of the
+     * module. If {@code true} is set then unchanged manifests are read but not parsed.
+     * {@code false} is the default value.</p>
+     * 
+     * @param cacheHash the flag value to be set.
+     * 
+     * @see #setCacheFile(File)
+     */
+    public void setCacheHash(final boolean cacheHash)
+    {
+        this.cacheHash = cacheHash;
+    }
+    
     /**
      * <p>Serves as the nested element {@code <classpathAttribute>} of the task
      * {@link ManifestModuleLoader &lt;manifestModuleLoader&gt;}. This element defines an
@@ -382,11 +736,12 @@ public class ManifestModuleLoader extends ProjectComponent implements ModuleLoad
         return val;
     }
     
-    // RuntimeException indicates that an error is encountered while decoding this URL.
-    private static String decodeUrl(final String encodedUrl) throws ModuleNotLoadedException, RuntimeException
+    // RuntimeException indicates that an error is encountered while decoding the current element.
+    private static String decodeUrl(final ManifestParser.ListElements elements)
+            throws ModuleNotLoadedException, RuntimeException
     {
         try {
-            return URLDecoder.decode(encodedUrl, "utf-8");
+            return elements.decode();
         }
         catch (UnsupportedEncodingException ex) {
             throw new ModuleNotLoadedException("The encoding 'UTF-8' is not supported by this JVM.", ex);
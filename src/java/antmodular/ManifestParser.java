@@ -0,0 +1,514 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * <p>Parses JAR Manifest files for {@link ManifestModuleLoader}. Unlike
+ * {@link java.util.jar.Manifest}, only the attributes of the entry requested are
+ * materialised. The other entries are validated but no objects are created for them.
+ * Attribute values are kept as raw bytes of the buffer parsed until they are requested.
+ * Values that are lists of URL-encoded elements are tokenised and decoded in a single
+ * pass over these bytes, and the elements that contain no escape sequences are not passed
+ * to {@link URLDecoder}.</p>
+ * 
+ * <p>A manifest is parsed by the same rules {@code java.util.jar.Manifest} follows, so
+ * that the attributes returned are identical to the attributes that
+ * {@code java.util.jar.Manifest} would return for the same manifest. In particular, lines are
+ * limited to {@value #MAX_LINE_LENGTH} bytes including the line terminator, continuation
+ * lines are joined before their content is decoded, the last line is ignored if it is not
+ * terminated, and a manifest is rejected in the same cases.</p>
+ * 
+ * <p>The attributes returned refer to the buffer parsed. Therefore, the content of
+ * the buffer must not be modified while these attributes are in use.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+final class ManifestParser
+{
+    private static final int MAX_LINE_LENGTH = 512;
+    private static final int MAX_NAME_LENGTH = 70;
+    
+    private static final Charset UTF_8 = Charset.forName("utf-8");
+    
+    private final ByteBuffer buf;
+    private final int limit;
+    private int pos;
+    
+    // The bounds of the current line, without the line terminator.
+    private int lineStart;
+    private int lineLength;
+    
+    // Accumulates the values and entry names that are wrapped into continuation lines.
+    private byte[] joined = new byte[256];
+    private int joinedLength;
+    
+    private ManifestParser(final ByteBuffer buf)
+    {
+        this.buf = buf;
+        pos = buf.position();
+        limit = buf.limit();
+    }
+    
+    /**
+     * <p>Parses the manifest that is contained in the remaining bytes of a given buffer and
+     * returns the attributes of a given entry. The position of the buffer is not changed.</p>
+     * 
+     * @param buf the buffer that contains the manifest. It must be not {@code null}.
+     * @param entryName the name of the entry whose attributes are to be returned. If it is
+     *      {@code null} then the attributes of the main entry are returned.
+     * 
+     * @return the attributes of the entry requested or {@code null} if there is no entry
+     *      with the given name. The attributes of the main entry are always returned.
+     * 
+     * @throws IOException if the manifest is malformed.
+     */
+    static Section parse(final ByteBuffer buf, final String entryName) throws IOException
+    {
+        assert buf != null;
+        
+        return new ManifestParser(buf).parse(entryName);
+    }
+    
+    private Section parse(final String entryName) throws IOException
+    {
+        Section result = entryName == null ? new Section() : null;
+        readAttributes(result);
+        
+        while (nextLine()) {
+            if (lineLength == 0) {
+                continue;
+            }
+            if (!isNameHeader()) {
+                throw new IOException("Invalid manifest format: an entry does not start with the header 'Name'.");
+            }
+            final boolean nameRequired = entryName != null;
+            if (nameRequired) {
+                joinedLength = 0;
+                join(lineStart + 6, lineLength - 6);
+            }
+            while (peek() == ' ') {
+                if (!nextLine()) {
+                    // The last line is unterminated and is ignored as java.util.jar.Manifest does.
+                    return result;
+                }
+                if (nameRequired) {
+                    join(lineStart + 1, lineLength - 1);
+                }
+            }
+            Section section = null;
+            if (nameRequired && entryName.equals(decodeUtf8(ByteBuffer.wrap(joined), 0, joinedLength))) {
+                if (result == null) {
+                    result = new Section();
+                }
+                // Entries with the same name are merged.
+                section = result;
+            }
+            readAttributes(section);
+        }
+        return result;
+    }
+    
+    // If section is null then the attributes are validated but not stored.
+    private void readAttributes(final Section section) throws IOException
+    {
+        boolean headerRead = false;
+        int nameStart = 0;
+        int nameLength = 0;
+        while (nextLine()) {
+            if (lineLength == 0) {
+                return;
+            }
+            if (buf.get(lineStart) == ' ') {
+                if (!headerRead) {
+                    throw new IOException("Invalid manifest format: misplaced continuation line.");
+                }
+                if (section != null) {
+                    join(lineStart + 1, lineLength - 1);
+                }
+                if (peek() == ' ') {
+                    continue;
+                }
+                checkName(nameStart, nameLength);
+                if (section != null) {
+                    final byte[] value = new byte[joinedLength];
+                    System.arraycopy(joined, 0, value, 0, joinedLength);
+                    section.put(buf, nameStart, nameLength, ByteBuffer.wrap(value), 0, joinedLength);
+                }
+            } else {
+                final int end = lineStart + lineLength;
+                int colon = lineStart;
+                while (buf.get(colon) != ':') {
+                    if (++colon >= end) {
+                        throw new IOException("Invalid manifest format: invalid header field.");
+                    }
+                }
+                if (colon + 1 >= end || buf.get(colon + 1) != ' ') {
+                    throw new IOException("Invalid manifest format: invalid header field.");
+                }
+                headerRead = true;
+                nameStart = lineStart;
+                nameLength = colon - lineStart;
+                final int valueStart = colon + 2;
+                if (peek() == ' ') {
+                    if (section != null) {
+                        joinedLength = 0;
+                        join(valueStart, end - valueStart);
+                    }
+                    continue;
+                }
+                checkName(nameStart, nameLength);
+                if (section != null) {
+                    section.put(buf, nameStart, nameLength, buf, valueStart, end - valueStart);
+                }
+            }
+        }
+    }
+    
+    /* Reads the next line as java.util.jar.Manifest does. A line is terminated by CR LF, LF or CR
+     * and is at most MAX_LINE_LENGTH bytes long, including the terminator. A CR that is the last
+     * byte allowed terminates the line even if it is followed by LF. Returns false if there are
+     * no more lines. The last line is ignored if it is not terminated.
+     */
+    private boolean nextLine() throws IOException
+    {
+        if (pos >= limit) {
+            return false;
+        }
+        final int max = Math.min(limit, pos + MAX_LINE_LENGTH);
+        int i = pos;
+        byte c = 0;
+        while (i < max && (c = buf.get(i++)) != '\n' && c != '\r');
+        if (c == '\r' && i < max && buf.get(i) == '\n') {
+            ++i;
+            c = '\n';
+        }
+        if (c != '\n' && c != '\r') {
+            if (max == limit && limit - pos < MAX_LINE_LENGTH) {
+                pos = limit;
+                return false;
+            }
+            throw new IOException("Invalid manifest format: line too long.");
+        }
+        int length = i - pos - 1;
+        if (length > 0 && buf.get(pos + length - 1) == '\r') {
+            --length;
+        }
+        lineStart = pos;
+        lineLength = length;
+        pos = i;
+        return true;
+    }
+    
+    private int peek()
+    {
+        return pos < limit ? buf.get(pos) : -1;
+    }
+    
+    private boolean isNameHeader()
+    {
+        return lineLength >= 6 &&
+                toLowerCase(buf.get(lineStart)) == 'n' && toLowerCase(buf.get(lineStart + 1)) == 'a' &&
+                toLowerCase(buf.get(lineStart + 2)) == 'm' && toLowerCase(buf.get(lineStart + 3)) == 'e' &&
+                buf.get(lineStart + 4) == ':' && buf.get(lineStart + 5) == ' ';
+    }
+    
+    private void join(final int start, final int length)
+    {
+        final int newLength = joinedLength + length;
+        if (newLength > joined.length) {
+            final byte[] newJoined = new byte[Math.max(newLength, joined.length * 2)];
+            System.arraycopy(joined, 0, newJoined, 0, joinedLength);
+            joined = newJoined;
+        }
+        for (int i = 0; i < length; ++i) {
+            joined[joinedLength + i] = buf.get(start + i);
+        }
+        joinedLength = newLength;
+    }
+    
+    // Validates the attribute name as java.util.jar.Attributes.Name does.
+    private void checkName(final int start, final int length) throws IOException
+    {
+        boolean valid = length > 0 && length <= MAX_NAME_LENGTH;
+        for (int i = 0; valid && i < length; ++i) {
+            valid = isNameChar(buf.get(start + i));
+        }
+        if (!valid) {
+            throw new IOException(
+                    "Invalid manifest format: invalid header field name: " + decodeUtf8(buf, start, length) + '.');
+        }
+    }
+    
+    private static boolean isNameChar(final int c)
+    {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_' || c == '-';
+    }
+    
+    private static int toLowerCase(final int c)
+    {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+    
+    // The same whitespace characters as the regular expression class \s matches.
+    private static boolean isWhitespace(final byte c)
+    {
+        return c == ' ' || c >= '\t' && c <= '\r';
+    }
+    
+    private static String decodeUtf8(final ByteBuffer data, final int start, final int length)
+    {
+        for (int i = start, end = start + length; i < end; ++i) {
+            if (data.get(i) < 0) {
+                final ByteBuffer slice = data.duplicate();
+                slice.limit(end);
+                slice.position(start);
+                return UTF_8.decode(slice).toString();
+            }
+        }
+        return decodeAscii(data, start, length);
+    }
+    
+    private static String decodeAscii(final ByteBuffer data, final int start, final int length)
+    {
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; ++i) {
+            chars[i] = (char) data.get(start + i);
+        }
+        return new String(chars);
+    }
+    
+    /**
+     * <p>The attributes of a manifest entry in the order they are defined. Attribute names
+     * are case-insensitive. If an attribute is defined multiple times then the last value
+     * is used and the first name is kept.</p>
+     */
+    static final class Section implements Iterable<Attribute>
+    {
+        private final ArrayList<Attribute> attributes = new ArrayList<Attribute>();
+        
+        void put(final ByteBuffer nameData, final int nameStart, final int nameLength,
+                final ByteBuffer valueData, final int valueStart, final int valueLength)
+        {
+            for (final Attribute attribute : attributes) {
+                if (attribute.nameEquals(nameData, nameStart, nameLength)) {
+                    attribute.setValue(valueData, valueStart, valueLength);
+                    return;
+                }
+            }
+            final Attribute attribute = new Attribute(decodeAscii(nameData, nameStart, nameLength));
+            attribute.setValue(valueData, valueStart, valueLength);
+            attributes.add(attribute);
+        }
+        
+        /**
+         * <p>Removes the attribute with a given name from this section.</p>
+         * 
+         * @param name the attribute name. It must be not {@code null}.
+         * 
+         * @return the attribute removed or {@code null} if there is no attribute with
+         *      the given name in this section.
+         * 
+         * @throws IllegalArgumentException if <em>name</em> is not a valid attribute name.
+         *      It is the same exception as {@link java.util.jar.Attributes.Name} throws.
+         */
+        Attribute remove(final String name)
+        {
+            assert name != null;
+            
+            final int length = name.length();
+            if (length == 0 || length > MAX_NAME_LENGTH) {
+                throw new IllegalArgumentException(name);
+            }
+            for (int i = 0; i < length; ++i) {
+                if (!isNameChar(name.charAt(i))) {
+                    throw new IllegalArgumentException(name);
+                }
+            }
+            for (final Iterator<Attribute> i = attributes.iterator(); i.hasNext();) {
+                final Attribute attribute = i.next();
+                if (attribute.name.equalsIgnoreCase(name)) {
+                    i.remove();
+                    return attribute;
+                }
+            }
+            return null;
+        }
+        
+        public Iterator<Attribute> iterator()
+        {
+            return attributes.iterator();
+        }
+    }
+    
+    /**
+     * <p>A manifest attribute whose value is decoded on demand.</p>
+     */
+    static final class Attribute
+    {
+        private final String name;
+        private ByteBuffer data;
+        private int start;
+        private int length;
+        
+        Attribute(final String name)
+        {
+            this.name = name;
+        }
+        
+        String getName()
+        {
+            return name;
+        }
+        
+        String getValue()
+        {
+            return decodeUtf8(data, start, length);
+        }
+        
+        /**
+         * <p>Returns the elements of the value of this attribute, assuming that it is
+         * a list of URL-encoded elements separated by whitespace.</p>
+         * 
+         * @return the list elements. It is never {@code null}.
+         */
+        ListElements getListElements()
+        {
+            return new ListElements(data, start, start + length);
+        }
+        
+        void setValue(final ByteBuffer data, final int start, final int length)
+        {
+            this.data = data;
+            this.start = start;
+            this.length = length;
+        }
+        
+        boolean nameEquals(final ByteBuffer nameData, final int nameStart, final int nameLength)
+        {
+            if (name.length() != nameLength) {
+                return false;
+            }
+            for (int i = 0; i < nameLength; ++i) {
+                if (toLowerCase(name.charAt(i)) != toLowerCase(nameData.get(nameStart + i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+    
+    /**
+     * <p>Iterates over the elements of a list value. The elements are separated by whitespace
+     * and are URL-encoded.</p>
+     */
+    static final class ListElements
+    {
+        private final ByteBuffer data;
+        private final int end;
+        private int pos;
+        
+        private int elementStart;
+        private int elementEnd;
+        private boolean escaped;
+        private boolean plus;
+        private boolean ascii;
+        
+        ListElements(final ByteBuffer data, final int start, final int end)
+        {
+            this.data = data;
+            this.end = end;
+            pos = start;
+        }
+        
+        /**
+         * <p>Moves to the next element.</p>
+         * 
+         * @return {@code true} if there is the next element; {@code false} otherwise.
+         */
+        boolean next()
+        {
+            while (pos < end && isWhitespace(data.get(pos))) {
+                ++pos;
+            }
+            if (pos == end) {
+                return false;
+            }
+            elementStart = pos;
+            escaped = false;
+            plus = false;
+            ascii = true;
+            for (; pos < end; ++pos) {
+                final byte c = data.get(pos);
+                if (isWhitespace(c)) {
+                    break;
+                }
+                if (c == '%') {
+                    escaped = true;
+                } else if (c == '+') {
+                    plus = true;
+                } else if (c < 0) {
+                    ascii = false;
+                }
+            }
+            elementEnd = pos;
+            return true;
+        }
+        
+        /**
+         * <p>Returns the current element as it is defined in the list.</p>
+         * 
+         * @return the current element, not decoded.
+         */
+        String getRawElement()
+        {
+            final int length = elementEnd - elementStart;
+            return ascii ? decodeAscii(data, elementStart, length) : decodeUtf8(data, elementStart, length);
+        }
+        
+        /**
+         * <p>Returns the current element decoded as {@link URLDecoder#decode(String, String)}
+         * does with the encoding UTF-8.</p>
+         * 
+         * @return the current element, decoded.
+         * 
+         * @throws UnsupportedEncodingException if the encoding UTF-8 is not supported.
+         * @throws IllegalArgumentException if the element is an invalid URL.
+         */
+        String decode() throws UnsupportedEncodingException
+        {
+            final String element = getRawElement();
+            if (escaped) {
+                return URLDecoder.decode(element, "utf-8");
+            }
+            return plus ? element.replace('+', ' ') : element;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+
+/**
+ * <p>Collects the metrics of module metadata loading performed by a {@link ModuleRegistry}.
+ * The following phases are timed:</p>
+ * <ul>
+ *  <li><em>normalise</em> &mdash; module path normalisation performed by the registry and
+ *      by {@link ModuleInfo} objects. The latter is a part of the <em>load</em> phase.</li>
+ *  <li><em>load</em> &mdash; invocations of {@link ModuleLoader#loadModule(String)}.
+ *      If module metadata are loaded concurrently then the times of all loader threads
+ *      are summed up.</li>
+ *  <li><em>parse</em> &mdash; parsing of module metadata, as it is reported by the module
+ *      loaders that support this (see {@link #current()}). It is a part of the
+ *      <em>load</em> phase.</li>
+ *  <li><em>link</em> &mdash; creation of {@link Module} objects and linking them one to
+ *      the other by the registry, excluding the time the registry waits for module metadata
+ *      to be loaded.</li>
+ * </ul>
+ * 
+ * <p>In addition, the number of the registry cache hits (modules that are resolved with
+ * no loading), misses (modules that are loaded), negative cache hits (modules that are
+ * known to fail to load) and the hits and misses of the module loader caches are counted,
+ * and the slowest modules to load are tracked.</p>
+ * 
+ * <p>Module loaders report the parse time and their cache hits and misses to the
+ * {@code MetadataMetrics} that is {@link #current() current} for the thread that loads
+ * metadata. {@code MetadataMetrics} is thread-safe.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+final class MetadataMetrics
+{
+    // The number of the slowest modules tracked by default.
+    static final int DEFAULT_SLOWEST_MODULE_COUNT = 10;
+    
+    // The metrics the current thread loads module metadata for, if any.
+    private static final ThreadLocal<MetadataMetrics> currentMetrics = new ThreadLocal<MetadataMetrics>();
+    
+    final Phase normalise = new Phase("normalise");
+    final Phase load = new Phase("load");
+    final Phase parse = new Phase("parse");
+    final Phase link = new Phase("link");
+    
+    final AtomicLong registryHits = new AtomicLong();
+    final AtomicLong registryMisses = new AtomicLong();
+    final AtomicLong negativeCacheHits = new AtomicLong();
+    final AtomicLong loadFailures = new AtomicLong();
+    final AtomicLong loaderCacheHits = new AtomicLong();
+    final AtomicLong loaderCacheMisses = new AtomicLong();
+    
+    private final int slowestModuleCount;
+    // The slowest modules loaded. The fastest of them is the head.
+    private final PriorityQueue<ModuleLoadTime> slowestModules;
+    
+    MetadataMetrics()
+    {
+        this(DEFAULT_SLOWEST_MODULE_COUNT);
+    }
+    
+    MetadataMetrics(final int slowestModuleCount)
+    {
+        this.slowestModuleCount = slowestModuleCount;
+        slowestModules = new PriorityQueue<ModuleLoadTime>(slowestModuleCount + 1);
+    }
+    
+    /**
+     * <p>Returns the {@code MetadataMetrics} that module metadata are being loaded for by
+     * the current thread. It is {@code null} if no metrics are collected.</p>
+     * 
+     * @return the current {@code MetadataMetrics} or {@code null}.
+     */
+    static MetadataMetrics current()
+    {
+        return currentMetrics.get();
+    }
+    
+    /* Makes the given metrics current for the current thread and returns the metrics that
+     * were current before, so that they could be restored by #restore().
+     */
+    static MetadataMetrics enter(final MetadataMetrics metrics)
+    {
+        final MetadataMetrics previous = currentMetrics.get();
+        currentMetrics.set(metrics);
+        return previous;
+    }
+    
+    static void restore(final MetadataMetrics previous)
+    {
+        if (previous == null) {
+            currentMetrics.remove();
+        } else {
+            currentMetrics.set(previous);
+        }
+    }
+    
+    void moduleLoaded(final String path, final long nanos, final boolean failed)
+    {
+        load.add(nanos);
+        registryMisses.incrementAndGet();
+        if (failed) {
+            loadFailures.incrementAndGet();
+        }
+        if (slowestModuleCount == 0) {
+            return;
+        }
+        synchronized (slowestModules) {
+            if (slowestModules.size() < slowestModuleCount) {
+                slowestModules.add(new ModuleLoadTime(path, nanos));
+            } else if (slowestModules.peek().nanos < nanos) {
+                slowestModules.poll();
+                slowestModules.add(new ModuleLoadTime(path, nanos));
+            }
+        }
+    }
+    
+    // Returns the slowest modules loaded, from the slowest one.
+    ArrayList<ModuleLoadTime> getSlowestModules()
+    {
+        final ArrayList<ModuleLoadTime> result;
+        synchronized (slowestModules) {
+            result = new ArrayList<ModuleLoadTime>(slowestModules);
+        }
+        Collections.sort(result);
+        Collections.reverse(result);
+        return result;
+    }
+    
+    /**
+     * <p>Writes the summary of these metrics to the log of a given task with the
+     * {@link Project#MSG_INFO INFO} priority.</p>
+     * 
+     * @param task the task to log the metrics with. It must be not {@code null}.
+     */
+    void log(final Task task)
+    {
+        task.log(MessageFormat.format(
+                "Module metadata: {0} modules loaded ({1} failed). Time, ms: normalise {2}, load {3}, " +
+                "parse {4}, link {5}.",
+                String.valueOf(registryMisses.get()), String.valueOf(loadFailures.get()),
+                millis(normalise.nanos.get()), millis(load.nanos.get()), millis(parse.nanos.get()),
+                millis(link.nanos.get())));
+        task.log(MessageFormat.format(
+                "Module registry: {0} hits, {1} misses, {2} negative cache hits. Module loader cache: " +
+                "{3} hits, {4} misses.",
+                String.valueOf(registryHits.get()), String.valueOf(registryMisses.get()),
+                String.valueOf(negativeCacheHits.get()), String.valueOf(loaderCacheHits.get()),
+                String.valueOf(loaderCacheMisses.get())));
+        final ArrayList<ModuleLoadTime> slowest = getSlowestModules();
+        if (!slowest.isEmpty()) {
+            task.log("Slowest modules to load:");
+            for (final ModuleLoadTime module : slowest) {
+                task.log(MessageFormat.format("    {0}: {1} ms", module.path, millis(module.nanos)));
+            }
+        }
+    }
+    
+    /**
+     * <p>Writes these metrics to a given file as a JSON object. The file is replaced
+     * atomically.</p>
+     * 
+     * @param file the file to write the metrics to. It must be not {@code null}.
+     * 
+     * @throws IOException if an I/O error occurs.
+     */
+    void writeJson(final File file) throws IOException
+    {
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        final Writer writer = new OutputStreamWriter(buf, "utf-8");
+        final JsonWriter json = new JsonWriter(writer);
+        
+        json.beginObject();
+        json.name("phases").beginObject();
+        for (final Phase phase : new Phase[] {normalise, load, parse, link}) {
+            json.name(phase.name).beginObject();
+            json.name("count").value(phase.count.get());
+            json.name("nanos").value(phase.nanos.get());
+            json.endObject();
+        }
+        json.endObject();
+        json.name("registry").beginObject();
+        json.name("hits").value(registryHits.get());
+        json.name("misses").value(registryMisses.get());
+        json.name("negativeCacheHits").value(negativeCacheHits.get());
+        json.name("loadFailures").value(loadFailures.get());
+        json.endObject();
+        json.name("loaderCache").beginObject();
+        json.name("hits").value(loaderCacheHits.get());
+        json.name("misses").value(loaderCacheMisses.get());
+        json.endObject();
+        json.name("slowestModules").beginArray();
+        for (final ModuleLoadTime module : getSlowestModules()) {
+            json.newLine().beginObject();
+            json.name("path").value(module.path);
+            json.name("nanos").value(module.nanos);
+            json.endObject();
+        }
+        json.endArray();
+        json.endObject().newLine();
+        writer.flush();
+        
+        ModuleMetadataCache.writeAtomically(file, buf);
+    }
+    
+    private static String millis(final long nanos)
+    {
+        return String.valueOf(nanos / 1000000);
+    }
+    
+    static final class Phase
+    {
+        final String name;
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong nanos = new AtomicLong();
+        
+        Phase(final String name)
+        {
+            this.name = name;
+        }
+        
+        void add(final long nanos)
+        {
+            count.incrementAndGet();
+            this.nanos.addAndGet(nanos);
+        }
+    }
+    
+    static final class ModuleLoadTime implements Comparable<ModuleLoadTime>
+    {
+        final String path;
+        final long nanos;
+        
+        ModuleLoadTime(final String path, final long nanos)
+        {
+            this.path = path;
+            this.nanos = nanos;
+        }
+        
+        public int compareTo(final ModuleLoadTime o)
+        {
+            return nanos < o.nanos ? -1 : nanos == o.nanos ? 0 : 1;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>Stores the durations of the targets invoked for modules in a file so that they can be
+ * used to plan subsequent builds. Each record is keyed by the module path and holds the
+ * duration of the last invocation of the module target in milliseconds.</p>
+ * 
+ * <p>The file is written atomically, in the same way as {@link ModuleMetadataCache} writes its
+ * file, so that concurrent builds that share the file do not corrupt it.</p>
+ * 
+ * <p>{@code ModuleDurations} is thread-safe.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ * 
+ * @see BuildPlanner
+ */
+final class ModuleDurations
+{
+    private static final int MAGIC = 0x414d4455; // AMDU
+    private static final int VERSION = 1;
+    
+    private final File file;
+    
+    // Module path -> duration. The records are sorted so that the file content is stable.
+    private final TreeMap<String, Long> durations = new TreeMap<String, Long>();
+    private boolean modified;
+    
+    /**
+     * <p>Creates an empty {@code ModuleDurations} that is backed by a given file.</p>
+     * 
+     * @param file the file. It must be not {@code null}.
+     */
+    ModuleDurations(final File file)
+    {
+        assert file != null;
+        
+        this.file = file;
+    }
+    
+    File getFile()
+    {
+        return file;
+    }
+    
+    /**
+     * <p>Returns the duration of the target of the module with a given path in milliseconds,
+     * or {@code -1} if it is not recorded.</p>
+     */
+    synchronized long get(final String path)
+    {
+        final Long duration = durations.get(path);
+        return duration == null ? -1 : duration.longValue();
+    }
+    
+    /**
+     * <p>Records the duration of the target of the module with a given path in milliseconds.</p>
+     */
+    synchronized void put(final String path, final long duration)
+    {
+        assert duration >= 0;
+        
+        durations.put(path, Long.valueOf(duration));
+        modified = true;
+    }
+    
+    synchronized int size()
+    {
+        return durations.size();
+    }
+    
+    /**
+     * <p>Returns the mean of the durations recorded, or {@code -1} if there are no durations.</p>
+     */
+    synchronized long mean()
+    {
+        if (durations.isEmpty()) {
+            return -1;
+        }
+        long sum = 0;
+        for (final Long duration : durations.values()) {
+            sum += duration.longValue();
+        }
+        return sum / durations.size();
+    }
+    
+    synchronized boolean isModified()
+    {
+        return modified;
+    }
+    
+    /**
+     * <p>Reads the records from the file, replacing the records of this {@code ModuleDurations}.
+     * If the file does not exist then this {@code ModuleDurations} is left empty.</p>
+     * 
+     * @throws IOException if the file cannot be read or is corrupted. This {@code ModuleDurations}
+     *      is left empty in this case.
+     */
+    synchronized void read() throws IOException
+    {
+        durations.clear();
+        modified = false;
+        
+        final DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        }
+        catch (FileNotFoundException ex) {
+            return;
+        }
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(MessageFormat.format("''{0}'' is not a durations file.", file));
+            }
+            if (in.readInt() != VERSION) {
+                return;
+            }
+            for (int i = 0, n = in.readInt(); i < n; ++i) {
+                final String path = ModuleMetadataCache.readString(in);
+                final long duration = in.readLong();
+                if (duration < 0) {
+                    throw new IOException(MessageFormat.format("The durations file ''{0}'' is corrupted.", file));
+                }
+                durations.put(path, Long.valueOf(duration));
+            }
+        }
+        catch (EOFException ex) {
+            durations.clear();
+            throw new IOException(MessageFormat.format("The durations file ''{0}'' is truncated.", file));
+        }
+        catch (IOException ex) {
+            durations.clear();
+            throw ex;
+        }
+        catch (RuntimeException ex) {
+            // Corrupted sizes lead to NegativeArraySizeException and the like.
+            durations.clear();
+            throw new IOException(MessageFormat.format("The durations file ''{0}'' is corrupted.", file));
+        }
+        finally {
+            in.close();
+        }
+    }
+    
+    /**
+     * <p>Writes the records of this {@code ModuleDurations} to the file atomically.</p>
+     * 
+     * @throws IOException if the file cannot be written. The file is left unchanged in this case.
+     */
+    synchronized void write() throws IOException
+    {
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream(64 * 1024);
+        final DataOutputStream out = new DataOutputStream(buf);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(durations.size());
+        for (final Map.Entry<String, Long> entry : durations.entrySet()) {
+            ModuleMetadataCache.writeString(out, entry.getKey());
+            out.writeLong(entry.getValue().longValue());
+        }
+        out.flush();
+        
+        ModuleMetadataCache.writeAtomically(file, buf);
+        modified = false;
+    }
+}
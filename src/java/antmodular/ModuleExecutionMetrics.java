@@ -0,0 +1,527 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.apache.tools.ant.Task;
+
+/**
+ * <p>Collects the metrics of processing of {@link Module modules} by
+ * {@link CallTargetForModules}. The following metrics are collected for each module:</p>
+ * <ul>
+ *  <li><em>queue</em> &mdash; the time the module is ready for processing (all the modules
+ *      it depends upon are processed) but waits for a thread to process it;</li>
+ *  <li><em>wall</em> &mdash; the wall-clock time of processing the module;</li>
+ *  <li><em>CPU</em> &mdash; the CPU time consumed by the thread that processes the module
+ *      while the module is processed;</li>
+ *  <li><em>allocated</em> &mdash; the number of bytes allocated by the thread that processes
+ *      the module while the module is processed.</li>
+ * </ul>
+ * <p>The CPU time and the allocated bytes are measured by the {@link ThreadMXBean} of the JVM.
+ * They are {@code -1} if the JVM does not support measuring them or this is disabled. The work
+ * done by other threads on behalf of the module (e.g. by the threads started by its target)
+ * is not accounted.</p>
+ * 
+ * <p>In addition, the totals of each thread are collected so that the utilisation of the
+ * threads could be seen. The metrics could be written as a timeline in the Chrome trace event
+ * format as well.</p>
+ * 
+ * <p>{@code ModuleExecutionMetrics} is thread-safe.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ * 
+ * @see MetadataMetrics
+ */
+final class ModuleExecutionMetrics
+{
+    // The number of the slowest modules logged.
+    private static final int SLOWEST_MODULE_COUNT = 10;
+    // The process ID of all trace events.
+    private static final long TRACE_PID = 1;
+    
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    /* com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long) if the JVM supports it.
+     * The method is looked up in the interface because the class of the bean is not accessible.
+     */
+    private static final Method getThreadAllocatedBytes = allocatedBytesMethod();
+    
+    private final long startNanos = System.nanoTime();
+    private long endNanos = -1;
+    // Module -> the time it has finished. It is used to determine when modules become ready.
+    private final IdentityHashMap<Module, Long> finishTimes = new IdentityHashMap<Module, Long>();
+    // The samples of the modules processed in the order they have finished.
+    private final ArrayList<Sample> samples = new ArrayList<Sample>();
+    
+    /**
+     * <p>Starts measuring the processing of a given module by the current thread. All modules
+     * it depends upon must already be {@link #moduleFinished(Sample, boolean) finished}.</p>
+     * 
+     * @return the sample to be passed to {@link #moduleFinished(Sample, boolean)} when
+     *      the processing of the module finishes.
+     */
+    Sample moduleStarted(final Module module, final String target)
+    {
+        long readyNanos = startNanos;
+        synchronized (finishTimes) {
+            for (final Module dep : module.dependencies) {
+                final Long finishNanos = finishTimes.get(dep);
+                if (finishNanos != null) {
+                    readyNanos = Math.max(readyNanos, finishNanos.longValue());
+                }
+            }
+        }
+        final Sample sample = new Sample(module, target, Thread.currentThread().getName(), readyNanos);
+        sample.cpuNanos = currentThreadCpuTime();
+        sample.allocatedBytes = currentThreadAllocatedBytes();
+        sample.startNanos = System.nanoTime();
+        return sample;
+    }
+    
+    /**
+     * <p>Finishes measuring the processing of a module by the current thread.</p>
+     * 
+     * @param sample the sample returned by {@link #moduleStarted(Module, String)}.
+     * @param failed {@code true} if the processing of the module has failed.
+     */
+    void moduleFinished(final Sample sample, final boolean failed)
+    {
+        sample.endNanos = System.nanoTime();
+        sample.cpuNanos = delta(sample.cpuNanos, currentThreadCpuTime());
+        sample.allocatedBytes = delta(sample.allocatedBytes, currentThreadAllocatedBytes());
+        sample.failed = failed;
+        synchronized (finishTimes) {
+            finishTimes.put(sample.module, Long.valueOf(sample.endNanos));
+            samples.add(sample);
+        }
+    }
+    
+    /**
+     * <p>Marks the end of processing of modules.</p>
+     */
+    synchronized void finish()
+    {
+        endNanos = System.nanoTime();
+    }
+    
+    long getElapsedNanos()
+    {
+        final long end;
+        synchronized (this) {
+            end = endNanos;
+        }
+        return (end < 0 ? System.nanoTime() : end) - startNanos;
+    }
+    
+    // Returns the samples of the modules processed in the order they have started.
+    List<Sample> getSamples()
+    {
+        final ArrayList<Sample> result;
+        synchronized (finishTimes) {
+            result = new ArrayList<Sample>(samples);
+        }
+        Collections.sort(result, new Comparator<Sample>()
+        {
+            public int compare(final Sample s1, final Sample s2)
+            {
+                return s1.startNanos < s2.startNanos ? -1 : s1.startNanos == s2.startNanos ? 0 : 1;
+            }
+        });
+        return result;
+    }
+    
+    // Returns the totals of each thread sorted by the thread name.
+    List<ThreadTotals> getThreadTotals()
+    {
+        final TreeMap<String, ThreadTotals> result = new TreeMap<String, ThreadTotals>();
+        for (final Sample sample : getSamples()) {
+            ThreadTotals totals = result.get(sample.thread);
+            if (totals == null) {
+                totals = new ThreadTotals(sample.thread);
+                result.put(sample.thread, totals);
+            }
+            ++totals.moduleCount;
+            totals.busyNanos += sample.getWallNanos();
+            totals.cpuNanos = sum(totals.cpuNanos, sample.cpuNanos);
+            totals.allocatedBytes = sum(totals.allocatedBytes, sample.allocatedBytes);
+        }
+        return new ArrayList<ThreadTotals>(result.values());
+    }
+    
+    /**
+     * <p>Writes the summary of these metrics to the log of a given task with the
+     * {@link org.apache.tools.ant.Project#MSG_INFO INFO} priority.</p>
+     * 
+     * @param task the task to log the metrics with. It must be not {@code null}.
+     */
+    void log(final Task task)
+    {
+        final List<Sample> samples = getSamples();
+        final long elapsedNanos = getElapsedNanos();
+        long queueNanos = 0;
+        long wallNanos = 0;
+        long cpuNanos = 0;
+        long allocatedBytes = 0;
+        for (final Sample sample : samples) {
+            queueNanos += sample.getQueueNanos();
+            wallNanos += sample.getWallNanos();
+            cpuNanos = sum(cpuNanos, sample.cpuNanos);
+            allocatedBytes = sum(allocatedBytes, sample.allocatedBytes);
+        }
+        task.log(MessageFormat.format(
+                "Module execution: {0} modules processed in {1} ms. Time, ms: queue {2}, wall {3}, CPU {4}. " +
+                "Allocated bytes: {5}.",
+                String.valueOf(samples.size()), millis(elapsedNanos), millis(queueNanos), millis(wallNanos),
+                millis(cpuNanos), String.valueOf(allocatedBytes)));
+        for (final ThreadTotals totals : getThreadTotals()) {
+            task.log(MessageFormat.format(
+                    "    Thread ''{0}'': {1} modules, busy {2} ms ({3}%), CPU {4} ms, allocated bytes {5}.",
+                    totals.name, String.valueOf(totals.moduleCount), millis(totals.busyNanos),
+                    String.valueOf(percent(totals.busyNanos, elapsedNanos)), millis(totals.cpuNanos),
+                    String.valueOf(totals.allocatedBytes)));
+        }
+        
+        final ArrayList<Sample> slowest = new ArrayList<Sample>(samples);
+        Collections.sort(slowest, new Comparator<Sample>()
+        {
+            public int compare(final Sample s1, final Sample s2)
+            {
+                final long w1 = s1.getWallNanos();
+                final long w2 = s2.getWallNanos();
+                return w1 > w2 ? -1 : w1 == w2 ? 0 : 1;
+            }
+        });
+        if (!slowest.isEmpty()) {
+            task.log("Slowest modules to process:");
+            for (final Sample sample : slowest.subList(0, Math.min(SLOWEST_MODULE_COUNT, slowest.size()))) {
+                task.log(MessageFormat.format("    {0}: wall {1} ms, queue {2} ms, CPU {3} ms",
+                        sample.module.getPath(), millis(sample.getWallNanos()), millis(sample.getQueueNanos()),
+                        millis(sample.cpuNanos)));
+            }
+        }
+    }
+    
+    /**
+     * <p>Writes these metrics to a given file as a JSON object. The file is replaced
+     * atomically.</p>
+     * 
+     * @param file the file to write the metrics to. It must be not {@code null}.
+     * 
+     * @throws IOException if an I/O error occurs.
+     */
+    void writeJson(final File file) throws IOException
+    {
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        final Writer writer = new OutputStreamWriter(buf, "utf-8");
+        final JsonWriter json = new JsonWriter(writer);
+        final long elapsedNanos = getElapsedNanos();
+        
+        json.beginObject();
+        json.name("elapsedNanos").value(elapsedNanos);
+        json.name("modules").beginArray();
+        for (final Sample sample : getSamples()) {
+            json.newLine().beginObject();
+            json.name("path").value(sample.module.getPath());
+            json.name("target").value(sample.target);
+            json.name("thread").value(sample.thread);
+            json.name("queueNanos").value(sample.getQueueNanos());
+            json.name("wallNanos").value(sample.getWallNanos());
+            json.name("cpuNanos").value(sample.cpuNanos);
+            json.name("allocatedBytes").value(sample.allocatedBytes);
+            json.name("failed").value(sample.failed);
+            json.endObject();
+        }
+        json.endArray();
+        json.name("threads").beginArray();
+        for (final ThreadTotals totals : getThreadTotals()) {
+            json.newLine().beginObject();
+            json.name("name").value(totals.name);
+            json.name("modules").value(totals.moduleCount);
+            json.name("busyNanos").value(totals.busyNanos);
+            json.name("cpuNanos").value(totals.cpuNanos);
+            json.name("allocatedBytes").value(totals.allocatedBytes);
+            json.name("utilisationPercent").value(percent(totals.busyNanos, elapsedNanos));
+            json.endObject();
+        }
+        json.endArray();
+        json.endObject().newLine();
+        writer.flush();
+        
+        ModuleMetadataCache.writeAtomically(file, buf);
+    }
+    
+    /**
+     * <p>Writes these metrics to a given file as a timeline in the Chrome trace event format,
+     * which could be viewed in {@code chrome://tracing} or Perfetto.
+     * The timeline has a track per thread with a span per module processed by this thread, and
+     * the counters of modules ready to be processed and of threads processing modules.
+     * The file is replaced atomically.</p>
+     * 
+     * @param file the file to write the timeline to. It must be not {@code null}.
+     * 
+     * @throws IOException if an I/O error occurs.
+     */
+    void writeTrace(final File file) throws IOException
+    {
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        final Writer writer = new OutputStreamWriter(buf, "utf-8");
+        final JsonWriter json = new JsonWriter(writer);
+        final List<Sample> samples = getSamples();
+        
+        json.beginObject();
+        json.name("displayTimeUnit").value("ms");
+        json.name("traceEvents").beginArray();
+        json.newLine().beginObject();
+        json.name("name").value("process_name").name("ph").value("M").name("pid").value(TRACE_PID);
+        json.name("args").beginObject().name("name").value("callTargetForModules").endObject();
+        json.endObject();
+        
+        // Threads are numbered in the order of their names.
+        final HashMap<String, Long> threadIds = new HashMap<String, Long>();
+        for (final ThreadTotals totals : getThreadTotals()) {
+            final long tid = threadIds.size() + 1;
+            threadIds.put(totals.name, Long.valueOf(tid));
+            json.newLine().beginObject();
+            json.name("name").value("thread_name").name("ph").value("M").name("pid").value(TRACE_PID);
+            json.name("tid").value(tid);
+            json.name("args").beginObject().name("name").value(totals.name).endObject();
+            json.endObject();
+        }
+        
+        for (final Sample sample : samples) {
+            json.newLine().beginObject();
+            json.name("name").value(sample.module.getPath()).name("cat").value("module").name("ph").value("X");
+            json.name("ts").value(micros(sample.startNanos)).name("dur").value(sample.getWallNanos() / 1000);
+            json.name("pid").value(TRACE_PID).name("tid").value(threadIds.get(sample.thread).longValue());
+            json.name("args").beginObject();
+            json.name("path").value(sample.module.getPath());
+            json.name("target").value(sample.target);
+            if (sample.failed) {
+                json.name("failed").value(true);
+            }
+            json.endObject();
+            json.endObject();
+        }
+        
+        writeCounters(json, samples);
+        json.newLine().endArray();
+        json.endObject().newLine();
+        writer.flush();
+        
+        ModuleMetadataCache.writeAtomically(file, buf);
+    }
+    
+    /* Writes the counters of modules ready to be processed and of threads processing modules.
+     * A module is ready since the modules it depends upon are finished until it is started,
+     * and it is processed by a thread until it is finished. The counters are written each time
+     * they change.
+     */
+    private void writeCounters(final JsonWriter json, final List<Sample> samples) throws IOException
+    {
+        final int sampleCount = samples.size();
+        final long[] readyTimes = new long[sampleCount];
+        final long[] startTimes = new long[sampleCount];
+        final long[] endTimes = new long[sampleCount];
+        for (int i = 0; i < sampleCount; ++i) {
+            final Sample sample = samples.get(i);
+            readyTimes[i] = micros(Math.min(sample.readyNanos, sample.startNanos));
+            startTimes[i] = micros(sample.startNanos);
+            endTimes[i] = micros(sample.endNanos);
+        }
+        Arrays.sort(readyTimes);
+        Arrays.sort(startTimes);
+        Arrays.sort(endTimes);
+        
+        int r = 0, s = 0, e = 0;
+        long lastReady = -1;
+        long lastActive = -1;
+        while (e < sampleCount) {
+            // Applying all changes that happen at the same time at once.
+            long time = endTimes[e];
+            if (r < sampleCount) {
+                time = Math.min(time, readyTimes[r]);
+            }
+            if (s < sampleCount) {
+                time = Math.min(time, startTimes[s]);
+            }
+            while (r < sampleCount && readyTimes[r] == time) {
+                ++r;
+            }
+            while (s < sampleCount && startTimes[s] == time) {
+                ++s;
+            }
+            while (e < sampleCount && endTimes[e] == time) {
+                ++e;
+            }
+            final long ready = r - s;
+            final long active = s - e;
+            if (ready != lastReady) {
+                writeCounter(json, "ready modules", time, ready);
+                lastReady = ready;
+            }
+            if (active != lastActive) {
+                writeCounter(json, "active threads", time, active);
+                lastActive = active;
+            }
+        }
+    }
+    
+    private static void writeCounter(final JsonWriter json, final String name, final long time, final long value)
+            throws IOException
+    {
+        json.newLine().beginObject();
+        json.name("name").value(name).name("ph").value("C").name("ts").value(time).name("pid").value(TRACE_PID);
+        json.name("args").beginObject().name("value").value(value).endObject();
+        json.endObject();
+    }
+    
+    // Returns the time in microseconds since these metrics are created.
+    private long micros(final long nanos)
+    {
+        return (nanos - startNanos) / 1000;
+    }
+    
+    private static long currentThreadCpuTime()
+    {
+        try {
+            return threadBean.isCurrentThreadCpuTimeSupported() ? threadBean.getCurrentThreadCpuTime() : -1;
+        }
+        catch (UnsupportedOperationException ex) {
+            return -1;
+        }
+    }
+    
+    private static long currentThreadAllocatedBytes()
+    {
+        if (getThreadAllocatedBytes == null) {
+            return -1;
+        }
+        try {
+            return ((Long) getThreadAllocatedBytes.invoke(threadBean,
+                    Long.valueOf(Thread.currentThread().getId()))).longValue();
+        }
+        catch (Exception ex) {
+            // Measuring is disabled or unsupported.
+            return -1;
+        }
+    }
+    
+    private static Method allocatedBytesMethod()
+    {
+        try {
+            final Class<?> beanClass = Class.forName("com.sun.management.ThreadMXBean");
+            if (!beanClass.isInstance(threadBean)) {
+                return null;
+            }
+            return beanClass.getMethod("getThreadAllocatedBytes", long.class);
+        }
+        catch (Exception ex) {
+            // Not a HotSpot-compatible JVM.
+            return null;
+        }
+    }
+    
+    // Returns the difference of two measurements or -1 if either of them is unavailable.
+    private static long delta(final long start, final long end)
+    {
+        return start < 0 || end < 0 ? -1 : end - start;
+    }
+    
+    // Returns the sum of two measurements or -1 if either of them is unavailable.
+    private static long sum(final long a, final long b)
+    {
+        return a < 0 || b < 0 ? -1 : a + b;
+    }
+    
+    private static long percent(final long part, final long total)
+    {
+        return total <= 0 ? 0 : part * 100 / total;
+    }
+    
+    private static String millis(final long nanos)
+    {
+        return nanos < 0 ? "N/A" : String.valueOf(nanos / 1000000);
+    }
+    
+    static final class Sample
+    {
+        final Module module;
+        final String target;
+        final String thread;
+        final long readyNanos;
+        long startNanos;
+        long endNanos;
+        // The start values of the measurements until the module is finished.
+        long cpuNanos;
+        long allocatedBytes;
+        boolean failed;
+        
+        Sample(final Module module, final String target, final String thread, final long readyNanos)
+        {
+            this.module = module;
+            this.target = target;
+            this.thread = thread;
+            this.readyNanos = readyNanos;
+        }
+        
+        long getQueueNanos()
+        {
+            return Math.max(0, startNanos - readyNanos);
+        }
+        
+        long getWallNanos()
+        {
+            return endNanos - startNanos;
+        }
+    }
+    
+    static final class ThreadTotals
+    {
+        final String name;
+        int moduleCount;
+        long busyNanos;
+        long cpuNanos;
+        long allocatedBytes;
+        
+        ThreadTotals(final String name)
+        {
+            this.name = name;
+        }
+    }
+}
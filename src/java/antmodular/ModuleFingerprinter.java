@@ -0,0 +1,302 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.Path;
+import org.apache.tools.ant.types.PatternSet;
+
+/**
+ * <p>Computes fingerprints of modules. A fingerprint of a module is a hash of everything
+ * the result of the module target is considered to depend upon: the module path, the name of
+ * the target, the module attributes, the values of the selected properties, the paths and
+ * either the sizes and modification times or the content hashes of the input files of
+ * the module, and the fingerprints of its dependee modules. Thus, the fingerprint of a module
+ * changes if any of these changes for this module or any module it depends upon, directly or
+ * indirectly.</p>
+ * 
+ * <p>The input files of a module are the files in the module directory that match the input
+ * pattern sets given and do not match the output pattern sets given. If no input pattern set
+ * is given then all files in the module directory but the outputs are inputs. The default
+ * excludes of Ant are applied. If the input pattern sets are not given at all then there are
+ * no input files, so that the fingerprint covers the module metadata only.</p>
+ * 
+ * <p>The fingerprint does not depend on the location of the project base directory: the file
+ * paths in the attributes of type {@link Path org.apache.tools.ant.types.Path} are made
+ * relative to the base directory if they are located within it. If the content of the input files
+ * is hashed then the fingerprint does not depend on the modification times of the files either,
+ * so that it is the same for the same module in different workspaces.</p>
+ * 
+ * <p>The fingerprints of dependee modules must be computed before the fingerprint of a module
+ * that depends upon them is computed, which is the case if the fingerprint of each module is
+ * computed when the module is acquired from a dependency resolver. The fingerprints computed
+ * are remembered by this {@code ModuleFingerprinter}.</p>
+ * 
+ * <p>{@code ModuleFingerprinter} is thread-safe.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ * 
+ * @see CallTargetForModules#setIncremental(boolean)
+ * @see CallTargetForModules#setCheckpointFile(File)
+ */
+final class ModuleFingerprinter
+{
+    private final Project project;
+    private final List<PatternSet> inputs;
+    private final List<PatternSet> outputs;
+    private final List<String> propertyNames;
+    private final boolean hashContent;
+    private final ConcurrentHashMap<Module, String> fingerprints = new ConcurrentHashMap<Module, String>();
+    
+    /**
+     * <p>Creates a {@code ModuleFingerprinter}.</p>
+     * 
+     * @param project the Ant project the module paths are resolved against.
+     * @param inputs the pattern sets which define the input files of a module. If the list is
+     *      empty then all files in the module directory are inputs. If it is {@code null} then
+     *      no files are inputs.
+     * @param outputs the pattern sets which define the output files of a module. They are
+     *      never inputs.
+     * @param propertyNames the names of the properties of the project whose values are a part
+     *      of the fingerprint.
+     * @param hashContent {@code true} if the content of the input files is to be hashed;
+     *      {@code false} if their sizes and modification times are to be used.
+     */
+    ModuleFingerprinter(final Project project, final List<PatternSet> inputs, final List<PatternSet> outputs,
+            final List<String> propertyNames, final boolean hashContent)
+    {
+        this.project = project;
+        this.inputs = inputs;
+        this.outputs = outputs;
+        this.propertyNames = propertyNames;
+        this.hashContent = hashContent;
+    }
+    
+    /**
+     * <p>Computes the fingerprint of a given module processed by a given target and remembers it.
+     * The fingerprints of the dependee modules of this module must already be computed.</p>
+     * 
+     * @param module the module whose fingerprint is to be computed.
+     * @param target the name of the target the module is processed by.
+     * 
+     * @return the fingerprint as a string of hexadecimal digits.
+     */
+    String fingerprint(final Module module, final String target)
+    {
+        final MessageDigest digest = createDigest();
+        
+        update(digest, "module", module.getPath());
+        update(digest, "target", target);
+        
+        // The attributes and the dependee modules are sorted so that the fingerprint is stable.
+        final TreeMap<String, Object> attributes = new TreeMap<String, Object>(module.getAttributes());
+        for (final Map.Entry<String, Object> attribute : attributes.entrySet()) {
+            update(digest, "attribute", attribute.getKey() + '=' + toString(attribute.getValue()));
+        }
+        for (final String propertyName : propertyNames) {
+            update(digest, "property", propertyName + '=' + project.getProperty(propertyName));
+        }
+        
+        final File moduleDir = new File(project.getBaseDir(), module.getPath());
+        final Collection<String> inputFiles = inputs == null ?
+                Collections.<String>emptyList() : scan(project, moduleDir, inputs, outputs);
+        for (final String inputFile : inputFiles) {
+            final File file = new File(moduleDir, inputFile);
+            if (hashContent) {
+                try {
+                    update(digest, "input", inputFile + ':' + hash(file));
+                }
+                catch (IOException ex) {
+                    throw new BuildException(MessageFormat.format(
+                            "Unable to read the input file ''{0}'' of the module ''{1}''.",
+                            file, module.getPath()), ex);
+                }
+            } else {
+                update(digest, "input", inputFile + ':' + file.length() + ':' + file.lastModified());
+            }
+        }
+        
+        final TreeMap<String, Module> dependees = new TreeMap<String, Module>();
+        for (final Module dependee : module.getDependencies()) {
+            dependees.put(dependee.getPath(), dependee);
+        }
+        for (final Module dependee : dependees.values()) {
+            final String dependeeFingerprint = fingerprints.get(dependee);
+            assert dependeeFingerprint != null;
+            update(digest, "dependee", dependee.getPath() + '=' + dependeeFingerprint);
+        }
+        
+        final String fingerprint = toHex(digest.digest());
+        fingerprints.put(module, fingerprint);
+        return fingerprint;
+    }
+    
+    /**
+     * <p>Returns the fingerprint of a given module if it is already computed.</p>
+     * 
+     * @param module the module whose fingerprint is to be returned.
+     * 
+     * @return the fingerprint or {@code null} if it is not computed yet.
+     */
+    String getFingerprint(final Module module)
+    {
+        return fingerprints.get(module);
+    }
+    
+    private String toString(final Object attributeValue)
+    {
+        if (!(attributeValue instanceof Path)) {
+            return String.valueOf(attributeValue);
+        }
+        final String baseDir = project.getBaseDir().getAbsolutePath() + File.separatorChar;
+        final StringBuilder result = new StringBuilder();
+        for (final String element : ((Path) attributeValue).list()) {
+            if (result.length() != 0) {
+                result.append(File.pathSeparatorChar);
+            }
+            result.append(element.startsWith(baseDir) ? element.substring(baseDir.length()) : element);
+        }
+        return result.toString();
+    }
+    
+    /**
+     * <p>Returns the paths of the files in a given directory which match any of the given
+     * include pattern sets and do not match any of the given exclude pattern sets. The paths are
+     * relative to the directory, sorted and unique. If no include pattern set is given then all
+     * files match. The default excludes of Ant are applied.</p>
+     * 
+     * @param project the project the pattern sets are evaluated in.
+     * @param dir the directory to scan.
+     * @param includes the include pattern sets.
+     * @param excludes the exclude pattern sets. Only their include patterns are used.
+     * 
+     * @return the paths of the files that match. It is empty if the directory does not exist.
+     */
+    static Collection<String> scan(final Project project, final File dir, final List<PatternSet> includes,
+            final List<PatternSet> excludes)
+    {
+        if (!dir.isDirectory()) {
+            return Collections.emptyList();
+        }
+        final ArrayList<String> excludePatterns = new ArrayList<String>();
+        for (final PatternSet patternSet : excludes) {
+            final String[] patterns = patternSet.getIncludePatterns(project);
+            if (patterns != null) {
+                excludePatterns.addAll(Arrays.asList(patterns));
+            }
+        }
+        final TreeSet<String> result = new TreeSet<String>();
+        if (includes.isEmpty()) {
+            scan(dir, null, null, excludePatterns, result);
+        } else {
+            for (final PatternSet patternSet : includes) {
+                scan(dir, patternSet.getIncludePatterns(project), patternSet.getExcludePatterns(project),
+                        excludePatterns, result);
+            }
+        }
+        return result;
+    }
+    
+    private static void scan(final File dir, final String[] includes, final String[] excludes,
+            final List<String> extraExcludes, final Collection<String> result)
+    {
+        final DirectoryScanner scanner = new DirectoryScanner();
+        scanner.setBasedir(dir);
+        scanner.setIncludes(includes);
+        scanner.setExcludes(excludes);
+        scanner.addExcludes(extraExcludes.toArray(new String[extraExcludes.size()]));
+        scanner.addDefaultExcludes();
+        scanner.scan();
+        result.addAll(Arrays.asList(scanner.getIncludedFiles()));
+    }
+    
+    private static void update(final MessageDigest digest, final String name, final String value)
+    {
+        try {
+            digest.update((name + '=' + value + '\n').getBytes("utf-8"));
+        }
+        catch (UnsupportedEncodingException ex) {
+            throw new BuildException(ex);
+        }
+    }
+    
+    /**
+     * <p>Returns the SHA-1 hash of the content of a given file as a string of hexadecimal
+     * digits.</p>
+     */
+    static String hash(final File file) throws IOException
+    {
+        final MessageDigest digest = createDigest();
+        final InputStream in = new FileInputStream(file);
+        try {
+            final byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                digest.update(buf, 0, n);
+            }
+        }
+        finally {
+            in.close();
+        }
+        return toHex(digest.digest());
+    }
+    
+    private static MessageDigest createDigest()
+    {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new BuildException("The message digest algorithm 'SHA-1' is not supported by this JVM.", ex);
+        }
+    }
+    
+    static String toHex(final byte[] hash)
+    {
+        final StringBuilder result = new StringBuilder(hash.length * 2);
+        for (final byte b : hash) {
+            result.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.toString();
+    }
+}
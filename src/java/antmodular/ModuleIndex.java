@@ -0,0 +1,278 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+
+import org.apache.tools.ant.Project;
+
+/**
+ * <p>A file that contains metadata of a set of modules. It is generated by
+ * {@link GenerateModuleIndex &lt;generateModuleIndex&gt;} and is read by
+ * {@link IndexModuleLoader &lt;indexModuleLoader&gt;}.</p>
+ * 
+ * <p>The index file consists of a header, a table of contents and the records. The header
+ * contains the signature of the configuration of the module loader the index is generated by.
+ * The table of contents maps the normalised path of each module to the validity key of
+ * its metadata and the position of its record. Each record contains the metadata of a single
+ * module encoded by {@link ModuleMetadataCache#encode(ModuleInfo)}. Thus, the index file is
+ * read in a single pass, and a record is decoded only when the module is requested.</p>
+ * 
+ * <p>{@code ModuleIndex} is immutable and therefore thread-safe.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+final class ModuleIndex
+{
+    private static final int MAGIC = 0x414d4d49; // AMMI
+    private static final int VERSION = 1;
+    
+    private final String signature;
+    // The content of the index file. Records are decoded from it on demand.
+    private final byte[] content;
+    // Normalised module path -> table of contents entry.
+    private final HashMap<String, Entry> entries;
+    
+    private static class Entry
+    {
+        final String validityKey;
+        final int offset;
+        final int length;
+        
+        Entry(final String validityKey, final int offset, final int length)
+        {
+            this.validityKey = validityKey;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+    
+    /**
+     * <p>A record of a module which is to be written to an index file.</p>
+     */
+    static final class Record
+    {
+        final String validityKey;
+        final byte[] data;
+        
+        /**
+         * @param validityKey the validity key of the module metadata, or {@code null}
+         *      if it is unknown.
+         * @param data the module metadata encoded by {@link ModuleMetadataCache#encode(ModuleInfo)}.
+         *      It must be not {@code null}.
+         */
+        Record(final String validityKey, final byte[] data)
+        {
+            assert data != null;
+            
+            this.validityKey = validityKey;
+            this.data = data;
+        }
+    }
+    
+    private ModuleIndex(final String signature, final byte[] content, final HashMap<String, Entry> entries)
+    {
+        this.signature = signature;
+        this.content = content;
+        this.entries = entries;
+    }
+    
+    /**
+     * <p>Reads the index from a given file.</p>
+     * 
+     * @param file the index file. It must be not {@code null}.
+     * 
+     * @return the index read. It is never {@code null}.
+     * 
+     * @throws java.io.FileNotFoundException if the index file does not exist.
+     * @throws IOException if the index file cannot be read or is corrupted.
+     */
+    static ModuleIndex read(final File file) throws IOException
+    {
+        assert file != null;
+        
+        final byte[] content;
+        final FileInputStream fileIn = new FileInputStream(file);
+        try {
+            final long size = fileIn.getChannel().size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(MessageFormat.format("The module index file ''{0}'' is too large.", file));
+            }
+            content = new byte[(int) size];
+            new DataInputStream(fileIn).readFully(content);
+        }
+        catch (EOFException ex) {
+            throw new IOException(MessageFormat.format("The module index file ''{0}'' is truncated.", file));
+        }
+        finally {
+            fileIn.close();
+        }
+        
+        final ByteArrayInputStream buf = new ByteArrayInputStream(content);
+        final DataInputStream in = new DataInputStream(buf);
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(MessageFormat.format("''{0}'' is not a module index file.", file));
+            }
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(MessageFormat.format(
+                        "The module index file ''{0}'' has an unsupported version: ''{1}''.",
+                        file, String.valueOf(version)));
+            }
+            final String signature = ModuleMetadataCache.readString(in);
+            final int count = in.readInt();
+            final HashMap<String, Entry> entries = new HashMap<String, Entry>(count * 4 / 3 + 1);
+            final int[] offsets = new int[count];
+            final int[] lengths = new int[count];
+            final String[] paths = new String[count];
+            final String[] validityKeys = new String[count];
+            for (int i = 0; i < count; ++i) {
+                paths[i] = ModuleMetadataCache.readString(in);
+                final String validityKey = ModuleMetadataCache.readString(in);
+                validityKeys[i] = validityKey.length() == 0 ? null : validityKey;
+                offsets[i] = in.readInt();
+                lengths[i] = in.readInt();
+            }
+            // The records follow the table of contents.
+            final int recordsStart = content.length - buf.available();
+            for (int i = 0; i < count; ++i) {
+                final int offset = recordsStart + offsets[i];
+                if (offsets[i] < 0 || lengths[i] < 0 || offset < recordsStart || offset + lengths[i] > content.length ||
+                        offset + lengths[i] < offset) {
+                    throw new IOException(MessageFormat.format(
+                            "The module index file ''{0}'' is corrupted.", file));
+                }
+                entries.put(paths[i], new Entry(validityKeys[i], offset, lengths[i]));
+            }
+            return new ModuleIndex(signature, content, entries);
+        }
+        catch (EOFException ex) {
+            throw new IOException(MessageFormat.format("The module index file ''{0}'' is truncated.", file));
+        }
+        catch (RuntimeException ex) {
+            // Corrupted sizes lead to NegativeArraySizeException and the like.
+            throw new IOException(MessageFormat.format("The module index file ''{0}'' is corrupted.", file));
+        }
+    }
+    
+    /**
+     * <p>Writes an index with given records to a given file atomically.</p>
+     * 
+     * @param file the index file. It must be not {@code null}.
+     * @param signature the signature of the module loader configuration. It must be
+     *      not {@code null}.
+     * @param records the records keyed by the normalised module path. It must be
+     *      not {@code null}.
+     * 
+     * @throws IOException if the index file cannot be written. The file is left unchanged
+     *      in this case.
+     */
+    static void write(final File file, final String signature, final SortedMap<String, Record> records)
+            throws IOException
+    {
+        assert file != null;
+        assert signature != null;
+        assert records != null;
+        
+        int recordsSize = 0;
+        for (final Record record : records.values()) {
+            recordsSize += record.data.length;
+        }
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream(recordsSize + records.size() * 64 + 1024);
+        final DataOutputStream out = new DataOutputStream(buf);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        ModuleMetadataCache.writeString(out, signature);
+        out.writeInt(records.size());
+        int offset = 0;
+        for (final Map.Entry<String, Record> entry : records.entrySet()) {
+            final Record record = entry.getValue();
+            ModuleMetadataCache.writeString(out, entry.getKey());
+            ModuleMetadataCache.writeString(out, record.validityKey == null ? "" : record.validityKey);
+            out.writeInt(offset);
+            out.writeInt(record.data.length);
+            offset += record.data.length;
+        }
+        for (final Record record : records.values()) {
+            out.write(record.data);
+        }
+        out.flush();
+        
+        ModuleMetadataCache.writeAtomically(file, buf);
+    }
+    
+    String getSignature()
+    {
+        return signature;
+    }
+    
+    /**
+     * <p>Returns the normalised paths of the modules in this index.</p>
+     */
+    Set<String> getPaths()
+    {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+    
+    /**
+     * <p>Returns the validity key of the metadata of the module with a given normalised path,
+     * or {@code null} if the module is not in this index or its validity key is unknown.</p>
+     */
+    String getValidityKey(final String normalisedPath)
+    {
+        final Entry entry = entries.get(normalisedPath);
+        return entry == null ? null : entry.validityKey;
+    }
+    
+    /**
+     * <p>Decodes the metadata of the module with a given normalised path. Path attributes
+     * are bound to a given Ant project.</p>
+     * 
+     * @return the module metadata or {@code null} if the module is not in this index.
+     * 
+     * @throws IOException if the record of the module is corrupted.
+     */
+    ModuleInfo getModule(final String normalisedPath, final ModuleLoader moduleLoader, final Project project)
+            throws IOException
+    {
+        final Entry entry = entries.get(normalisedPath);
+        if (entry == null) {
+            return null;
+        }
+        return ModuleMetadataCache.decode(content, entry.offset, entry.length, moduleLoader, project);
+    }
+}
@@ -70,6 +70,8 @@ public final class ModuleInfo
     private final HashMap<String, Object> attributes = new HashMap<String, Object>();
     private final Map<String, Object> attributesView = Collections.unmodifiableMap(attributes);
     private final ModuleLoader moduleLoader;
+    // The validity key of the module metadata if it is provided by the module loader.
+    private String validityKey;
     
     /**
      * <p>Creates a {@code ModuleInfo} with a given path. The normalised path is assigned.
@@ -96,7 +98,7 @@ public final class ModuleInfo
         if (moduleLoader == null) {
             throw new NullPointerException("moduleLoader");
         }
-        this.path = moduleLoader.normalisePath(path);
+        this.path = normalisePath(moduleLoader, path);
         if (this.path == null) {
             throw new NullPointerException(MessageFormat.format(
                     "The normalised path that corresponds to the path ''{0}'' is null.", path));
@@ -104,6 +106,43 @@ public final class ModuleInfo
         this.moduleLoader = moduleLoader;
     }
     
+    /* Normalises the given path by the given module loader. The time spent is reported
+     * to the current MetadataMetrics, if any.
+     */
+    private static String normalisePath(final ModuleLoader moduleLoader, final String path)
+    {
+        final MetadataMetrics metrics = MetadataMetrics.current();
+        if (metrics == null) {
+            return moduleLoader.normalisePath(path);
+        }
+        final long start = System.nanoTime();
+        try {
+            return moduleLoader.normalisePath(path);
+        }
+        finally {
+            metrics.normalise.add(System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * <p>Returns the validity key of the module metadata that was obtained by the module loader
+     * while loading them, or {@code null} if it is not provided. See {@link ValidatingModuleLoader}.</p>
+     */
+    String getValidityKey()
+    {
+        return validityKey;
+    }
+    
+    /**
+     * <p>Assigns the validity key of the module metadata. It is expected to be invoked by
+     * a {@link ValidatingModuleLoader} that obtains the key while loading the module metadata,
+     * so that {@link ModuleRegistry} does not need to obtain it again.</p>
+     */
+    void setValidityKey(final String validityKey)
+    {
+        this.validityKey = validityKey;
+    }
+    
     /**
      * <p>Returns the {@link ModuleLoader#normalisePath(String) normalised} path of this
      * {@code ModuleInfo}. It is a path relative to the root directory of the environment
@@ -136,7 +175,7 @@ public final class ModuleInfo
         if (dependency == null) {
             throw new NullPointerException("dependency");
         }
-        final String normalisedDependency = moduleLoader.normalisePath(dependency);
+        final String normalisedDependency = normalisePath(moduleLoader, dependency);
         if (normalisedDependency == null) {
             throw new NullPointerException(MessageFormat.format(
                     "The normalised path that corresponds to the path ''{0}'' is null.", dependency));
@@ -181,7 +220,7 @@ public final class ModuleInfo
             if (dependency == null) {
                 throw new NullPointerException("dependencies contains null dependency.");
             }
-            final String normalisedDependency = moduleLoader.normalisePath(dependency);
+            final String normalisedDependency = normalisePath(moduleLoader, dependency);
             if (normalisedDependency == null) {
                 throw new NullPointerException(MessageFormat.format(
                         "The normalised path that corresponds to the path ''{0}'' is null.", dependency));
@@ -40,7 +40,11 @@ package antmodular;
  * 
  * <p>Additional notes:<p>
  * <ul>
- *  <li>{@code ModuleLoader} instances are used in the single-threaded execution model</li>
+ *  <li>{@code ModuleLoader} instances are used in the single-threaded execution model unless
+ *      the {@link ModuleRegistry} is configured to load module metadata with multiple
+ *      threads (see {@link ModuleRegistry#ModuleRegistry(ModuleLoader, int)}). In the latter
+ *      case both {@link #loadModule(String)} and {@link #normalisePath(String)} are invoked
+ *      concurrently and must be thread-safe</li>
  *  <li>no caching of metadata is generally needed. Each module is loaded only once</li>
  *  <li>implementations of this interface are used by the task {@link CallTargetForModules}
  *      as pluggable components to define a way in which module metadata is to be loaded</li>
@@ -0,0 +1,497 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.BuildListener;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.Path;
+
+/**
+ * <p>Stores metadata of modules in a file so that it can be reused by subsequent builds.
+ * Each module is stored as a record keyed by its normalised path. Each record has a validity
+ * key which is defined by the {@link ModuleLoader} that uses this cache (e.g. the size and
+ * the modification time of the file the metadata is loaded from). A record is returned only
+ * if its validity key matches the current validity key of the module.</p>
+ * 
+ * <p>The cache file is written atomically: the new content is written to a temporary file in
+ * the same directory and then this file is renamed to the cache file. Thus, concurrent builds
+ * that share the cache file do not corrupt it, though the records added by all but the last
+ * build are lost.</p>
+ * 
+ * <p>The cache file has a signature which describes the configuration of the module loader
+ * the records are created by. If the signature of the file does not match the signature of
+ * this cache then the file content is ignored.</p>
+ * 
+ * <p>Only {@link ModuleInfo} objects whose attributes are either strings or
+ * {@link Path org.apache.tools.ant.types.Path} objects could be stored.</p>
+ * 
+ * <p>{@code ModuleMetadataCache} is thread-safe.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+final class ModuleMetadataCache
+{
+    private static final int MAGIC = 0x414d4d43; // AMMC
+    private static final int VERSION = 1;
+    
+    private static final byte ATTRIB_TYPE_STRING = 0;
+    private static final byte ATTRIB_TYPE_PATH = 1;
+    
+    private final File file;
+    private final String signature;
+    
+    // Normalised module path -> record.
+    private final HashMap<String, Record> records = new HashMap<String, Record>();
+    private boolean modified;
+    
+    private static class Record
+    {
+        final String validityKey;
+        // Encoded ModuleInfo.
+        final byte[] data;
+        
+        Record(final String validityKey, final byte[] data)
+        {
+            this.validityKey = validityKey;
+            this.data = data;
+        }
+    }
+    
+    /**
+     * <p>Creates an empty {@code ModuleMetadataCache} that is backed by a given file.</p>
+     * 
+     * @param file the cache file. It must be not {@code null}.
+     * @param signature the signature of the module loader configuration. It must be
+     *      not {@code null}.
+     */
+    ModuleMetadataCache(final File file, final String signature)
+    {
+        assert file != null;
+        assert signature != null;
+        
+        this.file = file;
+        this.signature = signature;
+    }
+    
+    /**
+     * <p>Creates a {@code ModuleMetadataCache} that is backed by a given file and loads its
+     * content from this file. If the file cannot be read then a warning is logged and the
+     * cache is left empty. The cache is written to the file when the build of a given Ant
+     * project finishes, if it is modified.</p>
+     * 
+     * @param file the cache file. It must be not {@code null}.
+     * @param signature the signature of the module loader configuration. It must be
+     *      not {@code null}.
+     * @param project the Ant project. It must be not {@code null}.
+     * 
+     * @return the cache created. It is never {@code null}.
+     */
+    static ModuleMetadataCache open(final File file, final String signature, final Project project)
+    {
+        assert project != null;
+        
+        final ModuleMetadataCache cache = new ModuleMetadataCache(file, signature);
+        try {
+            cache.read();
+        }
+        catch (IOException ex) {
+            project.log(MessageFormat.format("Unable to read the module metadata cache ''{0}'': {1}",
+                    file, ex.getMessage()), Project.MSG_WARN);
+        }
+        project.addBuildListener(new CacheWriter(cache, project));
+        return cache;
+    }
+    
+    /**
+     * <p>Returns the signature of the configuration of a given {@link ModuleLoader} which is
+     * used within a given Ant project. The metadata loaded by module loaders with different
+     * signatures must not be mixed up. The signature of a {@link ManifestModuleLoader} reflects
+     * its configuration. The signature of other module loaders reflects only their class and
+     * the project base directory.</p>
+     */
+    static String getLoaderSignature(final ModuleLoader moduleLoader, final Project project)
+    {
+        final String loaderSignature;
+        if (moduleLoader instanceof ManifestModuleLoader) {
+            loaderSignature = ((ManifestModuleLoader) moduleLoader).getConfigurationSignature();
+        } else {
+            loaderSignature = "baseDir=" + project.getBaseDir().getAbsolutePath();
+        }
+        return moduleLoader.getClass().getName() + '\n' + loaderSignature;
+    }
+    
+    File getFile()
+    {
+        return file;
+    }
+    
+    /**
+     * <p>Returns the encoded metadata of the module with a given normalised path if it is
+     * cached with a given validity key. Otherwise {@code null} is returned.</p>
+     */
+    synchronized byte[] get(final String normalisedPath, final String validityKey)
+    {
+        final Record record = records.get(normalisedPath);
+        final MetadataMetrics metrics = MetadataMetrics.current();
+        if (record == null || !record.validityKey.equals(validityKey)) {
+            if (metrics != null) {
+                metrics.loaderCacheMisses.incrementAndGet();
+            }
+            return null;
+        }
+        if (metrics != null) {
+            metrics.loaderCacheHits.incrementAndGet();
+        }
+        return record.data;
+    }
+    
+    /**
+     * <p>Stores the encoded metadata of the module with a given normalised path along with
+     * its validity key.</p>
+     */
+    synchronized void put(final String normalisedPath, final String validityKey, final byte[] data)
+    {
+        records.put(normalisedPath, new Record(validityKey, data));
+        modified = true;
+    }
+    
+    /**
+     * <p>Removes the module with a given normalised path from this cache.</p>
+     */
+    synchronized void remove(final String normalisedPath)
+    {
+        if (records.remove(normalisedPath) != null) {
+            modified = true;
+        }
+    }
+    
+    synchronized boolean isModified()
+    {
+        return modified;
+    }
+    
+    /**
+     * <p>Reads the records from the cache file, replacing the records of this cache. If the cache
+     * file does not exist or has a different signature then this cache is left empty and
+     * {@code false} is returned.</p>
+     * 
+     * @throws IOException if the file cannot be read or is corrupted. This cache is left empty
+     *      in this case.
+     */
+    synchronized boolean read() throws IOException
+    {
+        records.clear();
+        modified = false;
+        
+        final DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        }
+        catch (FileNotFoundException ex) {
+            return false;
+        }
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(MessageFormat.format("''{0}'' is not a module metadata cache file.", file));
+            }
+            if (in.readInt() != VERSION || !signature.equals(readString(in))) {
+                return false;
+            }
+            for (int i = 0, n = in.readInt(); i < n; ++i) {
+                final String path = readString(in);
+                final String validityKey = readString(in);
+                final byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                records.put(path, new Record(validityKey, data));
+            }
+            return true;
+        }
+        catch (EOFException ex) {
+            records.clear();
+            throw new IOException(MessageFormat.format("The module metadata cache file ''{0}'' is truncated.", file));
+        }
+        catch (IOException ex) {
+            records.clear();
+            throw ex;
+        }
+        catch (RuntimeException ex) {
+            // Corrupted sizes lead to NegativeArraySizeException and the like.
+            records.clear();
+            throw new IOException(MessageFormat.format("The module metadata cache file ''{0}'' is corrupted.", file));
+        }
+        finally {
+            in.close();
+        }
+    }
+    
+    /**
+     * <p>Writes the records of this cache to the cache file atomically.</p>
+     * 
+     * @throws IOException if the file cannot be written. The cache file is left unchanged
+     *      in this case.
+     */
+    synchronized void write() throws IOException
+    {
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream(64 * 1024);
+        final DataOutputStream out = new DataOutputStream(buf);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeString(out, signature);
+        out.writeInt(records.size());
+        for (final Map.Entry<String, Record> entry : records.entrySet()) {
+            final Record record = entry.getValue();
+            writeString(out, entry.getKey());
+            writeString(out, record.validityKey);
+            out.writeInt(record.data.length);
+            out.write(record.data);
+        }
+        out.flush();
+        
+        writeAtomically(file, buf);
+        modified = false;
+    }
+    
+    /* Writes the given content to a temporary file in the directory of the target file and
+     * renames it to the target file. Readers see either the old content or the new content.
+     */
+    static void writeAtomically(final File target, final ByteArrayOutputStream content) throws IOException
+    {
+        final File dir = target.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException(MessageFormat.format("Unable to create the directory ''{0}''.", dir));
+        }
+        final File tmp = File.createTempFile(target.getName(), ".tmp", dir);
+        boolean renamed = false;
+        try {
+            final FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                content.writeTo(out);
+                out.getFD().sync();
+            }
+            finally {
+                out.close();
+            }
+            
+            renamed = tmp.renameTo(target);
+            if (!renamed) {
+                // Some platforms do not allow for renaming a file to an existing file.
+                target.delete();
+                renamed = tmp.renameTo(target);
+            }
+            if (!renamed) {
+                throw new IOException(MessageFormat.format("Unable to rename ''{0}'' to ''{1}''.", tmp, target));
+            }
+        }
+        finally {
+            if (!renamed) {
+                tmp.delete();
+            }
+        }
+    }
+    
+    /**
+     * <p>Encodes a given {@link ModuleInfo}. If it has an attribute which is neither a string
+     * nor a {@link Path} then it cannot be encoded and {@code null} is returned.</p>
+     */
+    static byte[] encode(final ModuleInfo moduleInfo)
+    {
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream(256);
+        final DataOutputStream out = new DataOutputStream(buf);
+        try {
+            writeString(out, moduleInfo.getPath());
+            out.writeInt(moduleInfo.getDependencies().size());
+            for (final String dep : moduleInfo.getDependencies()) {
+                writeString(out, dep);
+            }
+            final Map<String, Object> attributes = moduleInfo.getAttributes();
+            out.writeInt(attributes.size());
+            for (final Map.Entry<String, Object> entry : attributes.entrySet()) {
+                writeString(out, entry.getKey());
+                final Object value = entry.getValue();
+                if (value instanceof String) {
+                    out.writeByte(ATTRIB_TYPE_STRING);
+                    writeString(out, (String) value);
+                } else if (value instanceof Path) {
+                    out.writeByte(ATTRIB_TYPE_PATH);
+                    final String[] elements = ((Path) value).list();
+                    out.writeInt(elements.length);
+                    for (final String element : elements) {
+                        writeString(out, element);
+                    }
+                } else {
+                    return null;
+                }
+            }
+            out.flush();
+        }
+        catch (IOException ex) {
+            // Never happens with ByteArrayOutputStream.
+            throw new RuntimeException(ex);
+        }
+        return buf.toByteArray();
+    }
+    
+    /**
+     * <p>Decodes a {@link ModuleInfo} encoded by {@link #encode(ModuleInfo)}. Path attributes
+     * are bound to a given Ant project.</p>
+     * 
+     * @throws IOException if the data are corrupted.
+     */
+    static ModuleInfo decode(final byte[] data, final ModuleLoader moduleLoader, final Project project)
+            throws IOException
+    {
+        return decode(data, 0, data.length, moduleLoader, project);
+    }
+    
+    /**
+     * <p>Decodes a {@link ModuleInfo} encoded by {@link #encode(ModuleInfo)} which is stored
+     * in a given part of an array. Path attributes are bound to a given Ant project.</p>
+     * 
+     * @throws IOException if the data are corrupted.
+     */
+    static ModuleInfo decode(final byte[] data, final int offset, final int length,
+            final ModuleLoader moduleLoader, final Project project) throws IOException
+    {
+        final MetadataMetrics metrics = MetadataMetrics.current();
+        if (metrics == null) {
+            return doDecode(data, offset, length, moduleLoader, project);
+        }
+        // Decoding is reported as parsing.
+        final long start = System.nanoTime();
+        try {
+            return doDecode(data, offset, length, moduleLoader, project);
+        }
+        finally {
+            metrics.parse.add(System.nanoTime() - start);
+        }
+    }
+    
+    private static ModuleInfo doDecode(final byte[] data, final int offset, final int length,
+            final ModuleLoader moduleLoader, final Project project) throws IOException
+    {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, offset, length));
+        final ModuleInfo moduleInfo = new ModuleInfo(readString(in), moduleLoader);
+        for (int i = 0, n = in.readInt(); i < n; ++i) {
+            moduleInfo.addDependency(readString(in));
+        }
+        for (int i = 0, n = in.readInt(); i < n; ++i) {
+            final String name = readString(in);
+            final byte type = in.readByte();
+            if (type == ATTRIB_TYPE_STRING) {
+                moduleInfo.addAttribute(name, readString(in));
+            } else if (type == ATTRIB_TYPE_PATH) {
+                final Path path = new Path(project);
+                for (int j = 0, m = in.readInt(); j < m; ++j) {
+                    path.createPathElement().setLocation(new File(readString(in)));
+                }
+                moduleInfo.addAttribute(name, path);
+            } else {
+                throw new IOException(MessageFormat.format("Unknown attribute type: ''{0}''.", String.valueOf(type)));
+            }
+        }
+        return moduleInfo;
+    }
+    
+    // Unlike DataOutputStream#writeUTF(String), strings longer than 64K are supported.
+    static void writeString(final DataOutputStream out, final String s) throws IOException
+    {
+        final byte[] bytes = s.getBytes("utf-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    static String readString(final DataInputStream in) throws IOException
+    {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "utf-8");
+    }
+    
+    // Writes the module metadata cache to the cache file when the build finishes.
+    private static class CacheWriter implements BuildListener
+    {
+        private final ModuleMetadataCache cache;
+        private final Project project;
+        
+        CacheWriter(final ModuleMetadataCache cache, final Project project)
+        {
+            this.cache = cache;
+            this.project = project;
+        }
+        
+        public void buildFinished(final BuildEvent event)
+        {
+            project.removeBuildListener(this);
+            if (!cache.isModified()) {
+                return;
+            }
+            try {
+                cache.write();
+            }
+            catch (IOException ex) {
+                project.log(MessageFormat.format("Unable to write the module metadata cache ''{0}'': {1}",
+                        cache.getFile(), ex.getMessage()), Project.MSG_WARN);
+            }
+        }
+        
+        public void buildStarted(final BuildEvent event)
+        {
+        }
+        
+        public void targetStarted(final BuildEvent event)
+        {
+        }
+        
+        public void targetFinished(final BuildEvent event)
+        {
+        }
+        
+        public void taskStarted(final BuildEvent event)
+        {
+        }
+        
+        public void taskFinished(final BuildEvent event)
+        {
+        }
+        
+        public void messageLogged(final BuildEvent event)
+        {
+        }
+    }
+}
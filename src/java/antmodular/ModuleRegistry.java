@@ -23,8 +23,25 @@
 package antmodular;
 
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.tools.ant.BuildException;
 
 /**
  * <p>Manages {@link Module} instances in scope of a single {@link CallTargetForModules}
@@ -36,14 +53,36 @@ import java.util.Set;
  * 
  * <p>Guarantees provided by {@code ModuleRegistry}:</p>
  * <ul>
- *  <li>{@code ModuleRegistry} is not thread-safe</li>
+ *  <li>{@code ModuleRegistry} is thread-safe. Its operations are serialised so that
+ *      a registry could be shared between tasks (see {@link SharedModuleRegistry})</li>
  *  <li>for each module path (after it is normalised) {@link ModuleLoader#loadModule(String)}
- *      is invoked at most once</li>
+ *      is invoked at most once unless the module is {@link #invalidate(Collection)
+ *      invalidated}</li>
  *  <li>each module path is associated with at most a single {@code Module} instance</li>
  *  <li>the module's dependee modules are assigned to this {@code Module} instance before
  *      it is returned outside {@code ModuleRegistry}</li>
  * </ul>
  * 
+ * <p>Modules whose metadata have changed after they were loaded can be invalidated either
+ * explicitly (see {@link #invalidate(Collection)}) or by means of the validity keys provided by
+ * a {@link ValidatingModuleLoader} (see {@link #invalidateChanged()}). An invalidated module
+ * is removed from the registry along with all modules that depend upon it, directly or
+ * indirectly. They are loaded again when they are resolved next time. The validity keys are
+ * recorded only if {@link #enableValidityTracking() validity tracking} is enabled, so that
+ * a registry that is never invalidated does not pay for them.</p>
+ * 
+ * <p>Module metadata can be loaded concurrently if the {@code ModuleRegistry} is created with
+ * more than one loader thread (see {@link #ModuleRegistry(ModuleLoader, int)}). In this case
+ * the metadata of a module is loaded by a pool of helper threads as soon as a module that
+ * depends upon it is loaded, while the {@code Module} objects are linked one to the other by
+ * the thread that invokes {@link #resolveModule(String)}, in the same order as if the metadata
+ * were loaded sequentially. Thus, the module which is reported as not loaded, if any, does not
+ * depend upon the number of loader threads. The {@code ModuleLoader} must be thread-safe
+ * to be used in this mode.</p>
+ * 
+ * <p>The metrics of metadata loading can be collected by means of
+ * {@link #setMetrics(MetadataMetrics)}.</p>
+ * 
  * @author D&#378;mitry La&#365;&#269;uk
  */
 public class ModuleRegistry
@@ -57,6 +96,36 @@ public class ModuleRegistry
     private final HashMap<String, Object> modules;
     // The module loader that is used to resolve modules.
     private final ModuleLoader moduleLoader;
+    // Not null if the module loader provides validity keys.
+    private final ValidatingModuleLoader validatingLoader;
+    /* The validity keys of the modules loaded, keyed by normalised module paths. The keys
+       are obtained before the modules are loaded so that concurrent modifications are detected. */
+    private final ConcurrentHashMap<String, String> validityKeys = new ConcurrentHashMap<String, String>();
+    // If true then the validity keys of the modules loaded are recorded.
+    private volatile boolean trackValidity;
+    /* If true then the module loader provides the validity keys along with the module metadata
+       so that they are not obtained by this registry before the modules are loaded. */
+    private volatile boolean loaderProvidesKeys;
+    // The number of threads that load module metadata. If it is 1 then no helper thread is used.
+    private final int loaderThreadCount;
+    
+    /* Module metadata that are being loaded or already loaded by the helper threads, keyed by
+     * normalised module paths. It is used only if loaderThreadCount is greater than 1. Entries are
+     * not removed while the helper threads are running so that ModuleLoader#loadModule(String) is
+     * invoked at most once for each module path even if the same path is found by some helper
+     * thread later. The entries of the modules linked are removed when the helper threads are
+     * stopped because these modules are then kept in 'modules'.
+     */
+    private final ConcurrentHashMap<String, LoadTask> loads;
+    // The helper threads used by the current #resolveModule() invocation in the concurrent mode.
+    private ThreadPoolExecutor loaderExecutor;
+    
+    // If not null then the metrics of metadata loading are collected.
+    private volatile MetadataMetrics metrics;
+    /* The time spent by the current #resolveModuleFast() invocation in nested invocations and
+     * in waiting for module metadata. It is excluded from the link time.
+     */
+    private long nestedNanos;
     
     /**
      * <p>Creates an instance of {@code ModuleRegistry} that uses given {@link ModuleLoader}
@@ -68,12 +137,43 @@ public class ModuleRegistry
      * @throws NullPointerException if <em>moduleLoader</em> is {@code null}.
      */
     public ModuleRegistry(final ModuleLoader moduleLoader)
+    {
+        this(moduleLoader, 1);
+    }
+    
+    /**
+     * <p>Creates an instance of {@code ModuleRegistry} that uses given {@link ModuleLoader}
+     * to obtain module metadata with a given number of threads. If more than one thread is
+     * requested then the module metadata are loaded by a pool of helper threads created for each
+     * invocation of {@link #resolveModule(String)} that needs to load metadata. The dependee
+     * modules are scheduled for loading as soon as the metadata of their depender module are
+     * loaded. The {@code ModuleLoader} must be thread-safe in this case.</p>
+     * 
+     * @param moduleLoader the {@code ModuleLoader} to be used by the {@code ModuleRegistry}
+     *      created. It must not be {@code null}.
+     * @param loaderThreadCount the number of threads that load module metadata. If <em>1</em>
+     *      is passed then module metadata are loaded sequentially by the thread that invokes
+     *      {@code resolveModule(String)}. It must be a positive value.
+     * 
+     * @throws NullPointerException if <em>moduleLoader</em> is {@code null}.
+     * @throws IllegalArgumentException if <em>loaderThreadCount</em> is non-positive.
+     */
+    public ModuleRegistry(final ModuleLoader moduleLoader, final int loaderThreadCount)
     {
         if (moduleLoader == null) {
             throw new NullPointerException("moduleLoader");
         }
+        if (loaderThreadCount <= 0) {
+            throw new IllegalArgumentException(MessageFormat.format(
+                    "Invalid loader thread count: ''{0}''. It must be a positive value.",
+                    String.valueOf(loaderThreadCount)));
+        }
         this.moduleLoader = moduleLoader;
+        this.validatingLoader = moduleLoader instanceof ValidatingModuleLoader ?
+                (ValidatingModuleLoader) moduleLoader : null;
+        this.loaderThreadCount = loaderThreadCount;
         this.modules = new HashMap<String, Object>();
+        this.loads = loaderThreadCount == 1 ? null : new ConcurrentHashMap<String, LoadTask>();
     }
     
     /**
@@ -104,20 +204,154 @@ public class ModuleRegistry
      * @throws NullPointerException if <em>path</em> or the normalised path is {@code null}.
      * @throws ModuleNotLoadedException if there is no module associated with the given path
      *      or if the module metadata cannot be loaded.
+     * @throws BuildException if the current thread is interrupted while waiting for module
+     *      metadata to be loaded by a helper thread.
+     */
+    public synchronized Module resolveModule(final String path) throws ModuleNotLoadedException
+    {
+        final String normalisedPath = normalisePath(path);
+        if (loads == null || modules.containsKey(normalisedPath)) {
+            return resolveModuleFast(normalisedPath);
+        }
+        
+        startLoaders();
+        try {
+            return resolveModuleFast(normalisedPath);
+        }
+        finally {
+            stopLoaders();
+        }
+    }
+    
+    /**
+     * <p>Resolves the modules with given paths as {@link #resolveModule(String)} does.
+     * If module metadata are loaded by helper threads then the metadata of all these modules
+     * are scheduled for loading before any of them is linked, so that the helper threads
+     * load the metadata of independent modules concurrently. The modules are linked in
+     * the order of the paths, so the module which is reported as not loaded, if any, is
+     * the same as if the modules were resolved one by one.</p>
+     * 
+     * @param paths the paths of the modules to be resolved. It must be not {@code null} and
+     *      must not contain {@code null} paths.
+     * 
+     * @return the {@code Module} objects that correspond to the given paths, in the order
+     *      of the paths. It is never {@code null}.
+     * 
+     * @throws NullPointerException if <em>paths</em>, some path or its normalised path is
+     *      {@code null}.
+     * @throws ModuleNotLoadedException if there is no module associated with some path or
+     *      if the module metadata cannot be loaded.
+     * @throws BuildException if the current thread is interrupted while waiting for module
+     *      metadata to be loaded by a helper thread.
+     */
+    public synchronized List<Module> resolveModules(final Collection<String> paths) throws ModuleNotLoadedException
+    {
+        if (paths == null) {
+            throw new NullPointerException("paths");
+        }
+        final ArrayList<String> normalisedPaths = new ArrayList<String>(paths.size());
+        boolean loadNeeded = false;
+        for (final String path : paths) {
+            final String normalisedPath = normalisePath(path);
+            normalisedPaths.add(normalisedPath);
+            loadNeeded |= !modules.containsKey(normalisedPath);
+        }
+        final ArrayList<Module> result = new ArrayList<Module>(normalisedPaths.size());
+        if (loads == null || !loadNeeded) {
+            for (final String normalisedPath : normalisedPaths) {
+                result.add(resolveModuleFast(normalisedPath));
+            }
+            return result;
+        }
+        
+        startLoaders();
+        try {
+            for (final String normalisedPath : normalisedPaths) {
+                if (!modules.containsKey(normalisedPath)) {
+                    scheduleLoad(normalisedPath);
+                }
+            }
+            for (final String normalisedPath : normalisedPaths) {
+                result.add(resolveModuleFast(normalisedPath));
+            }
+            return result;
+        }
+        finally {
+            stopLoaders();
+        }
+    }
+    
+    /**
+     * <p>Resolves the modules with the paths provided by a given iterator as
+     * {@link #resolveModule(String)} does. The iterator is allowed to block until the next path
+     * is available, so that the modules are resolved while their paths are still being
+     * discovered. If module metadata are loaded by helper threads then the helper threads are
+     * started once for all modules.</p>
+     * 
+     * @param paths the iterator over the paths of the modules to be resolved. It must be
+     *      not {@code null} and must not provide {@code null} paths.
+     * 
+     * @return the {@code Module} objects that correspond to the given paths, in the order
+     *      the paths are provided. It is never {@code null}.
+     * 
+     * @throws NullPointerException if <em>paths</em>, some path or its normalised path is
+     *      {@code null}.
+     * @throws ModuleNotLoadedException if there is no module associated with some path or
+     *      if the module metadata cannot be loaded. The remaining paths are not iterated
+     *      through in this case.
+     * @throws BuildException if the current thread is interrupted while waiting for module
+     *      metadata to be loaded by a helper thread.
      */
-    public Module resolveModule(final String path) throws ModuleNotLoadedException
+    public synchronized List<Module> resolveModules(final Iterator<String> paths) throws ModuleNotLoadedException
+    {
+        if (paths == null) {
+            throw new NullPointerException("paths");
+        }
+        final ArrayList<Module> result = new ArrayList<Module>();
+        if (loads != null) {
+            startLoaders();
+        }
+        try {
+            while (paths.hasNext()) {
+                result.add(resolveModuleFast(normalisePath(paths.next())));
+            }
+            return result;
+        }
+        finally {
+            if (loads != null) {
+                stopLoaders();
+            }
+        }
+    }
+    
+    /**
+     * <p>Sets the {@link MetadataMetrics} to collect the metrics of metadata loading
+     * performed by this {@code ModuleRegistry} into. If {@code null} is passed then
+     * no metrics are collected, which is the default.</p>
+     * 
+     * @param metrics the metrics to be collected or {@code null}.
+     */
+    synchronized void setMetrics(final MetadataMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+    
+    private String normalisePath(final String path)
     {
         if (path == null) {
             throw new NullPointerException("path");
         }
-        
+        final MetadataMetrics metrics = this.metrics;
+        final long start = metrics == null ? 0 : System.nanoTime();
         final String normalisedPath = moduleLoader.normalisePath(path);
+        if (metrics != null) {
+            metrics.normalise.add(System.nanoTime() - start);
+        }
         if (normalisedPath == null) {
             throw new NullPointerException(MessageFormat.format(
                     "The normalised path that corresponds to the path ''{0}'' is null.", path));
         }
-        
-        return resolveModuleFast(normalisedPath);
+        return normalisedPath;
     }
     
     /* 
@@ -128,17 +362,50 @@ public class ModuleRegistry
     private Module resolveModuleFast(final String normalisedPath) throws ModuleNotLoadedException
     {
         final Object cachedModule = modules.get(normalisedPath);
+        final MetadataMetrics metrics = this.metrics;
         if (cachedModule == moduleNotLoaded) {
+            if (metrics != null) {
+                metrics.negativeCacheHits.incrementAndGet();
+            }
             throw new ModuleNotLoadedException(normalisedPath);
         }
         if (cachedModule != null) {
+            if (metrics != null) {
+                metrics.registryHits.incrementAndGet();
+            }
             return (Module) cachedModule;
         }
+        if (metrics == null) {
+            return linkModule(normalisedPath, null);
+        }
+        
+        // The link time of this module is the time of this invocation excluding nestedNanos.
+        final long start = System.nanoTime();
+        final long outerNestedNanos = nestedNanos;
+        nestedNanos = 0;
+        try {
+            return linkModule(normalisedPath, metrics);
+        }
+        finally {
+            final long time = System.nanoTime() - start;
+            metrics.link.add(time - nestedNanos);
+            nestedNanos = outerNestedNanos + time;
+        }
+    }
+    
+    private Module linkModule(final String normalisedPath, final MetadataMetrics metrics)
+            throws ModuleNotLoadedException
+    {
         try {
-            final ModuleInfo moduleInfo = moduleLoader.loadModule(normalisedPath);
-            if (moduleInfo == null) {
-                throw new NullPointerException(MessageFormat.format(
-                        "Module loader returned null for the path ''{0}''.", normalisedPath));
+            final long loadStart = metrics == null ? 0 : System.nanoTime();
+            final ModuleInfo moduleInfo;
+            try {
+                moduleInfo = loads == null ? loadModuleInfo(normalisedPath) : awaitModuleInfo(normalisedPath);
+            }
+            finally {
+                if (metrics != null) {
+                    nestedNanos += System.nanoTime() - loadStart;
+                }
             }
             final Module module = new Module(normalisedPath);
             module.setAttributes(moduleInfo.getAttributes());
@@ -162,4 +429,319 @@ public class ModuleRegistry
             throw ex;
         }
     }
+    
+    private ModuleInfo loadModuleInfo(final String normalisedPath) throws ModuleNotLoadedException
+    {
+        final MetadataMetrics metrics = this.metrics;
+        if (metrics == null) {
+            return doLoadModuleInfo(normalisedPath);
+        }
+        final MetadataMetrics previousMetrics = MetadataMetrics.enter(metrics);
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            final ModuleInfo moduleInfo = doLoadModuleInfo(normalisedPath);
+            failed = false;
+            return moduleInfo;
+        }
+        finally {
+            metrics.moduleLoaded(normalisedPath, System.nanoTime() - start, failed);
+            MetadataMetrics.restore(previousMetrics);
+        }
+    }
+    
+    private ModuleInfo doLoadModuleInfo(final String normalisedPath) throws ModuleNotLoadedException
+    {
+        final boolean track = trackValidity && validatingLoader != null;
+        final String validityKey = track && !loaderProvidesKeys ? validatingLoader.getValidityKey(normalisedPath) : null;
+        final ModuleInfo moduleInfo = moduleLoader.loadModule(normalisedPath);
+        if (moduleInfo == null) {
+            throw new NullPointerException(MessageFormat.format(
+                    "Module loader returned null for the path ''{0}''.", normalisedPath));
+        }
+        if (track) {
+            /* If the key is unknown then the module is considered changed by #invalidateChanged().
+             * This is the case if the module loader stops providing keys.
+             */
+            final String loadedKey = moduleInfo.getValidityKey();
+            if (loadedKey != null) {
+                loaderProvidesKeys = true;
+                validityKeys.put(normalisedPath, loadedKey);
+            } else if (validityKey != null) {
+                validityKeys.put(normalisedPath, validityKey);
+            }
+        }
+        return moduleInfo;
+    }
+    
+    /**
+     * <p>Enables recording the validity keys of the modules loaded by this {@code ModuleRegistry}
+     * so that the modules whose metadata have changed could be {@link #invalidateChanged()
+     * invalidated}. The validity keys are obtained from the {@link ValidatingModuleLoader}
+     * this {@code ModuleRegistry} is created with. If the module loader assigns the validity key
+     * to the module metadata it loads (as {@link ManifestModuleLoader} with a cache file does)
+     * then this key is used. Otherwise the key is obtained before each module is loaded.
+     * The validity tracking is disabled by default.</p>
+     */
+    public void enableValidityTracking()
+    {
+        trackValidity = true;
+    }
+    
+    /**
+     * <p>Removes the modules with given paths from this {@code ModuleRegistry} along with
+     * all modules that depend upon them, directly or indirectly. In addition, the information
+     * about all modules that failed to load is discarded. These modules are loaded again when
+     * they are resolved next time, so that new {@code Module} objects are created for them.
+     * The {@code Module} objects that are already returned are not modified.</p>
+     * 
+     * @param paths the paths of the modules to be invalidated. They are normalised before
+     *      being used. Paths of the modules that are not loaded are ignored. Neither this
+     *      collection nor its elements must be {@code null}.
+     * 
+     * @return the number of modules removed from this {@code ModuleRegistry}.
+     * 
+     * @throws NullPointerException if <em>paths</em> or any of its elements is {@code null}.
+     */
+    public synchronized int invalidate(final Collection<String> paths)
+    {
+        if (paths == null) {
+            throw new NullPointerException("paths");
+        }
+        final ArrayList<Module> invalidModules = new ArrayList<Module>(paths.size());
+        for (final String path : paths) {
+            if (path == null) {
+                throw new NullPointerException("paths contains null element.");
+            }
+            final Object module = modules.get(moduleLoader.normalisePath(path));
+            if (module instanceof Module) {
+                invalidModules.add((Module) module);
+            }
+        }
+        return removeWithDependers(invalidModules);
+    }
+    
+    /**
+     * <p>Invalidates the modules whose metadata have changed since they were loaded, as it is
+     * indicated by the validity keys provided by the {@link ValidatingModuleLoader} this
+     * {@code ModuleRegistry} is created with. See {@link #invalidate(Collection)} for the
+     * details. If the module loader is not a {@code ValidatingModuleLoader} then no module is
+     * invalidated.</p>
+     * 
+     * <p>The modules loaded while {@link #enableValidityTracking() validity tracking} is disabled
+     * have no validity keys and therefore are considered changed. Validity tracking is enabled
+     * by this operation.</p>
+     * 
+     * @return the number of modules removed from this {@code ModuleRegistry}.
+     */
+    public synchronized int invalidateChanged()
+    {
+        if (validatingLoader == null) {
+            return 0;
+        }
+        trackValidity = true;
+        final ArrayList<Module> invalidModules = new ArrayList<Module>();
+        for (final Object module : modules.values()) {
+            if (module instanceof Module) {
+                final String path = ((Module) module).getPath();
+                final String validityKey = validatingLoader.getValidityKey(path);
+                if (validityKey == null || !validityKey.equals(validityKeys.get(path))) {
+                    invalidModules.add((Module) module);
+                }
+            }
+        }
+        return removeWithDependers(invalidModules);
+    }
+    
+    /**
+     * <p>Removes all modules from this {@code ModuleRegistry}.</p>
+     * 
+     * @return the number of modules removed from this {@code ModuleRegistry}.
+     */
+    public synchronized int invalidateAll()
+    {
+        int count = 0;
+        for (final Object module : modules.values()) {
+            if (module instanceof Module) {
+                ++count;
+            }
+        }
+        modules.clear();
+        validityKeys.clear();
+        if (loads != null) {
+            loads.clear();
+        }
+        return count;
+    }
+    
+    private int removeWithDependers(final ArrayList<Module> invalidModules)
+    {
+        // The modules that failed to load could depend upon the modules invalidated.
+        for (final Iterator<Object> it = modules.values().iterator(); it.hasNext();) {
+            if (it.next() == moduleNotLoaded) {
+                it.remove();
+            }
+        }
+        /* The metadata loaded by the helper threads are discarded entirely because there could
+           be metadata of the modules invalidated that are not linked yet. */
+        if (loads != null) {
+            loads.clear();
+        }
+        if (invalidModules.isEmpty()) {
+            return 0;
+        }
+        
+        final IdentityHashMap<Module, ArrayList<Module>> dependers = new IdentityHashMap<Module, ArrayList<Module>>();
+        for (final Object value : modules.values()) {
+            final Module module = (Module) value;
+            for (final Module dep : module.dependencies) {
+                ArrayList<Module> depDependers = dependers.get(dep);
+                if (depDependers == null) {
+                    depDependers = new ArrayList<Module>();
+                    dependers.put(dep, depDependers);
+                }
+                depDependers.add(module);
+            }
+        }
+        
+        final IdentityHashMap<Module, Object> removed = new IdentityHashMap<Module, Object>();
+        final ArrayList<Module> stack = new ArrayList<Module>(invalidModules);
+        while (!stack.isEmpty()) {
+            final Module module = stack.remove(stack.size() - 1);
+            if (removed.put(module, module) != null) {
+                continue;
+            }
+            final ArrayList<Module> moduleDependers = dependers.get(module);
+            if (moduleDependers != null) {
+                stack.addAll(moduleDependers);
+            }
+        }
+        for (final Module module : removed.keySet()) {
+            final String path = module.getPath();
+            modules.remove(path);
+            validityKeys.remove(path);
+        }
+        return removed.size();
+    }
+    
+    // Waits for the metadata of the given module to be loaded by a helper thread.
+    private ModuleInfo awaitModuleInfo(final String normalisedPath) throws ModuleNotLoadedException
+    {
+        LoadTask load = loads.get(normalisedPath);
+        if (load == null) {
+            load = scheduleLoad(normalisedPath);
+        }
+        try {
+            return load.get();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new BuildException("The build thread was interrupted.");
+        }
+        catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof ModuleNotLoadedException) {
+                throw (ModuleNotLoadedException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+    
+    /* Returns the task that loads the module with the given path. A new task is scheduled if
+     * this module has not been scheduled yet. It is invoked by both the thread that links
+     * modules and the helper threads.
+     */
+    private LoadTask scheduleLoad(final String normalisedPath)
+    {
+        final LoadTask load = new LoadTask(normalisedPath);
+        final LoadTask existingLoad = loads.putIfAbsent(normalisedPath, load);
+        if (existingLoad != null) {
+            return existingLoad;
+        }
+        try {
+            loaderExecutor.execute(load);
+        }
+        catch (RejectedExecutionException ex) {
+            /* The helper threads are being stopped, which means that all modules required are
+             * already linked or some error is encountered, and the module is not needed. It will be scheduled again
+             * if some later invocation of #resolveModule() needs it.
+             */
+            loads.remove(normalisedPath, load);
+        }
+        return load;
+    }
+    
+    private void startLoaders()
+    {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        loaderExecutor = new ThreadPoolExecutor(loaderThreadCount, loaderThreadCount, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+                {
+                    public Thread newThread(final Runnable r)
+                    {
+                        final Thread t = new Thread(r, "antmodular-loader-" + threadNumber.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+    
+    /* Discards the loads that are scheduled but not started (they are needed for modules that
+     * will not be linked because some error is encountered) and waits for the helper threads
+     * to finish so that the module loader is not used after #resolveModule() returns. Then
+     * the loads of the modules linked are discarded as well.
+     */
+    private void stopLoaders()
+    {
+        final ThreadPoolExecutor executor = loaderExecutor;
+        final ArrayList<Runnable> pendingLoads = new ArrayList<Runnable>();
+        executor.getQueue().drainTo(pendingLoads);
+        executor.shutdown();
+        for (final Runnable r : pendingLoads) {
+            final LoadTask load = (LoadTask) r;
+            loads.remove(load.path, load);
+        }
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // Waiting for the loads being executed to finish.
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new BuildException("The build thread was interrupted.");
+        }
+        finally {
+            loaderExecutor = null;
+        }
+        loads.keySet().removeAll(modules.keySet());
+    }
+    
+    /* Loads the metadata of a single module and schedules its dependee modules
+     * for loading so that their metadata are loaded before they are linked.
+     */
+    private class LoadTask extends FutureTask<ModuleInfo>
+    {
+        final String path;
+        
+        LoadTask(final String normalisedPath)
+        {
+            super(new Callable<ModuleInfo>()
+            {
+                public ModuleInfo call() throws ModuleNotLoadedException
+                {
+                    final ModuleInfo moduleInfo = loadModuleInfo(normalisedPath);
+                    for (final String depPath : moduleInfo.getDependencies()) {
+                        if (!loads.containsKey(depPath)) {
+                            scheduleLoad(depPath);
+                        }
+                    }
+                    return moduleInfo;
+                }
+            });
+            path = normalisedPath;
+        }
+    }
 }
@@ -0,0 +1,521 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.ProjectComponent;
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+
+/**
+ * <p>Serves as the nested element {@code <moduleset>} of the task
+ * {@link CallTargetForModules &lt;callTargetForModules&gt;} and defines a set of modules that
+ * are discovered by walking a directory tree. Each module found is processed as if it is defined
+ * by a {@link CallTargetForModules.ModuleElement &lt;module&gt;} element.</p>
+ * 
+ * <p>A module directory is a directory that contains a marker file. The include patterns define
+ * both which directories are module directories and the marker file. Each include pattern
+ * consists of a directory pattern followed by the path of the marker file relative to the module
+ * directory. The latter is the longest tail of the pattern without wildcards. For instance,
+ * the default pattern {@code **}{@code /META-INF/MANIFEST.MF} matches any directory that
+ * contains the file {@code META-INF/MANIFEST.MF}, and the pattern
+ * {@code modules/*}{@code /build.xml} matches any direct subdirectory of {@code modules} that
+ * contains the file {@code build.xml}. The exclude patterns are matched against directories.
+ * The patterns are relative to the directory {@code dir} and follow the rules of Ant
+ * {@link org.apache.tools.ant.types.FileSet filesets}.</p>
+ * 
+ * <p>The directory tree is walked by a pool of helper threads. The subtrees which are excluded,
+ * which cannot match any include pattern and which belong to a module directory found are not
+ * walked. That is, modules nested into other modules are not discovered. The modules discovered
+ * are passed to the module registry while the walk is still in progress. Directories which are
+ * reachable by multiple paths (e.g. via symbolic links) are walked once.</p>
+ * 
+ * <h3>Attributes</h3>
+ * <table border="1">
+ * <thead>
+ *  <tr><th>Attribute</th>
+ *      <th>Required?</th>
+ *      <th>Description</th>
+ *      <th>Default value</th></tr>
+ * </thead>
+ * <tbody>
+ *  <tr><td>{@link #setDir(File) dir}</td>
+ *      <td>yes</td>
+ *      <td>The root of the directory tree to be walked.</td>
+ *      <td>N/A</td></tr>
+ *  <tr><td>{@link #setIncludes(String) includes}</td>
+ *      <td>no</td>
+ *      <td>The comma- or space-separated list of patterns that match module marker files.</td>
+ *      <td>{@code **}{@code /META-INF/MANIFEST.MF}</td></tr>
+ *  <tr><td>{@link #setExcludes(String) excludes}</td>
+ *      <td>no</td>
+ *      <td>The comma- or space-separated list of patterns that match directories
+ *          that are not walked.</td>
+ *      <td>N/A</td></tr>
+ *  <tr><td>{@link #setDefaultexcludes(boolean) defaultexcludes}</td>
+ *      <td>no</td>
+ *      <td>Indicates whether or not the Ant default excludes (e.g. {@code **}{@code /.git})
+ *          are used.</td>
+ *      <td>{@code true}</td></tr>
+ *  <tr><td>{@link #setTarget(String) target}</td>
+ *      <td>no</td>
+ *      <td>Specifies the name of the target that must be invoked for the modules of this
+ *          {@code <moduleset>}. If this attribute is undefined then the target defined in
+ *          {@code <callTargetForModules>} is used.</td>
+ *      <td>N/A</td></tr>
+ *  <tr><td>{@link #setThreadCount(int) threadCount}</td>
+ *      <td>no</td>
+ *      <td>The number of threads that walk the directory tree. It must be a positive
+ *          value.</td>
+ *      <td>The number of available processors</td></tr>
+ * </tbody>
+ * </table>
+ * 
+ * <h3>Usage example</h3>
+ * <pre>{@literal
+ * <am:callTargetForModules target="build" loaderThreadCount="4">
+ *     <am:manifestModuleLoader/>
+ *     <moduleset dir="modules" excludes="legacy/**"/>
+ * </am:callTargetForModules>}</pre>
+ * 
+ * @see CallTargetForModules
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+public class ModuleSet extends ProjectComponent
+{
+    private static final String DEFAULT_INCLUDES = "**/META-INF/MANIFEST.MF";
+    
+    private File dir;
+    private String includes = DEFAULT_INCLUDES;
+    private String excludes;
+    private boolean defaultexcludes = true;
+    private String target;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+    
+    /**
+     * <p>Starts discovering the modules of this {@code <moduleset>} with helper threads.
+     * The iterator returned provides the absolute paths of the module directories found.
+     * Its method {@code hasNext()} blocks until the next module is found or the walk is
+     * finished. The walk must be {@link Discovery#cancel() cancelled} if the iterator is
+     * not exhausted.</p>
+     * 
+     * @return the discovery started. It is never {@code null}.
+     * 
+     * @throws BuildException if this {@code <moduleset>} is configured incorrectly.
+     */
+    Discovery discover()
+    {
+        if (dir == null) {
+            throw new BuildException("The attribute 'dir' of the element <moduleset> is undefined.");
+        }
+        final File rootDir = getProject().resolveFile(dir.getPath());
+        if (!rootDir.isDirectory()) {
+            throw new BuildException(MessageFormat.format(
+                    "The directory ''{0}'' of the element <moduleset> does not exist.", rootDir));
+        }
+        final ArrayList<IncludePattern> includePatterns = new ArrayList<IncludePattern>();
+        for (final String pattern : tokenise(includes)) {
+            includePatterns.add(new IncludePattern(pattern));
+        }
+        if (includePatterns.isEmpty()) {
+            throw new BuildException("The attribute 'includes' of the element <moduleset> is empty.");
+        }
+        final ArrayList<String> excludePatterns = tokenise(excludes);
+        if (defaultexcludes) {
+            for (final String pattern : DirectoryScanner.getDefaultExcludes()) {
+                excludePatterns.add(normalisePattern(pattern));
+            }
+        }
+        return new Discovery(rootDir, includePatterns, excludePatterns, threadCount);
+    }
+    
+    String getTarget()
+    {
+        return target;
+    }
+    
+    private static ArrayList<String> tokenise(final String patterns)
+    {
+        final ArrayList<String> result = new ArrayList<String>();
+        if (patterns != null) {
+            final StringTokenizer tokenizer = new StringTokenizer(patterns, ", ", false);
+            while (tokenizer.hasMoreTokens()) {
+                result.add(normalisePattern(tokenizer.nextToken()));
+            }
+        }
+        return result;
+    }
+    
+    // Converts the pattern to the platform-specific form as DirectoryScanner does.
+    private static String normalisePattern(final String pattern)
+    {
+        String result = pattern.replace('/', File.separatorChar).replace('\\', File.separatorChar);
+        if (result.endsWith(File.separator)) {
+            result += "**";
+        }
+        return result;
+    }
+    
+    private static boolean hasWildcards(final String s)
+    {
+        return s.indexOf('*') != -1 || s.indexOf('?') != -1;
+    }
+    
+    // An include pattern split into the directory pattern and the marker file path.
+    private static final class IncludePattern
+    {
+        final String dirPattern;
+        final String marker;
+        // The first element of the marker file path.
+        final String markerHead;
+        
+        IncludePattern(final String pattern)
+        {
+            int markerStart = pattern.length();
+            int i = pattern.lastIndexOf(File.separatorChar);
+            /* The marker consists of the tail elements without wildcards. The first element
+             * of a pattern is never a part of the marker.
+             */
+            while (i != -1 && !hasWildcards(pattern.substring(i + 1, markerStart))) {
+                markerStart = i;
+                i = pattern.lastIndexOf(File.separatorChar, i - 1);
+            }
+            if (markerStart == pattern.length()) {
+                throw new BuildException(MessageFormat.format(
+                        "The include pattern ''{0}'' of the element <moduleset> must end with " +
+                        "the path of a file that marks a module directory.", pattern));
+            }
+            dirPattern = pattern.substring(0, markerStart);
+            marker = pattern.substring(markerStart + 1);
+            final int headEnd = marker.indexOf(File.separatorChar);
+            markerHead = headEnd == -1 ? marker : marker.substring(0, headEnd);
+        }
+    }
+    
+    /**
+     * <p>The modules of a {@link ModuleSet} being discovered. The absolute paths of the module
+     * directories are provided in the order they are found. This iterator must be used by
+     * a single thread.</p>
+     */
+    static final class Discovery implements Iterator<String>
+    {
+        // Put into the result queue when the walk is finished.
+        private static final Object END = new Object();
+        
+        private final ArrayList<IncludePattern> includePatterns;
+        private final ArrayList<String> excludePatterns;
+        private final ThreadPoolExecutor executor;
+        // The number of directories that are scheduled for walking but are not walked yet.
+        private final AtomicInteger pendingDirs = new AtomicInteger();
+        // The canonical paths of the directories scheduled, to walk each directory once.
+        private final ConcurrentHashMap<String, Boolean> visitedDirs = new ConcurrentHashMap<String, Boolean>();
+        // Either module paths, a RuntimeException or Error thrown by a helper thread, or END.
+        private final LinkedBlockingQueue<Object> results = new LinkedBlockingQueue<Object>();
+        private volatile boolean cancelled;
+        private String next;
+        private boolean finished;
+        
+        Discovery(final File rootDir, final ArrayList<IncludePattern> includePatterns,
+                final ArrayList<String> excludePatterns, final int threadCount)
+        {
+            this.includePatterns = includePatterns;
+            this.excludePatterns = excludePatterns;
+            final AtomicInteger threadNumber = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+                    {
+                        public Thread newThread(final Runnable r)
+                        {
+                            final Thread t = new Thread(r, "antmodular-moduleset-" + threadNumber.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            schedule(rootDir, "");
+        }
+        
+        public boolean hasNext()
+        {
+            if (next != null) {
+                return true;
+            }
+            if (finished) {
+                return false;
+            }
+            final Object result;
+            try {
+                result = results.take();
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new BuildException("The build thread was interrupted.");
+            }
+            if (result == END) {
+                finished = true;
+                executor.shutdown();
+                return false;
+            }
+            if (result instanceof RuntimeException) {
+                cancel();
+                throw (RuntimeException) result;
+            }
+            if (result instanceof Error) {
+                cancel();
+                throw (Error) result;
+            }
+            next = (String) result;
+            return true;
+        }
+        
+        public String next()
+        {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final String result = next;
+            next = null;
+            return result;
+        }
+        
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+        
+        /**
+         * <p>Stops the walk. The directories being walked are walked till the end but no
+         * module is provided by this {@code Discovery} after it is cancelled.</p>
+         */
+        void cancel()
+        {
+            cancelled = true;
+            finished = true;
+            next = null;
+            executor.shutdownNow();
+        }
+        
+        private void schedule(final File dir, final String relativePath)
+        {
+            final String canonicalPath;
+            try {
+                canonicalPath = dir.getCanonicalPath();
+            }
+            catch (IOException ex) {
+                // The directory is inaccessible. It is skipped as DirectoryScanner does.
+                return;
+            }
+            if (visitedDirs.putIfAbsent(canonicalPath, Boolean.TRUE) != null) {
+                return;
+            }
+            pendingDirs.incrementAndGet();
+            try {
+                executor.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        try {
+                            walk(dir, relativePath);
+                        }
+                        catch (RuntimeException ex) {
+                            results.add(ex);
+                        }
+                        catch (Error ex) {
+                            results.add(ex);
+                        }
+                        finally {
+                            dirWalked();
+                        }
+                    }
+                });
+            }
+            catch (RejectedExecutionException ex) {
+                // The walk is cancelled.
+                dirWalked();
+            }
+        }
+        
+        private void dirWalked()
+        {
+            if (pendingDirs.decrementAndGet() == 0) {
+                results.add(END);
+            }
+        }
+        
+        private void walk(final File dir, final String relativePath)
+        {
+            if (cancelled) {
+                return;
+            }
+            final String[] names = dir.list();
+            if (names == null) {
+                // The directory is unreadable. It is skipped as DirectoryScanner does.
+                return;
+            }
+            if (isModuleDir(dir, relativePath, names)) {
+                results.add(dir.getPath());
+                return;
+            }
+            for (final String name : names) {
+                final String childPath = relativePath.length() == 0 ? name : relativePath + File.separatorChar + name;
+                if (isExcluded(childPath) || !couldContainModules(childPath)) {
+                    continue;
+                }
+                final File child = new File(dir, name);
+                if (child.isDirectory()) {
+                    schedule(child, childPath);
+                }
+            }
+        }
+        
+        private boolean isModuleDir(final File dir, final String relativePath, final String[] names)
+        {
+            for (final IncludePattern pattern : includePatterns) {
+                if (contains(names, pattern.markerHead) && SelectorUtils.matchPath(pattern.dirPattern, relativePath) &&
+                        new File(dir, pattern.marker).isFile()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        private boolean isExcluded(final String relativePath)
+        {
+            for (final String pattern : excludePatterns) {
+                if (SelectorUtils.matchPath(pattern, relativePath)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        private boolean couldContainModules(final String relativePath)
+        {
+            for (final IncludePattern pattern : includePatterns) {
+                if (SelectorUtils.matchPatternStart(pattern.dirPattern, relativePath)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        private static boolean contains(final String[] names, final String name)
+        {
+            for (final String s : names) {
+                if (s.equals(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+    
+    /**
+     * <p>Sets the root of the directory tree to be walked.</p>
+     * 
+     * @param dir the directory to be set. It must be not {@code null}. Otherwise
+     *      a {@link BuildException org.apache.tools.ant.BuildException} is thrown when the
+     *      modules are discovered.
+     */
+    public void setDir(final File dir)
+    {
+        this.dir = dir;
+    }
+    
+    /**
+     * <p>Sets the comma- or space-separated list of patterns that match module marker files.
+     * See the {@link ModuleSet class description} for the details.</p>
+     * 
+     * @param includes the patterns to be set.
+     */
+    public void setIncludes(final String includes)
+    {
+        this.includes = includes;
+    }
+    
+    /**
+     * <p>Sets the comma- or space-separated list of patterns that match directories
+     * that are not walked.</p>
+     * 
+     * @param excludes the patterns to be set.
+     */
+    public void setExcludes(final String excludes)
+    {
+        this.excludes = excludes;
+    }
+    
+    /**
+     * <p>Sets whether or not the Ant default excludes are used. {@code true} is the default
+     * value.</p>
+     * 
+     * @param defaultexcludes the flag value to be set.
+     */
+    public void setDefaultexcludes(final boolean defaultexcludes)
+    {
+        this.defaultexcludes = defaultexcludes;
+    }
+    
+    /**
+     * <p>Sets the target to be invoked for the modules of this {@code <moduleset>}. If it is
+     * undefined then the target defined in {@code <callTargetForModules>} is used.</p>
+     * 
+     * @param target the name of the target to be invoked.
+     */
+    public void setTarget(final String target)
+    {
+        this.target = target;
+    }
+    
+    /**
+     * <p>Sets the number of threads that walk the directory tree. By default, it is the
+     * number of available processors.</p>
+     * 
+     * @param threadCount the number of threads to be set. It must be a positive value.
+     * 
+     * @throws BuildException if <em>threadCount</em> is non-positive.
+     */
+    public void setThreadCount(final int threadCount)
+    {
+        if (threadCount <= 0) {
+            throw new BuildException(MessageFormat.format(
+                    "Invalid thread count: ''{0}''. It must be a positive value.",
+                    String.valueOf(threadCount)));
+        }
+        this.threadCount = threadCount;
+    }
+}
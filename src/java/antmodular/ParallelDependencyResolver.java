@@ -25,15 +25,19 @@ package antmodular;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.PriorityQueue;
 
 /**
  * <p>Resolves dependencies between {@link Module modules}, that is it defines an order
  * in which a given set of modules is to be processed so that each module is processed
  * after all modules it depends upon are processed. The order of processing of independent
- * modules is undefined.</p>
+ * modules is undefined unless a priority of modules is {@link #init(Collection, Comparator) defined}.
+ * In the latter case the module with the highest priority is acquired first among the modules
+ * available for processing.</p>
  * 
  * <p>The lifecycle of a {@code ParallelDependencyResolver} instance is the following:</p>
  * <ol type="1">
@@ -74,9 +78,11 @@ import java.util.LinkedHashSet;
  */
 public class ParallelDependencyResolver
 {
-    private ArrayList<Node> shortlist;
+    private PriorityQueue<Node> shortlist;
     private IdentityHashMap<Module, Node> modulesAcquired;
     private int remainingModuleCount;
+    // The sequence number of the last node added to the shortlist.
+    private int shortlistSeq;
     
     /**
      * <p>Initialises this {@code ParallelDependencyResolver} with a set of {@link Module modules}
@@ -96,6 +102,31 @@ public class ParallelDependencyResolver
      *      is {@code null}.
      */
     public void init(final Collection<Module> rootModules) throws CyclicDependenciesDetectedException
+    {
+        init(rootModules, null);
+    }
+    
+    /**
+     * <p>Initialises this {@code ParallelDependencyResolver} with a set of {@link Module modules}
+     * to process and the priority of these modules. This function is equivalent to
+     * {@link #init(Collection)} except that if multiple modules are available for processing
+     * then {@link #getFreeModule()} returns the greatest module with respect to the given
+     * comparator. If multiple modules have the same priority then the module that has become
+     * available for processing most recently is returned.</p>
+     * 
+     * @param rootModules the modules that constitute with their direct and indirect dependee
+     *      modules a set of modules. This collection and all of its elements must be
+     *      non-{@code null}.
+     * @param priority the comparator that defines the priority of modules. If it is {@code null}
+     *      then all modules have the same priority.
+     * 
+     * @throws CyclicDependenciesDetectedException if there are cyclic dependencies between
+     *      the modules.
+     * @throws NullPointerException if either <em>rootModules</em> or any of its elements
+     *      is {@code null}.
+     */
+    public void init(final Collection<Module> rootModules, final Comparator<? super Module> priority)
+            throws CyclicDependenciesDetectedException
     {
         if (rootModules == null) {
             throw new NullPointerException("rootModules");
@@ -106,12 +137,16 @@ public class ParallelDependencyResolver
             }
         }
         synchronized (this) {
-            final ArrayList<Node> newShortlist = new ArrayList<Node>();
+            final ArrayList<Node> freeNodes = new ArrayList<Node>();
             /* If buildNodeGraph() throws an exception then the state is not changed
                so that this ParallelDependencyResolver instance could be used as if
                this init() were not invoked. */
-            remainingModuleCount = buildNodeGraph(rootModules, newShortlist);
-            shortlist = newShortlist;
+            remainingModuleCount = buildNodeGraph(rootModules, freeNodes);
+            shortlist = new PriorityQueue<Node>(Math.max(freeNodes.size(), 1), new NodeComparator(priority));
+            shortlistSeq = 0;
+            for (int i = 0, n = freeNodes.size(); i < n; ++i) {
+                addToShortlist(freeNodes.get(i));
+            }
             modulesAcquired = new IdentityHashMap<Module, Node>();
         }
     }
@@ -150,12 +185,7 @@ public class ParallelDependencyResolver
                 }
                 wait();
             }
-            final Node node = shortlist.remove(shortlist.size()-1);
-            final Module module = node.module;
-            modulesAcquired.put(module, node);
-            --remainingModuleCount;
-            
-            return module;
+            return acquire();
         }
         catch (InterruptedException ex) {
             Thread.currentThread().interrupt();
@@ -163,6 +193,41 @@ public class ParallelDependencyResolver
         }
     }
     
+    /**
+     * <p>Returns a {@link Module module} that does not have {@link Module#getDependencies()
+     * dependencies} unprocessed without waiting for such a module to appear. This function
+     * is equivalent to {@link #getFreeModule()} except that it returns {@code null} if there
+     * are no modules available for processing at the moment. It allows a single thread to
+     * replay parallel processing of modules.</p>
+     * 
+     * @return a module which has no unprocessed dependee modules, or {@code null} if there
+     *      is no such module at the moment.
+     * 
+     * @throws IllegalStateException if this {@code ParallelDependencyResolver} is not initialised.
+     */
+    synchronized Module pollFreeModule()
+    {
+        ensureInitialised();
+        
+        return shortlist.isEmpty() ? null : acquire();
+    }
+    
+    private Module acquire()
+    {
+        final Node node = shortlist.poll();
+        final Module module = node.module;
+        modulesAcquired.put(module, node);
+        --remainingModuleCount;
+        
+        return module;
+    }
+    
+    private void addToShortlist(final Node node)
+    {
+        node.seq = ++shortlistSeq;
+        shortlist.add(node);
+    }
+    
     /**
      * <p>Marks a given {@link Module module} as processed, so that the modules that depend upon
      * this module have one less unprocessed dependency. The modules for which this module is
@@ -201,7 +266,7 @@ public class ParallelDependencyResolver
             final Node depOf = node.dependencyOf.get(i);
             if (--depOf.dependencyCount == 0) {
                 // all modules with no dependencies go to the shortlist
-                shortlist.add(depOf);
+                addToShortlist(depOf);
             }
         }
         /* Notifying all threads after the module is removed and its dependencies are processed
@@ -258,6 +323,33 @@ public class ParallelDependencyResolver
            when this node has no dependencies remaining. */
         int dependencyCount;
         final ArrayList<Node> dependencyOf;
+        // Defines the order of nodes with the same priority in the shortlist.
+        int seq;
+    }
+    
+    /*
+     * Orders the nodes so that the head of the shortlist is the node with the highest priority
+     * which has been added to the shortlist most recently.
+     */
+    private static class NodeComparator implements Comparator<Node>
+    {
+        private final Comparator<? super Module> priority;
+        
+        NodeComparator(final Comparator<? super Module> priority)
+        {
+            this.priority = priority;
+        }
+        
+        public int compare(final Node n1, final Node n2)
+        {
+            if (priority != null) {
+                final int result = priority.compare(n2.module, n1.module);
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return n2.seq - n1.seq;
+        }
     }
     
     /*
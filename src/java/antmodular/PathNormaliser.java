@@ -0,0 +1,352 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>Normalises paths against a fixed base directory by the rules of
+ * {@link ModuleUtil#normalisePath(String, File, boolean)}. The results are exactly the same as
+ * those of {@code ModuleUtil.normalisePath()} invoked with the same base directory, but they
+ * are computed faster:</p>
+ * <ul>
+ *  <li>the elements of the base directory are computed once, when a {@code PathNormaliser}
+ *      is created</li>
+ *  <li>the path characters are scanned in place, with neither {@link File} objects nor
+ *      intermediate strings created for the path elements</li>
+ *  <li>a bounded number of recently normalised paths are cached along with their
+ *      normalised forms</li>
+ * </ul>
+ * 
+ * <p>The in-place scan is used on platforms that use '/' as the path separator. On other
+ * platforms paths are normalised by {@code ModuleUtil.normalisePath()} itself, so that
+ * their platform-specific prefixes are handled properly. The cache is used on all
+ * platforms.</p>
+ * 
+ * <p>{@code PathNormaliser} is thread-safe.</p>
+ * 
+ * @see ModuleUtil#normalisePath(String, File, boolean)
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+public final class PathNormaliser
+{
+    /**
+     * <p>The maximal number of normalised paths that are cached by a {@code PathNormaliser}
+     * if no cache size is specified explicitly.</p>
+     */
+    public static final int DEFAULT_CACHE_SIZE = 8192;
+    
+    // If it is true then the path elements are scanned in place.
+    private static final boolean inPlaceScan = File.separatorChar == '/';
+    
+    private final File baseDir;
+    private final boolean normaliseCase;
+    
+    /* Base directory path elements in the reverse order, as they are computed by
+     * ModuleUtil#baseDirElements(File). Computed once.
+     */
+    private final String[] baseDirParts;
+    
+    // It is null if no paths are to be cached.
+    private final LinkedHashMap<String, String> cache;
+    
+    /**
+     * <p>Creates a {@code PathNormaliser} that normalises paths against a given base directory,
+     * with <em>no</em> path letter case normalisation. Up to {@value #DEFAULT_CACHE_SIZE}
+     * normalised paths are cached.</p>
+     * 
+     * @param baseDir the base directory to normalise paths against. It must be
+     *      non-{@code null}. It does not need to point to an existing directory.
+     * 
+     * @throws NullPointerException if <em>baseDir</em> is {@code null}.
+     */
+    public PathNormaliser(final File baseDir)
+    {
+        this(baseDir, false, DEFAULT_CACHE_SIZE);
+    }
+    
+    /**
+     * <p>Creates a {@code PathNormaliser} that normalises paths against a given base
+     * directory.</p>
+     * 
+     * @param baseDir the base directory to normalise paths against. It must be
+     *      non-{@code null}. It does not need to point to an existing directory.
+     * @param normaliseCase if {@code true} then path letter case is normalised (i.e.
+     *      casted to lower case); if {@code false} then the path characters are not modified.
+     * @param cacheSize the maximal number of normalised paths to be cached. The least
+     *      recently used paths are evicted first. If it is zero then no paths are cached.
+     * 
+     * @throws NullPointerException if <em>baseDir</em> is {@code null}.
+     * @throws IllegalArgumentException if <em>cacheSize</em> is negative.
+     */
+    public PathNormaliser(final File baseDir, final boolean normaliseCase, final int cacheSize)
+    {
+        if (baseDir == null) {
+            throw new NullPointerException("baseDir");
+        }
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("cacheSize");
+        }
+        this.baseDir = baseDir;
+        this.normaliseCase = normaliseCase;
+        baseDirParts = inPlaceScan ? baseDirElements(baseDir) : null;
+        if (cacheSize == 0) {
+            cache = null;
+        } else {
+            cache = new LinkedHashMap<String, String>(16, 0.75f, true)
+            {
+                private static final long serialVersionUID = 1L;
+                
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, String> eldest)
+                {
+                    return size() > cacheSize;
+                }
+            };
+        }
+    }
+    
+    /**
+     * <p>Returns the base directory paths are normalised against.</p>
+     * 
+     * @return the base directory. It is necessarily non-{@code null}.
+     */
+    public File getBaseDir()
+    {
+        return baseDir;
+    }
+    
+    /**
+     * <p>Normalises a given path relative to the base directory of this
+     * {@code PathNormaliser}. The result is the same as the result of
+     * {@link ModuleUtil#normalisePath(String, File, boolean)} invoked with the base
+     * directory and the path letter case normalisation mode of this
+     * {@code PathNormaliser}.</p>
+     * 
+     * @param path the path to normalise. It must be non-{@code null}. It does not need
+     *      to point to an existing file.
+     * 
+     * @return the normalised path. It is necessarily non-{@code null}.
+     * 
+     * @throws NullPointerException if <em>path</em> is {@code null}.
+     */
+    public String normalise(final String path)
+    {
+        if (path == null) {
+            throw new NullPointerException("path");
+        }
+        if (cache == null) {
+            return doNormalise(path);
+        }
+        synchronized (cache) {
+            final String normalisedPath = cache.get(path);
+            if (normalisedPath != null) {
+                return normalisedPath;
+            }
+        }
+        // Paths are normalised outside the lock. A path could be normalised twice, which is harmless.
+        final String normalisedPath = doNormalise(path);
+        synchronized (cache) {
+            cache.put(path, normalisedPath);
+        }
+        return normalisedPath;
+    }
+    
+    // Returns the number of the paths cached. Used by unit tests.
+    int getCachedPathCount()
+    {
+        if (cache == null) {
+            return 0;
+        }
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+    
+    private String doNormalise(final String path)
+    {
+        if (!inPlaceScan) {
+            return ModuleUtil.normalisePath(path, baseDir, normaliseCase);
+        }
+        
+        final int length = path.length();
+        if (length == 0) {
+            // path refers to baseDir.
+            return ".";
+        }
+        
+        final boolean absolute = path.charAt(0) == '/';
+        final int levelsUp = absolute ? baseDirParts.length : 0;
+        
+        /* The elements of the resulting path. Each element is either a '..' element (its start
+         * is -1) or the region [start, end) of the path string. There is at most one element
+         * per two characters of the path and one more for the root directory.
+         */
+        final int capacity = levelsUp + (length >> 1) + 2;
+        final int[] starts = new int[capacity];
+        final int[] ends = new int[capacity];
+        int size;
+        
+        /* The depth of the current path element in the file system hierarchy given that
+         * the depth of the baseDir is zero. See ModuleUtil#normalisePath(String, File, boolean)
+         * for the meaning of this variable and of baseDirCommonCursor.
+         */
+        int depth;
+        int baseDirCommonCursor;
+        
+        if (absolute) {
+            /* Initialising the destination path with necessary .. elements to reach
+             * the position 'above' root directory so that the root directory is the
+             * first path element to start resolving with.
+             */
+            for (int i = 0; i < levelsUp; ++i) {
+                starts[i] = -1;
+            }
+            size = levelsUp;
+            baseDirCommonCursor = depth = -levelsUp;
+        } else {
+            size = 0;
+            baseDirCommonCursor = depth = 0;
+        }
+        
+        /* Going through path elements from parents to children resolving '.' and '..'.
+         * The root directory of an absolute path is an empty element that precedes
+         * the first separator.
+         */
+        int start = 0;
+        while (start <= length) {
+            int end = path.indexOf('/', start);
+            if (end == -1) {
+                end = length;
+            }
+            final int partLength = end - start;
+            
+            if (partLength == 0 && !(absolute && start == 0)) {
+                // A redundant path separator or a trailing one.
+            } else if (partLength == 1 && path.charAt(start) == '.') {
+                // Nothing to do.
+            } else if (partLength == 2 && path.charAt(start) == '.' && path.charAt(start + 1) == '.') {
+                if (depth <= 0 && -(depth - 1) == baseDirParts.length) {
+                    /* There is nothing to do since the root directory is reached and
+                     * the parent of the root directory is the root directory itself.
+                     */
+                    assert depth == baseDirCommonCursor;
+                } else {
+                    if (size == 0 || starts[size - 1] == -1) {
+                        // The current path element points to the direct or an indirect parent directory of the baseDir.
+                        starts[size++] = -1;
+                        
+                        // Moving the cursor one level up.
+                        --baseDirCommonCursor;
+                    } else {
+                        --size;
+                    }
+                    --depth;
+                }
+            } else {
+                if (depth < 0 && baseDirCommonCursor == depth && regionEquals(path, start, partLength,
+                        baseDirParts[-depth - 1])) {
+                    /* The current path element points to a parent of baseDir.
+                     * Just removing the previous '..'.
+                     */
+                    assert starts[size - 1] == -1;
+                    
+                    --size;
+                    ++depth;
+                    ++baseDirCommonCursor;
+                } else {
+                    starts[size] = start;
+                    ends[size] = end;
+                    ++size;
+                    ++depth;
+                }
+            }
+            start = end + 1;
+        }
+        
+        if (size == 0) {
+            // path refers to baseDir.
+            return ".";
+        }
+        
+        // Calculating the size of the resulting string to avoid redundant buffer re-allocations.
+        int destSize = size - 1;
+        for (int i = 0; i < size; ++i) {
+            destSize += starts[i] == -1 ? 2 : ends[i] - starts[i];
+        }
+        final StringBuilder buf = new StringBuilder(destSize);
+        for (int i = 0; i < size; ++i) {
+            if (i > 0) {
+                buf.append(File.separatorChar);
+            }
+            if (starts[i] == -1) {
+                buf.append("..");
+            } else {
+                buf.append(path, starts[i], ends[i]);
+            }
+        }
+        
+        assert buf.length() == destSize;
+        
+        final String normalisedPath = buf.toString();
+        // The system default locale is used for casting to the lower case.
+        return normaliseCase ? normalisedPath.toLowerCase() : normalisedPath;
+    }
+    
+    private static boolean regionEquals(final String path, final int start, final int length,
+            final String s)
+    {
+        return s.length() == length && path.regionMatches(start, s, 0, length);
+    }
+    
+    /*
+     * Returns the path elements of the normalised base directory in the reverse order.
+     * The same algorithm as ModuleUtil#baseDirElements(File) is used.
+     */
+    private static String[] baseDirElements(final File baseDir)
+    {
+        final ArrayList<String> baseDirParts = new ArrayList<String>();
+        // The number of '..' elements that still can discard some directory path elements.
+        int parentDirElementCount = 0;
+        File parent;
+        for (File f = baseDir.isAbsolute() ? baseDir : baseDir.getAbsoluteFile(); f != null; f = parent) {
+            parent = f.getParentFile();
+            
+            final String e = f.getName();
+            if (e.equals(".")) {
+                continue;
+            } else if (e.equals("..")) {
+                ++parentDirElementCount;
+            } else if (parentDirElementCount > 0 && parent != null) {
+                --parentDirElementCount;
+            } else {
+                baseDirParts.add(e);
+            }
+        }
+        return baseDirParts.toArray(new String[baseDirParts.size()]);
+    }
+}
@@ -0,0 +1,408 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.text.MessageFormat;
+import java.util.Collection;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor.CallerRunsPolicy;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+
+/**
+ * <p>A client of a remote cache of the output files of modules. The outputs of a module are
+ * stored as a ZIP archive under a key which is the fingerprint of the module computed by
+ * {@link ModuleFingerprinter}, so that they could be shared by CI agents and developers.</p>
+ * 
+ * <p>The cache server is expected to support a simple HTTP protocol: {@code GET <url>/<key>}
+ * returns the archive stored under the key or the status code {@code 404} if there is no such
+ * archive, and {@code PUT <url>/<key>} stores the archive sent in the request body. Any server
+ * that supports this protocol (e.g. a WebDAV-enabled web server) could be used as a backend.</p>
+ * 
+ * <p>The archives are uploaded asynchronously by a helper thread so that the build does not
+ * wait for uploads. The archive is created synchronously, though, so that the output files could
+ * be changed after {@link #upload(Module, String, File, Collection)} returns. The archives are
+ * spooled to temporary files rather than kept in memory. At most {@value #MAX_PENDING_UPLOADS}
+ * archives wait for the helper thread. If there are more then the build thread that has created
+ * the archive uploads it itself, so that the build slows down to the upload speed instead of
+ * filling the disk. {@link #close()} waits for the pending uploads to finish.</p>
+ * 
+ * <p>{@code RemoteBuildCache} is thread-safe.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ * 
+ * @see CallTargetForModules#setRemoteCacheUrl(String)
+ */
+final class RemoteBuildCache
+{
+    // The maximal number of archives waiting for the helper thread to upload them.
+    static final int MAX_PENDING_UPLOADS = 4;
+    
+    /* The number of attempts to send a request that receives no response. Each failed attempt
+     * discards the kept-alive connection it has used, and HttpURLConnection keeps at most
+     * http.maxConnections idle connections per server, so the last attempt uses a new connection.
+     */
+    private static final int MAX_REQUEST_ATTEMPTS = Integer.getInteger("http.maxConnections", 5).intValue() + 1;
+    
+    private final String baseUrl;
+    private final int timeout;
+    private final Task owner;
+    private final ThreadPoolExecutor uploadExecutor;
+    
+    /**
+     * <p>Creates a {@code RemoteBuildCache}.</p>
+     * 
+     * @param baseUrl the base URL of the cache server.
+     * @param timeout the connect and read timeout in milliseconds.
+     * @param owner the task the upload failures are logged by.
+     */
+    RemoteBuildCache(final String baseUrl, final int timeout, final Task owner)
+    {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + '/';
+        this.timeout = timeout;
+        this.owner = owner;
+        uploadExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(MAX_PENDING_UPLOADS), new ThreadFactory()
+                {
+                    public Thread newThread(final Runnable r)
+                    {
+                        final Thread t = new Thread(r, "antmodular-cache-upload");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                }, new CallerRunsPolicy());
+    }
+    
+    /**
+     * <p>Downloads the outputs stored under a given key and extracts them to a given module
+     * directory. The existing files with the same paths are replaced.</p>
+     * 
+     * @param key the key of the outputs.
+     * @param moduleDir the module directory the outputs are extracted to.
+     * 
+     * @return {@code true} if the outputs are restored; {@code false} if they are not cached.
+     * 
+     * @throws IOException if an I/O error occurs or the server responds with an error.
+     *      The outputs could be restored partially in this case.
+     */
+    boolean fetch(final String key, final File moduleDir) throws IOException
+    {
+        final HttpURLConnection connection = openConnection(key);
+        try {
+            final int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                return false;
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw unexpectedResponse(connection);
+            }
+            final InputStream in = connection.getInputStream();
+            try {
+                extract(in, moduleDir);
+            }
+            finally {
+                in.close();
+            }
+            return true;
+        }
+        finally {
+            connection.disconnect();
+        }
+    }
+    
+    /**
+     * <p>Archives the given output files of a given module directory to a temporary file and
+     * schedules the archive for uploading under a given key. If the upload queue is full then
+     * the archive is uploaded by the calling thread. If the upload fails then a warning
+     * is logged. The temporary file is deleted after the upload.</p>
+     * 
+     * @param module the module whose outputs are uploaded.
+     * @param key the key of the outputs.
+     * @param moduleDir the module directory.
+     * @param files the paths of the output files relative to the module directory.
+     * 
+     * @throws IOException if the archive cannot be created.
+     */
+    void upload(final Module module, final String key, final File moduleDir, final Collection<String> files)
+            throws IOException
+    {
+        final File archive = File.createTempFile("antmodular", ".zip");
+        try {
+            final OutputStream out = new BufferedOutputStream(new FileOutputStream(archive));
+            try {
+                archive(moduleDir, files, out);
+            }
+            finally {
+                out.close();
+            }
+        }
+        catch (IOException ex) {
+            archive.delete();
+            throw ex;
+        }
+        uploadExecutor.execute(new Runnable()
+        {
+            public void run()
+            {
+                try {
+                    put(key, archive);
+                }
+                catch (IOException ex) {
+                    // The remote cache is an optimisation so the build does not fail.
+                    owner.log(MessageFormat.format(
+                            "Unable to upload the outputs of the module ''{0}'' to the remote cache: {1}",
+                            module.getPath(), ex.getMessage()), Project.MSG_WARN);
+                }
+                finally {
+                    archive.delete();
+                }
+            }
+        });
+    }
+    
+    /**
+     * <p>Waits for the pending uploads to finish and releases the helper thread.</p>
+     */
+    void close()
+    {
+        uploadExecutor.shutdown();
+        try {
+            while (!uploadExecutor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // Waiting for the uploads to finish.
+            }
+        }
+        catch (InterruptedException ex) {
+            uploadExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new BuildException("The build thread was interrupted.");
+        }
+    }
+    
+    private void put(final String key, final File archive) throws IOException
+    {
+        /* The request body is streamed so that HttpURLConnection does not buffer it and
+         * therefore does not retry the request if the server has closed a kept-alive
+         * connection. PUT is idempotent so the request is retried here if no response
+         * has been received.
+         */
+        for (int attempt = 1;; ++attempt) {
+            try {
+                doPut(key, archive);
+                return;
+            }
+            catch (RequestFailedException ex) {
+                if (attempt >= MAX_REQUEST_ATTEMPTS) {
+                    throw ex;
+                }
+            }
+        }
+    }
+    
+    private void doPut(final String key, final File archive) throws IOException
+    {
+        final HttpURLConnection connection = openConnection(key);
+        try {
+            connection.setRequestMethod("PUT");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/zip");
+            final long length = archive.length();
+            if (length <= Integer.MAX_VALUE) {
+                connection.setFixedLengthStreamingMode((int) length);
+            } else {
+                connection.setChunkedStreamingMode(64 * 1024);
+            }
+            final int status;
+            try {
+                final OutputStream out = connection.getOutputStream();
+                try {
+                    final InputStream in = new FileInputStream(archive);
+                    try {
+                        final byte[] buf = new byte[64 * 1024];
+                        int n;
+                        while ((n = in.read(buf)) != -1) {
+                            out.write(buf, 0, n);
+                        }
+                    }
+                    finally {
+                        in.close();
+                    }
+                }
+                finally {
+                    out.close();
+                }
+                status = connection.getResponseCode();
+            }
+            catch (ConnectException ex) {
+                // The server is not reachable, so a new connection would fail as well.
+                throw ex;
+            }
+            catch (SocketTimeoutException ex) {
+                throw ex;
+            }
+            catch (IOException ex) {
+                throw new RequestFailedException(ex);
+            }
+            if (status / 100 != 2) {
+                throw unexpectedResponse(connection);
+            }
+        }
+        finally {
+            connection.disconnect();
+        }
+    }
+    
+    private HttpURLConnection openConnection(final String key) throws IOException
+    {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + key).openConnection();
+        connection.setConnectTimeout(timeout);
+        connection.setReadTimeout(timeout);
+        connection.setUseCaches(false);
+        return connection;
+    }
+    
+    private static IOException unexpectedResponse(final HttpURLConnection connection) throws IOException
+    {
+        return new IOException(MessageFormat.format("Unexpected response from ''{0}'': {1} {2}",
+                connection.getURL(), String.valueOf(connection.getResponseCode()),
+                connection.getResponseMessage()));
+    }
+    
+    static void archive(final File dir, final Collection<String> files, final OutputStream out)
+            throws IOException
+    {
+        final ZipOutputStream zip = new ZipOutputStream(out);
+        final byte[] buf = new byte[64 * 1024];
+        for (final String path : files) {
+            final File file = new File(dir, path);
+            final ZipEntry entry = new ZipEntry(path.replace(File.separatorChar, '/'));
+            entry.setTime(file.lastModified());
+            zip.putNextEntry(entry);
+            final InputStream in = new FileInputStream(file);
+            try {
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    zip.write(buf, 0, n);
+                }
+            }
+            finally {
+                in.close();
+            }
+            zip.closeEntry();
+        }
+        zip.finish();
+    }
+    
+    static void extract(final InputStream in, final File dir) throws IOException
+    {
+        final ZipInputStream zip = new ZipInputStream(in);
+        final byte[] buf = new byte[64 * 1024];
+        final String canonicalDir = dir.getCanonicalPath() + File.separatorChar;
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            final File file = resolveEntry(entry, dir, canonicalDir);
+            // The file could be a read-only hard link to the local build cache.
+            if (file.exists() && !file.delete()) {
+                throw new IOException(MessageFormat.format("Unable to delete the file ''{0}''.", file));
+            }
+            final File parent = file.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+                throw new IOException(MessageFormat.format("Unable to create the directory ''{0}''.", parent));
+            }
+            final OutputStream out = new FileOutputStream(file);
+            try {
+                int n;
+                while ((n = zip.read(buf)) != -1) {
+                    out.write(buf, 0, n);
+                }
+            }
+            finally {
+                out.close();
+            }
+            if (entry.getTime() != -1) {
+                file.setLastModified(entry.getTime());
+            }
+        }
+    }
+    
+    /**
+     * <p>Returns the file a given archive entry is extracted to. The archives are downloaded
+     * from a server which is not necessarily trusted, so the entry name must be a relative path
+     * which is resolved to a file within the target directory, even if the directory contains
+     * symbolic links.</p>
+     * 
+     * @throws IOException if the entry is not a file or is located outside the directory.
+     */
+    private static File resolveEntry(final ZipEntry entry, final File dir, final String canonicalDir)
+            throws IOException
+    {
+        final String path = entry.getName();
+        boolean valid = !entry.isDirectory() && path.length() != 0 && path.indexOf('\\') == -1 &&
+                !path.startsWith("/") && !(path.length() > 1 && path.charAt(1) == ':');
+        if (valid) {
+            for (final String element : path.split("/")) {
+                if (element.equals("..")) {
+                    valid = false;
+                    break;
+                }
+            }
+        }
+        if (valid) {
+            final File file = new File(dir, path.replace('/', File.separatorChar));
+            if (file.getCanonicalPath().startsWith(canonicalDir)) {
+                return file;
+            }
+        }
+        throw new IOException(MessageFormat.format("Invalid archive entry: ''{0}''.", path));
+    }
+    
+    // Signals that no response has been received, so that the request could be retried.
+    private static class RequestFailedException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+        
+        public RequestFailedException(final IOException cause)
+        {
+            super(cause.getMessage());
+            initCause(cause);
+        }
+    }
+}
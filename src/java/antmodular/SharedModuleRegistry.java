@@ -0,0 +1,217 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.text.MessageFormat;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.ProjectComponent;
+import org.apache.tools.ant.types.Reference;
+
+/**
+ * <p>An Ant type {@code <moduleRegistry>} that holds a {@link ModuleRegistry} which is shared
+ * by the tasks that refer to it, so that module metadata are loaded once per build rather than
+ * once per task. The tasks {@link CallTargetForModules &lt;callTargetForModules&gt;} and
+ * {@link ExportModuleGraph &lt;exportModuleGraph&gt;} refer to a shared registry by means of
+ * their attribute {@code moduleRegistryRefId}.</p>
+ * 
+ * <p>Module metadata are loaded by a {@link ModuleLoader} specified by the nested element
+ * whose type is a descendant of {@code ModuleLoader}. One and only one such element must
+ * be specified.</p>
+ * 
+ * <p>The modules whose metadata have changed during the build can be reloaded either
+ * explicitly by the task {@link InvalidateModules &lt;invalidateModules&gt;} or automatically
+ * each time the registry is used by a task if the attribute {@code invalidation} is set to
+ * {@code mtime}. The latter requires the module loader to be a {@link ValidatingModuleLoader}
+ * (e.g. {@link ManifestModuleLoader}).</p>
+ * 
+ * <h3>Attributes</h3>
+ * <table border="1">
+ * <thead>
+ *  <tr><th>Attribute</th>
+ *      <th>Required?</th>
+ *      <th>Description</th>
+ *      <th>Default value</th></tr>
+ * </thead>
+ * <tbody>
+ *  <tr><td>{@link #setInvalidation(String) invalidation}</td>
+ *      <td>no</td>
+ *      <td>Either {@code none} or {@code mtime}. If {@code mtime} is set then the modules
+ *          whose metadata have changed are invalidated each time the registry is used
+ *          by a task.</td>
+ *      <td>{@code none}</td></tr>
+ *  <tr><td>{@link #setLoaderThreadCount(int) loaderThreadCount}</td>
+ *      <td>no</td>
+ *      <td>The number of threads to be used to load module metadata. If it is greater than
+ *          <em>1</em> then the module loader must be thread-safe.</td>
+ *      <td>{@code 1}</td></tr>
+ * </tbody>
+ * </table>
+ * 
+ * <h3>Usage example</h3>
+ * <pre>{@literal
+ * <am:moduleRegistry id="registry" invalidation="mtime">
+ *     <am:manifestModuleLoader/>
+ * </am:moduleRegistry>
+ * 
+ * <am:callTargetForModules target="build" moduleRegistryRefId="registry">
+ *     <module path="foo"/>
+ * </am:callTargetForModules>}</pre>
+ * 
+ * @see ModuleRegistry
+ * @see InvalidateModules
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+public class SharedModuleRegistry extends ProjectComponent
+{
+    private static final String INVALIDATION_NONE = "none";
+    private static final String INVALIDATION_MTIME = "mtime";
+    
+    private ModuleLoader moduleLoader;
+    private int loaderThreadCount = 1;
+    private String invalidation = INVALIDATION_NONE;
+    
+    // Created lazily with the first use.
+    private ModuleRegistry registry;
+    
+    /**
+     * <p>Returns the {@link ModuleRegistry} this {@code SharedModuleRegistry} holds.
+     * The registry is created with the first invocation. If the invalidation mode is
+     * {@code mtime} then the modules whose metadata have changed are invalidated before
+     * the registry is returned.</p>
+     * 
+     * @return the registry. It is never {@code null}.
+     * 
+     * @throws BuildException if this {@code SharedModuleRegistry} is configured incorrectly.
+     */
+    public synchronized ModuleRegistry getRegistry()
+    {
+        if (registry == null) {
+            if (moduleLoader == null) {
+                throw new BuildException("No module loader is defined.");
+            }
+            if (INVALIDATION_MTIME.equals(invalidation) && !(moduleLoader instanceof ValidatingModuleLoader)) {
+                throw new BuildException(MessageFormat.format(
+                        "The invalidation mode ''mtime'' requires the module loader to implement ''{0}''.",
+                        ValidatingModuleLoader.class.getName()));
+            }
+            registry = new ModuleRegistry(moduleLoader, loaderThreadCount);
+            // The modules of a shared registry could be invalidated by <invalidateModules> as well.
+            registry.enableValidityTracking();
+        } else if (INVALIDATION_MTIME.equals(invalidation)) {
+            final int count = registry.invalidateChanged();
+            if (count != 0) {
+                getProject().log(MessageFormat.format("{0} modules are invalidated.", String.valueOf(count)),
+                        Project.MSG_VERBOSE);
+            }
+        }
+        return registry;
+    }
+    
+    /**
+     * <p>Returns the {@link ModuleRegistry} held by the {@code SharedModuleRegistry} that
+     * a given reference refers to.</p>
+     * 
+     * @param ref the reference to a {@code SharedModuleRegistry}. It must be not {@code null}.
+     * 
+     * @return the registry. It is never {@code null}.
+     * 
+     * @throws BuildException if the reference does not refer to a {@code SharedModuleRegistry}
+     *      or if the latter is configured incorrectly.
+     */
+    static ModuleRegistry getRegistry(final Reference ref)
+    {
+        final Object registryObject = ref.getReferencedObject();
+        if (!(registryObject instanceof SharedModuleRegistry)) {
+            throw new BuildException(MessageFormat.format(
+                    "Invalid module registry type is found via the reference ''{0}''. Expected: ''{1}'', found: ''{2}''.",
+                    ref.getRefId(), SharedModuleRegistry.class.getName(),
+                    registryObject == null ? null : registryObject.getClass().getName()));
+        }
+        return ((SharedModuleRegistry) registryObject).getRegistry();
+    }
+    
+    /**
+     * <p>Sets a {@link ModuleLoader} that is to be used by this {@code <moduleRegistry>}.
+     * One and only one module loader must be defined.</p>
+     * 
+     * @param moduleLoader the {@code ModuleLoader} instance to be used.
+     *      {@code null} value is not allowed.
+     * 
+     * @throws BuildException if more than one {@code ModuleLoader} is defined.
+     * @throws NullPointerException if <em>moduleLoader</em> is {@code null}.
+     */
+    public void addConfigured(final ModuleLoader moduleLoader)
+    {
+        if (moduleLoader == null) {
+            throw new NullPointerException("moduleLoader");
+        }
+        if (this.moduleLoader != null) {
+            throw new BuildException("Only a single module loader element is allowed.");
+        }
+        this.moduleLoader = moduleLoader;
+    }
+    
+    /**
+     * <p>Sets the number of threads to be used to load module metadata. If <em>1</em> is
+     * passed then module metadata are loaded sequentally. Otherwise the module loader must be
+     * thread-safe. By default, the number of threads used is <em>1</em>.</p>
+     * 
+     * @param loaderThreadCount the number of threads to be set. It must be a positive value.
+     * 
+     * @throws BuildException if <em>loaderThreadCount</em> is non-positive.
+     * 
+     * @see ModuleRegistry#ModuleRegistry(ModuleLoader, int)
+     */
+    public void setLoaderThreadCount(final int loaderThreadCount)
+    {
+        if (loaderThreadCount <= 0) {
+            throw new BuildException(MessageFormat.format(
+                    "Invalid loader thread count: ''{0}''. It must be a positive value.",
+                    String.valueOf(loaderThreadCount)));
+        }
+        this.loaderThreadCount = loaderThreadCount;
+    }
+    
+    /**
+     * <p>Sets the invalidation mode. If {@code mtime} is set then the modules whose metadata
+     * have changed, as it is indicated by the {@link ValidatingModuleLoader} used, are
+     * invalidated each time the registry is used by a task. If {@code none} is set then the
+     * modules are invalidated only explicitly by {@link InvalidateModules
+     * &lt;invalidateModules&gt;}. {@code none} is the default value.</p>
+     * 
+     * @param invalidation the invalidation mode to be set.
+     * 
+     * @throws BuildException if an unsupported mode is passed.
+     */
+    public void setInvalidation(final String invalidation)
+    {
+        if (!INVALIDATION_NONE.equals(invalidation) && !INVALIDATION_MTIME.equals(invalidation)) {
+            throw new BuildException(MessageFormat.format(
+                    "Unsupported invalidation mode: ''{0}''. Expected: ''none'' or ''mtime''.", invalidation));
+        }
+        this.invalidation = invalidation;
+    }
+}
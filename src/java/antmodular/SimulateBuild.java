@@ -0,0 +1,481 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.types.Reference;
+
+/**
+ * <p>An Ant task that simulates the processing of {@link Module modules} by
+ * {@link CallTargetForModules &lt;callTargetForModules&gt;} for a range of thread counts and
+ * scheduling policies in order to choose the thread count to be used. The modules specified and
+ * all their direct and indirect dependee modules are replayed through the dependency resolver
+ * used by {@code <callTargetForModules>} against the durations recorded by its attribute
+ * {@link CallTargetForModules#setDurationsFile(File) durationsFile}. No module target is invoked.</p>
+ * 
+ * <p>The estimated total time (makespan) of each combination of a thread count and a scheduling
+ * policy is written to the build log, along with the recommended thread count. The latter is the
+ * point of diminishing returns, that is the least thread count whose makespan is within
+ * {@link #setTolerance(int) tolerance} percent of the least makespan in the range.</p>
+ * 
+ * <p>Module metadata are loaded by a {@link ModuleLoader} specified by the nested element
+ * whose type is a descendant of {@code ModuleLoader}. One and only one such element must
+ * be specified.</p>
+ * 
+ * <h3>Task input</h3>
+ * <h4>Attributes</h4>
+ * <table border="1">
+ * <thead>
+ *  <tr><th>Attribute</th>
+ *      <th>Required?</th>
+ *      <th>Description</th>
+ *      <th>Default value</th></tr>
+ * </thead>
+ * <tbody>
+ *  <tr><td>{@link #setDurationsFile(File) durationsFile}</td>
+ *      <td>no</td>
+ *      <td>The file the durations of the module targets are recorded in by
+ *          {@code <callTargetForModules>}. If it is undefined or does not exist then all modules
+ *          are simulated as taking the same time.</td>
+ *      <td>N/A</td></tr>
+ *  <tr><td>{@link #setMinThreadCount(int) minThreadCount}</td>
+ *      <td>no</td>
+ *      <td>The least thread count to be simulated. It must be a positive value.</td>
+ *      <td>{@code 1}</td></tr>
+ *  <tr><td>{@link #setMaxThreadCount(int) maxThreadCount}</td>
+ *      <td>no</td>
+ *      <td>The greatest thread count to be simulated. It must be a positive value.</td>
+ *      <td>the number of available processors</td></tr>
+ *  <tr><td>{@link #setSchedulingPolicies(String) schedulingPolicies}</td>
+ *      <td>no</td>
+ *      <td>The comma-separated scheduling policies to be simulated. Refer to the attribute
+ *          {@link CallTargetForModules#setSchedulingPolicy(String) schedulingPolicy} of
+ *          {@code <callTargetForModules>} for the policies supported.</td>
+ *      <td>{@code depthFirst,criticalPath}</td></tr>
+ *  <tr><td>{@link #setTolerance(int) tolerance}</td>
+ *      <td>no</td>
+ *      <td>The percentage by which the makespan of the recommended thread count may exceed
+ *          the least makespan. It must be a non-negative value.</td>
+ *      <td>{@code 5}</td></tr>
+ *  <tr><td>{@link #setThreadCountProperty(String) threadCountProperty}</td>
+ *      <td>no</td>
+ *      <td>The name of the property to be set to the recommended thread count.</td>
+ *      <td>N/A</td></tr>
+ *  <tr><td>{@link #setSchedulingPolicyProperty(String) schedulingPolicyProperty}</td>
+ *      <td>no</td>
+ *      <td>The name of the property to be set to the scheduling policy that gives the least
+ *          makespan with the recommended thread count.</td>
+ *      <td>N/A</td></tr>
+ *  <tr><td>{@link #setModuleRegistryRefId(Reference) moduleRegistryRefId}</td>
+ *      <td>no</td>
+ *      <td>The ID of the reference that holds a {@link SharedModuleRegistry &lt;moduleRegistry&gt;}
+ *          to be used to resolve modules. If it is defined then no module loader element
+ *          is allowed.</td>
+ *      <td>N/A</td></tr>
+ * </tbody>
+ * </table>
+ * <h4>Elements</h4>
+ * <h5>{@link #createModule() module}</h5>
+ * <p>Defines a root module by its attribute {@code path}. At least one {@code <module>} element
+ * must be specified. Multiple nested elements are allowed.</p>
+ * 
+ * <h5>{@link #addConfigured(ModuleLoader) moduleLoaderElement}</h5>
+ * <p>Defines a {@link ModuleLoader} that is to be used by this task. One and only one module
+ * loader must be defined unless the attribute {@code moduleRegistryRefId} is defined.</p>
+ * 
+ * <h3>Usage example</h3>
+ * <pre>{@literal
+ * <am:simulateBuild durationsFile="build/durations" maxThreadCount="16"
+ *         threadCountProperty="threads" schedulingPolicyProperty="policy">
+ *     <module path="foo"/>
+ *     <am:manifestModuleLoader/>
+ * </am:simulateBuild>
+ * <am:callTargetForModules target="build" threadCount="${threads}" schedulingPolicy="${policy}"
+ *         durationsFile="build/durations">
+ *     <module path="foo"/>
+ *     <am:manifestModuleLoader/>
+ * </am:callTargetForModules>}</pre>
+ * 
+ * @see CallTargetForModules
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+public class SimulateBuild extends Task
+{
+    private final ArrayList<ModuleElement> moduleElements = new ArrayList<ModuleElement>();
+    private ModuleLoader moduleLoader;
+    private Reference moduleRegistryRef;
+    private File durationsFile;
+    private int minThreadCount = 1;
+    private int maxThreadCount = Runtime.getRuntime().availableProcessors();
+    private String[] schedulingPolicies = {BuildPlanner.POLICY_DEPTH_FIRST, BuildPlanner.POLICY_CRITICAL_PATH};
+    private int tolerance = 5;
+    private String threadCountProperty;
+    private String schedulingPolicyProperty;
+    
+    /**
+     * <p>Executes this task. See the {@link SimulateBuild class description} for the details.</p>
+     * 
+     * @throws BuildException if the task is configured incorrectly, if some module cannot be
+     *      loaded, if there are cyclic dependencies between modules, or if the durations file
+     *      cannot be read.
+     */
+    @Override
+    public void execute()
+    {
+        if (moduleLoader == null && moduleRegistryRef == null) {
+            throw new BuildException("No module loader is defined.");
+        }
+        if (moduleLoader != null && moduleRegistryRef != null) {
+            throw new BuildException(
+                    "A module loader element and the attribute 'moduleRegistryRefId' cannot be defined together.");
+        }
+        if (moduleElements.isEmpty()) {
+            throw new BuildException("At least one <module> element is required.");
+        }
+        for (final ModuleElement moduleElement : moduleElements) {
+            if (moduleElement.path == null) {
+                throw new BuildException("There is a <module> element with the attribute 'path' undefined.");
+            }
+        }
+        if (minThreadCount > maxThreadCount) {
+            throw new BuildException(MessageFormat.format(
+                    "The minimal thread count ''{0}'' is greater than the maximal thread count ''{1}''.",
+                    String.valueOf(minThreadCount), String.valueOf(maxThreadCount)));
+        }
+        
+        final ModuleRegistry registry = moduleRegistryRef == null ?
+                new ModuleRegistry(moduleLoader) : SharedModuleRegistry.getRegistry(moduleRegistryRef);
+        final ArrayList<String> paths = new ArrayList<String>(moduleElements.size());
+        for (final ModuleElement moduleElement : moduleElements) {
+            paths.add(moduleElement.path);
+        }
+        final List<Module> rootModules;
+        final BuildPlanner planner;
+        try {
+            rootModules = registry.resolveModules(paths);
+            planner = new BuildPlanner(rootModules);
+        }
+        catch (ModuleNotLoadedException ex) {
+            throw new BuildException(ex.getMessage(), ex);
+        }
+        catch (CyclicDependenciesDetectedException ex) {
+            throw new BuildException(ex.getMessage(), ex);
+        }
+        
+        String unit = "units";
+        if (durationsFile != null) {
+            final ModuleDurations durations = new ModuleDurations(durationsFile);
+            try {
+                durations.read();
+            }
+            catch (IOException ex) {
+                throw new BuildException(MessageFormat.format("Unable to read the durations file ''{0}'': {1}",
+                        durationsFile, ex.getMessage()), ex);
+            }
+            if (planner.setDurations(durations)) {
+                unit = "ms";
+            }
+        }
+        
+        // makespans[i][j] is the makespan of the thread count minThreadCount+i and the policy j.
+        final int rangeSize = maxThreadCount - minThreadCount + 1;
+        final long[][] makespans = new long[rangeSize][schedulingPolicies.length];
+        long bestMakespan = Long.MAX_VALUE;
+        for (int i = 0; i < rangeSize; ++i) {
+            for (int j = 0; j < schedulingPolicies.length; ++j) {
+                makespans[i][j] = planner.plan(minThreadCount + i, schedulingPolicies[j]).makespan;
+                bestMakespan = Math.min(bestMakespan, makespans[i][j]);
+            }
+        }
+        
+        log(MessageFormat.format("Simulated {0} modules: total duration {1} {3}, critical path {2} {3}.",
+                String.valueOf(planner.getModules().size()), String.valueOf(planner.getTotalDuration()),
+                String.valueOf(planner.getCriticalPathLength()), unit));
+        final StringBuilder header = new StringBuilder("threads");
+        for (final String policy : schedulingPolicies) {
+            header.append(' ').append(pad(policy, policy));
+        }
+        log(header.toString());
+        for (int i = 0; i < rangeSize; ++i) {
+            final StringBuilder row = new StringBuilder(pad(String.valueOf(minThreadCount + i), "threads"));
+            for (int j = 0; j < schedulingPolicies.length; ++j) {
+                row.append(' ').append(pad(String.valueOf(makespans[i][j]), schedulingPolicies[j]));
+            }
+            log(row.toString());
+        }
+        
+        /* The point of diminishing returns is the least thread count whose makespan is close
+         * enough to the least makespan. Increasing the thread count further pays off little.
+         */
+        final long acceptableMakespan = bestMakespan + bestMakespan * tolerance / 100;
+        int recommendedIndex = -1;
+        int recommendedPolicy = -1;
+        for (int i = 0; recommendedIndex < 0; ++i) {
+            for (int j = 0; j < schedulingPolicies.length; ++j) {
+                if (makespans[i][j] <= acceptableMakespan &&
+                        (recommendedPolicy < 0 || makespans[i][j] < makespans[i][recommendedPolicy])) {
+                    recommendedIndex = i;
+                    recommendedPolicy = j;
+                }
+            }
+        }
+        final String recommendedThreadCount = String.valueOf(minThreadCount + recommendedIndex);
+        log(MessageFormat.format("Recommended thread count: {0} with the scheduling policy ''{1}'' " +
+                "(estimated total time {2} {4}; the least is {3} {4}).",
+                recommendedThreadCount, schedulingPolicies[recommendedPolicy],
+                String.valueOf(makespans[recommendedIndex][recommendedPolicy]), String.valueOf(bestMakespan), unit));
+        
+        if (threadCountProperty != null) {
+            getProject().setNewProperty(threadCountProperty, recommendedThreadCount);
+        }
+        if (schedulingPolicyProperty != null) {
+            getProject().setNewProperty(schedulingPolicyProperty, schedulingPolicies[recommendedPolicy]);
+        }
+    }
+    
+    // Right-aligns a value in a column whose header is given.
+    private static String pad(final String value, final String header)
+    {
+        final StringBuilder result = new StringBuilder();
+        for (int i = value.length(), n = header.length(); i < n; ++i) {
+            result.append(' ');
+        }
+        return result.append(value).toString();
+    }
+    
+    /**
+     * <p>Creates a new {@link ModuleElement ModuleElement} container that backs the
+     * nested element {@code <module>} of this {@code <simulateBuild>} task.
+     * The module it refers to is simulated along with all modules it depends upon
+     * (directly or indirectly).</p>
+     * 
+     * @return the {@code ModuleElement} created. It is never {@code null}.
+     */
+    public ModuleElement createModule()
+    {
+        final ModuleElement module = new ModuleElement();
+        moduleElements.add(module);
+        return module;
+    }
+    
+    /**
+     * <p>Sets a {@link ModuleLoader} that is to be used by this {@code <simulateBuild>}
+     * task. One and only one module loader must be defined.</p>
+     * 
+     * @param moduleLoader the {@code ModuleLoader} instance to be used by this
+     *      {@code <simulateBuild>} task. {@code null} value is not allowed.
+     * 
+     * @throws BuildException if more than one {@code ModuleLoader} is defined for this
+     *      {@code <simulateBuild>} task.
+     * @throws NullPointerException if <em>moduleLoader</em> is {@code null}.
+     */
+    public void addConfigured(final ModuleLoader moduleLoader)
+    {
+        if (moduleLoader == null) {
+            throw new NullPointerException("moduleLoader");
+        }
+        if (this.moduleLoader != null) {
+            throw new BuildException("Only a single module loader element is allowed.");
+        }
+        this.moduleLoader = moduleLoader;
+    }
+    
+    /**
+     * <p>Sets the reference to a {@link SharedModuleRegistry &lt;moduleRegistry&gt;} that is
+     * to be used by this {@code <simulateBuild>} task to resolve modules. If it is set then no
+     * module loader element is allowed.</p>
+     * 
+     * @param ref the reference to the shared module registry.
+     */
+    public void setModuleRegistryRefId(final Reference ref)
+    {
+        moduleRegistryRef = ref;
+    }
+    
+    /**
+     * <p>Sets the file the durations of the module targets are read from. It is expected to be
+     * written by {@code <callTargetForModules>}. The modules whose durations are not recorded
+     * take the mean duration. If the file is not set or does not exist then all modules take
+     * the same time.</p>
+     * 
+     * @param file the durations file.
+     * 
+     * @see CallTargetForModules#setDurationsFile(File)
+     */
+    public void setDurationsFile(final File file)
+    {
+        durationsFile = file;
+    }
+    
+    /**
+     * <p>Sets the least thread count to be simulated. By default, it is <em>1</em>.</p>
+     * 
+     * @param threadCount the thread count to be set. It must be a positive value.
+     * 
+     * @throws BuildException if <em>threadCount</em> is non-positive.
+     */
+    public void setMinThreadCount(final int threadCount)
+    {
+        if (threadCount <= 0) {
+            throw new BuildException(MessageFormat.format(
+                    "Invalid minimal thread count: ''{0}''. It must be a positive value.",
+                    String.valueOf(threadCount)));
+        }
+        minThreadCount = threadCount;
+    }
+    
+    /**
+     * <p>Sets the greatest thread count to be simulated. By default, it is the number of
+     * processors available to the JVM.</p>
+     * 
+     * @param threadCount the thread count to be set. It must be a positive value.
+     * 
+     * @throws BuildException if <em>threadCount</em> is non-positive.
+     */
+    public void setMaxThreadCount(final int threadCount)
+    {
+        if (threadCount <= 0) {
+            throw new BuildException(MessageFormat.format(
+                    "Invalid maximal thread count: ''{0}''. It must be a positive value.",
+                    String.valueOf(threadCount)));
+        }
+        maxThreadCount = threadCount;
+    }
+    
+    /**
+     * <p>Sets the comma-separated scheduling policies to be simulated. By default, all policies
+     * supported by {@code <callTargetForModules>} are simulated.</p>
+     * 
+     * @param policies the scheduling policies to be set.
+     * 
+     * @throws BuildException if an unsupported scheduling policy is passed or no policy is passed.
+     * 
+     * @see CallTargetForModules#setSchedulingPolicy(String)
+     */
+    public void setSchedulingPolicies(final String policies)
+    {
+        final ArrayList<String> result = new ArrayList<String>();
+        for (final String policy : policies.split(",")) {
+            final String name = policy.trim();
+            if (name.length() == 0) {
+                continue;
+            }
+            if (!BuildPlanner.POLICY_DEPTH_FIRST.equals(name) && !BuildPlanner.POLICY_CRITICAL_PATH.equals(name)) {
+                throw new BuildException(MessageFormat.format(
+                        "Unsupported scheduling policy: ''{0}''. Expected: ''depthFirst'' or ''criticalPath''.",
+                        name));
+            }
+            if (!result.contains(name)) {
+                result.add(name);
+            }
+        }
+        if (result.isEmpty()) {
+            throw new BuildException("At least one scheduling policy is required.");
+        }
+        schedulingPolicies = result.toArray(new String[result.size()]);
+    }
+    
+    /**
+     * <p>Sets the percentage by which the makespan of the recommended thread count may exceed
+     * the least makespan among all thread counts and scheduling policies simulated. By default,
+     * it is <em>5</em>.</p>
+     * 
+     * @param tolerance the percentage to be set. It must be a non-negative value.
+     * 
+     * @throws BuildException if <em>tolerance</em> is negative.
+     */
+    public void setTolerance(final int tolerance)
+    {
+        if (tolerance < 0) {
+            throw new BuildException(MessageFormat.format(
+                    "Invalid tolerance: ''{0}''. It must be a non-negative value.", String.valueOf(tolerance)));
+        }
+        this.tolerance = tolerance;
+    }
+    
+    /**
+     * <p>Sets the name of the property to be set to the recommended thread count. The property
+     * is not overridden if it is already defined.</p>
+     * 
+     * @param name the name of the property.
+     */
+    public void setThreadCountProperty(final String name)
+    {
+        threadCountProperty = name;
+    }
+    
+    /**
+     * <p>Sets the name of the property to be set to the scheduling policy that gives the least
+     * makespan with the recommended thread count. The property is not overridden if it is
+     * already defined.</p>
+     * 
+     * @param name the name of the property.
+     */
+    public void setSchedulingPolicyProperty(final String name)
+    {
+        schedulingPolicyProperty = name;
+    }
+    
+    /**
+     * <p>Serves as the nested element {@code <module>} of the task
+     * {@link SimulateBuild &lt;simulateBuild&gt;} and defines a root module to be simulated.</p>
+     * 
+     * <h3>Attributes</h3>
+     * <table border="1">
+     * <thead>
+     *  <tr><th>Attribute</th>
+     *      <th>Required?</th>
+     *      <th>Description</th></tr>
+     * </thead>
+     * <tbody>
+     *  <tr><td>path</td>
+     *      <td>yes</td>
+     *      <td>The path of the module.</td></tr>
+     * </tbody>
+     * </table>
+     */
+    public static class ModuleElement
+    {
+        private String path;
+        
+        /**
+         * <p>Sets the path of the module.</p>
+         * 
+         * @param path the module path. It must be not {@code null}. The parent
+         *      {@link SimulateBuild} throws an
+         *      {@link BuildException org.apache.tools.ant.BuildException} otherwise.
+         */
+        public void setPath(final String path)
+        {
+            this.path = path;
+        }
+    }
+}
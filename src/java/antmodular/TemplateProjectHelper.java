@@ -0,0 +1,437 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.File;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.ExtensionPoint;
+import org.apache.tools.ant.Location;
+import org.apache.tools.ant.MagicNames;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.ProjectHelperRepository;
+import org.apache.tools.ant.RuntimeConfigurable;
+import org.apache.tools.ant.Target;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.UnknownElement;
+import org.apache.tools.ant.helper.AntXMLContext;
+import org.apache.tools.ant.helper.ProjectHelper2;
+import org.apache.tools.ant.types.Resource;
+import org.apache.tools.ant.types.resources.FileProvider;
+import org.apache.tools.ant.util.FileUtils;
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.LocatorImpl;
+
+/**
+ * <p>An Ant {@link org.apache.tools.ant.ProjectHelper} that configures projects from
+ * build files which are parsed once and kept as templates. It is used by
+ * {@link CallTargetForModules} if the attribute
+ * {@link CallTargetForModules#setCacheBuildFile(boolean) cacheBuildFile} is set, so that
+ * the master build file is not parsed again for each module-specific project.</p>
+ * 
+ * <p>A template keeps the elements of the build file in the form they have right after
+ * parsing, i.e. before any of them is configured. A project is configured from a template
+ * in the same way as {@link ProjectHelper2} configures it from the build file: the
+ * {@code <project>} element is processed against the project, the targets are defined and
+ * the top-level elements are executed (so that {@code <import>} and {@code <include>} are
+ * processed as usual), and then the {@code extensionOf} attributes are resolved. The elements
+ * of a target are copied from the template only when the target is executed for the first
+ * time. A template is parsed again if the size or the modification time of the build file
+ * change. Files imported by the build file and external XML entities are not tracked, though
+ * imported files are parsed each time the build file is imported.</p>
+ * 
+ * <p>The templates are kept in a {@link TemplateCache} which is owned by a single execution
+ * of {@code <callTargetForModules>}, so that they are released when this execution finishes.
+ * Templates are used only by the threads which have entered template mode with a cache (see
+ * {@link #enterTemplateMode(TemplateCache)}). Otherwise this {@code TemplateProjectHelper}
+ * parses nothing, so that {@link ProjectHelper2} is used instead.</p>
+ * 
+ * <p>{@code TemplateProjectHelper} is registered with Ant's {@link ProjectHelperRepository}
+ * when template mode is entered for the first time. This requires Ant 1.8.2 or newer. Ant
+ * provides no means to unregister a project helper, so it stays registered until the JVM
+ * exits. Outside template mode it declines all build files, so that the only cost it adds
+ * to the projects configured by other means is a thread-local lookup per build file.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+public class TemplateProjectHelper extends ProjectHelper2
+{
+    private static final FileUtils fileUtils = FileUtils.getFileUtils();
+    
+    // The reference to the parsing context used by ProjectHelper2 (its constant is private).
+    private static final String PARSING_CONTEXT = "ant.parsing.context";
+    
+    // The cache of the template mode the current thread is in, or null if it is not in template mode.
+    private static final ThreadLocal<TemplateCache> currentCache = new ThreadLocal<TemplateCache>();
+    
+    private static boolean registered;
+    
+    /**
+     * <p>Creates a {@code TemplateProjectHelper}. It is invoked by Ant's
+     * {@link ProjectHelperRepository}.</p>
+     */
+    public TemplateProjectHelper()
+    {
+    }
+    
+    /**
+     * <p>Makes the build files parsed by the current thread to be served from the templates
+     * kept in a given cache until {@link #exitTemplateMode(TemplateCache)} is invoked.
+     * The invocations could be nested.</p>
+     * 
+     * @param cache the cache of templates to be used. It must be not {@code null}.
+     * 
+     * @return the cache of the template mode the current thread was in before this invocation,
+     *      or {@code null} if it was not in template mode. It is to be passed to the matching
+     *      invocation of {@code exitTemplateMode(TemplateCache)}.
+     * 
+     * @throws BuildException if {@code TemplateProjectHelper} cannot be registered
+     *      with Ant.
+     */
+    static TemplateCache enterTemplateMode(final TemplateCache cache)
+    {
+        if (cache == null) {
+            throw new NullPointerException("cache");
+        }
+        synchronized (TemplateProjectHelper.class) {
+            if (!registered) {
+                ProjectHelperRepository.getInstance().registerProjectHelper(TemplateProjectHelper.class);
+                registered = true;
+            }
+        }
+        final TemplateCache outerCache = currentCache.get();
+        currentCache.set(cache);
+        return outerCache;
+    }
+    
+    /**
+     * <p>Leaves the template mode entered by the matching invocation of
+     * {@link #enterTemplateMode(TemplateCache)}.</p>
+     * 
+     * @param outerCache the value returned by the matching invocation of
+     *      {@code enterTemplateMode(TemplateCache)}.
+     */
+    static void exitTemplateMode(final TemplateCache outerCache)
+    {
+        if (outerCache == null) {
+            currentCache.remove();
+        }
+        else {
+            currentCache.set(outerCache);
+        }
+    }
+    
+    /**
+     * <p>Returns {@code true} if the current thread is in template mode and the given
+     * build file is a local file. Otherwise the build file is left to other project helpers.</p>
+     * 
+     * @param buildFile the build file resource.
+     * 
+     * @return {@code true} if this project helper configures the project from the build file.
+     */
+    @Override
+    public boolean canParseBuildFile(final Resource buildFile)
+    {
+        return currentCache.get() != null && buildFile.as(FileProvider.class) != null;
+    }
+    
+    /**
+     * <p>Configures a given project from a given build file. If it is the build file of
+     * the project (rather than an imported file) then the project is configured from the
+     * template of this build file. Otherwise the build file is parsed by {@link ProjectHelper2}.</p>
+     * 
+     * @param project the project to be configured.
+     * @param source the build file.
+     * 
+     * @throws BuildException if the build file cannot be parsed or its top-level elements fail.
+     */
+    @Override
+    public void parse(final Project project, final Object source) throws BuildException
+    {
+        final TemplateCache cache = currentCache.get();
+        if (cache == null || !getImportStack().isEmpty() || !(source instanceof File)) {
+            super.parse(project, source);
+            return;
+        }
+        final File buildFile = fileUtils.normalize(((File) source).getAbsolutePath());
+        final Template template = cache.getTemplate(buildFile);
+        
+        getImportStack().addElement(source);
+        AntXMLContext context = (AntXMLContext) project.getReference(PARSING_CONTEXT);
+        if (context == null) {
+            context = new AntXMLContext(project);
+            project.addReference(PARSING_CONTEXT, context);
+            project.addReference(REFID_TARGETS, context.getTargets());
+        }
+        context.setCurrentTargets(new HashMap<String, Target>());
+        context.setBuildFile(buildFile);
+        
+        // The <project> element is processed against this project as ProjectHelper2 does.
+        context.setLocator(template.projectLocator);
+        try {
+            new ProjectHandler().onStartElement(template.projectUri, template.projectTag,
+                    template.projectQName, template.projectAttributes, context);
+        }
+        catch (SAXParseException ex) {
+            throw new BuildException(ex.getMessage(), ex, new Location(ex.getSystemId(),
+                    ex.getLineNumber(), ex.getColumnNumber()));
+        }
+        finally {
+            context.setLocator(null);
+        }
+        
+        for (final Target templateTarget : template.targets) {
+            final Target target = copyTarget(templateTarget, project);
+            project.addOrReplaceTarget(target.getName(), target);
+            context.getTargets().addElement(target);
+            context.getCurrentTargets().put(target.getName(), target);
+        }
+        final Target implicitTarget = context.getImplicitTarget();
+        for (final Task task : template.implicitTarget.getTasks()) {
+            implicitTarget.addTask(copyElement((UnknownElement) task, project, implicitTarget));
+        }
+        for (final String[] extension : template.extensionStack) {
+            getExtensionStack().add(extension.clone());
+        }
+        
+        implicitTarget.execute();
+        resolveExtensionOfAttributes(project);
+    }
+    
+    /* Returns a copy of the given target that belongs to the given project. The elements of
+     * the target are copied when the copy is used for the first time.
+     */
+    static Target copyTarget(final Target templateTarget, final Project project)
+    {
+        final Target target = templateTarget instanceof ExtensionPoint ?
+                new ExtensionPoint() : new TemplateTarget(templateTarget);
+        target.setProject(project);
+        target.setName(templateTarget.getName());
+        target.setLocation(templateTarget.getLocation());
+        target.setDescription(templateTarget.getDescription());
+        if (templateTarget.getIf() != null) {
+            target.setIf(templateTarget.getIf());
+        }
+        if (templateTarget.getUnless() != null) {
+            target.setUnless(templateTarget.getUnless());
+        }
+        for (final Enumeration<String> deps = templateTarget.getDependencies(); deps.hasMoreElements();) {
+            target.addDependency(deps.nextElement());
+        }
+        return target;
+    }
+    
+    /* Copies the given element and its nested elements to the given project, as
+     * UnknownElement#copy(Project) does, but with the given owning target. The nested
+     * elements are taken from the element itself rather than from its wrapper so that
+     * an element which is already configured could be copied as well.
+     */
+    private static UnknownElement copyElement(final UnknownElement element, final Project project,
+            final Target owningTarget)
+    {
+        final UnknownElement copy = new UnknownElement(element.getTag());
+        copy.setNamespace(element.getNamespace());
+        copy.setProject(project);
+        copy.setQName(element.getQName());
+        copy.setTaskType(element.getTaskType());
+        copy.setTaskName(element.getTaskName());
+        copy.setLocation(element.getLocation());
+        copy.setOwningTarget(owningTarget);
+        
+        final RuntimeConfigurable wrapper = element.getWrapper();
+        final RuntimeConfigurable copyWrapper = new RuntimeConfigurable(copy, element.getTaskName());
+        copyWrapper.setPolyType(wrapper.getPolyType());
+        for (final Map.Entry<String, Object> attribute : wrapper.getAttributeMap().entrySet()) {
+            copyWrapper.setAttribute(attribute.getKey(), (String) attribute.getValue());
+        }
+        copyWrapper.addText(wrapper.getText().toString());
+        final List<UnknownElement> children = element.getChildren();
+        if (children != null) {
+            for (final UnknownElement child : children) {
+                final UnknownElement childCopy = copyElement(child, project, owningTarget);
+                copyWrapper.addChild(childCopy.getWrapper());
+                copy.addChild(childCopy);
+            }
+        }
+        return copy;
+    }
+    
+    // A target whose elements are copied from the template when the target is used first time.
+    private static final class TemplateTarget extends Target
+    {
+        private Target templateTarget;
+        
+        TemplateTarget(final Target templateTarget)
+        {
+            this.templateTarget = templateTarget;
+        }
+        
+        @Override
+        public void execute() throws BuildException
+        {
+            instantiate();
+            super.execute();
+        }
+        
+        @Override
+        public Task[] getTasks()
+        {
+            instantiate();
+            return super.getTasks();
+        }
+        
+        @Override
+        public void addTask(final Task task)
+        {
+            instantiate();
+            super.addTask(task);
+        }
+        
+        @Override
+        public void addDataType(final RuntimeConfigurable r)
+        {
+            instantiate();
+            super.addDataType(r);
+        }
+        
+        private synchronized void instantiate()
+        {
+            final Target template = templateTarget;
+            if (template == null) {
+                return;
+            }
+            templateTarget = null;
+            for (final Task task : template.getTasks()) {
+                if (!(task instanceof UnknownElement)) {
+                    // A task with an ID replaces its element in the target when it is configured.
+                    throw new BuildException(MessageFormat.format(
+                            "Target ''{0}'' cannot be copied: the task ''{1}'' is already configured.",
+                            template.getName(), task.getTaskName()));
+                }
+                super.addTask(copyElement((UnknownElement) task, getProject(), this));
+            }
+        }
+    }
+    
+    /**
+     * <p>The templates of the build files parsed in template mode. A cache is created by
+     * the {@link CallTargetForModules} execution that uses it and is dropped when this
+     * execution finishes. {@code TemplateCache} is thread-safe.</p>
+     */
+    static final class TemplateCache
+    {
+        // The templates parsed, keyed by the absolute normalised paths of the build files.
+        private final HashMap<String, Template> templates = new HashMap<String, Template>();
+        
+        synchronized Template getTemplate(final File buildFile)
+        {
+            final long lastModified = buildFile.lastModified();
+            final long length = buildFile.length();
+            Template template = templates.get(buildFile.getPath());
+            if (template == null || template.lastModified != lastModified || template.length != length) {
+                template = new Template(buildFile, lastModified, length);
+                templates.put(buildFile.getPath(), template);
+            }
+            return template;
+        }
+    }
+    
+    /* The elements of a build file parsed into a project which is not used otherwise.
+     * None of the elements is configured.
+     */
+    private static final class Template
+    {
+        final long lastModified;
+        final long length;
+        
+        String projectUri;
+        String projectTag;
+        String projectQName;
+        Attributes projectAttributes;
+        Locator projectLocator;
+        
+        final Target implicitTarget;
+        final ArrayList<Target> targets = new ArrayList<Target>();
+        final ArrayList<String[]> extensionStack;
+        
+        Template(final File buildFile, final long lastModified, final long length)
+        {
+            this.lastModified = lastModified;
+            this.length = length;
+            
+            final Project project = new Project();
+            final ProjectHelper2 helper = new ProjectHelper2();
+            project.addReference(MagicNames.REFID_PROJECT_HELPER, helper);
+            helper.getImportStack().addElement(buildFile);
+            final AntXMLContext context = new AntXMLContext(project);
+            project.addReference(PARSING_CONTEXT, context);
+            project.addReference(REFID_TARGETS, context.getTargets());
+            context.setCurrentTargets(new HashMap<String, Target>());
+            
+            // The top-level elements are not executed.
+            helper.parse(project, buildFile, new RootHandler(context, new MainHandler()
+            {
+                @Override
+                public AntHandler onStartChild(final String uri, final String name, final String qname,
+                        final Attributes attrs, final AntXMLContext context) throws SAXParseException
+                {
+                    final AntHandler handler = super.onStartChild(uri, name, qname, attrs, context);
+                    if (!(handler instanceof ProjectHandler)) {
+                        return handler;
+                    }
+                    return new ProjectHandler()
+                    {
+                        @Override
+                        public void onStartElement(final String uri, final String tag, final String qname,
+                                final Attributes attrs, final AntXMLContext context) throws SAXParseException
+                        {
+                            projectUri = uri;
+                            projectTag = tag;
+                            projectQName = qname;
+                            projectAttributes = new AttributesImpl(attrs);
+                            projectLocator = new LocatorImpl(context.getLocator());
+                            super.onStartElement(uri, tag, qname, attrs, context);
+                        }
+                    };
+                }
+            }));
+            
+            implicitTarget = context.getImplicitTarget();
+            for (final Target target : project.getTargets().values()) {
+                if (target != implicitTarget) {
+                    targets.add(target);
+                }
+            }
+            extensionStack = new ArrayList<String[]>(helper.getExtensionStack());
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+/**
+ * <p>A {@link ModuleLoader} that is capable of telling cheaply whether or not the metadata of
+ * a module could have changed since it was loaded. For each module it provides a validity key
+ * (e.g. the size and the modification time of the file the module metadata are loaded from)
+ * which is changed whenever the module metadata are changed.</p>
+ * 
+ * <p>The validity key is used by {@link ModuleRegistry} to find out which modules are to be
+ * reloaded (see {@link ModuleRegistry#invalidateChanged()}).</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+public interface ValidatingModuleLoader extends ModuleLoader
+{
+    /**
+     * <p>Returns the validity key of the module with a given normalised path. The key is
+     * expected to be obtained much faster than the module metadata are loaded. If the key
+     * returned differs from the key that was returned when the module was loaded then
+     * the module metadata are considered changed.</p>
+     * 
+     * @param normalisedPath the normalised path of the module. It must be not {@code null}.
+     * 
+     * @return the validity key of the module, or {@code null} if the validity key is
+     *      undefined (e.g. the module does not exist).
+     * 
+     * @throws NullPointerException if <em>normalisedPath</em> is {@code null}.
+     */
+    String getValidityKey(String normalisedPath);
+}
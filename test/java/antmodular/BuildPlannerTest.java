@@ -0,0 +1,195 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import antmodular.BuildPlanner;
+import antmodular.CyclicDependenciesDetectedException;
+import antmodular.Module;
+import antmodular.ModuleDurations;
+
+public class BuildPlannerTest extends TestCase
+{
+    private Module longModule1;
+    private Module longModule2;
+    private Module shortModule1;
+    private Module shortModule2;
+    private Module shortModule3;
+    private BuildPlanner planner;
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        longModule1 = module("long1");
+        longModule2 = module("long2");
+        longModule2.setDependencies(new Module[]{longModule1});
+        shortModule1 = module("short1");
+        shortModule2 = module("short2");
+        shortModule3 = module("short3");
+        planner = new BuildPlanner(Arrays.asList(longModule2, shortModule1, shortModule2, shortModule3));
+    }
+    
+    @Override
+    protected void tearDown()
+    {
+        planner = null;
+        longModule1 = null;
+        longModule2 = null;
+        shortModule1 = null;
+        shortModule2 = null;
+        shortModule3 = null;
+    }
+    
+    public void testUnitDurations_SingleThread()
+    {
+        final BuildPlanner.Plan plan = planner.plan(1, BuildPlanner.POLICY_DEPTH_FIRST);
+        
+        assertEquals(5, plan.makespan);
+        assertEquals(5, plan.dispatches.size());
+        for (int i = 0; i < 5; ++i) {
+            final BuildPlanner.Dispatch dispatch = plan.dispatches.get(i);
+            assertSame(planner.getModules().get(i), dispatch.module);
+            assertEquals(0, dispatch.worker);
+            assertEquals(i, dispatch.start);
+            assertEquals(i + 1, dispatch.end);
+        }
+    }
+    
+    public void testUnitDurations_MultipleThreads()
+    {
+        final BuildPlanner.Plan plan = planner.plan(4, BuildPlanner.POLICY_DEPTH_FIRST);
+        
+        assertEquals(2, plan.makespan);
+        assertEquals(5, plan.dispatches.size());
+        final BuildPlanner.Dispatch last = plan.dispatches.get(4);
+        assertSame(longModule2, last.module);
+        assertEquals(1, last.start);
+        assertEquals(2, last.end);
+    }
+    
+    public void testDepthFirst()
+    {
+        setDurations();
+        
+        final BuildPlanner.Plan plan = planner.plan(2, BuildPlanner.POLICY_DEPTH_FIRST);
+        
+        // The long chain is started after two short modules are processed.
+        assertEquals(25, plan.makespan);
+        assertTimeline(plan.getTimeline(0), shortModule3, 0, shortModule1, 5, longModule2, 15);
+        assertTimeline(plan.getTimeline(1), shortModule2, 0, longModule1, 5);
+    }
+    
+    public void testCriticalPath()
+    {
+        setDurations();
+        
+        final BuildPlanner.Plan plan = planner.plan(2, BuildPlanner.POLICY_CRITICAL_PATH);
+        
+        // The long chain is started first.
+        assertEquals(20, plan.makespan);
+        assertTimeline(plan.getTimeline(0), longModule1, 0, longModule2, 10);
+        assertTimeline(plan.getTimeline(1), shortModule3, 0, shortModule2, 5, shortModule1, 10);
+    }
+    
+    public void testCriticalPath_SingleThread()
+    {
+        setDurations();
+        
+        final BuildPlanner.Plan plan = planner.plan(1, BuildPlanner.POLICY_CRITICAL_PATH);
+        
+        assertEquals(35, plan.makespan);
+    }
+    
+    public void testSetDurations() throws Exception
+    {
+        final ModuleDurations durations = new ModuleDurations(new File("durations"));
+        assertFalse(planner.setDurations(durations));
+        assertEquals(1, planner.getDuration(longModule1));
+        
+        durations.put("long1", 10);
+        durations.put("short1", 20);
+        durations.put("unknown", 30);
+        assertTrue(planner.setDurations(durations));
+        
+        // The modules whose durations are not recorded take the mean duration.
+        assertEquals(10, planner.getDuration(longModule1));
+        assertEquals(20, planner.getDuration(longModule2));
+        assertEquals(20, planner.getDuration(shortModule1));
+        assertEquals(20, planner.getDuration(shortModule2));
+    }
+    
+    public void testZeroDurations()
+    {
+        planner.setDuration(longModule1, 0);
+        planner.setDuration(shortModule1, 0);
+        
+        assertEquals(3, planner.plan(1, BuildPlanner.POLICY_DEPTH_FIRST).makespan);
+        assertEquals(1, planner.plan(3, BuildPlanner.POLICY_DEPTH_FIRST).makespan);
+    }
+    
+    public void testCyclicDependencies()
+    {
+        final Module module1 = module("foo");
+        final Module module2 = module("bar");
+        module1.setDependencies(new Module[]{module2});
+        module2.setDependencies(new Module[]{module1});
+        
+        try {
+            new BuildPlanner(Arrays.asList(module1));
+            fail();
+        }
+        catch (CyclicDependenciesDetectedException ex) {
+            // expected
+        }
+    }
+    
+    private void setDurations()
+    {
+        planner.setDuration(longModule1, 10);
+        planner.setDuration(longModule2, 10);
+        planner.setDuration(shortModule1, 5);
+        planner.setDuration(shortModule2, 5);
+        planner.setDuration(shortModule3, 5);
+    }
+    
+    private static void assertTimeline(final List<BuildPlanner.Dispatch> timeline, final Object... expected)
+    {
+        assertEquals(expected.length / 2, timeline.size());
+        for (int i = 0, n = timeline.size(); i < n; ++i) {
+            assertSame(expected[2 * i], timeline.get(i).module);
+            assertEquals(((Integer) expected[2 * i + 1]).longValue(), timeline.get(i).start);
+        }
+    }
+    
+    private static Module module(final String path)
+    {
+        final Module result = new Module(path);
+        result.setDependencies(new Module[0]);
+        return result;
+    }
+}
@@ -0,0 +1,376 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+
+import antmodular.CachingModuleLoader;
+import antmodular.ModuleInfo;
+import antmodular.ModuleNotLoadedException;
+import antmodular.ValidatingModuleLoader;
+
+public class CachingModuleLoaderTest extends TestCase
+{
+    private File baseDir;
+    private File cacheFile;
+    private Project project;
+    private CountingModuleLoader moduleLoader;
+    private CachingModuleLoader loader;
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        baseDir = TestFiles.createTempDir("CachingModuleLoaderTest");
+        cacheFile = new File(baseDir, "modules.cache");
+        project = new Project();
+        project.setBaseDir(baseDir);
+        moduleLoader = new CountingModuleLoader();
+        loader = createLoader(moduleLoader);
+        
+        final ModuleInfo foo = new ModuleInfo("foo/", moduleLoader);
+        foo.addDependency("bar/");
+        foo.addAttribute("1", "2");
+        moduleLoader.modules.put("foo/", foo);
+        moduleLoader.modules.put("bar/", new ModuleInfo("bar/", moduleLoader));
+        moduleLoader.validityKeys.put("foo/", "1");
+        moduleLoader.validityKeys.put("bar/", "1");
+    }
+    
+    @Override
+    protected void tearDown()
+    {
+        TestFiles.delete(baseDir);
+        loader = null;
+        moduleLoader = null;
+        project = null;
+        cacheFile = null;
+        baseDir = null;
+    }
+    
+    public void testNormalisePath_Memoised()
+    {
+        moduleLoader.normalisedInputs.clear();
+        
+        assertEquals("foo/", loader.normalisePath("foo"));
+        assertEquals("foo/", loader.normalisePath("foo"));
+        assertEquals("foo/", loader.normalisePath("foo/"));
+        
+        assertEquals(1, Collections.frequency(moduleLoader.normalisedInputs, "foo"));
+        assertEquals(1, Collections.frequency(moduleLoader.normalisedInputs, "foo/"));
+    }
+    
+    public void testNormalisePath_NullPath()
+    {
+        try {
+            loader.normalisePath(null);
+            fail();
+        }
+        catch (NullPointerException ex) {
+            assertEquals("path", ex.getMessage());
+        }
+    }
+    
+    public void testLoadModule_Memoised() throws Exception
+    {
+        final ModuleInfo foo = loader.loadModule("foo");
+        
+        assertSame(foo, loader.loadModule("foo"));
+        assertSame(foo, loader.loadModule("foo/"));
+        assertEquals(1, moduleLoader.loadedPaths.size());
+    }
+    
+    public void testLoadModule_ValidityKeyChanged() throws Exception
+    {
+        final ModuleInfo foo = loader.loadModule("foo");
+        final ModuleInfo newFoo = new ModuleInfo("foo/", moduleLoader);
+        moduleLoader.modules.put("foo/", newFoo);
+        moduleLoader.validityKeys.put("foo/", "2");
+        
+        assertSame(newFoo, loader.loadModule("foo"));
+        assertSame(newFoo, loader.loadModule("foo"));
+        assertNotSame(foo, newFoo);
+        assertEquals(2, moduleLoader.loadedPaths.size());
+    }
+    
+    public void testLoadModule_NoValidityKey() throws Exception
+    {
+        moduleLoader.validityKeys.remove("foo/");
+        
+        loader.loadModule("foo");
+        loader.loadModule("foo");
+        
+        assertEquals(2, moduleLoader.loadedPaths.size());
+    }
+    
+    public void testLoadModule_NonValidatingLoader() throws Exception
+    {
+        final MockModuleLoader plainLoader = new MockModuleLoader();
+        final ModuleInfo foo = new ModuleInfo("foo/", plainLoader);
+        plainLoader.modules.put("foo/", foo);
+        final CachingModuleLoader loader = createLoader(plainLoader);
+        
+        assertSame(foo, loader.loadModule("foo/"));
+        plainLoader.modules.put("foo/", new ModuleInfo("foo/", plainLoader));
+        
+        assertSame(foo, loader.loadModule("foo/"));
+        assertEquals("", loader.getValidityKey("foo/"));
+    }
+    
+    public void testLoadModule_ModuleNotLoaded() throws Exception
+    {
+        final ModuleNotLoadedException error = new ModuleNotLoadedException("error");
+        moduleLoader.modules.put("foo/", error);
+        
+        try {
+            loader.loadModule("foo");
+            fail();
+        }
+        catch (ModuleNotLoadedException ex) {
+            assertSame(error, ex);
+        }
+        
+        final ModuleInfo foo = new ModuleInfo("foo/", moduleLoader);
+        moduleLoader.modules.put("foo/", foo);
+        assertSame(foo, loader.loadModule("foo"));
+    }
+    
+    public void testGetValidityKey()
+    {
+        assertEquals("1", loader.getValidityKey("foo/"));
+        assertNull(loader.getValidityKey("baz/"));
+    }
+    
+    public void testGetValidityKey_NullPath()
+    {
+        try {
+            loader.getValidityKey(null);
+            fail();
+        }
+        catch (NullPointerException ex) {
+            assertEquals("normalisedPath", ex.getMessage());
+        }
+    }
+    
+    public void testPersistentCache() throws Exception
+    {
+        loader.setCacheFile(cacheFile);
+        loader.loadModule("foo");
+        loader.loadModule("bar");
+        project.fireBuildFinished(null);
+        assertTrue(cacheFile.isFile());
+        moduleLoader.loadedPaths.clear();
+        
+        final CachingModuleLoader newLoader = createLoader(moduleLoader);
+        newLoader.setCacheFile(cacheFile);
+        final ModuleInfo foo = newLoader.loadModule("foo");
+        final ModuleInfo bar = newLoader.loadModule("bar");
+        
+        assertTrue(moduleLoader.loadedPaths.isEmpty());
+        assertEquals("foo/", foo.getPath());
+        assertEquals(TestUtil.set("bar/"), foo.getDependencies());
+        assertEquals(TestUtil.map("1", "2"), foo.getAttributes());
+        assertEquals("bar/", bar.getPath());
+        assertEquals(TestUtil.set(), bar.getDependencies());
+        assertEquals(TestUtil.map(), bar.getAttributes());
+    }
+    
+    public void testPersistentCache_ValidityKeyChanged() throws Exception
+    {
+        loader.setCacheFile(cacheFile);
+        loader.loadModule("foo");
+        project.fireBuildFinished(null);
+        moduleLoader.loadedPaths.clear();
+        moduleLoader.validityKeys.put("foo/", "2");
+        
+        final CachingModuleLoader newLoader = createLoader(moduleLoader);
+        newLoader.setCacheFile(cacheFile);
+        
+        assertSame(moduleLoader.modules.get("foo/"), newLoader.loadModule("foo"));
+        assertEquals(1, moduleLoader.loadedPaths.size());
+    }
+    
+    public void testPersistentCache_NonValidatingLoader() throws Exception
+    {
+        final MockModuleLoader plainLoader = new MockModuleLoader();
+        plainLoader.modules.put("foo/", new ModuleInfo("foo/", plainLoader));
+        final CachingModuleLoader loader = createLoader(plainLoader);
+        loader.setCacheFile(cacheFile);
+        
+        try {
+            loader.loadModule("foo/");
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The attribute 'cacheFile' requires the nested module loader to implement " +
+                    "'antmodular.ValidatingModuleLoader'.", ex.getMessage());
+        }
+    }
+    
+    public void testModuleLoaderUndefined() throws Exception
+    {
+        final CachingModuleLoader loader = new CachingModuleLoader();
+        loader.setProject(project);
+        
+        try {
+            loader.loadModule("foo");
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("No module loader is defined.", ex.getMessage());
+        }
+    }
+    
+    public void testMultipleModuleLoaders()
+    {
+        try {
+            loader.addConfigured(new MockModuleLoader());
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("Only a single module loader element is allowed.", ex.getMessage());
+        }
+    }
+    
+    public void testNullModuleLoader()
+    {
+        final CachingModuleLoader loader = new CachingModuleLoader();
+        
+        try {
+            loader.addConfigured(null);
+            fail();
+        }
+        catch (NullPointerException ex) {
+            assertEquals("moduleLoader", ex.getMessage());
+        }
+    }
+    
+    public void testConcurrentUse() throws Exception
+    {
+        final ConcurrentModuleLoader concurrentLoader = new ConcurrentModuleLoader();
+        final CachingModuleLoader loader = createLoader(concurrentLoader);
+        loader.setCacheFile(cacheFile);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final ArrayList<Future<ModuleInfo>> results = new ArrayList<Future<ModuleInfo>>();
+            for (int i = 0; i < 2000; ++i) {
+                final String path = "module" + (i % 100);
+                results.add(executor.submit(new Callable<ModuleInfo>()
+                {
+                    public ModuleInfo call() throws Exception
+                    {
+                        return loader.loadModule(path);
+                    }
+                }));
+            }
+            for (int i = 0; i < results.size(); ++i) {
+                final ModuleInfo moduleInfo = results.get(i).get();
+                assertEquals("module" + (i % 100) + '/', moduleInfo.getPath());
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+        project.fireBuildFinished(null);
+        
+        final CachingModuleLoader newLoader = createLoader(concurrentLoader);
+        newLoader.setCacheFile(cacheFile);
+        for (int i = 0; i < 100; ++i) {
+            assertEquals("module" + i + '/', newLoader.loadModule("module" + i).getPath());
+        }
+    }
+    
+    private CachingModuleLoader createLoader(final ModuleLoader nestedLoader)
+    {
+        final CachingModuleLoader loader = new CachingModuleLoader();
+        loader.setProject(project);
+        loader.addConfigured(nestedLoader);
+        return loader;
+    }
+    
+    private static class CountingModuleLoader extends MockModuleLoader implements ValidatingModuleLoader
+    {
+        public final ArrayList<String> loadedPaths = new ArrayList<String>();
+        public final ArrayList<String> normalisedInputs = new ArrayList<String>();
+        public final HashMap<String, String> validityKeys = new HashMap<String, String>();
+        
+        // Does nothing, just prevents synthetic garbage to be created by a java compiler.
+        public CountingModuleLoader()
+        {
+        }
+        
+        @Override
+        public ModuleInfo loadModule(final String path) throws ModuleNotLoadedException
+        {
+            loadedPaths.add(path);
+            return super.loadModule(normalisePath(path));
+        }
+        
+        @Override
+        public String normalisePath(final String path)
+        {
+            normalisedInputs.add(path);
+            return super.normalisePath(path);
+        }
+        
+        public String getValidityKey(final String normalisedPath)
+        {
+            assertNotNull(normalisedPath);
+            return validityKeys.get(normalisedPath);
+        }
+    }
+    
+    private static class ConcurrentModuleLoader implements ValidatingModuleLoader
+    {
+        // Does nothing, just prevents synthetic garbage to be created by a java compiler.
+        public ConcurrentModuleLoader()
+        {
+        }
+        
+        public ModuleInfo loadModule(final String path)
+        {
+            return new ModuleInfo(path, this);
+        }
+        
+        public String normalisePath(final String path)
+        {
+            return path.endsWith("/") ? path : path + '/';
+        }
+        
+        public String getValidityKey(final String normalisedPath)
+        {
+            return "1";
+        }
+    }
+}
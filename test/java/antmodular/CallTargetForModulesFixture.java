@@ -0,0 +1,110 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.tools.ant.BuildListener;
+import org.apache.tools.ant.Project;
+
+import antmodular.CallTargetForModules;
+import antmodular.ModuleLoader;
+
+public class CallTargetForModulesFixture
+{
+    // Echoes the module path.
+    public static final String ECHO_TARGET =
+            "  <target name=\"moduleTarget\">\n" +
+            "    <getModulePath moduleRefId=\"moduleRef\" outputRefId=\"path\"/>\n" +
+            "    <echo message=\"${toString:path}\"/>\n" +
+            "  </target>\n";
+    
+    // Fails if the module directory contains the file 'fail', otherwise echoes the module path.
+    public static final String FAILING_TARGET =
+            "  <target name=\"moduleTarget\">\n" +
+            "    <getModulePath moduleRefId=\"moduleRef\" outputRefId=\"path\"/>\n" +
+            "    <fail message=\"Failed.\">\n" +
+            "      <condition><available file=\"${toString:path}fail\"/></condition>\n" +
+            "    </fail>\n" +
+            "    <echo message=\"${toString:path}\"/>\n" +
+            "  </target>\n";
+    
+    // Echoes the module path and writes out/result.txt into the module directory.
+    public static final String OUTPUT_TARGET =
+            "  <target name=\"moduleTarget\">\n" +
+            "    <getModulePath moduleRefId=\"moduleRef\" outputRefId=\"path\"/>\n" +
+            "    <echo message=\"${toString:path}\"/>\n" +
+            "    <mkdir dir=\"${toString:path}out\"/>\n" +
+            "    <echo file=\"${toString:path}out/result.txt\" message=\"result of ${toString:path}\"/>\n" +
+            "  </target>\n";
+    
+    /**
+     * <p>Returns the content of a build file that defines given targets and the task
+     * {@code <getModulePath>}.</p>
+     */
+    public static String buildFile(final String... targets)
+    {
+        final StringBuilder buf = new StringBuilder();
+        buf.append("<project name=\"main\">\n");
+        buf.append("  <taskdef name=\"getModulePath\" classname=\"antmodular.GetModulePath\"/>\n");
+        for (final String target : targets) {
+            buf.append(target);
+        }
+        buf.append("</project>\n");
+        return buf.toString();
+    }
+    
+    /**
+     * <p>Creates a workspace with the modules foo/ and bar/, each of which has a source file,
+     * whose target {@code moduleTarget} is {@link #OUTPUT_TARGET}.</p>
+     */
+    public static Project createWorkspace(final File baseDir, final BuildListener listener) throws IOException
+    {
+        final Project project = TestFiles.createProject(baseDir, buildFile(OUTPUT_TARGET));
+        TestFiles.writeFile(new File(baseDir, "foo/src/Foo.java"), "foo");
+        TestFiles.writeFile(new File(baseDir, "bar/src/Bar.java"), "bar");
+        project.addBuildListener(listener);
+        return project;
+    }
+    
+    /**
+     * <p>Creates a task that invokes {@code moduleTarget} for a given module, or for no module
+     * if {@code modulePath} is {@code null}. The module is available to the target by
+     * the reference {@code moduleRef}.</p>
+     */
+    public static CallTargetForModules createTask(final Project project, final ModuleLoader moduleLoader,
+            final String modulePath)
+    {
+        final CallTargetForModules task = new CallTargetForModules();
+        task.setProject(project);
+        task.init();
+        task.setTarget("moduleTarget");
+        task.setModuleRefId("moduleRef");
+        if (modulePath != null) {
+            task.createModule().setPath(modulePath);
+        }
+        task.addConfigured(moduleLoader);
+        return task;
+    }
+}
@@ -0,0 +1,220 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.BuildListener;
+import org.apache.tools.ant.Project;
+
+import antmodular.CallTargetForModules;
+
+public class CallTargetForModules_BufferedOutputTest extends TestCase
+{
+    private File baseDir;
+    private Project project;
+    private MockModuleLoader moduleLoader;
+    private RecordingListener listener;
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        baseDir = TestFiles.createTempDir("CallTargetForModules_BufferedOutputTest");
+        project = TestFiles.createProject(baseDir,
+                "<project name=\"main\">\n" +
+                "  <taskdef name=\"getModulePath\" classname=\"antmodular.GetModulePath\"/>\n" +
+                "  <target name=\"moduleTarget\">\n" +
+                "    <getModulePath moduleRefId=\"moduleRef\" outputRefId=\"path\"/>\n" +
+                "    <echo message=\"${toString:path}1\"/>\n" +
+                "    <sleep milliseconds=\"20\"/>\n" +
+                "    <echo message=\"${toString:path}2\"/>\n" +
+                "    <sleep milliseconds=\"20\"/>\n" +
+                "    <echo message=\"${toString:path}3\"/>\n" +
+                "  </target>\n" +
+                "  <target name=\"failingTarget\">\n" +
+                "    <echo message=\"failing\"/>\n" +
+                "    <fail message=\"Failed.\"/>\n" +
+                "  </target>\n" +
+                "</project>\n");
+        listener = new RecordingListener();
+        project.addBuildListener(listener);
+        
+        moduleLoader = new MockModuleLoader();
+        moduleLoader.addModule("foo/", "bar");
+        moduleLoader.addModule("bar/");
+        moduleLoader.addModule("a/");
+        moduleLoader.addModule("b/");
+        moduleLoader.addModule("c/");
+    }
+    
+    @Override
+    protected void tearDown()
+    {
+        TestFiles.delete(baseDir);
+        listener = null;
+        moduleLoader = null;
+        project = null;
+        baseDir = null;
+    }
+    
+    public void testBufferOutput_CompletionOrder()
+    {
+        final CallTargetForModules task = createTask(4, "a", "b", "c", "foo");
+        task.setBufferOutput(true);
+        final Vector<BuildListener> listeners = project.getBuildListeners();
+        
+        task.perform();
+        
+        assertFalse(listener.overlapped);
+        assertModuleBlocks(listener.echoed, "a/", "b/", "c/", "foo/", "bar/");
+        final ArrayList<String> order = blockOrder(listener.echoed);
+        assertTrue(order.indexOf("bar/") < order.indexOf("foo/"));
+        assertEquals(listeners, project.getBuildListeners());
+    }
+    
+    public void testBufferOutput_TopologicalOrder()
+    {
+        final CallTargetForModules serialTask = createTask(1, "a", "b", "c", "foo");
+        serialTask.perform();
+        final ArrayList<String> serialOrder = blockOrder(listener.echoed);
+        assertEquals(5, serialOrder.size());
+        listener.echoed.clear();
+        
+        final CallTargetForModules task = createTask(4, "a", "b", "c", "foo");
+        task.setBufferOutput(true);
+        task.setOutputOrder("topological");
+        final Vector<BuildListener> listeners = project.getBuildListeners();
+        
+        task.perform();
+        
+        assertFalse(listener.overlapped);
+        assertModuleBlocks(listener.echoed, "a/", "b/", "c/", "foo/", "bar/");
+        assertEquals(serialOrder, blockOrder(listener.echoed));
+        assertEquals(listeners, project.getBuildListeners());
+    }
+    
+    public void testBufferOutput_MessagesSpilled()
+    {
+        final CallTargetForModules task = createTask(3, "a", "b", "c");
+        task.setBufferOutput(true);
+        task.setOutputBufferSize(0);
+        final Vector<BuildListener> listeners = project.getBuildListeners();
+        
+        task.perform();
+        
+        assertFalse(listener.overlapped);
+        assertModuleBlocks(listener.echoed, "a/", "b/", "c/");
+        assertEquals(listeners, project.getBuildListeners());
+    }
+    
+    public void testBufferOutput_BuildFails()
+    {
+        final CallTargetForModules task = createTask(2, "a", "b");
+        task.setBufferOutput(true);
+        task.setOutputOrder("topological");
+        final CallTargetForModules.ModuleElement failing = task.createModule();
+        failing.setPath("c");
+        failing.setTarget("failingTarget");
+        final Vector<BuildListener> listeners = project.getBuildListeners();
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertTrue(ex.getMessage().endsWith("Failed."));
+        }
+        
+        assertTrue(listener.echoed.contains("failing"));
+        assertEquals(listeners, project.getBuildListeners());
+    }
+    
+    private CallTargetForModules createTask(final int threadCount, final String... paths)
+    {
+        final CallTargetForModules task = new CallTargetForModules();
+        task.setProject(project);
+        task.init();
+        task.setTarget("moduleTarget");
+        task.setModuleRefId("moduleRef");
+        task.setThreadCount(threadCount);
+        for (final String path : paths) {
+            task.createModule().setPath(path);
+        }
+        task.addConfigured(moduleLoader);
+        return task;
+    }
+    
+    private static void assertModuleBlocks(final ArrayList<String> messages, final String... paths)
+    {
+        assertEquals(paths.length * 3, messages.size());
+        for (int i = 0; i < messages.size(); i += 3) {
+            final String message = messages.get(i);
+            assertTrue(message.endsWith("1"));
+            final String path = message.substring(0, message.length() - 1);
+            assertEquals(path + "2", messages.get(i + 1));
+            assertEquals(path + "3", messages.get(i + 2));
+        }
+        for (final String path : paths) {
+            assertTrue(messages.contains(path + "1"));
+        }
+    }
+    
+    private static ArrayList<String> blockOrder(final ArrayList<String> messages)
+    {
+        final ArrayList<String> order = new ArrayList<String>();
+        for (final String message : messages) {
+            if (message.endsWith("1")) {
+                order.add(message.substring(0, message.length() - 1));
+            }
+        }
+        return order;
+    }
+    
+    private static class RecordingListener extends RecordingBuildListener
+    {
+        public volatile boolean overlapped;
+        private final AtomicInteger activeCalls = new AtomicInteger();
+        
+        @Override
+        public void messageLogged(final BuildEvent event)
+        {
+            if (activeCalls.incrementAndGet() > 1) {
+                overlapped = true;
+            }
+            try {
+                super.messageLogged(event);
+                Thread.yield();
+            }
+            finally {
+                activeCalls.decrementAndGet();
+            }
+        }
+    }
+}
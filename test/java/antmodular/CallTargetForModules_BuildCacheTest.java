@@ -0,0 +1,229 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.Project;
+
+import antmodular.CallTargetForModules;
+
+public class CallTargetForModules_BuildCacheTest extends TestCase
+{
+    private File tempDir;
+    private File cacheDir;
+    private MockModuleLoader moduleLoader;
+    private RecordingBuildListener listener;
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        tempDir = TestFiles.createTempDir("CallTargetForModules_BuildCacheTest");
+        cacheDir = new File(tempDir, "cache");
+        listener = new RecordingBuildListener();
+        
+        moduleLoader = new MockModuleLoader();
+        moduleLoader.addModule("foo/", "bar");
+        moduleLoader.addModule("bar/");
+    }
+    
+    @Override
+    protected void tearDown()
+    {
+        TestFiles.delete(tempDir);
+        listener = null;
+        moduleLoader = null;
+        cacheDir = null;
+        tempDir = null;
+    }
+    
+    public void testBuildCache_OutputsRestored() throws Exception
+    {
+        final Project project = createWorkspace("ws");
+        createTask(project).perform();
+        assertEquals(Arrays.asList("bar/", "foo/"), listener.echoed);
+        
+        listener.echoed.clear();
+        TestFiles.delete(new File(project.getBaseDir(), "foo/out"));
+        TestFiles.delete(new File(project.getBaseDir(), "bar/out"));
+        createTask(project).perform();
+        assertEquals(Arrays.asList(), listener.echoed);
+        assertEquals("result of foo/", TestFiles.readFile(new File(project.getBaseDir(), "foo/out/result.txt")));
+        assertEquals("result of bar/", TestFiles.readFile(new File(project.getBaseDir(), "bar/out/result.txt")));
+    }
+    
+    public void testBuildCache_OutputsAreNotInputs() throws Exception
+    {
+        final Project project = createWorkspace("ws");
+        createTask(project).perform();
+        
+        listener.echoed.clear();
+        TestFiles.writeFile(new File(project.getBaseDir(), "foo/out/result.txt"), "modified");
+        createTask(project).perform();
+        assertEquals(Arrays.asList(), listener.echoed);
+        assertEquals("result of foo/", TestFiles.readFile(new File(project.getBaseDir(), "foo/out/result.txt")));
+    }
+    
+    public void testBuildCache_AnotherWorkspace() throws Exception
+    {
+        createTask(createWorkspace("ws1")).perform();
+        assertEquals(Arrays.asList("bar/", "foo/"), listener.echoed);
+        
+        listener.echoed.clear();
+        final Project project = createWorkspace("ws2");
+        createTask(project).perform();
+        assertEquals(Arrays.asList(), listener.echoed);
+        assertEquals("result of foo/", TestFiles.readFile(new File(project.getBaseDir(), "foo/out/result.txt")));
+        assertEquals("result of bar/", TestFiles.readFile(new File(project.getBaseDir(), "bar/out/result.txt")));
+    }
+    
+    public void testBuildCache_DependeeInputChanged() throws Exception
+    {
+        final Project project = createWorkspace("ws");
+        createTask(project).perform();
+        
+        listener.echoed.clear();
+        TestFiles.writeFile(new File(project.getBaseDir(), "bar/src/Bar.java"), "bar2");
+        createTask(project).perform();
+        assertEquals(Arrays.asList("bar/", "foo/"), listener.echoed);
+        
+        // The previous outputs are still cached.
+        listener.echoed.clear();
+        TestFiles.writeFile(new File(project.getBaseDir(), "bar/src/Bar.java"), "bar");
+        createTask(project).perform();
+        assertEquals(Arrays.asList(), listener.echoed);
+    }
+    
+    public void testBuildCache_FingerprintPropertyChanged() throws Exception
+    {
+        final Project project = createWorkspace("ws");
+        project.setProperty("mode", "debug");
+        final CallTargetForModules task1 = createTask(project);
+        task1.setFingerprintProperties("mode, other");
+        task1.perform();
+        
+        listener.echoed.clear();
+        project.setProperty("mode", "release");
+        final CallTargetForModules task2 = createTask(project);
+        task2.setFingerprintProperties("mode, other");
+        task2.perform();
+        assertEquals(Arrays.asList("bar/", "foo/"), listener.echoed);
+    }
+    
+    public void testBuildCache_LinkMode() throws Exception
+    {
+        createTask(createWorkspace("ws1")).perform();
+        
+        listener.echoed.clear();
+        final Project project = createWorkspace("ws2");
+        final CallTargetForModules task = createTask(project);
+        task.setBuildCacheMode("link");
+        task.perform();
+        assertEquals(Arrays.asList(), listener.echoed);
+        assertEquals("result of foo/", TestFiles.readFile(new File(project.getBaseDir(), "foo/out/result.txt")));
+        assertEquals("result of bar/", TestFiles.readFile(new File(project.getBaseDir(), "bar/out/result.txt")));
+        assertFalse(isOwnerWritable(new File(project.getBaseDir(), "foo/out/result.txt")));
+        
+        // The files restored in copy mode are writable.
+        final Project project2 = createWorkspace("ws3");
+        createTask(project2).perform();
+        assertEquals(Arrays.asList(), listener.echoed);
+        assertTrue(isOwnerWritable(new File(project2.getBaseDir(), "foo/out/result.txt")));
+    }
+    
+    public void testBuildCache_LinkModeOutputsDeletedBeforeTarget() throws Exception
+    {
+        createTask(createWorkspace("ws1")).perform();
+        
+        final Project project = createWorkspace("ws2");
+        final CallTargetForModules task1 = createTask(project);
+        task1.setBuildCacheMode("link");
+        task1.perform();
+        assertFalse(isOwnerWritable(new File(project.getBaseDir(), "bar/out/result.txt")));
+        
+        final ArrayList<String> remainingOutputs = new ArrayList<String>();
+        project.addBuildListener(new RecordingBuildListener() {
+            @Override
+            public void targetStarted(final BuildEvent event)
+            {
+                if (!"moduleTarget".equals(event.getTarget().getName())) {
+                    return;
+                }
+                final Module module = (Module) event.getProject().getReference("moduleRef");
+                final File output = new File(project.getBaseDir(), module.getPath() + "out/result.txt");
+                if (output.exists()) {
+                    remainingOutputs.add(module.getPath());
+                }
+            }
+        });
+        listener.echoed.clear();
+        TestFiles.writeFile(new File(project.getBaseDir(), "bar/src/Bar.java"), "bar2");
+        final CallTargetForModules task2 = createTask(project);
+        task2.setBuildCacheMode("link");
+        task2.perform();
+        
+        // The outputs linked to the cache are deleted so that the targets write new files.
+        assertEquals(Arrays.asList("bar/", "foo/"), listener.echoed);
+        assertEquals(Arrays.asList(), remainingOutputs);
+        assertEquals("result of foo/", TestFiles.readFile(new File(project.getBaseDir(), "foo/out/result.txt")));
+        assertEquals("result of bar/", TestFiles.readFile(new File(project.getBaseDir(), "bar/out/result.txt")));
+    }
+    
+    public void testBuildCache_MissingObject() throws Exception
+    {
+        final Project project = createWorkspace("ws");
+        createTask(project).perform();
+        TestFiles.delete(new File(cacheDir, "objects"));
+        
+        listener.echoed.clear();
+        createTask(project).perform();
+        assertEquals(Arrays.asList("bar/", "foo/"), listener.echoed);
+    }
+    
+    private Project createWorkspace(final String name) throws IOException
+    {
+        return CallTargetForModulesFixture.createWorkspace(new File(tempDir, name), listener);
+    }
+    
+    private CallTargetForModules createTask(final Project project)
+    {
+        final CallTargetForModules task = CallTargetForModulesFixture.createTask(project, moduleLoader, "foo");
+        task.setBuildCacheDir(cacheDir);
+        task.createOutputs().setIncludes("out/**");
+        return task;
+    }
+    
+    // File#canWrite() is not used because it is always true for the superuser.
+    private static boolean isOwnerWritable(final File file) throws IOException
+    {
+        return Files.getPosixFilePermissions(file.toPath()).contains(PosixFilePermission.OWNER_WRITE);
+    }
+}
@@ -0,0 +1,216 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+
+import antmodular.CallTargetForModules;
+import antmodular.ModuleInfo;
+
+public class CallTargetForModules_CheckpointTest extends TestCase
+{
+    private File baseDir;
+    private File checkpointFile;
+    private Project project;
+    private MockModuleLoader moduleLoader;
+    private RecordingBuildListener listener;
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        baseDir = TestFiles.createTempDir("CallTargetForModules_CheckpointTest");
+        // A module fails if its directory contains the file 'fail'.
+        project = TestFiles.createProject(baseDir, CallTargetForModulesFixture.buildFile(
+                CallTargetForModulesFixture.FAILING_TARGET,
+                "  <target name=\"moduleTarget2\" depends=\"moduleTarget\"/>\n"));
+        checkpointFile = new File(baseDir, "checkpoint");
+        
+        listener = new RecordingBuildListener();
+        project.addBuildListener(listener);
+        
+        // foo/ depends upon bar/ and baz/, baz/ depends upon qux/.
+        moduleLoader = new MockModuleLoader();
+        moduleLoader.addModule("foo/", "bar", "baz");
+        moduleLoader.addModule("bar/");
+        moduleLoader.addModule("baz/", "qux");
+        moduleLoader.addModule("qux/");
+    }
+    
+    @Override
+    protected void tearDown()
+    {
+        TestFiles.delete(baseDir);
+        listener = null;
+        moduleLoader = null;
+        project = null;
+        checkpointFile = null;
+        baseDir = null;
+    }
+    
+    public void testResume()
+    {
+        failOnBaz(createTask(false));
+        assertEquals(Arrays.asList("bar/", "qux/"), listener.echoed);
+        assertTrue(checkpointFile.isFile());
+        
+        listener.echoed.clear();
+        new File(baseDir, "baz/fail").delete();
+        createTask(true).perform();
+        assertEquals(Arrays.asList("baz/", "foo/"), listener.echoed);
+        assertFalse(checkpointFile.exists());
+    }
+    
+    public void testResume_FailedAgain()
+    {
+        failOnBaz(createTask(false));
+        
+        listener.echoed.clear();
+        failOnBaz(createTask(true));
+        assertEquals(Arrays.asList(), listener.echoed);
+        
+        // The modules completed by the first build are still recorded.
+        listener.echoed.clear();
+        new File(baseDir, "baz/fail").delete();
+        createTask(true).perform();
+        assertEquals(Arrays.asList("baz/", "foo/"), listener.echoed);
+    }
+    
+    public void testResume_Parallel()
+    {
+        final CallTargetForModules task1 = createTask(false);
+        task1.setThreadCount(2);
+        failOnBaz(task1);
+        
+        listener.echoed.clear();
+        new File(baseDir, "baz/fail").delete();
+        final CallTargetForModules task2 = createTask(true);
+        task2.setThreadCount(2);
+        task2.perform();
+        assertEquals(Arrays.asList("baz/", "foo/"), listener.echoed);
+    }
+    
+    public void testNoResume()
+    {
+        failOnBaz(createTask(false));
+        
+        listener.echoed.clear();
+        new File(baseDir, "baz/fail").delete();
+        createTask(false).perform();
+        assertEquals(Arrays.asList("bar/", "qux/", "baz/", "foo/"), listener.echoed);
+        assertFalse(checkpointFile.exists());
+    }
+    
+    public void testResume_MetadataChanged()
+    {
+        failOnBaz(createTask(false));
+        
+        listener.echoed.clear();
+        new File(baseDir, "baz/fail").delete();
+        ((ModuleInfo) moduleLoader.modules.get("qux/")).addAttribute("attr", "value");
+        createTask(true).perform();
+        assertEquals(Arrays.asList("qux/", "baz/", "foo/"), listener.echoed);
+    }
+    
+    public void testResume_TargetChanged()
+    {
+        failOnBaz(createTask(false));
+        
+        listener.echoed.clear();
+        new File(baseDir, "baz/fail").delete();
+        final CallTargetForModules task = createTask(true, null);
+        final CallTargetForModules.ModuleElement module = task.createModule();
+        module.setPath("bar");
+        module.setTarget("moduleTarget2");
+        task.createModule().setPath("foo");
+        task.perform();
+        assertEquals(Arrays.asList("bar/", "baz/", "foo/"), listener.echoed);
+    }
+    
+    public void testResume_NoCheckpointFile()
+    {
+        createTask(true).perform();
+        assertEquals(Arrays.asList("bar/", "qux/", "baz/", "foo/"), listener.echoed);
+        assertFalse(checkpointFile.exists());
+    }
+    
+    public void testResume_CorruptedCheckpointFile() throws Exception
+    {
+        TestFiles.writeFile(new File(baseDir, "checkpoint"), "corrupted");
+        
+        createTask(true).perform();
+        assertEquals(Arrays.asList("bar/", "qux/", "baz/", "foo/"), listener.echoed);
+    }
+    
+    public void testDryRun_Resume()
+    {
+        failOnBaz(createTask(false));
+        
+        listener.echoed.clear();
+        listener.messages.clear();
+        final CallTargetForModules task = createTask(true);
+        task.setDryRun(true);
+        task.perform();
+        
+        assertEquals(Arrays.asList(), listener.echoed);
+        assertEquals("  1. [0] thread 1: 'bar/' (target 'moduleTarget'), completed", listener.messages.get(2));
+        assertEquals("  3. [0] thread 1: 'baz/' (target 'moduleTarget'), 1 units", listener.messages.get(4));
+        assertEquals("Estimated total time: 2 units.", listener.messages.get(listener.messages.size() - 1));
+        assertTrue(checkpointFile.isFile());
+    }
+    
+    private void failOnBaz(final CallTargetForModules task)
+    {
+        try {
+            TestFiles.writeFile(new File(baseDir, "baz/fail"), "");
+            task.perform();
+            fail();
+        }
+        catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        catch (BuildException ex) {
+            assertTrue(ex.getMessage().startsWith("Module 'baz/': "));
+            assertTrue(ex.getMessage().endsWith("Failed."));
+        }
+    }
+    
+    private CallTargetForModules createTask(final boolean resume)
+    {
+        return createTask(resume, "foo");
+    }
+    
+    private CallTargetForModules createTask(final boolean resume, final String modulePath)
+    {
+        final CallTargetForModules task = CallTargetForModulesFixture.createTask(project, moduleLoader, modulePath);
+        task.setCheckpointFile(checkpointFile);
+        task.setResume(resume);
+        return task;
+    }
+}
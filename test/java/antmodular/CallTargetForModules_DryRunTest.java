@@ -0,0 +1,163 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.tools.ant.Project;
+
+import antmodular.CallTargetForModules;
+import antmodular.ModuleDurations;
+
+public class CallTargetForModules_DryRunTest extends TestCase
+{
+    private File baseDir;
+    private Project project;
+    private MockModuleLoader moduleLoader;
+    private RecordingBuildListener listener;
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        baseDir = TestFiles.createTempDir("CallTargetForModules_DryRunTest");
+        project = TestFiles.createProject(baseDir,
+                CallTargetForModulesFixture.buildFile(CallTargetForModulesFixture.ECHO_TARGET));
+        listener = new RecordingBuildListener();
+        project.addBuildListener(listener);
+        
+        // foo/ depends upon bar/ and baz/, baz/ depends upon qux/.
+        moduleLoader = new MockModuleLoader();
+        moduleLoader.addModule("foo/", "bar", "baz");
+        moduleLoader.addModule("bar/");
+        moduleLoader.addModule("baz/", "qux");
+        moduleLoader.addModule("qux/");
+    }
+    
+    @Override
+    protected void tearDown()
+    {
+        TestFiles.delete(baseDir);
+        listener = null;
+        moduleLoader = null;
+        project = null;
+        baseDir = null;
+    }
+    
+    public void testDryRun_SingleThread()
+    {
+        final CallTargetForModules task = createTask();
+        task.setDryRun(true);
+        task.perform();
+        
+        assertEquals(Arrays.asList(), listener.echoed);
+        assertEquals(Arrays.asList(
+                "Build plan: 4 modules, thread count 1, scheduling policy 'depthFirst'.",
+                "Dispatch sequence:",
+                "  1. [0] thread 1: 'bar/' (target 'moduleTarget'), 1 units",
+                "  2. [1] thread 1: 'qux/' (target 'moduleTarget'), 1 units",
+                "  3. [2] thread 1: 'baz/' (target 'moduleTarget'), 1 units",
+                "  4. [3] thread 1: 'foo/' (target 'moduleTarget'), 1 units",
+                "Thread timelines:",
+                "  thread 1: 'bar/' 0-1, 'qux/' 1-2, 'baz/' 2-3, 'foo/' 3-4; busy 4 of 4 units.",
+                "Estimated total time: 4 units."), listener.messages);
+    }
+    
+    public void testDryRun_MultipleThreads()
+    {
+        final CallTargetForModules task = createTask();
+        task.setDryRun(true);
+        task.setThreadCount(2);
+        task.perform();
+        
+        assertEquals(Arrays.asList(), listener.echoed);
+        assertEquals("Build plan: 4 modules, thread count 2, scheduling policy 'depthFirst'.", listener.messages.get(0));
+        assertEquals("  3. [1] thread 1: 'baz/' (target 'moduleTarget'), 1 units", listener.messages.get(4));
+        assertEquals("  4. [2] thread 1: 'foo/' (target 'moduleTarget'), 1 units", listener.messages.get(5));
+        assertEquals("Estimated total time: 3 units.", listener.messages.get(listener.messages.size() - 1));
+    }
+    
+    public void testDurationsFile() throws Exception
+    {
+        final File durationsFile = new File(baseDir, "durations");
+        final CallTargetForModules task1 = createTask();
+        task1.setDurationsFile(durationsFile);
+        task1.perform();
+        
+        assertEquals(Arrays.asList("bar/", "qux/", "baz/", "foo/"), listener.echoed);
+        final ModuleDurations durations = new ModuleDurations(durationsFile);
+        durations.read();
+        assertEquals(4, durations.size());
+        assertTrue(durations.get("foo/") >= 0);
+        
+        listener.echoed.clear();
+        final CallTargetForModules task2 = createTask();
+        task2.setDurationsFile(durationsFile);
+        task2.setDryRun(true);
+        task2.perform();
+        
+        assertEquals(Arrays.asList(), listener.echoed);
+        assertTrue(listener.messages.get(listener.messages.size() - 1).endsWith(" ms."));
+    }
+    
+    public void testDryRun_Incremental()
+    {
+        final File fingerprintFile = new File(baseDir, "fingerprints");
+        final CallTargetForModules task1 = createTask();
+        task1.setIncremental(true);
+        task1.setFingerprintFile(fingerprintFile);
+        task1.createOutputs().setIncludes("out/**");
+        task1.perform();
+        
+        listener.echoed.clear();
+        listener.messages.clear();
+        final CallTargetForModules task2 = createTask();
+        task2.setIncremental(true);
+        task2.setFingerprintFile(fingerprintFile);
+        task2.createOutputs().setIncludes("out/**");
+        task2.setDryRun(true);
+        task2.perform();
+        
+        assertEquals(Arrays.asList(), listener.echoed);
+        assertEquals("  4. [0] thread 1: 'foo/' (target 'moduleTarget'), up to date", listener.messages.get(5));
+        assertEquals("Estimated total time: 0 units.", listener.messages.get(listener.messages.size() - 1));
+    }
+    
+    public void testCriticalPath()
+    {
+        final CallTargetForModules task = createTask();
+        task.setThreadCount(2);
+        task.setSchedulingPolicy("criticalPath");
+        task.perform();
+        
+        assertEquals(4, listener.echoed.size());
+        assertEquals("foo/", listener.echoed.get(3));
+    }
+    
+    private CallTargetForModules createTask()
+    {
+        return CallTargetForModulesFixture.createTask(project, moduleLoader, "foo");
+    }
+}
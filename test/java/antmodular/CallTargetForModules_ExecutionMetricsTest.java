@@ -0,0 +1,288 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+
+import antmodular.CallTargetForModules;
+import antmodular.Module;
+import antmodular.ModuleExecutionMetrics;
+
+public class CallTargetForModules_ExecutionMetricsTest extends TestCase
+{
+    private File baseDir;
+    private File metricsFile;
+    private Project project;
+    private MockModuleLoader moduleLoader;
+    private RecordingBuildListener listener;
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        baseDir = TestFiles.createTempDir("CallTargetForModules_ExecutionMetricsTest");
+        // A module fails if its directory contains the file 'fail'.
+        project = TestFiles.createProject(baseDir,
+                CallTargetForModulesFixture.buildFile(CallTargetForModulesFixture.FAILING_TARGET));
+        metricsFile = new File(baseDir, "metrics.json");
+        
+        listener = new RecordingBuildListener();
+        project.addBuildListener(listener);
+        
+        // foo/ depends upon bar/ and baz/, baz/ depends upon qux/.
+        moduleLoader = new MockModuleLoader();
+        moduleLoader.addModule("foo/", "bar", "baz");
+        moduleLoader.addModule("bar/");
+        moduleLoader.addModule("baz/", "qux");
+        moduleLoader.addModule("qux/");
+    }
+    
+    @Override
+    protected void tearDown()
+    {
+        TestFiles.delete(baseDir);
+        listener = null;
+        moduleLoader = null;
+        project = null;
+        metricsFile = null;
+        baseDir = null;
+    }
+    
+    public void testSerial()
+    {
+        final CallTargetForModules task = createTask();
+        task.setExecutionMetrics(true);
+        task.perform();
+        
+        assertEquals(Arrays.asList("bar/", "qux/", "baz/", "foo/"), listener.echoed);
+        assertTrue(listener.messages.get(0).startsWith("Module execution: 4 modules processed in "));
+        assertTrue(listener.messages.get(1).startsWith(
+                "    Thread '" + Thread.currentThread().getName() + "': 4 modules, busy "));
+        assertEquals("Slowest modules to process:", listener.messages.get(2));
+        assertEquals(7, listener.messages.size());
+        assertFalse(metricsFile.exists());
+    }
+    
+    public void testSerial_MetricsFile() throws Exception
+    {
+        final CallTargetForModules task = createTask();
+        task.setExecutionMetricsFile(metricsFile);
+        task.perform();
+        
+        final String json = TestFiles.readFile(metricsFile);
+        assertTrue(json.startsWith("{\"elapsedNanos\":"));
+        final String thread = "\"thread\":\"" + Thread.currentThread().getName() + "\"";
+        assertTrue(json.indexOf("{\"path\":\"bar/\",\"target\":\"moduleTarget\"," + thread + ",\"queueNanos\":") > 0);
+        assertTrue(json.indexOf("{\"path\":\"foo/\",\"target\":\"moduleTarget\"," + thread + ",\"queueNanos\":") > 0);
+        assertTrue(json.indexOf("\"path\":\"bar/\"") < json.indexOf("\"path\":\"qux/\""));
+        assertTrue(json.indexOf("\"path\":\"baz/\"") < json.indexOf("\"path\":\"foo/\""));
+        assertEquals(4, count(json, "\"failed\":false"));
+        assertTrue(json.indexOf("\"threads\":[\n{\"name\":\"" + Thread.currentThread().getName() +
+                "\",\"modules\":4,\"busyNanos\":") > 0);
+        
+        // The metrics are logged as well.
+        assertTrue(listener.messages.get(0).startsWith("Module execution: 4 modules processed in "));
+    }
+    
+    public void testParallel_MetricsFile() throws Exception
+    {
+        final CallTargetForModules task = createTask();
+        task.setThreadCount(2);
+        task.setExecutionMetricsFile(metricsFile);
+        task.perform();
+        
+        assertEquals(4, listener.echoed.size());
+        final String json = TestFiles.readFile(metricsFile);
+        assertEquals(4, count(json, "\"failed\":false"));
+        assertEquals(4, count(json, "\"path\":"));
+        final int threadCount = count(json, "\"utilisationPercent\":");
+        assertTrue(threadCount >= 1 && threadCount <= 2);
+    }
+    
+    public void testFailedModule() throws Exception
+    {
+        TestFiles.writeFile(new File(baseDir, "baz/fail"), "");
+        final CallTargetForModules task = createTask();
+        task.setExecutionMetricsFile(metricsFile);
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertTrue(ex.getMessage().startsWith("Module 'baz/': "));
+        }
+        
+        // The metrics are reported even if the build fails.
+        final String json = TestFiles.readFile(metricsFile);
+        assertEquals(2, count(json, "\"failed\":false"));
+        assertTrue(json.indexOf("{\"path\":\"baz/\"") > 0);
+        assertTrue(json.indexOf("\"failed\":true") > json.indexOf("{\"path\":\"baz/\""));
+        assertTrue(json.indexOf("\"path\":\"foo/\"") < 0);
+    }
+    
+    public void testDisabled()
+    {
+        createTask().perform();
+        
+        assertEquals(Arrays.asList("bar/", "qux/", "baz/", "foo/"), listener.echoed);
+        assertEquals(Arrays.asList(), listener.messages);
+    }
+    
+    public void testTraceFile() throws Exception
+    {
+        final File traceFile = new File(baseDir, "trace.json");
+        final CallTargetForModules task = createTask();
+        task.setTraceFile(traceFile);
+        task.perform();
+        
+        // The metrics are not logged unless they are enabled.
+        assertEquals(Arrays.asList(), listener.messages);
+        assertFalse(metricsFile.exists());
+        
+        final String json = TestFiles.readFile(traceFile);
+        assertTrue(json.startsWith("{\"displayTimeUnit\":\"ms\",\"traceEvents\":["));
+        assertTrue(json.indexOf("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":1," +
+                "\"args\":{\"name\":\"" + Thread.currentThread().getName() + "\"}}") > 0);
+        assertEquals(1, count(json, "\"name\":\"thread_name\""));
+        for (final String path : Arrays.asList("bar/", "qux/", "baz/", "foo/")) {
+            assertTrue(json.indexOf("{\"name\":\"" + path + "\",\"cat\":\"module\",\"ph\":\"X\",\"ts\":") > 0);
+            assertTrue(json.indexOf("\"args\":{\"path\":\"" + path + "\",\"target\":\"moduleTarget\"}") > 0);
+        }
+        
+        final List<Long> ready = counterValues(json, "ready modules");
+        final List<Long> active = counterValues(json, "active threads");
+        // qux/ and bar/ are ready initially. The modules are processed by a single thread.
+        assertEquals(Long.valueOf(0), ready.get(ready.size() - 1));
+        assertEquals(Long.valueOf(0), active.get(active.size() - 1));
+        for (final Long value : ready) {
+            assertTrue(value.longValue() >= 0 && value.longValue() <= 2);
+        }
+        for (final Long value : active) {
+            assertTrue(value.longValue() >= 0 && value.longValue() <= 1);
+        }
+    }
+    
+    public void testTraceFile_Parallel() throws Exception
+    {
+        final File traceFile = new File(baseDir, "trace.json");
+        final CallTargetForModules task = createTask();
+        task.setThreadCount(2);
+        task.setTraceFile(traceFile);
+        task.perform();
+        
+        final String json = TestFiles.readFile(traceFile);
+        assertEquals(4, count(json, "\"cat\":\"module\""));
+        final int threadCount = count(json, "\"name\":\"thread_name\"");
+        assertTrue(threadCount >= 1 && threadCount <= 2);
+        for (final Long value : counterValues(json, "active threads")) {
+            assertTrue(value.longValue() >= 0 && value.longValue() <= 2);
+        }
+    }
+    
+    public void testTraceFile_FailedModule() throws Exception
+    {
+        TestFiles.writeFile(new File(baseDir, "baz/fail"), "");
+        final File traceFile = new File(baseDir, "trace.json");
+        final CallTargetForModules task = createTask();
+        task.setTraceFile(traceFile);
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertTrue(ex.getMessage().startsWith("Module 'baz/': "));
+        }
+        
+        final String json = TestFiles.readFile(traceFile);
+        assertEquals(3, count(json, "\"cat\":\"module\""));
+        assertTrue(json.indexOf("\"args\":{\"path\":\"baz/\",\"target\":\"moduleTarget\",\"failed\":true}") > 0);
+    }
+    
+    public void testQueueTime() throws Exception
+    {
+        final Module foo = new Module("foo/");
+        foo.setDependencies(new Module[0]);
+        final Module bar = new Module("bar/");
+        bar.setDependencies(new Module[] {foo});
+        final ModuleExecutionMetrics metrics = new ModuleExecutionMetrics();
+        
+        final ModuleExecutionMetrics.Sample fooSample = metrics.moduleStarted(foo, "t");
+        metrics.moduleFinished(fooSample, false);
+        Thread.sleep(50);
+        final ModuleExecutionMetrics.Sample barSample = metrics.moduleStarted(bar, "t");
+        metrics.moduleFinished(barSample, true);
+        metrics.finish();
+        
+        // bar/ is ready as soon as foo/ is finished.
+        assertTrue(barSample.getQueueNanos() >= 50000000L);
+        assertTrue(fooSample.getQueueNanos() < barSample.getQueueNanos());
+        assertTrue(barSample.failed);
+        final List<ModuleExecutionMetrics.Sample> samples = metrics.getSamples();
+        assertEquals(2, samples.size());
+        assertSame(fooSample, samples.get(0));
+        assertSame(barSample, samples.get(1));
+        
+        final List<ModuleExecutionMetrics.ThreadTotals> totals = metrics.getThreadTotals();
+        assertEquals(1, totals.size());
+        assertEquals(2, totals.get(0).moduleCount);
+        assertEquals(fooSample.getWallNanos() + barSample.getWallNanos(), totals.get(0).busyNanos);
+        assertTrue(totals.get(0).busyNanos <= metrics.getElapsedNanos());
+    }
+    
+    private CallTargetForModules createTask()
+    {
+        return CallTargetForModulesFixture.createTask(project, moduleLoader, "foo");
+    }
+    
+    private static List<Long> counterValues(final String json, final String name)
+    {
+        final ArrayList<Long> result = new ArrayList<Long>();
+        final Matcher m = Pattern.compile("\\{\"name\":\"" + name +
+                "\",\"ph\":\"C\",\"ts\":\\d+,\"pid\":1,\"args\":\\{\"value\":(\\d+)\\}\\}").matcher(json);
+        while (m.find()) {
+            result.add(Long.valueOf(m.group(1)));
+        }
+        assertFalse(result.isEmpty());
+        return result;
+    }
+    
+    private static int count(final String s, final String part)
+    {
+        int result = 0;
+        for (int i = s.indexOf(part); i >= 0; i = s.indexOf(part, i + 1)) {
+            ++result;
+        }
+        return result;
+    }
+    
+    
+}
@@ -0,0 +1,223 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+
+import antmodular.CallTargetForModules;
+import antmodular.ModuleInfo;
+
+public class CallTargetForModules_IncrementalTest extends TestCase
+{
+    private File baseDir;
+    private File fingerprintFile;
+    private Project project;
+    private MockModuleLoader moduleLoader;
+    private RecordingBuildListener listener;
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        baseDir = TestFiles.createTempDir("CallTargetForModules_IncrementalTest");
+        project = TestFiles.createProject(baseDir, CallTargetForModulesFixture.buildFile(
+                CallTargetForModulesFixture.ECHO_TARGET,
+                "  <target name=\"writingTarget\">\n" +
+                "    <getModulePath moduleRefId=\"moduleRef\" outputRefId=\"path\"/>\n" +
+                "    <echo message=\"${toString:path}\"/>\n" +
+                "    <echo file=\"${toString:path}out/generated.txt\" message=\"generated\"/>\n" +
+                "  </target>\n" +
+                "  <target name=\"failingTarget\">\n" +
+                "    <fail message=\"Failed.\"/>\n" +
+                "  </target>\n"));
+        TestFiles.writeFile(new File(baseDir, "foo/src/Foo.java"), "foo");
+        TestFiles.writeFile(new File(baseDir, "bar/src/Bar.java"), "bar");
+        TestFiles.writeFile(new File(baseDir, "bar/out/Bar.class"), "bar");
+        fingerprintFile = new File(baseDir, "fingerprints");
+        
+        listener = new RecordingBuildListener();
+        project.addBuildListener(listener);
+        
+        moduleLoader = new MockModuleLoader();
+        moduleLoader.addModule("foo/", "bar");
+        moduleLoader.addModule("bar/");
+    }
+    
+    @Override
+    protected void tearDown()
+    {
+        TestFiles.delete(baseDir);
+        listener = null;
+        moduleLoader = null;
+        project = null;
+        fingerprintFile = null;
+        baseDir = null;
+    }
+    
+    public void testIncremental_NothingChanged()
+    {
+        createTask().perform();
+        assertEquals(Arrays.asList("bar/", "foo/"), listener.echoed);
+        assertTrue(fingerprintFile.isFile());
+        
+        listener.echoed.clear();
+        createTask().perform();
+        assertEquals(Arrays.asList(), listener.echoed);
+    }
+    
+    public void testIncremental_DependeeInputChanged() throws Exception
+    {
+        createTask().perform();
+        
+        listener.echoed.clear();
+        TestFiles.writeFile(new File(baseDir, "bar/src/Bar.java"), "bar2");
+        createTask().perform();
+        assertEquals(Arrays.asList("bar/", "foo/"), listener.echoed);
+        
+        listener.echoed.clear();
+        TestFiles.writeFile(new File(baseDir, "foo/src/Foo.java"), "foo2");
+        createTask().perform();
+        assertEquals(Arrays.asList("foo/"), listener.echoed);
+    }
+    
+    public void testIncremental_FileIsNotInput() throws Exception
+    {
+        final CallTargetForModules task1 = createTask();
+        task1.createInputs().setIncludes("src/**");
+        task1.perform();
+        
+        listener.echoed.clear();
+        TestFiles.writeFile(new File(baseDir, "bar/out/Bar.class"), "bar2");
+        TestFiles.writeFile(new File(baseDir, "bar/notes.txt"), "bar");
+        final CallTargetForModules task2 = createTask();
+        task2.createInputs().setIncludes("src/**");
+        task2.perform();
+        assertEquals(Arrays.asList(), listener.echoed);
+        
+        // The module is processed again if its input files are defined differently.
+        listener.echoed.clear();
+        createTask().perform();
+        assertEquals(Arrays.asList("bar/", "foo/"), listener.echoed);
+    }
+    
+    public void testIncremental_OutputsAreNotInputs() throws Exception
+    {
+        final CallTargetForModules task1 = createTask();
+        task1.setTarget("writingTarget");
+        task1.perform();
+        assertEquals(Arrays.asList("bar/", "foo/"), listener.echoed);
+        assertTrue(new File(baseDir, "bar/out/generated.txt").isFile());
+        
+        // The files written by the target into the module directory do not change the fingerprint.
+        listener.echoed.clear();
+        final CallTargetForModules task2 = createTask();
+        task2.setTarget("writingTarget");
+        task2.perform();
+        assertEquals(Arrays.asList(), listener.echoed);
+    }
+    
+    public void testIncremental_AttributeChanged()
+    {
+        createTask().perform();
+        
+        listener.echoed.clear();
+        ((ModuleInfo) moduleLoader.modules.get("foo/")).addAttribute("attr", "value");
+        createTask().perform();
+        assertEquals(Arrays.asList("foo/"), listener.echoed);
+    }
+    
+    public void testIncremental_TargetFailed()
+    {
+        createTask().perform();
+        
+        listener.echoed.clear();
+        final CallTargetForModules task = createTask();
+        task.setTarget("failingTarget");
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertTrue(ex.getMessage().endsWith("Failed."));
+        }
+        
+        /* The fingerprint of the module that has failed is removed. The module that depends
+         * upon it is not processed again because the fingerprint of the failed module is
+         * the same as before.
+         */
+        createTask().perform();
+        assertEquals(Arrays.asList("bar/"), listener.echoed);
+    }
+    
+    public void testIncremental_DependeeFailed()
+    {
+        final CallTargetForModules task1 = createTask(null);
+        final CallTargetForModules.ModuleElement failing = task1.createModule();
+        failing.setPath("foo");
+        failing.setTarget("failingTarget");
+        try {
+            task1.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertTrue(ex.getMessage().endsWith("Failed."));
+        }
+        assertEquals(Arrays.asList("bar/"), listener.echoed);
+        
+        listener.echoed.clear();
+        createTask().perform();
+        assertEquals(Arrays.asList("foo/"), listener.echoed);
+    }
+    
+    public void testIncremental_CorruptedFingerprintFile() throws Exception
+    {
+        TestFiles.writeFile(new File(baseDir, "fingerprints"), "corrupted");
+        
+        createTask().perform();
+        assertEquals(Arrays.asList("bar/", "foo/"), listener.echoed);
+        
+        listener.echoed.clear();
+        createTask().perform();
+        assertEquals(Arrays.asList(), listener.echoed);
+    }
+    
+    private CallTargetForModules createTask()
+    {
+        return createTask("foo");
+    }
+    
+    private CallTargetForModules createTask(final String modulePath)
+    {
+        final CallTargetForModules task = CallTargetForModulesFixture.createTask(project, moduleLoader, modulePath);
+        task.setIncremental(true);
+        task.setFingerprintFile(fingerprintFile);
+        task.createOutputs().setIncludes("out/**");
+        return task;
+    }
+    
+}
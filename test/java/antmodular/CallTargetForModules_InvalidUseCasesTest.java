@@ -22,8 +22,11 @@
    SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
 package antmodular;
 
+import java.io.File;
+
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Location;
+import org.apache.tools.ant.types.Reference;
 
 import junit.framework.TestCase;
 
@@ -99,6 +102,29 @@ public class CallTargetForModules_InvalidUseCasesTest extends TestCase
         }
     }
     
+    public void testModuleLoaderAndModuleRegistryAreDefinedTogether()
+    {
+        final SharedModuleRegistry registry = new SharedModuleRegistry();
+        registry.setProject(project);
+        registry.addConfigured(new MockModuleLoader());
+        project.addReference("registry", registry);
+        
+        task.init();
+        task.setTarget("testTarget");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.setModuleRegistryRefId(new Reference(project, "registry"));
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("A module loader element and the attribute 'moduleRegistryRefId' cannot be defined together.",
+                    ex.getMessage());
+        }
+    }
+    
     public void testModuleElementWithNoPath_SingleModule()
     {
         task.init();
@@ -147,7 +173,148 @@ public class CallTargetForModules_InvalidUseCasesTest extends TestCase
             fail();
         }
         catch (BuildException ex) {
-            assertEquals("At least one <module> element is required.", ex.getMessage());
+            assertEquals("At least one <module> or <moduleset> element is required.", ex.getMessage());
+        }
+    }
+    
+    public void testIncremental_NoFingerprintFile()
+    {
+        moduleLoader.modules.put("foo/", new ModuleInfo("foo/", moduleLoader));
+        
+        task.init();
+        task.setTarget("testTarget");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.setIncremental(true);
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The attribute 'fingerprintFile' is required if incremental mode is enabled.",
+                    ex.getMessage());
+        }
+    }
+    
+    public void testIncremental_NoInputsOrOutputs()
+    {
+        moduleLoader.modules.put("foo/", new ModuleInfo("foo/", moduleLoader));
+        
+        task.init();
+        task.setTarget("testTarget");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.setIncremental(true);
+        task.setFingerprintFile(new File("fingerprints"));
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("At least one <inputs> or <outputs> element is required if incremental mode is enabled.",
+                    ex.getMessage());
+        }
+    }
+    
+    public void testBuildCache_NoOutputs()
+    {
+        moduleLoader.modules.put("foo/", new ModuleInfo("foo/", moduleLoader));
+        
+        task.init();
+        task.setTarget("testTarget");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.setBuildCacheDir(new File("cache"));
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("At least one <outputs> element is required if the attribute 'buildCacheDir' is defined.",
+                    ex.getMessage());
+        }
+    }
+    
+    public void testRemoteCache_NoOutputs()
+    {
+        moduleLoader.modules.put("foo/", new ModuleInfo("foo/", moduleLoader));
+        
+        task.init();
+        task.setTarget("testTarget");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.setRemoteCacheUrl("http://localhost/cache");
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("At least one <outputs> element is required if the attribute 'remoteCacheUrl' is defined.",
+                    ex.getMessage());
+        }
+    }
+    
+    public void testRemoteCacheTimeoutIsInvalid()
+    {
+        task.init();
+        
+        try {
+            task.setRemoteCacheTimeout(0);
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("Invalid remote cache timeout: '0'. It must be a positive value.", ex.getMessage());
+        }
+    }
+    
+    public void testBuildCacheModeIsInvalid()
+    {
+        task.init();
+        
+        try {
+            task.setBuildCacheMode("reflink");
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("Unsupported build cache mode: 'reflink'. Expected: 'copy' or 'link'.", ex.getMessage());
+        }
+    }
+    
+    public void testResume_NoCheckpointFile()
+    {
+        moduleLoader.modules.put("foo/", new ModuleInfo("foo/", moduleLoader));
+        
+        task.init();
+        task.setTarget("testTarget");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.setResume(true);
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The attribute 'checkpointFile' is required if resume mode is enabled.",
+                    ex.getMessage());
+        }
+    }
+    
+    public void testSchedulingPolicyIsInvalid()
+    {
+        task.init();
+        
+        try {
+            task.setSchedulingPolicy("fifo");
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("Unsupported scheduling policy: 'fifo'. Expected: 'depthFirst' or 'criticalPath'.",
+                    ex.getMessage());
         }
     }
     
@@ -335,6 +502,75 @@ public class CallTargetForModules_InvalidUseCasesTest extends TestCase
         }
     }
     
+    public void testLoaderThreadCountIsInvalid_ZeroValue()
+    {
+        task.init();
+        task.setTarget("testTarget");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        
+        try {
+            task.setLoaderThreadCount(0);
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("Invalid loader thread count: '0'. It must be a positive value.", ex.getMessage());
+        }
+    }
+    
+    public void testIsolationIsInvalid()
+    {
+        task.init();
+        
+        try {
+            task.setIsolation("none");
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("Unsupported isolation mode: 'none'. Expected: 'full' or 'light'.", ex.getMessage());
+        }
+    }
+    
+    public void testInheritanceIsInvalid()
+    {
+        task.init();
+        
+        try {
+            task.setInheritance("none");
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("Unsupported inheritance mode: 'none'. Expected: 'copy' or 'layered'.", ex.getMessage());
+        }
+    }
+    
+    public void testOutputOrderIsInvalid()
+    {
+        task.init();
+        
+        try {
+            task.setOutputOrder("random");
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("Unsupported output order: 'random'. Expected: 'completion' or 'topological'.",
+                    ex.getMessage());
+        }
+    }
+    
+    public void testOutputBufferSizeIsNegative()
+    {
+        task.init();
+        
+        try {
+            task.setOutputBufferSize(-1);
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("Invalid output buffer size: '-1'. It must be a non-negative value.", ex.getMessage());
+        }
+    }
+    
     /**
      * <p>Tests that {@code NullPointerException} is thrown if {@code null} module loader is passed
      * to {@code CallTargetForModules}.</p>
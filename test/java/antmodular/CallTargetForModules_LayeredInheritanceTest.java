@@ -0,0 +1,232 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.TestCase;
+
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.MagicNames;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.ProjectHelper;
+import org.apache.tools.ant.taskdefs.Ant.Reference;
+import org.apache.tools.ant.types.Path;
+
+import antmodular.CallTargetForModules;
+import antmodular.CallTargetForModules.ParamElement;
+
+public class CallTargetForModules_LayeredInheritanceTest extends TestCase
+{
+    private File baseDir;
+    private Project project;
+    private CallTargetForModules task;
+    private MockModuleLoader moduleLoader;
+    private RecordingListener listener;
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        baseDir = TestFiles.createTempDir("CallTargetForModules_LayeredInheritanceTest");
+        final File buildFile = new File(baseDir, "build.xml");
+        TestFiles.writeFile(buildFile,
+                "<project name=\"main\">\n" +
+                "  <taskdef name=\"getModulePath\" classname=\"antmodular.GetModulePath\"/>\n" +
+                "  <property name=\"plain.prop\" value=\"plain\"/>\n" +
+                "  <target name=\"init\">\n" +
+                "    <property name=\"init.prop\" value=\"init-${param.prop}\"/>\n" +
+                "  </target>\n" +
+                "  <target name=\"moduleTarget\" depends=\"init\">\n" +
+                "    <getModulePath moduleRefId=\"moduleRef\" outputRefId=\"path\"/>\n" +
+                "    <property name=\"plain.prop\" value=\"overridden\"/>\n" +
+                "    <property name=\"local.prop\" value=\"local\"/>\n" +
+                "  </target>\n" +
+                "  <target name=\"failingTarget\">\n" +
+                "    <fail message=\"Failed.\"/>\n" +
+                "  </target>\n" +
+                "</project>\n");
+        
+        project = new Project();
+        project.init();
+        project.setUserProperty("user.prop", "user");
+        project.setUserProperty(MagicNames.ANT_FILE, buildFile.getAbsolutePath());
+        ProjectHelper.configureProject(project, buildFile);
+        project.setProperty("parent.prop", "parent");
+        listener = new RecordingListener();
+        project.addBuildListener(listener);
+        
+        moduleLoader = new MockModuleLoader();
+        moduleLoader.addModule("foo/", "bar");
+        moduleLoader.addModule("bar/");
+        
+        task = new CallTargetForModules();
+        task.setProject(project);
+        task.init();
+        task.setInheritance("layered");
+        task.setModuleRefId("moduleRef");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+    }
+    
+    @Override
+    protected void tearDown()
+    {
+        TestFiles.delete(baseDir);
+        listener = null;
+        moduleLoader = null;
+        task = null;
+        project = null;
+        baseDir = null;
+    }
+    
+    public void testLayeredInheritance_InheritAll_InheritRefs()
+    {
+        final Object parentRef = new Path(project);
+        project.addReference("parentRef", parentRef);
+        
+        task.setTarget("moduleTarget");
+        task.setInheritAll(true);
+        task.setInheritRefs(true);
+        final ParamElement param = task.createParam();
+        param.setName("param.prop");
+        param.setValue("p");
+        
+        task.perform();
+        
+        assertEquals(2, listener.results.size());
+        final HashMap<String, Object> bar = listener.results.get(0);
+        final HashMap<String, Object> foo = listener.results.get(1);
+        assertEquals("bar/", bar.get("path"));
+        assertEquals("foo/", foo.get("path"));
+        assertNotSame(bar.get("project"), foo.get("project"));
+        for (final HashMap<String, Object> result : listener.results) {
+            assertTrue(result.get("project") instanceof LayeredProject);
+            assertEquals("plain", result.get("plain.prop"));
+            assertEquals("local", result.get("local.prop"));
+            assertEquals("init-p", result.get("init.prop"));
+            assertEquals("user", result.get("user.prop"));
+            assertEquals("p", result.get("param.prop"));
+            assertEquals("parent", result.get("parent.prop"));
+            assertEquals(baseDir.getAbsolutePath(), result.get("basedir"));
+            // The reference is shared rather than cloned.
+            assertSame(parentRef, result.get("parentRef"));
+        }
+        
+        assertEquals("plain", project.getProperty("plain.prop"));
+        assertNull(project.getProperty("local.prop"));
+        assertNull(project.getProperty("init.prop"));
+        assertNull(project.getProperty("param.prop"));
+        assertNull(project.getReference("path"));
+        assertNull(project.getReference("moduleRef"));
+    }
+    
+    public void testLayeredInheritance_NoInheritAll_NoInheritRefs()
+    {
+        project.addReference("parentRef", new Object());
+        final Object passedRef = new Object();
+        project.addReference("passedRef", passedRef);
+        
+        task.setTarget("moduleTarget");
+        task.setInheritAll(false);
+        task.setInheritRefs(false);
+        final Reference ref = new Reference();
+        ref.setProject(project);
+        ref.setRefId("passedRef");
+        ref.setToRefid("parentRef");
+        task.addReference(ref);
+        
+        task.perform();
+        
+        assertEquals(2, listener.results.size());
+        for (final HashMap<String, Object> result : listener.results) {
+            // The property is defined by the build file itself.
+            assertEquals("plain", result.get("plain.prop"));
+            assertNull(result.get("parent.prop"));
+            assertEquals("init-${param.prop}", result.get("init.prop"));
+            assertEquals("user", result.get("user.prop"));
+            assertNotNull(result.get("java.version"));
+            assertSame(passedRef, result.get("parentRef"));
+        }
+        assertEquals("plain", project.getProperty("plain.prop"));
+    }
+    
+    public void testCopyInheritance_ReferencesAreCloned()
+    {
+        final Object parentRef = new Path(project);
+        project.addReference("parentRef", parentRef);
+        
+        task.setInheritance("copy");
+        task.setTarget("moduleTarget");
+        task.setInheritRefs(true);
+        
+        task.perform();
+        
+        assertEquals(2, listener.results.size());
+        for (final HashMap<String, Object> result : listener.results) {
+            assertFalse(result.get("project") instanceof LayeredProject);
+            assertEquals("parent", result.get("parent.prop"));
+            assertNotNull(result.get("parentRef"));
+            assertNotSame(parentRef, result.get("parentRef"));
+        }
+    }
+    
+    public void testLayeredInheritance_TargetFails()
+    {
+        task.setTarget("failingTarget");
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertTrue(ex.getMessage().startsWith("Module 'bar/': "));
+            assertTrue(ex.getMessage().endsWith("Failed."));
+        }
+    }
+    
+    private static class RecordingListener extends RecordingBuildListener
+    {
+        public final ArrayList<HashMap<String, Object>> results = new ArrayList<HashMap<String, Object>>();
+        
+        @Override
+        public synchronized void targetFinished(final BuildEvent event)
+        {
+            if (!"moduleTarget".equals(event.getTarget().getName()) || event.getException() != null) {
+                return;
+            }
+            final Project p = event.getProject();
+            final HashMap<String, Object> result = new HashMap<String, Object>();
+            result.put("project", p);
+            result.put("path", p.getReference("path"));
+            result.put("parentRef", p.getReference("parentRef"));
+            for (final String name : new String[] {"plain.prop", "local.prop", "init.prop", "user.prop",
+                    "param.prop", "parent.prop", "java.version", "basedir"}) {
+                result.put(name, p.getProperty(name));
+            }
+            results.add(result);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.tools.ant.Project;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import antmodular.CallTargetForModules;
+
+public class CallTargetForModules_RemoteCacheTest extends TestCase
+{
+    private File tempDir;
+    private MockModuleLoader moduleLoader;
+    private RecordingBuildListener listener;
+    private CacheServer cacheServer;
+    private HttpServer server;
+    private String url;
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        tempDir = TestFiles.createTempDir("CallTargetForModules_RemoteCacheTest");
+        listener = new RecordingBuildListener();
+        
+        moduleLoader = new MockModuleLoader();
+        moduleLoader.addModule("foo/", "bar");
+        moduleLoader.addModule("bar/");
+        
+        cacheServer = new CacheServer();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/cache/", cacheServer);
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/cache";
+    }
+    
+    @Override
+    protected void tearDown()
+    {
+        server.stop(0);
+        TestFiles.delete(tempDir);
+        server = null;
+        cacheServer = null;
+        listener = null;
+        moduleLoader = null;
+        tempDir = null;
+        url = null;
+    }
+    
+    public void testRemoteCache_UploadAndFetch() throws Exception
+    {
+        createTask(createWorkspace("ws1")).perform();
+        assertEquals(Arrays.asList("bar/", "foo/"), listener.echoed);
+        assertEquals(2, cacheServer.gets.get());
+        // The uploads are finished when the task finishes.
+        assertEquals(2, cacheServer.puts.get());
+        assertEquals(2, cacheServer.entries.size());
+        
+        listener.echoed.clear();
+        final Project project = createWorkspace("ws2");
+        createTask(project).perform();
+        assertEquals(Arrays.asList(), listener.echoed);
+        assertEquals(4, cacheServer.gets.get());
+        assertEquals(2, cacheServer.puts.get());
+        assertEquals("result of foo/", TestFiles.readFile(new File(project.getBaseDir(), "foo/out/result.txt")));
+        assertEquals("result of bar/", TestFiles.readFile(new File(project.getBaseDir(), "bar/out/result.txt")));
+    }
+    
+    public void testRemoteCache_NoUpload() throws Exception
+    {
+        final CallTargetForModules task = createTask(createWorkspace("ws"));
+        task.setRemoteCacheUpload(false);
+        task.perform();
+        assertEquals(Arrays.asList("bar/", "foo/"), listener.echoed);
+        assertEquals(2, cacheServer.gets.get());
+        assertEquals(0, cacheServer.puts.get());
+    }
+    
+    public void testRemoteCache_ServerError() throws Exception
+    {
+        cacheServer.failing = true;
+        final Project project = createWorkspace("ws");
+        createTask(project).perform();
+        assertEquals(Arrays.asList("bar/", "foo/"), listener.echoed);
+        assertEquals(2, cacheServer.gets.get());
+        assertEquals(2, cacheServer.puts.get());
+        assertEquals(4, listener.warnings.size());
+        assertTrue(listener.warnings.get(0).startsWith("Unable to fetch the outputs of the module 'bar/'"));
+        final String uploadWarning = listener.warnings.get(3);
+        assertTrue(uploadWarning.startsWith(
+                "Unable to upload the outputs of the module 'foo/' to the remote cache: Unexpected response from '" +
+                url + "/"));
+        assertTrue(uploadWarning.endsWith("': 500 Internal Server Error"));
+        assertEquals("result of foo/", TestFiles.readFile(new File(project.getBaseDir(), "foo/out/result.txt")));
+    }
+    
+    public void testRemoteCache_FetchedOutputsStoredLocally() throws Exception
+    {
+        final File cacheDir = new File(tempDir, "cache");
+        createTask(createWorkspace("ws1")).perform();
+        
+        listener.echoed.clear();
+        final CallTargetForModules task2 = createTask(createWorkspace("ws2"));
+        task2.setBuildCacheDir(cacheDir);
+        task2.perform();
+        assertEquals(Arrays.asList(), listener.echoed);
+        assertEquals(4, cacheServer.gets.get());
+        
+        // The local cache is checked before the remote one.
+        final Project project = createWorkspace("ws3");
+        final CallTargetForModules task3 = createTask(project);
+        task3.setBuildCacheDir(cacheDir);
+        task3.perform();
+        assertEquals(Arrays.asList(), listener.echoed);
+        assertEquals(4, cacheServer.gets.get());
+        assertEquals("result of foo/", TestFiles.readFile(new File(project.getBaseDir(), "foo/out/result.txt")));
+    }
+    
+    public void testExtract_ValidEntry() throws Exception
+    {
+        final File dir = new File(tempDir, "dir");
+        RemoteBuildCache.extract(new ByteArrayInputStream(createArchive("out/a/result.txt")), dir);
+        assertEquals("content", TestFiles.readFile(new File(dir, "out/a/result.txt")));
+    }
+    
+    public void testExtract_EntryOutsideDirectory() throws Exception
+    {
+        final File dir = new File(tempDir, "dir");
+        final String[] invalidEntries = {"../evil.txt", "out/../../evil.txt", "/evil.txt", "C:/evil.txt",
+                "out\\..\\..\\evil.txt", "out/"};
+        for (final String entry : invalidEntries) {
+            try {
+                RemoteBuildCache.extract(new ByteArrayInputStream(createArchive(entry)), dir);
+                fail(entry);
+            }
+            catch (IOException ex) {
+                assertEquals("Invalid archive entry: '" + entry + "'.", ex.getMessage());
+            }
+        }
+        assertFalse(new File(tempDir, "evil.txt").exists());
+    }
+    
+    private static byte[] createArchive(final String entryName) throws IOException
+    {
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        final ZipOutputStream zip = new ZipOutputStream(buf);
+        zip.putNextEntry(new ZipEntry(entryName));
+        zip.write("content".getBytes("utf-8"));
+        zip.closeEntry();
+        zip.close();
+        return buf.toByteArray();
+    }
+    
+    private Project createWorkspace(final String name) throws IOException
+    {
+        return CallTargetForModulesFixture.createWorkspace(new File(tempDir, name), listener);
+    }
+    
+    private CallTargetForModules createTask(final Project project)
+    {
+        final CallTargetForModules task = CallTargetForModulesFixture.createTask(project, moduleLoader, "foo");
+        task.setRemoteCacheUrl(url);
+        task.setRemoteCacheTimeout(5000);
+        task.createOutputs().setIncludes("out/**");
+        return task;
+    }
+    
+    
+    
+    // A stand-in for a remote cache server which keeps the archives in memory.
+    private static class CacheServer implements HttpHandler
+    {
+        public final HashMap<String, byte[]> entries = new HashMap<String, byte[]>();
+        public final AtomicInteger gets = new AtomicInteger();
+        public final AtomicInteger puts = new AtomicInteger();
+        public volatile boolean failing;
+        
+        public void handle(final HttpExchange exchange) throws IOException
+        {
+            try {
+                final String key = exchange.getRequestURI().getPath().substring("/cache/".length());
+                if ("GET".equals(exchange.getRequestMethod())) {
+                    gets.incrementAndGet();
+                    final byte[] entry;
+                    synchronized (entries) {
+                        entry = entries.get(key);
+                    }
+                    if (failing) {
+                        exchange.sendResponseHeaders(500, -1);
+                    } else if (entry == null) {
+                        exchange.sendResponseHeaders(404, -1);
+                    } else {
+                        exchange.sendResponseHeaders(200, entry.length);
+                        final OutputStream out = exchange.getResponseBody();
+                        out.write(entry);
+                        out.close();
+                    }
+                } else if ("PUT".equals(exchange.getRequestMethod())) {
+                    puts.incrementAndGet();
+                    final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+                    final InputStream in = exchange.getRequestBody();
+                    final byte[] b = new byte[4096];
+                    int n;
+                    while ((n = in.read(b)) != -1) {
+                        buf.write(b, 0, n);
+                    }
+                    if (failing) {
+                        exchange.sendResponseHeaders(500, -1);
+                    } else {
+                        synchronized (entries) {
+                            entries.put(key, buf.toByteArray());
+                        }
+                        exchange.sendResponseHeaders(201, -1);
+                    }
+                } else {
+                    exchange.sendResponseHeaders(405, -1);
+                }
+            }
+            finally {
+                exchange.close();
+            }
+        }
+    }
+}
@@ -23,6 +23,12 @@
 package antmodular;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -40,6 +46,7 @@ import org.apache.tools.ant.types.PropertySet;
 
 import antmodular.CallTargetForModules;
 import antmodular.ModuleInfo;
+import antmodular.ModuleSet;
 import antmodular.CallTargetForModules.ModuleElement;
 import antmodular.CallTargetForModules.ParamElement;
 
@@ -663,6 +670,83 @@ public class CallTargetForModules_SerialUseTest extends TestCase
                         "afc.qwerty", "board", "hello", "universe"));
     }
     
+    public void testSerialRun_MultipleModules_WithUserParamsFromUrl_UrlIsReadOnce()
+            throws Exception
+    {
+        final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+        final ModuleInfo moduleInfo2 = new ModuleInfo("bar/", moduleLoader);
+        moduleInfo1.addDependency("bar");
+        moduleLoader.modules.put("foo/", moduleInfo1);
+        moduleLoader.modules.put("bar/", moduleInfo2);
+        
+        final MockCallTargetTask task1 = new MockCallTargetTask(project);
+        final MockCallTargetTask task2 = new MockCallTargetTask(project);
+        project.tasks.add(task1);
+        project.tasks.add(task2);
+        
+        task.init();
+        task.setTarget("testTarget");
+        task.setModuleRefId("moduleRef");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        
+        final URL fileUrl = new File("test/data/CallTargetForModules/params_for_test.properties").toURI().toURL();
+        final int[] openCount = new int[1];
+        final URL url = new URL(fileUrl.getProtocol(), null, -1, fileUrl.getFile(), new URLStreamHandler()
+        {
+            @Override
+            protected URLConnection openConnection(final URL u) throws IOException
+            {
+                ++openCount[0];
+                return fileUrl.openConnection();
+            }
+        });
+        final ParamElement param1 = task.createParam();
+        param1.setUrl(url);
+        param1.setPrefix("afc");
+        
+        project.setProperty("123", "456");
+        
+        task.perform();
+        
+        assertEquals(1, openCount[0]);
+        TestUtil.assertCallTargetState(task1, true, "testTarget", true, false, "moduleRef", moduleInfo2,
+                TestUtil.<String, Object>map("afc.hello", "world", "afc.John", "Smith", "123", "456",
+                        "afc.qwerty", "board"));
+        TestUtil.assertCallTargetState(task2, true, "testTarget", true, false, "moduleRef", moduleInfo1,
+                TestUtil.<String, Object>map("afc.hello", "world", "afc.John", "Smith", "123", "456",
+                        "afc.qwerty", "board"));
+    }
+    
+    public void testSerialRun_MultipleModules_WithUserParamsFromMissingFile()
+    {
+        final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+        final ModuleInfo moduleInfo2 = new ModuleInfo("bar/", moduleLoader);
+        moduleLoader.modules.put("foo/", moduleInfo1);
+        moduleLoader.modules.put("bar/", moduleInfo2);
+        
+        final MockCallTargetTask task1 = new MockCallTargetTask(project);
+        final MockCallTargetTask task2 = new MockCallTargetTask(project);
+        project.tasks.add(task1);
+        project.tasks.add(task2);
+        
+        task.init();
+        task.setTarget("testTarget");
+        task.createModule().setPath("foo");
+        task.createModule().setPath("bar");
+        task.addConfigured(moduleLoader);
+        
+        final ParamElement param1 = task.createParam();
+        param1.setFile(new File("test/data/CallTargetForModules/no_such_file.properties"));
+        
+        project.setProperty("123", "456");
+        
+        task.perform();
+        
+        TestUtil.assertCallTargetState(task1, true, "testTarget", true, false, TestUtil.<String, Object>map("123", "456"));
+        TestUtil.assertCallTargetState(task2, true, "testTarget", true, false, TestUtil.<String, Object>map("123", "456"));
+    }
+    
     public void testSerialRun_SingleModule_WithUserParamsFromResourceWithClasspath_AndInheritedPropertiesByDefault()
     {
         final ModuleInfo moduleInfo = new ModuleInfo("foo/", moduleLoader);
@@ -2379,4 +2463,116 @@ public class CallTargetForModules_SerialUseTest extends TestCase
         TestUtil.assertCallTargetState(task1, true, "testTarget", true, false, "", moduleInfo,
                 Collections.<String, Object>singletonMap("123", "456"));
     }
+    
+    public void testSerialRun_ModuleSet() throws Exception
+    {
+        final File dir = File.createTempFile("CallTargetForModules_SerialUseTest", "");
+        dir.delete();
+        try {
+            for (final String modulePath : Arrays.asList("a", "b", "a/c")) {
+                final File manifest = new File(dir, modulePath + "/META-INF/MANIFEST.MF");
+                manifest.getParentFile().mkdirs();
+                manifest.createNewFile();
+            }
+            final String pathA = new File(dir, "a").getPath() + '/';
+            final String pathB = new File(dir, "b").getPath() + '/';
+            final ModuleInfo moduleA = new ModuleInfo(pathA, moduleLoader);
+            moduleA.addDependency(pathB);
+            final ModuleInfo moduleB = new ModuleInfo(pathB, moduleLoader);
+            moduleLoader.modules.put(pathA, moduleA);
+            moduleLoader.modules.put(pathB, moduleB);
+            
+            final MockCallTargetTask task1 = new MockCallTargetTask(project);
+            project.tasks.add(task1);
+            final MockCallTargetTask task2 = new MockCallTargetTask(project);
+            project.tasks.add(task2);
+            
+            task.init();
+            task.setTarget("testTarget");
+            task.setModuleRefId("moduleRef");
+            final ModuleSet moduleSet = task.createModuleset();
+            moduleSet.setDir(dir);
+            moduleSet.setTarget("moduleSetTarget");
+            moduleSet.setThreadCount(2);
+            task.addConfigured(moduleLoader);
+            
+            task.perform();
+            
+            TestUtil.assertCallTargetState(task1, true, "moduleSetTarget", true, false, "moduleRef", moduleB,
+                    TestUtil.<String, Object>map());
+            TestUtil.assertCallTargetState(task2, true, "moduleSetTarget", true, false, "moduleRef", moduleA,
+                    TestUtil.<String, Object>map());
+        }
+        finally {
+            delete(dir);
+        }
+    }
+    
+    public void testSerialRun_MetricsFile() throws Exception
+    {
+        final File metricsFile = File.createTempFile("CallTargetForModules_SerialUseTest", ".json");
+        try {
+            final ModuleInfo moduleInfo = new ModuleInfo("foo/", moduleLoader);
+            moduleInfo.addDependency("bar");
+            final ModuleInfo moduleInfo2 = new ModuleInfo("bar/", moduleLoader);
+            moduleLoader.modules.put("foo/", moduleInfo);
+            moduleLoader.modules.put("bar/", moduleInfo2);
+            
+            final MockCallTargetTask task1 = new MockCallTargetTask(project);
+            project.tasks.add(task1);
+            final MockCallTargetTask task2 = new MockCallTargetTask(project);
+            project.tasks.add(task2);
+            
+            task.init();
+            task.setTarget("testTarget");
+            task.createModule().setPath("foo");
+            task.createModule().setPath("bar");
+            task.addConfigured(moduleLoader);
+            task.setMetricsFile(metricsFile);
+            
+            task.perform();
+            
+            assertTrue(task1.executed);
+            assertTrue(task2.executed);
+            
+            final String metrics = readFile(metricsFile);
+            assertTrue(metrics, metrics.startsWith("{\"phases\":{\"normalise\":{\"count\":2,"));
+            assertTrue(metrics, metrics.contains("\"registry\":{\"hits\":1,\"misses\":2,\"negativeCacheHits\":0," +
+                    "\"loadFailures\":0}"));
+            assertTrue(metrics, metrics.contains("\"loaderCache\":{\"hits\":0,\"misses\":0}"));
+            assertTrue(metrics, metrics.contains("{\"path\":\"foo/\",\"nanos\":"));
+            assertTrue(metrics, metrics.contains("{\"path\":\"bar/\",\"nanos\":"));
+        }
+        finally {
+            metricsFile.delete();
+        }
+    }
+    
+    private static String readFile(final File file) throws IOException
+    {
+        final InputStreamReader in = new InputStreamReader(new FileInputStream(file), "utf-8");
+        try {
+            final StringBuilder buf = new StringBuilder();
+            final char[] chars = new char[1024];
+            int n;
+            while ((n = in.read(chars)) != -1) {
+                buf.append(chars, 0, n);
+            }
+            return buf.toString();
+        }
+        finally {
+            in.close();
+        }
+    }
+    
+    private static void delete(final File file)
+    {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
 }
@@ -0,0 +1,254 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+
+import antmodular.ExportModuleGraph;
+import antmodular.ModuleInfo;
+
+public class ExportModuleGraphTest extends TestCase
+{
+    private ExportModuleGraph task;
+    private MockModuleLoader moduleLoader;
+    private File file;
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        final Project project = new Project();
+        task = new ExportModuleGraph();
+        task.setProject(project);
+        moduleLoader = new MockModuleLoader();
+        file = File.createTempFile("ExportModuleGraphTest", ".out");
+    }
+    
+    @Override
+    protected void tearDown()
+    {
+        file.delete();
+        file = null;
+        moduleLoader = null;
+        task = null;
+    }
+    
+    public void testDot_SingleModule() throws Exception
+    {
+        moduleLoader.modules.put("foo/", new ModuleInfo("foo/", moduleLoader));
+        
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.setFile(file);
+        task.execute();
+        
+        assertEquals("digraph modules {\n    \"foo/\" [];\n}\n", TestFiles.readFile(file));
+    }
+    
+    public void testDot_DependenciesAndAttributes() throws Exception
+    {
+        final ModuleInfo foo = new ModuleInfo("foo/", moduleLoader);
+        foo.addDependency("bar/");
+        foo.addDependency("baz/");
+        foo.addAttribute("Version", "1.0");
+        foo.addAttribute("Other", "x");
+        final ModuleInfo bar = new ModuleInfo("bar/", moduleLoader);
+        bar.addAttribute("Version", "2.\"0\"");
+        final ModuleInfo baz = new ModuleInfo("baz/", moduleLoader);
+        baz.addDependency("bar/");
+        moduleLoader.modules.put("foo/", foo);
+        moduleLoader.modules.put("bar/", bar);
+        moduleLoader.modules.put("baz/", baz);
+        
+        task.createModule().setPath("foo");
+        task.createAttribute().setName("Version");
+        task.addConfigured(moduleLoader);
+        task.setFile(file);
+        task.execute();
+        
+        assertEquals("digraph modules {\n" +
+                "    \"bar/\" [\"Version\"=\"2.\\\"0\\\"\"];\n" +
+                "    \"baz/\" [];\n" +
+                "    \"baz/\" -> \"bar/\";\n" +
+                "    \"foo/\" [\"Version\"=\"1.0\"];\n" +
+                "    \"foo/\" -> \"bar/\";\n" +
+                "    \"foo/\" -> \"baz/\";\n" +
+                "}\n", TestFiles.readFile(file));
+    }
+    
+    public void testDot_TransitiveReduction() throws Exception
+    {
+        final ModuleInfo foo = new ModuleInfo("foo/", moduleLoader);
+        foo.addDependency("bar/");
+        foo.addDependency("baz/");
+        final ModuleInfo bar = new ModuleInfo("bar/", moduleLoader);
+        final ModuleInfo baz = new ModuleInfo("baz/", moduleLoader);
+        baz.addDependency("qux/");
+        final ModuleInfo qux = new ModuleInfo("qux/", moduleLoader);
+        qux.addDependency("bar/");
+        moduleLoader.modules.put("foo/", foo);
+        moduleLoader.modules.put("bar/", bar);
+        moduleLoader.modules.put("baz/", baz);
+        moduleLoader.modules.put("qux/", qux);
+        
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.setFile(file);
+        task.setTransitiveReduction(true);
+        task.execute();
+        
+        assertEquals("digraph modules {\n" +
+                "    \"bar/\" [];\n" +
+                "    \"baz/\" [];\n" +
+                "    \"baz/\" -> \"qux/\";\n" +
+                "    \"foo/\" [];\n" +
+                "    \"foo/\" -> \"baz/\";\n" +
+                "    \"qux/\" [];\n" +
+                "    \"qux/\" -> \"bar/\";\n" +
+                "}\n", TestFiles.readFile(file));
+    }
+    
+    public void testTransitiveReduction_CyclicDependencies() throws Exception
+    {
+        final ModuleInfo foo = new ModuleInfo("foo/", moduleLoader);
+        foo.addDependency("bar/");
+        final ModuleInfo bar = new ModuleInfo("bar/", moduleLoader);
+        bar.addDependency("foo/");
+        moduleLoader.modules.put("foo/", foo);
+        moduleLoader.modules.put("bar/", bar);
+        
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.setFile(file);
+        task.setTransitiveReduction(true);
+        
+        try {
+            task.execute();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertTrue(ex.getCause() instanceof CyclicDependenciesDetectedException);
+        }
+    }
+    
+    public void testDot_CyclicDependencies() throws Exception
+    {
+        final ModuleInfo foo = new ModuleInfo("foo/", moduleLoader);
+        foo.addDependency("bar/");
+        final ModuleInfo bar = new ModuleInfo("bar/", moduleLoader);
+        bar.addDependency("foo/");
+        moduleLoader.modules.put("foo/", foo);
+        moduleLoader.modules.put("bar/", bar);
+        
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.setFile(file);
+        task.execute();
+        
+        assertEquals("digraph modules {\n" +
+                "    \"bar/\" [];\n" +
+                "    \"bar/\" -> \"foo/\";\n" +
+                "    \"foo/\" [];\n" +
+                "    \"foo/\" -> \"bar/\";\n" +
+                "}\n", TestFiles.readFile(file));
+    }
+    
+    public void testJson_DependenciesAndAttributes() throws Exception
+    {
+        final ModuleInfo foo = new ModuleInfo("foo/", moduleLoader);
+        foo.addDependency("bar/");
+        foo.addAttribute("Version", "1.0\n");
+        final ModuleInfo bar = new ModuleInfo("bar/", moduleLoader);
+        moduleLoader.modules.put("foo/", foo);
+        moduleLoader.modules.put("bar/", bar);
+        
+        task.createModule().setPath("foo");
+        task.createAttribute().setName("Version");
+        task.addConfigured(moduleLoader);
+        task.setFile(file);
+        task.setFormat("json");
+        task.execute();
+        
+        assertEquals("{\"modules\": [\n" +
+                "  {\"path\": \"bar/\", \"attributes\": {}, \"dependencies\": []},\n" +
+                "  {\"path\": \"foo/\", \"attributes\": {\"Version\": \"1.0\\n\"}, \"dependencies\": [\"bar/\"]}\n" +
+                "]}\n", TestFiles.readFile(file));
+    }
+    
+    public void testUnsupportedFormat()
+    {
+        try {
+            task.setFormat("xml");
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("Unsupported graph format: 'xml'. Expected: 'dot' or 'json'.", ex.getMessage());
+        }
+    }
+    
+    public void testFileUndefined()
+    {
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        
+        try {
+            task.execute();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The attribute 'file' is undefined.", ex.getMessage());
+        }
+    }
+    
+    public void testNoModules()
+    {
+        task.addConfigured(moduleLoader);
+        task.setFile(file);
+        
+        try {
+            task.execute();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("At least one <module> element is required.", ex.getMessage());
+        }
+    }
+    
+    public void testModuleLoaderUndefined()
+    {
+        task.createModule().setPath("foo");
+        task.setFile(file);
+        
+        try {
+            task.execute();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("No module loader is defined.", ex.getMessage());
+        }
+    }
+}
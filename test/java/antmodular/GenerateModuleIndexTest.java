@@ -0,0 +1,358 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import junit.framework.TestCase;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+
+import antmodular.GenerateModuleIndex;
+import antmodular.ModuleIndex;
+import antmodular.ModuleInfo;
+import antmodular.ModuleNotLoadedException;
+import antmodular.ValidatingModuleLoader;
+
+public class GenerateModuleIndexTest extends TestCase
+{
+    private File baseDir;
+    private File indexFile;
+    private Project project;
+    private CountingModuleLoader moduleLoader;
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        baseDir = TestFiles.createTempDir("GenerateModuleIndexTest");
+        indexFile = new File(baseDir, "index/modules.idx");
+        project = new Project();
+        project.setBaseDir(baseDir);
+        moduleLoader = new CountingModuleLoader();
+        
+        final ModuleInfo foo = new ModuleInfo("foo/", moduleLoader);
+        foo.addDependency("bar/");
+        foo.addAttribute("1", "2");
+        moduleLoader.modules.put("foo/", foo);
+        moduleLoader.modules.put("bar/", new ModuleInfo("bar/", moduleLoader));
+        moduleLoader.modules.put("baz/", new ModuleInfo("baz/", moduleLoader));
+        moduleLoader.validityKeys.put("foo/", "1");
+        moduleLoader.validityKeys.put("bar/", "1");
+        moduleLoader.validityKeys.put("baz/", "1");
+    }
+    
+    @Override
+    protected void tearDown()
+    {
+        TestFiles.delete(baseDir);
+        moduleLoader = null;
+        project = null;
+        indexFile = null;
+        baseDir = null;
+    }
+    
+    public void testGenerateIndex() throws Exception
+    {
+        generate(moduleLoader, false, "foo");
+        
+        assertTrue(indexFile.isFile());
+        assertEquals(TestUtil.set("foo/", "bar/"), new HashSet<String>(moduleLoader.loadedPaths));
+        
+        final ModuleIndex index = ModuleIndex.read(indexFile);
+        assertEquals(TestUtil.set("foo/", "bar/"), index.getPaths());
+        assertEquals("1", index.getValidityKey("foo/"));
+        final ModuleInfo foo = index.getModule("foo/", moduleLoader, project);
+        assertEquals("foo/", foo.getPath());
+        assertEquals(TestUtil.set("bar/"), foo.getDependencies());
+        assertEquals(TestUtil.map("1", "2"), foo.getAttributes());
+        final ModuleInfo bar = index.getModule("bar/", moduleLoader, project);
+        assertEquals("bar/", bar.getPath());
+        assertEquals(TestUtil.set(), bar.getDependencies());
+        assertEquals(TestUtil.map(), bar.getAttributes());
+    }
+    
+    public void testIndexUpToDate() throws Exception
+    {
+        generate(moduleLoader, false, "foo");
+        final long lastModified = indexFile.lastModified();
+        moduleLoader.loadedPaths.clear();
+        
+        generate(moduleLoader, false, "foo");
+        
+        assertTrue(moduleLoader.loadedPaths.isEmpty());
+        assertEquals(lastModified, indexFile.lastModified());
+    }
+    
+    public void testIndexUpToDate_SubsetOfModules() throws Exception
+    {
+        generate(moduleLoader, false, "foo");
+        moduleLoader.loadedPaths.clear();
+        
+        generate(moduleLoader, false, "bar");
+        
+        assertTrue(moduleLoader.loadedPaths.isEmpty());
+    }
+    
+    public void testIndexRegenerated_ModuleChanged() throws Exception
+    {
+        generate(moduleLoader, false, "foo");
+        moduleLoader.loadedPaths.clear();
+        moduleLoader.validityKeys.put("bar/", "2");
+        final ModuleInfo bar = new ModuleInfo("bar/", moduleLoader);
+        bar.addAttribute("3", "4");
+        moduleLoader.modules.put("bar/", bar);
+        
+        generate(moduleLoader, false, "foo");
+        
+        assertEquals(2, moduleLoader.loadedPaths.size());
+        assertEquals(TestUtil.map("3", "4"), readModule("bar/").getAttributes());
+    }
+    
+    public void testIndexRegenerated_ModuleRemoved() throws Exception
+    {
+        generate(moduleLoader, false, "foo");
+        moduleLoader.loadedPaths.clear();
+        moduleLoader.validityKeys.remove("bar/");
+        
+        generate(moduleLoader, false, "foo");
+        
+        assertEquals(2, moduleLoader.loadedPaths.size());
+    }
+    
+    public void testIndexRegenerated_NewRootModule() throws Exception
+    {
+        generate(moduleLoader, false, "foo");
+        moduleLoader.loadedPaths.clear();
+        
+        generate(moduleLoader, false, "foo", "baz");
+        
+        assertEquals(3, moduleLoader.loadedPaths.size());
+        assertEquals("baz/", readModule("baz/").getPath());
+    }
+    
+    public void testIndexRegenerated_Forced() throws Exception
+    {
+        generate(moduleLoader, false, "foo");
+        moduleLoader.loadedPaths.clear();
+        
+        generate(moduleLoader, true, "foo");
+        
+        assertEquals(2, moduleLoader.loadedPaths.size());
+    }
+    
+    public void testIndexRegenerated_NonValidatingLoader() throws Exception
+    {
+        final MockModuleLoader plainLoader = new MockModuleLoader();
+        plainLoader.modules.put("foo/", new ModuleInfo("foo/", plainLoader));
+        generate(plainLoader, false, "foo");
+        indexFile.setLastModified(indexFile.lastModified() - 10000);
+        final long lastModified = indexFile.lastModified();
+        
+        generate(plainLoader, false, "foo");
+        
+        assertTrue(indexFile.lastModified() != lastModified);
+    }
+    
+    public void testIndexRegenerated_CorruptedIndex() throws Exception
+    {
+        generate(moduleLoader, false, "foo");
+        moduleLoader.loadedPaths.clear();
+        indexFile.delete();
+        indexFile.createNewFile();
+        
+        generate(moduleLoader, false, "foo");
+        
+        assertEquals(2, moduleLoader.loadedPaths.size());
+        assertEquals("foo/", readModule("foo/").getPath());
+    }
+    
+    public void testModuleNotLoaded()
+    {
+        moduleLoader.modules.put("bar/", new ModuleNotLoadedException("error"));
+        
+        try {
+            generate(moduleLoader, false, "foo");
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("error", ex.getMessage());
+        }
+        assertFalse(indexFile.exists());
+    }
+    
+    public void testUnsupportedAttribute()
+    {
+        ((ModuleInfo) moduleLoader.modules.get("bar/")).addAttribute("x", Integer.valueOf(1));
+        
+        try {
+            generate(moduleLoader, false, "foo");
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The module 'bar/' has an attribute that cannot be stored in the module index. " +
+                    "Only string and path attributes are supported.", ex.getMessage());
+        }
+        assertFalse(indexFile.exists());
+    }
+    
+    public void testFileUndefined()
+    {
+        final GenerateModuleIndex task = createTask();
+        task.addConfigured(moduleLoader);
+        task.createModule().setPath("foo");
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The attribute 'file' is undefined.", ex.getMessage());
+        }
+    }
+    
+    public void testModuleLoaderUndefined()
+    {
+        final GenerateModuleIndex task = createTask();
+        task.setFile(indexFile);
+        task.createModule().setPath("foo");
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("No module loader is defined.", ex.getMessage());
+        }
+    }
+    
+    public void testMultipleModuleLoaders()
+    {
+        final GenerateModuleIndex task = createTask();
+        task.addConfigured(moduleLoader);
+        
+        try {
+            task.addConfigured(new MockModuleLoader());
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("Only a single module loader element is allowed.", ex.getMessage());
+        }
+    }
+    
+    public void testNullModuleLoader()
+    {
+        final GenerateModuleIndex task = createTask();
+        
+        try {
+            task.addConfigured(null);
+            fail();
+        }
+        catch (NullPointerException ex) {
+            assertEquals("moduleLoader", ex.getMessage());
+        }
+    }
+    
+    public void testNoModules()
+    {
+        final GenerateModuleIndex task = createTask();
+        task.setFile(indexFile);
+        task.addConfigured(moduleLoader);
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("At least one <module> element is required.", ex.getMessage());
+        }
+    }
+    
+    public void testModuleElementWithNoPath()
+    {
+        final GenerateModuleIndex task = createTask();
+        task.setFile(indexFile);
+        task.addConfigured(moduleLoader);
+        task.createModule();
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("There is a <module> element with the attribute 'path' undefined.", ex.getMessage());
+        }
+    }
+    
+    private GenerateModuleIndex createTask()
+    {
+        final GenerateModuleIndex task = new GenerateModuleIndex();
+        task.setProject(project);
+        task.init();
+        return task;
+    }
+    
+    private void generate(final MockModuleLoader loader, final boolean force, final String... paths)
+    {
+        final GenerateModuleIndex task = createTask();
+        task.setFile(indexFile);
+        task.setForce(force);
+        task.addConfigured(loader);
+        for (final String path : paths) {
+            task.createModule().setPath(path);
+        }
+        task.perform();
+    }
+    
+    private ModuleInfo readModule(final String normalisedPath) throws Exception
+    {
+        return ModuleIndex.read(indexFile).getModule(normalisedPath, moduleLoader, project);
+    }
+    
+    private static class CountingModuleLoader extends MockModuleLoader implements ValidatingModuleLoader
+    {
+        public final ArrayList<String> loadedPaths = new ArrayList<String>();
+        public final HashMap<String, String> validityKeys = new HashMap<String, String>();
+        
+        // Does nothing, just prevents synthetic garbage to be created by a java compiler.
+        public CountingModuleLoader()
+        {
+        }
+        
+        @Override
+        public ModuleInfo loadModule(final String path) throws ModuleNotLoadedException
+        {
+            loadedPaths.add(path);
+            return super.loadModule(path);
+        }
+        
+        public String getValidityKey(final String normalisedPath)
+        {
+            assertNotNull(normalisedPath);
+            return validityKeys.get(normalisedPath);
+        }
+    }
+}
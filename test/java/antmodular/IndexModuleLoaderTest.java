@@ -0,0 +1,256 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.Path;
+
+import antmodular.GenerateModuleIndex;
+import antmodular.IndexModuleLoader;
+import antmodular.ManifestModuleLoader;
+import antmodular.ModuleInfo;
+import antmodular.ModuleNotLoadedException;
+
+public class IndexModuleLoaderTest extends TestCase
+{
+    private File baseDir;
+    private File indexFile;
+    private Project project;
+    private ManifestModuleLoader manifestLoader;
+    private IndexModuleLoader loader;
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        baseDir = TestFiles.createTempDir("IndexModuleLoaderTest");
+        indexFile = new File(baseDir, "modules.idx");
+        project = new Project();
+        project.setBaseDir(baseDir);
+        manifestLoader = new ManifestModuleLoader();
+        manifestLoader.setProject(project);
+        manifestLoader.createClasspathAttribute().setName("Class-Path");
+        loader = new IndexModuleLoader();
+        loader.setProject(project);
+        loader.setFile(indexFile);
+        
+        writeManifest("foo", "Manifest-Version: 1.0\nDepends: bar baz/qux\nClass-Path: lib/a.jar lib/b%20c.jar\n" +
+                "Build-Number: 1\n\n");
+        writeManifest("bar", "Manifest-Version: 1.0\n\n");
+        writeManifest("baz/qux", "Manifest-Version: 1.0\nDepends: bar\n\n");
+    }
+    
+    @Override
+    protected void tearDown()
+    {
+        TestFiles.delete(baseDir);
+        loader = null;
+        manifestLoader = null;
+        project = null;
+        indexFile = null;
+        baseDir = null;
+    }
+    
+    public void testLoadModules() throws Exception
+    {
+        generateIndex();
+        
+        for (final String path : Arrays.asList("foo", "bar", "baz/qux")) {
+            final ModuleInfo expected = manifestLoader.loadModule(path);
+            final ModuleInfo actual = loader.loadModule(path);
+            assertEquals(expected.getPath(), actual.getPath());
+            assertEquals(expected.getDependencies(), actual.getDependencies());
+            assertEquals(expected.getAttributes().keySet(), actual.getAttributes().keySet());
+            for (final Map.Entry<String, Object> entry : expected.getAttributes().entrySet()) {
+                final Object expectedValue = entry.getValue();
+                final Object actualValue = actual.getAttributes().get(entry.getKey());
+                if (expectedValue instanceof Path) {
+                    assertTrue(actualValue instanceof Path);
+                    assertEquals(Arrays.asList(((Path) expectedValue).list()),
+                            Arrays.asList(((Path) actualValue).list()));
+                } else {
+                    assertEquals(expectedValue, actualValue);
+                }
+            }
+        }
+    }
+    
+    public void testLoadModule_NonNormalisedPath() throws Exception
+    {
+        generateIndex();
+        
+        final ModuleInfo moduleInfo = loader.loadModule("baz/../foo/");
+        
+        assertEquals("foo", moduleInfo.getPath());
+        assertEquals(TestUtil.set("bar", "baz/qux"), moduleInfo.getDependencies());
+        assertEquals("1", moduleInfo.getAttributes().get("Build-Number"));
+    }
+    
+    public void testLoadModule_ModuleNotInIndex() throws Exception
+    {
+        generateIndex();
+        
+        try {
+            loader.loadModule("quux");
+            fail();
+        }
+        catch (ModuleNotLoadedException ex) {
+            assertEquals("The module 'quux' is not found in the module index ('" + indexFile + "').",
+                    ex.getMessage());
+        }
+    }
+    
+    public void testLoadModule_IndexIsReadOnce() throws Exception
+    {
+        generateIndex();
+        loader.loadModule("foo");
+        indexFile.delete();
+        
+        assertEquals("bar", loader.loadModule("bar").getPath());
+    }
+    
+    public void testIndexRegeneratedIfManifestChanged() throws Exception
+    {
+        generateIndex();
+        writeManifest("bar", "Manifest-Version: 1.0\nBuild-Number: 2\n\n");
+        new File(baseDir, "bar/META-INF/MANIFEST.MF").setLastModified(indexFile.lastModified() + 10000);
+        
+        generateIndex();
+        
+        assertEquals("2", loader.loadModule("bar").getAttributes().get("Build-Number"));
+    }
+    
+    public void testNormalisePath()
+    {
+        assertEquals("foo/bar", loader.normalisePath("foo/bar/"));
+        assertEquals(".", loader.normalisePath(""));
+    }
+    
+    public void testNormalisePath_NullPath()
+    {
+        try {
+            loader.normalisePath(null);
+            fail();
+        }
+        catch (NullPointerException ex) {
+            // expected
+        }
+    }
+    
+    public void testFileUndefined() throws Exception
+    {
+        loader.setFile(null);
+        
+        try {
+            loader.loadModule("foo");
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The attribute 'file' is undefined.", ex.getMessage());
+        }
+    }
+    
+    public void testIndexFileDoesNotExist() throws Exception
+    {
+        try {
+            loader.loadModule("foo");
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The module index file '" + indexFile + "' does not exist.", ex.getMessage());
+        }
+    }
+    
+    public void testNotIndexFile() throws Exception
+    {
+        write(indexFile, "Manifest-Version: 1.0\n\n");
+        
+        try {
+            loader.loadModule("foo");
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("Unable to read the module index file '" + indexFile + "': '" + indexFile +
+                    "' is not a module index file.", ex.getMessage());
+        }
+    }
+    
+    public void testTruncatedIndexFile() throws Exception
+    {
+        generateIndex();
+        final RandomAccessFile file = new RandomAccessFile(indexFile, "rw");
+        try {
+            file.setLength(20);
+        }
+        finally {
+            file.close();
+        }
+        
+        try {
+            loader.loadModule("foo");
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("Unable to read the module index file '" + indexFile + "': The module index file '" +
+                    indexFile + "' is truncated.", ex.getMessage());
+        }
+    }
+    
+    private void generateIndex()
+    {
+        final GenerateModuleIndex task = new GenerateModuleIndex();
+        task.setProject(project);
+        task.init();
+        task.setFile(indexFile);
+        task.addConfigured(manifestLoader);
+        task.createModule().setPath("foo");
+        task.perform();
+    }
+    
+    private void writeManifest(final String modulePath, final String content) throws IOException
+    {
+        final File manifestFile = new File(baseDir, modulePath + "/META-INF/MANIFEST.MF");
+        manifestFile.getParentFile().mkdirs();
+        write(manifestFile, content);
+    }
+    
+    private static void write(final File file, final String content) throws IOException
+    {
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("utf-8"));
+        }
+        finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.TestCase;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.Reference;
+
+import antmodular.InvalidateModules;
+import antmodular.ModuleInfo;
+import antmodular.ModuleRegistry;
+import antmodular.SharedModuleRegistry;
+import antmodular.ValidatingModuleLoader;
+
+public class InvalidateModulesTest extends TestCase
+{
+    private Project project;
+    private SharedModuleRegistry sharedRegistry;
+    private InvalidateModules task;
+    private CountingModuleLoader moduleLoader;
+    
+    @Override
+    protected void setUp()
+    {
+        project = new Project();
+        moduleLoader = new CountingModuleLoader();
+        sharedRegistry = new SharedModuleRegistry();
+        sharedRegistry.setProject(project);
+        sharedRegistry.addConfigured(moduleLoader);
+        project.addReference("registry", sharedRegistry);
+        task = new InvalidateModules();
+        task.setProject(project);
+        task.init();
+        
+        final ModuleInfo foo = new ModuleInfo("foo/", moduleLoader);
+        foo.addDependency("bar/");
+        moduleLoader.modules.put("foo/", foo);
+        moduleLoader.modules.put("bar/", new ModuleInfo("bar/", moduleLoader));
+        moduleLoader.modules.put("baz/", new ModuleInfo("baz/", moduleLoader));
+        moduleLoader.validityKeys.put("foo/", "1");
+        moduleLoader.validityKeys.put("bar/", "1");
+        moduleLoader.validityKeys.put("baz/", "1");
+    }
+    
+    @Override
+    protected void tearDown()
+    {
+        moduleLoader = null;
+        task = null;
+        sharedRegistry = null;
+        project = null;
+    }
+    
+    public void testInvalidateGivenModules() throws Exception
+    {
+        final ModuleRegistry registry = sharedRegistry.getRegistry();
+        final Module m1 = registry.resolveModule("foo");
+        final Module m3 = registry.resolveModule("baz");
+        
+        task.setModuleRegistryRefId(new Reference(project, "registry"));
+        task.createModule().setPath("bar");
+        task.perform();
+        
+        assertNotSame(m1, registry.resolveModule("foo"));
+        assertSame(m3, registry.resolveModule("baz"));
+        assertEquals(2, moduleLoader.loadCount("foo/"));
+        assertEquals(2, moduleLoader.loadCount("bar/"));
+        assertEquals(1, moduleLoader.loadCount("baz/"));
+    }
+    
+    public void testInvalidateChangedModules() throws Exception
+    {
+        final ModuleRegistry registry = sharedRegistry.getRegistry();
+        final Module m1 = registry.resolveModule("foo");
+        final Module m3 = registry.resolveModule("baz");
+        moduleLoader.validityKeys.put("baz/", "2");
+        
+        task.setModuleRegistryRefId(new Reference(project, "registry"));
+        task.perform();
+        
+        assertSame(m1, registry.resolveModule("foo"));
+        assertNotSame(m3, registry.resolveModule("baz"));
+        assertEquals(1, moduleLoader.loadCount("foo/"));
+        assertEquals(2, moduleLoader.loadCount("baz/"));
+    }
+    
+    public void testInvalidateAllModules() throws Exception
+    {
+        final ModuleRegistry registry = sharedRegistry.getRegistry();
+        final Module m1 = registry.resolveModule("foo");
+        final Module m3 = registry.resolveModule("baz");
+        
+        task.setModuleRegistryRefId(new Reference(project, "registry"));
+        task.setAll(true);
+        task.perform();
+        
+        assertNotSame(m1, registry.resolveModule("foo"));
+        assertNotSame(m3, registry.resolveModule("baz"));
+        assertEquals(2, moduleLoader.loadCount("foo/"));
+        assertEquals(2, moduleLoader.loadCount("bar/"));
+        assertEquals(2, moduleLoader.loadCount("baz/"));
+    }
+    
+    public void testModuleRegistryRefIdUndefined()
+    {
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The attribute 'moduleRegistryRefId' is undefined.", ex.getMessage());
+        }
+    }
+    
+    public void testModuleElementWithNoPath()
+    {
+        task.setModuleRegistryRefId(new Reference(project, "registry"));
+        task.createModule();
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("There is a <module> element with the attribute 'path' undefined.", ex.getMessage());
+        }
+    }
+    
+    private static class CountingModuleLoader extends MockModuleLoader implements ValidatingModuleLoader
+    {
+        public final ArrayList<String> loadedPaths = new ArrayList<String>();
+        public final HashMap<String, String> validityKeys = new HashMap<String, String>();
+        
+        // Does nothing, just prevents synthetic garbage to be created by a java compiler.
+        public CountingModuleLoader()
+        {
+        }
+        
+        @Override
+        public ModuleInfo loadModule(final String path) throws ModuleNotLoadedException
+        {
+            loadedPaths.add(path);
+            return super.loadModule(path);
+        }
+        
+        public String getValidityKey(final String normalisedPath)
+        {
+            assertNotNull(normalisedPath);
+            return validityKeys.get(normalisedPath);
+        }
+        
+        public int loadCount(final String path)
+        {
+            int count = 0;
+            for (final String loadedPath : loadedPaths) {
+                if (loadedPath.equals(path)) {
+                    ++count;
+                }
+            }
+            return count;
+        }
+    }
+}
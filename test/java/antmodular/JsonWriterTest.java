@@ -0,0 +1,75 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.StringWriter;
+
+import antmodular.JsonWriter;
+
+import junit.framework.TestCase;
+
+public class JsonWriterTest extends TestCase
+{
+    public void testNestedValues() throws Exception
+    {
+        final StringWriter out = new StringWriter();
+        final JsonWriter json = new JsonWriter(out);
+        
+        json.beginObject();
+        json.name("a").value(1);
+        json.name("b").beginArray().value("x").value(true).value((String) null).beginObject().endObject().endArray();
+        json.name("c").beginObject().name("d").beginArray().endArray().endObject();
+        json.endObject();
+        
+        assertEquals("{\"a\":1,\"b\":[\"x\",true,null,{}],\"c\":{\"d\":[]}}", out.toString());
+    }
+    
+    public void testStringEscaping() throws Exception
+    {
+        final StringWriter out = new StringWriter();
+        
+        new JsonWriter(out).value("q\"b\\n\nr\rt\tc\u0001\u00e9");
+        
+        assertEquals("\"q\\\"b\\\\n\\nr\\rt\\tc\\u0001\u00e9\"", out.toString());
+    }
+    
+    public void testDeepNesting() throws Exception
+    {
+        final StringWriter out = new StringWriter();
+        final JsonWriter json = new JsonWriter(out);
+        
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 20; ++i) {
+            json.beginArray().value(i);
+            expected.append('[').append(i).append(',');
+        }
+        json.value("x");
+        expected.append("\"x\"");
+        for (int i = 0; i < 20; ++i) {
+            json.endArray();
+            expected.append(']');
+        }
+        
+        assertEquals(expected.toString(), out.toString());
+    }
+}
@@ -0,0 +1,180 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.apache.tools.ant.Project;
+
+/**
+ * <p>Measures how fast {@link ManifestModuleLoader} loads metadata of a large number of
+ * generated modules. This is not a unit test and is not run by the target {@code test}.
+ * It is run by the target {@code benchmark} of the build script.</p>
+ * 
+ * <p>For each mode the total wall time and the mean, median and 99th percentile of the wall
+ * time of a single load are reported. The modes {@code stream}, {@code channel} and {@code mmap}
+ * correspond to the {@link ManifestModuleLoader#setReadMode(String) read modes} of the loader.
+ * The mode {@code legacy-checks} emulates the checks the loader used to perform before it
+ * opened a manifest (two {@code stat} calls for the module directory and two for the manifest)
+ * and includes them in the time of each load, so that the cost of these checks can be
+ * compared with the mode {@code stream}. Only the time is measured. The system calls are not
+ * counted; use an external tool such as {@code strace -c} to count them.</p>
+ * 
+ * <p>Arguments: {@code [moduleCounts [rounds]]}, where <em>moduleCounts</em> is
+ * a comma-separated list of the numbers of modules to be loaded. The modules are generated
+ * once for the largest number. The defaults are {@code 1000,10000,50000} and {@code 3}.</p>
+ */
+public class ManifestModuleLoaderBenchmark
+{
+    public static void main(final String[] args) throws Exception
+    {
+        final String[] moduleCountValues = (args.length > 0 ? args[0] : "1000,10000,50000").split(",");
+        final int[] moduleCounts = new int[moduleCountValues.length];
+        int maxModuleCount = 0;
+        for (int i = 0; i < moduleCounts.length; ++i) {
+            moduleCounts[i] = Integer.parseInt(moduleCountValues[i].trim());
+            maxModuleCount = Math.max(maxModuleCount, moduleCounts[i]);
+        }
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        
+        final File baseDir = File.createTempFile("ManifestModuleLoaderBenchmark", "");
+        baseDir.delete();
+        baseDir.mkdir();
+        try {
+            System.out.println(MessageFormat.format("Generating {0} modules in ''{1}''...",
+                    String.valueOf(maxModuleCount), baseDir));
+            generateModules(baseDir, maxModuleCount);
+            
+            for (final int moduleCount : moduleCounts) {
+                for (int round = 1; round <= rounds; ++round) {
+                    run("legacy-checks", baseDir, moduleCount, true, "stream");
+                    run("stream", baseDir, moduleCount, false, "stream");
+                    run("channel", baseDir, moduleCount, false, "channel");
+                    run("mmap", baseDir, moduleCount, false, "mmap");
+                }
+            }
+        }
+        finally {
+            TestFiles.delete(baseDir);
+        }
+    }
+    
+    private static void run(final String mode, final File baseDir, final int moduleCount,
+            final boolean legacyChecks, final String readMode) throws Exception
+    {
+        final Project project = new Project();
+        project.setBaseDir(baseDir);
+        final ManifestModuleLoader loader = new ManifestModuleLoader();
+        loader.setProject(project);
+        loader.setReadMode(readMode);
+        loader.createClasspathAttribute().setName("Class-Path");
+        
+        final long[] loadTimes = new long[moduleCount];
+        long totalTime = 0;
+        for (int i = 0; i < moduleCount; ++i) {
+            final String path = modulePath(i);
+            final long start = System.nanoTime();
+            if (legacyChecks) {
+                final File moduleDir = new File(baseDir, path);
+                final File manifest = new File(moduleDir, "META-INF/MANIFEST.MF");
+                if (!moduleDir.exists() || !moduleDir.isDirectory() || !manifest.exists() || !manifest.isFile()) {
+                    throw new IllegalStateException(path);
+                }
+            }
+            loader.loadModule(path);
+            loadTimes[i] = System.nanoTime() - start;
+            totalTime += loadTimes[i];
+        }
+        Arrays.sort(loadTimes);
+        
+        System.out.println(MessageFormat.format(
+                "{0}: {1} modules, {2} ms, per load: mean {3} us, median {4} us, p99 {5} us",
+                mode, String.valueOf(moduleCount), String.valueOf(totalTime / 1000000),
+                toMicros(totalTime / moduleCount), toMicros(loadTimes[moduleCount / 2]),
+                toMicros(loadTimes[(int) (moduleCount * 0.99)])));
+    }
+    
+    private static String toMicros(final long nanos)
+    {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1000.0);
+    }
+    
+    static String modulePath(final int i)
+    {
+        return "modules/m" + (i / 1000) + "/m" + i;
+    }
+    
+    static void generateModules(final File baseDir, final int moduleCount) throws IOException
+    {
+        for (int i = 0; i < moduleCount; ++i) {
+            final File manifest = new File(baseDir, modulePath(i) + "/META-INF/MANIFEST.MF");
+            manifest.getParentFile().mkdirs();
+            final StringBuilder content = new StringBuilder();
+            content.append("Manifest-Version: 1.0\n");
+            content.append("Depends: ");
+            for (int j = Math.max(0, i - 5); j < i; ++j) {
+                content.append(modulePath(j)).append(' ');
+            }
+            content.append('\n');
+            content.append("Class-Path: ");
+            for (int j = 0; j < 20; ++j) {
+                content.append("lib/library-").append(j).append(".jar ");
+            }
+            content.append('\n');
+            content.append("Module-Version: 1.0.").append(i).append('\n');
+            writeManifest(manifest, content);
+        }
+    }
+    
+    // Splits long lines into 72-byte continuation lines as required by the JAR specification.
+    private static void writeManifest(final File manifest, final CharSequence content) throws IOException
+    {
+        final StringBuilder result = new StringBuilder();
+        int lineLength = 0;
+        for (int i = 0, n = content.length(); i < n; ++i) {
+            final char c = content.charAt(i);
+            if (c == '\n') {
+                lineLength = 0;
+            } else if (lineLength == 70) {
+                result.append("\n ");
+                lineLength = 1;
+            }
+            result.append(c);
+            if (c != '\n') {
+                ++lineLength;
+            }
+        }
+        final FileOutputStream out = new FileOutputStream(manifest);
+        try {
+            out.write(result.toString().getBytes("utf-8"));
+        }
+        finally {
+            out.close();
+        }
+    }
+}
@@ -23,6 +23,7 @@
 package antmodular;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.util.Collections;
 
 import org.apache.tools.ant.BuildException;
@@ -85,6 +86,28 @@ public class ManifestModuleLoaderTest extends TestCase
         assertEquals("foo/bar", loader.normalisePath("foo/bar/"));
     }
     
+    public void testGetValidityKey_ExistingManifest()
+    {
+        final File manifest = new File(baseDir, "NoDeps_NoAttributes/META-INF/MANIFEST.MF");
+        assertEquals(manifest.length() + ":" + manifest.lastModified(), loader.getValidityKey("NoDeps_NoAttributes"));
+    }
+    
+    public void testGetValidityKey_NoManifest()
+    {
+        assertNull(loader.getValidityKey("NoSuchModule"));
+    }
+    
+    public void testGetValidityKey_NullPath()
+    {
+        try {
+            loader.getValidityKey(null);
+            fail();
+        }
+        catch (NullPointerException ex) {
+            assertEquals("normalisedPath", ex.getMessage());
+        }
+    }
+    
     public void testLoadModule_CustomEntry_NoDependencies_NoAttributes() throws Exception
     {
         loader.setManifestEntry("Build");
@@ -454,6 +477,98 @@ public class ManifestModuleLoaderTest extends TestCase
         assertPath(moduleInfo.getAttributes().get("Attrib4"), new File(moduleDir, "12345"));
     }
     
+    public void testLoadModule_ChannelAndMmapReadModes() throws Exception
+    {
+        loader.createClasspathAttribute().setName("Attrib2");
+        final ModuleInfo expected = loader.loadModule("MainEntry_WithDeps_WithAttributes");
+        
+        for (final String readMode : new String[] {"channel", "mmap"}) {
+            final ManifestModuleLoader loader = new ManifestModuleLoader();
+            loader.setProject(project);
+            loader.setReadMode(readMode);
+            loader.createClasspathAttribute().setName("Attrib2");
+            
+            final ModuleInfo moduleInfo = loader.loadModule("MainEntry_WithDeps_WithAttributes");
+            
+            assertEquals(expected.getPath(), moduleInfo.getPath());
+            assertEquals(expected.getDependencies(), moduleInfo.getDependencies());
+            assertEquals(expected.getAttributes().keySet(), moduleInfo.getAttributes().keySet());
+            assertEquals("", moduleInfo.getAttributes().get("Attrib1"));
+            assertEquals("hello, world!", moduleInfo.getAttributes().get("Attrib3"));
+            assertEquals(((Path) expected.getAttributes().get("Attrib2")).toString(),
+                    ((Path) moduleInfo.getAttributes().get("Attrib2")).toString());
+            
+            try {
+                loader.loadModule("ModuleWithNoManifest");
+                fail();
+            }
+            catch (ModuleNotLoadedException ex) {
+                assertEquals("The module 'ModuleWithNoManifest' does not have the manifest ('" +
+                        new File(baseDir, "ModuleWithNoManifest/META-INF/MANIFEST.MF").getAbsolutePath() + "').",
+                        ex.getMessage());
+            }
+        }
+    }
+    
+    public void testLoadModule_ChannelReadMode_ManifestsOfDifferentSizes() throws Exception
+    {
+        final File tempDir = File.createTempFile("ManifestModuleLoaderTest", "");
+        tempDir.delete();
+        tempDir.mkdir();
+        try {
+            final int[] valueLengths = {10, 20000, 100000, 5};
+            final String[] values = new String[valueLengths.length];
+            for (int i = 0; i < valueLengths.length; ++i) {
+                final StringBuilder value = new StringBuilder();
+                final StringBuilder manifest = new StringBuilder("Manifest-Version: 1.0\nValue: ");
+                for (int j = 0; j < valueLengths[i]; ++j) {
+                    if (j != 0 && j % 70 == 0) {
+                        manifest.append("\n ");
+                    }
+                    final char c = (char) ('a' + (i + j) % 26);
+                    value.append(c);
+                    manifest.append(c);
+                }
+                manifest.append('\n');
+                values[i] = value.toString();
+                final File manifestFile = new File(tempDir, "m" + i + "/META-INF/MANIFEST.MF");
+                manifestFile.getParentFile().mkdirs();
+                final FileOutputStream out = new FileOutputStream(manifestFile);
+                try {
+                    out.write(manifest.toString().getBytes("utf-8"));
+                }
+                finally {
+                    out.close();
+                }
+            }
+            
+            project.setBaseDir(tempDir);
+            loader.setReadMode("channel");
+            for (int i = 0; i < valueLengths.length; ++i) {
+                assertEquals(values[i], loader.loadModule("m" + i).getAttributes().get("Value"));
+            }
+        }
+        finally {
+            for (int i = 0; i < 4; ++i) {
+                new File(tempDir, "m" + i + "/META-INF/MANIFEST.MF").delete();
+                new File(tempDir, "m" + i + "/META-INF").delete();
+                new File(tempDir, "m" + i).delete();
+            }
+            tempDir.delete();
+        }
+    }
+    
+    public void testSetReadMode_UnsupportedMode()
+    {
+        try {
+            loader.setReadMode("nio");
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("Unsupported read mode: 'nio'. Expected: 'stream', 'channel' or 'mmap'.", ex.getMessage());
+        }
+    }
+    
     private static void assertPath(final Object pathObject, final File... expectedElements)
     {
         assertNotNull(pathObject);
@@ -0,0 +1,426 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import antmodular.ManifestParser;
+
+public class ManifestParserTest extends TestCase
+{
+    private static final Pattern listElementPattern = Pattern.compile("\\S+");
+    
+    // java.util.jar.Manifest logs a warning for each duplicate attribute.
+    private Logger jarLogger;
+    private Level jarLoggerLevel;
+    
+    @Override
+    protected void setUp()
+    {
+        jarLogger = Logger.getLogger("java.util.jar");
+        jarLoggerLevel = jarLogger.getLevel();
+        jarLogger.setLevel(Level.OFF);
+    }
+    
+    @Override
+    protected void tearDown()
+    {
+        jarLogger.setLevel(jarLoggerLevel);
+        jarLogger = null;
+        jarLoggerLevel = null;
+    }
+    
+    public void testMainEntry() throws Exception
+    {
+        final ManifestParser.Section section = parse("Manifest-Version: 1.0\nDepends: foo bar\n" +
+                "Attr: value with spaces \n\nName: x\nY: z\n", null);
+        
+        assertAttributes(section, "Manifest-Version", "1.0", "Depends", "foo bar", "Attr", "value with spaces ");
+    }
+    
+    public void testNamedEntry() throws Exception
+    {
+        final ManifestParser.Section section = parse("Manifest-Version: 1.0\n\nName: Build\nDepends: foo\n\n" +
+                "Name: Other\nX: y\n", "Build");
+        
+        assertAttributes(section, "Depends", "foo");
+    }
+    
+    public void testNamedEntry_NoSuchEntry() throws Exception
+    {
+        assertNull(parse("Manifest-Version: 1.0\n\nName: Other\nX: y\n", "Build"));
+    }
+    
+    public void testNamedEntry_DuplicateEntriesAreMerged() throws Exception
+    {
+        final ManifestParser.Section section = parse("A: 1\n\nName: Build\nX: 1\nY: 2\n\n\n" +
+                "Name: Other\nX: 3\n\nName: Build\nZ: 4\nx: 5\n", "Build");
+        
+        assertAttributes(section, "X", "5", "Y", "2", "Z", "4");
+    }
+    
+    public void testContinuationLines() throws Exception
+    {
+        final ManifestParser.Section section = parse("Depends: foo b\n ar\n  baz\nAttr: \n x\n\n" +
+                "Name: Bu\n ild\nClass-Path: a\n  b\n", "Build");
+        
+        assertAttributes(section, "Class-Path", "a b");
+        assertAttributes(parse("Depends: foo b\n ar\n  baz\nAttr: \n x\n", null), "Depends", "foo bar baz",
+                "Attr", "x");
+    }
+    
+    public void testLineTerminators() throws Exception
+    {
+        assertAttributes(parse("A: 1\r\nB: 2\rC: 3\n\r\nName: x\nD: 4\n", null), "A", "1", "B", "2", "C", "3");
+    }
+    
+    public void testUnterminatedLastLineIsIgnored() throws Exception
+    {
+        assertAttributes(parse("A: 1\nB: 2", null), "A", "1");
+        assertAttributes(parse("A: 1\nB: 2\n 3", null), "A", "1");
+    }
+    
+    public void testMultiByteCharacterSplitByContinuationLine() throws Exception
+    {
+        final byte[] value = "\u0436\u0443\u043a".getBytes("utf-8");
+        final ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+        manifest.write("A: ".getBytes("utf-8"));
+        manifest.write(value, 0, 3);
+        manifest.write("\n ".getBytes("utf-8"));
+        manifest.write(value, 3, value.length - 3);
+        manifest.write('\n');
+        
+        assertAttributes(ManifestParser.parse(ByteBuffer.wrap(manifest.toByteArray()), null), "A",
+                "\u0436\u0443\u043a");
+    }
+    
+    public void testMalformedManifests()
+    {
+        assertMalformed("A:1\n");
+        assertMalformed("A\n");
+        assertMalformed("A:\n");
+        assertMalformed(" A: 1\n");
+        assertMalformed("A.B: 1\n");
+        assertMalformed(": 1\n");
+        assertMalformed(repeat('a', 71) + ": 1\n");
+        assertMalformed("A: " + repeat('a', 509) + '\n');
+        assertMalformed("A: 1\n\nB: 2\n");
+        assertMalformed("A: 1\n\nName: x\nB 2\n");
+    }
+    
+    public void testLongLines() throws Exception
+    {
+        final String value = repeat('a', 507);
+        assertAttributes(parse("A: " + value + "\nB: 1\n", null), "A", value, "B", "1");
+        assertAttributes(parse(repeat('b', 70) + ": 1\n", null), repeat('b', 70), "1");
+        // CR is the last byte allowed in the line. LF is a separate, empty line.
+        assertAttributes(parse("A: " + repeat('a', 508) + "\r\nName: x\nB: 1\n", null), "A",
+                repeat('a', 508));
+    }
+    
+    public void testDirectBuffer() throws Exception
+    {
+        final byte[] manifest = "A: 1\nDepends: \u0436 b\n c\n\nName: x\nB: 2\n".getBytes("utf-8");
+        final ByteBuffer buf = ByteBuffer.allocateDirect(manifest.length + 10);
+        buf.position(5);
+        buf.put(manifest);
+        buf.flip();
+        buf.position(5);
+        
+        assertAttributes(ManifestParser.parse(buf, null), "A", "1", "Depends", "\u0436 bc");
+        assertEquals(5, buf.position());
+    }
+    
+    public void testRemove() throws Exception
+    {
+        final ManifestParser.Section section = parse("Depends: foo\nCLASS-PATH: bar\n", null);
+        
+        assertNull(section.remove("Other"));
+        assertEquals("Depends", section.remove("depends").getName());
+        assertNull(section.remove("Depends"));
+        assertEquals("bar", section.remove("Class-Path").getValue());
+        assertAttributes(section);
+        
+        try {
+            section.remove("Class.Path");
+            fail();
+        }
+        catch (IllegalArgumentException ex) {
+            assertEquals("Class.Path", ex.getMessage());
+        }
+    }
+    
+    public void testListElements() throws Exception
+    {
+        assertListElements("");
+        assertListElements("  \t ");
+        assertListElements("foo");
+        assertListElements(" foo\tbar  baz\u000b\fqux ");
+        assertListElements("a+b c%20d %e2%82%ac \u0436+\u0443 %2B");
+        assertListElements("%");
+        assertListElements("ok %zz");
+        assertListElements("%e2%82");
+    }
+    
+    public void testDifferential_RandomManifests() throws Exception
+    {
+        final Random random = new Random(20231019L);
+        for (int i = 0; i < 20000; ++i) {
+            final byte[] manifest = randomManifest(random);
+            assertSameAsJarManifest(manifest, null);
+            assertSameAsJarManifest(manifest, "Build");
+        }
+    }
+    
+    public void testDifferential_RandomListValues() throws Exception
+    {
+        final Random random = new Random(20231020L);
+        for (int i = 0; i < 5000; ++i) {
+            final StringBuilder value = new StringBuilder();
+            final int length = random.nextInt(1200);
+            for (int j = 0; j < length; ++j) {
+                value.append(randomListChar(random));
+            }
+            assertListElements(value.toString());
+        }
+    }
+    
+    private static ManifestParser.Section parse(final String manifest, final String entryName) throws IOException
+    {
+        return ManifestParser.parse(ByteBuffer.wrap(manifest.getBytes("utf-8")), entryName);
+    }
+    
+    private static void assertAttributes(final ManifestParser.Section section, final String... namesAndValues)
+    {
+        assertNotNull(section);
+        final ArrayList<String> actual = new ArrayList<String>();
+        for (final ManifestParser.Attribute attribute : section) {
+            actual.add(attribute.getName());
+            actual.add(attribute.getValue());
+        }
+        assertEquals(Arrays.asList(namesAndValues), actual);
+    }
+    
+    private static void assertMalformed(final String manifest)
+    {
+        try {
+            parse(manifest, null);
+            fail();
+        }
+        catch (IOException ex) {
+            // expected
+        }
+        try {
+            new Manifest(new ByteArrayInputStream(manifest.getBytes()));
+            fail();
+        }
+        catch (IOException ex) {
+            // expected, the same as by ManifestParser
+        }
+    }
+    
+    // Splits the value the way ManifestModuleLoader did it before ManifestParser was introduced.
+    private static void assertListElements(final String value) throws Exception
+    {
+        final ArrayList<String> expected = new ArrayList<String>();
+        final Matcher m = listElementPattern.matcher(value);
+        while (m.find()) {
+            try {
+                expected.add(URLDecoder.decode(m.group(), "utf-8"));
+            }
+            catch (IllegalArgumentException ex) {
+                expected.add("error: " + m.group());
+            }
+        }
+        
+        final ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+        final byte[] valueBytes = value.getBytes("utf-8");
+        manifest.write("List: ".getBytes("utf-8"));
+        // Wrapping lines at 72 bytes as the JAR specification requires.
+        for (int i = 0; i < valueBytes.length; i += 66) {
+            if (i != 0) {
+                manifest.write("\n ".getBytes("utf-8"));
+            }
+            manifest.write(valueBytes, i, Math.min(66, valueBytes.length - i));
+        }
+        manifest.write('\n');
+        final ManifestParser.Section section = ManifestParser.parse(ByteBuffer.wrap(manifest.toByteArray()), null);
+        
+        final ArrayList<String> actual = new ArrayList<String>();
+        final ManifestParser.ListElements elements = section.remove("List").getListElements();
+        while (elements.next()) {
+            try {
+                actual.add(elements.decode());
+            }
+            catch (IllegalArgumentException ex) {
+                actual.add("error: " + elements.getRawElement());
+            }
+        }
+        assertEquals(expected, actual);
+    }
+    
+    private static void assertSameAsJarManifest(final byte[] manifest, final String entryName) throws Exception
+    {
+        Attributes expected = null;
+        IOException expectedError = null;
+        try {
+            final Manifest jarManifest = new Manifest(new ByteArrayInputStream(manifest));
+            expected = entryName == null ? jarManifest.getMainAttributes() : jarManifest.getAttributes(entryName);
+        }
+        catch (IOException ex) {
+            expectedError = ex;
+        }
+        
+        final ManifestParser.Section actual;
+        try {
+            actual = ManifestParser.parse(ByteBuffer.wrap(manifest), entryName);
+        }
+        catch (IOException ex) {
+            assertNotNull(new String(manifest, "utf-8"), expectedError);
+            return;
+        }
+        assertNull(new String(manifest, "utf-8"), expectedError);
+        if (expected == null) {
+            assertNull(actual);
+            return;
+        }
+        final ArrayList<String> expectedList = new ArrayList<String>();
+        for (final Map.Entry<Object, Object> entry : expected.entrySet()) {
+            expectedList.add(entry.getKey().toString());
+            expectedList.add((String) entry.getValue());
+        }
+        final ArrayList<String> actualList = new ArrayList<String>();
+        for (final ManifestParser.Attribute attribute : actual) {
+            actualList.add(attribute.getName());
+            actualList.add(attribute.getValue());
+        }
+        assertEquals(new String(manifest, "utf-8"), expectedList, actualList);
+    }
+    
+    private static final String[] NAMES = {"Depends", "depends", "Class-Path", "A", "b_1", "Name", "Bad.Name",
+            "", "Build"};
+    
+    private static byte[] randomManifest(final Random random) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final int lineCount = random.nextInt(12);
+        for (int i = 0; i < lineCount; ++i) {
+            switch (random.nextInt(10)) {
+            case 0:
+                // An empty line which ends an entry.
+                break;
+            case 1:
+                out.write(("Name: " + (random.nextBoolean() ? "Build" : "Other")).getBytes("utf-8"));
+                break;
+            case 2:
+                // A continuation line.
+                out.write(' ');
+                out.write(randomValue(random));
+                break;
+            case 3:
+                // A random line.
+                out.write(randomValue(random));
+                break;
+            case 4:
+                out.write(NAMES[random.nextInt(NAMES.length)].getBytes("utf-8"));
+                out.write(random.nextBoolean() ? ':' : ' ');
+                out.write(randomValue(random));
+                break;
+            default:
+                out.write(NAMES[random.nextInt(NAMES.length)].getBytes("utf-8"));
+                out.write(": ".getBytes("utf-8"));
+                out.write(randomValue(random));
+                break;
+            }
+            if (i != lineCount - 1 || random.nextInt(4) != 0) {
+                switch (random.nextInt(6)) {
+                case 0:
+                    out.write('\r');
+                    break;
+                case 1:
+                    out.write('\r');
+                    out.write('\n');
+                    break;
+                default:
+                    out.write('\n');
+                    break;
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+    
+    private static byte[] randomValue(final Random random) throws IOException
+    {
+        final int length;
+        switch (random.nextInt(8)) {
+        case 0:
+            length = 500 + random.nextInt(20);
+            break;
+        default:
+            length = random.nextInt(20);
+            break;
+        }
+        final StringBuilder value = new StringBuilder(length);
+        for (int i = 0; i < length; ++i) {
+            value.append(randomListChar(random));
+        }
+        final byte[] bytes = value.toString().getBytes("utf-8");
+        if (bytes.length > 0 && random.nextInt(10) == 0) {
+            // A broken multi-byte character.
+            bytes[random.nextInt(bytes.length)] = (byte) 0xd0;
+        }
+        return bytes;
+    }
+    
+    private static char randomListChar(final Random random)
+    {
+        final String chars = "ab:%+ \t2fG\u0436\u20ac";
+        return chars.charAt(random.nextInt(chars.length()));
+    }
+    
+    private static String repeat(final char c, final int count)
+    {
+        final StringBuilder result = new StringBuilder(count);
+        for (int i = 0; i < count; ++i) {
+            result.append(c);
+        }
+        return result.toString();
+    }
+}
@@ -35,6 +35,16 @@ public class MockModuleLoader implements ModuleLoader
     public final HashMap<String, Object> modules = new HashMap<String, Object>();
     public final HashMap<String, String> normalisedPaths = new HashMap<String, String>();
     
+    public ModuleInfo addModule(final String path, final String... dependencies)
+    {
+        final ModuleInfo moduleInfo = new ModuleInfo(path, this);
+        for (final String dependency : dependencies) {
+            moduleInfo.addDependency(dependency);
+        }
+        modules.put(path, moduleInfo);
+        return moduleInfo;
+    }
+    
     public ModuleInfo loadModule(final String path) throws ModuleNotLoadedException
     {
         Assert.assertNotNull(path);
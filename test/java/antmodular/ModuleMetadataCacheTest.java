@@ -0,0 +1,268 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.Path;
+
+import antmodular.ManifestModuleLoader;
+import antmodular.ModuleInfo;
+
+import junit.framework.TestCase;
+
+public class ModuleMetadataCacheTest extends TestCase
+{
+    private File baseDir;
+    private File cacheFile;
+    private Project project;
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        baseDir = TestFiles.createTempDir("ModuleMetadataCacheTest");
+        cacheFile = new File(baseDir, "cache/modules.cache");
+    }
+    
+    @Override
+    protected void tearDown()
+    {
+        TestFiles.delete(baseDir);
+        project = null;
+        cacheFile = null;
+        baseDir = null;
+    }
+    
+    public void testEncodeDecode() throws Exception
+    {
+        final Project project = new Project();
+        project.setBaseDir(baseDir);
+        final MockModuleLoader moduleLoader = new MockModuleLoader();
+        final ModuleInfo moduleInfo = new ModuleInfo("foo/", moduleLoader);
+        moduleInfo.addDependency("bar/");
+        moduleInfo.addDependency("baz/");
+        moduleInfo.addAttribute("a", "b");
+        moduleInfo.addAttribute("c", "");
+        final Path path = new Path(project);
+        path.createPathElement().setLocation(new File(baseDir, "x"));
+        path.createPathElement().setLocation(new File("/y/Ł"));
+        moduleInfo.addAttribute("cp", path);
+        
+        final byte[] data = ModuleMetadataCache.encode(moduleInfo);
+        final ModuleInfo result = ModuleMetadataCache.decode(data, moduleLoader, project);
+        
+        assertEquals("foo/", result.getPath());
+        assertEquals(TestUtil.set("bar/", "baz/"), result.getDependencies());
+        assertEquals(TestUtil.set("a", "c", "cp"), result.getAttributes().keySet());
+        assertEquals("b", result.getAttributes().get("a"));
+        assertEquals("", result.getAttributes().get("c"));
+        assertEquals(Arrays.asList(path.list()), Arrays.asList(((Path) result.getAttributes().get("cp")).list()));
+    }
+    
+    public void testEncode_UnsupportedAttributeType()
+    {
+        final ModuleInfo moduleInfo = new ModuleInfo("foo/", new MockModuleLoader());
+        moduleInfo.addAttribute("a", Integer.valueOf(1));
+        
+        assertNull(ModuleMetadataCache.encode(moduleInfo));
+    }
+    
+    public void testWriteRead() throws Exception
+    {
+        final ModuleMetadataCache cache = new ModuleMetadataCache(cacheFile, "sig");
+        cache.put("foo", "1:2", new byte[] {1, 2, 3});
+        cache.put("bar", "3:4", new byte[0]);
+        assertTrue(cache.isModified());
+        cache.write();
+        assertFalse(cache.isModified());
+        
+        final ModuleMetadataCache cache2 = new ModuleMetadataCache(cacheFile, "sig");
+        assertTrue(cache2.read());
+        assertTrue(Arrays.equals(new byte[] {1, 2, 3}, cache2.get("foo", "1:2")));
+        assertTrue(Arrays.equals(new byte[0], cache2.get("bar", "3:4")));
+        assertNull(cache2.get("foo", "1:3"));
+        assertNull(cache2.get("baz", "1:2"));
+        
+        // No temporary files are left.
+        assertEquals(1, cacheFile.getParentFile().list().length);
+    }
+    
+    public void testRead_SignatureMismatch() throws Exception
+    {
+        final ModuleMetadataCache cache = new ModuleMetadataCache(cacheFile, "sig");
+        cache.put("foo", "1:2", new byte[] {1, 2, 3});
+        cache.write();
+        
+        final ModuleMetadataCache cache2 = new ModuleMetadataCache(cacheFile, "sig2");
+        assertFalse(cache2.read());
+        assertNull(cache2.get("foo", "1:2"));
+    }
+    
+    public void testRead_NoFile() throws Exception
+    {
+        final ModuleMetadataCache cache = new ModuleMetadataCache(cacheFile, "sig");
+        assertFalse(cache.read());
+    }
+    
+    public void testRead_TruncatedFile() throws Exception
+    {
+        final ModuleMetadataCache cache = new ModuleMetadataCache(cacheFile, "sig");
+        cache.put("foo", "1:2", new byte[] {1, 2, 3});
+        cache.write();
+        final long length = cacheFile.length();
+        final RandomAccessFile f = new RandomAccessFile(cacheFile, "rw");
+        f.setLength(length - 2);
+        f.close();
+        
+        final ModuleMetadataCache cache2 = new ModuleMetadataCache(cacheFile, "sig");
+        try {
+            cache2.read();
+            fail();
+        }
+        catch (IOException ex) {
+            // expected
+        }
+        assertNull(cache2.get("foo", "1:2"));
+    }
+    
+    public void testManifestModuleLoader_UnchangedManifestIsNotParsed() throws Exception
+    {
+        final File manifest = writeManifest("foo", "Depends: bar\nAttrib: 1\nCP: a b\n");
+        
+        final ModuleInfo moduleInfo = createLoader(false).loadModule("foo");
+        assertEquals(TestUtil.set("bar"), moduleInfo.getDependencies());
+        assertEquals("1", moduleInfo.getAttributes().get("Attrib"));
+        finishBuild();
+        assertTrue(cacheFile.isFile());
+        
+        // The same size and modification time: the cached metadata are used.
+        final long lastModified = manifest.lastModified();
+        TestFiles.writeFile(manifest, "Depends: bar\nAttrib: 2\nCP: a b\n");
+        manifest.setLastModified(lastModified);
+        
+        final ModuleInfo cachedModuleInfo = createLoader(false).loadModule("foo");
+        assertEquals("foo", cachedModuleInfo.getPath());
+        assertEquals(TestUtil.set("bar"), cachedModuleInfo.getDependencies());
+        assertEquals("1", cachedModuleInfo.getAttributes().get("Attrib"));
+        assertEquals(Arrays.asList(((Path) moduleInfo.getAttributes().get("CP")).list()),
+                Arrays.asList(((Path) cachedModuleInfo.getAttributes().get("CP")).list()));
+    }
+    
+    public void testManifestModuleLoader_ValidityKeyIsProvided() throws Exception
+    {
+        writeManifest("foo", "Attrib: 1\n");
+        
+        final ManifestModuleLoader loader = createLoader(false);
+        final ModuleInfo moduleInfo = loader.loadModule("foo");
+        assertNotNull(moduleInfo.getValidityKey());
+        assertEquals(loader.getValidityKey("foo"), moduleInfo.getValidityKey());
+        finishBuild();
+        
+        final ManifestModuleLoader loader2 = createLoader(false);
+        final ModuleInfo cachedModuleInfo = loader2.loadModule("foo");
+        assertEquals(loader2.getValidityKey("foo"), cachedModuleInfo.getValidityKey());
+    }
+    
+    public void testManifestModuleLoader_ChangedModificationTime() throws Exception
+    {
+        final File manifest = writeManifest("foo", "Attrib: 1\n");
+        
+        createLoader(false).loadModule("foo");
+        finishBuild();
+        
+        TestFiles.writeFile(manifest, "Attrib: 2\n");
+        manifest.setLastModified(manifest.lastModified() + 10000);
+        
+        assertEquals("2", createLoader(false).loadModule("foo").getAttributes().get("Attrib"));
+    }
+    
+    public void testManifestModuleLoader_ContentHash() throws Exception
+    {
+        final File manifest = writeManifest("foo", "Attrib: 1\n");
+        
+        createLoader(true).loadModule("foo");
+        finishBuild();
+        
+        final long lastModified = manifest.lastModified();
+        TestFiles.writeFile(manifest, "Attrib: 2\n");
+        manifest.setLastModified(lastModified);
+        
+        assertEquals("2", createLoader(true).loadModule("foo").getAttributes().get("Attrib"));
+    }
+    
+    public void testManifestModuleLoader_CorruptedCacheFile() throws Exception
+    {
+        writeManifest("foo", "Attrib: 1\n");
+        cacheFile.getParentFile().mkdirs();
+        TestFiles.writeFile(cacheFile, "garbage");
+        
+        assertEquals("1", createLoader(false).loadModule("foo").getAttributes().get("Attrib"));
+        finishBuild();
+        
+        // The corrupted file is replaced with a valid one. The signature does not match though.
+        assertFalse(new ModuleMetadataCache(cacheFile, "").read());
+    }
+    
+    public void testManifestModuleLoader_MissingManifestIsDiagnosed() throws Exception
+    {
+        new File(baseDir, "foo").mkdir();
+        
+        try {
+            createLoader(false).loadModule("foo");
+            fail();
+        }
+        catch (ModuleNotLoadedException ex) {
+            assertEquals("The module 'foo' does not have the manifest ('" +
+                    new File(baseDir, "foo/META-INF/MANIFEST.MF").getAbsolutePath() + "').", ex.getMessage());
+        }
+    }
+    
+    private ManifestModuleLoader createLoader(final boolean cacheHash)
+    {
+        project = new Project();
+        project.setBaseDir(baseDir);
+        final ManifestModuleLoader loader = new ManifestModuleLoader();
+        loader.setProject(project);
+        loader.setCacheFile(cacheFile);
+        loader.setCacheHash(cacheHash);
+        loader.createClasspathAttribute().setName("CP");
+        return loader;
+    }
+    
+    private void finishBuild()
+    {
+        project.fireBuildFinished(null);
+    }
+    
+    private File writeManifest(final String modulePath, final String content) throws IOException
+    {
+        final File manifest = new File(baseDir, modulePath + "/META-INF/MANIFEST.MF");
+        manifest.getParentFile().mkdirs();
+        TestFiles.writeFile(manifest, content);
+        return manifest;
+    }
+}
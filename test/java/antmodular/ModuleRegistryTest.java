@@ -23,9 +23,11 @@
 package antmodular;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.tools.ant.Project;
@@ -127,6 +129,35 @@ public class ModuleRegistryTest extends TestCase
         assertEquals(TestUtil.set("foo_norm", "bar_norm"), new HashSet<String>(moduleLoader.paths));
     }
     
+    public void testResolveModules() throws Exception
+    {
+        final ModuleInfo module = new ModuleInfo("foo", moduleLoader);
+        module.addDependency("bar");
+        final ModuleInfo module2 = new ModuleInfo("bar", moduleLoader);
+        moduleLoader.results.put("foo_norm", module);
+        moduleLoader.results.put("bar_norm", module2);
+        
+        final List<Module> modules = registry.resolveModules(Arrays.asList("foo", "bar", "foo").iterator());
+        
+        assertEquals(3, modules.size());
+        assertSame(modules.get(0), modules.get(2));
+        assertEquals("foo_norm", modules.get(0).getPath());
+        assertModule(modules.get(1), "bar_norm");
+        assertEquals(TestUtil.set(modules.get(1)), modules.get(0).getDependencies());
+        assertEquals(2, moduleLoader.paths.size());
+    }
+    
+    public void testResolveModules_NullPaths() throws Exception
+    {
+        try {
+            registry.resolveModules(null);
+            fail();
+        }
+        catch (NullPointerException ex) {
+            assertEquals("paths", ex.getMessage());
+        }
+    }
+    
     public void testCreateTwoModulesAndDirectDependencies() throws Exception
     {
         final ModuleInfo module = new ModuleInfo("foo", moduleLoader);
@@ -471,6 +502,220 @@ public class ModuleRegistryTest extends TestCase
         assertEquals(TestUtil.set("foo_norm", "bar_norm", "baz_norm"), new HashSet<String>(moduleLoader.paths));
     }
     
+    public void testInvalidate_ModuleAndItsDependers() throws Exception
+    {
+        final ModuleInfo foo = new ModuleInfo("foo", moduleLoader);
+        foo.addDependency("bar");
+        final ModuleInfo bar = new ModuleInfo("bar", moduleLoader);
+        bar.addDependency("baz");
+        final ModuleInfo baz = new ModuleInfo("baz", moduleLoader);
+        final ModuleInfo qux = new ModuleInfo("qux", moduleLoader);
+        qux.addDependency("baz");
+        moduleLoader.results.put("foo_norm", foo);
+        moduleLoader.results.put("bar_norm", bar);
+        moduleLoader.results.put("baz_norm", baz);
+        moduleLoader.results.put("qux_norm", qux);
+        
+        final Module m1 = registry.resolveModule("foo");
+        final Module m2 = registry.resolveModule("bar");
+        final Module m3 = registry.resolveModule("baz");
+        final Module m4 = registry.resolveModule("qux");
+        
+        assertEquals(2, registry.invalidate(Collections.singleton("bar")));
+        assertEquals(0, registry.invalidate(Collections.singleton("unknown")));
+        
+        assertSame(m3, registry.resolveModule("baz"));
+        assertSame(m4, registry.resolveModule("qux"));
+        
+        final ModuleInfo newBar = new ModuleInfo("bar", moduleLoader);
+        newBar.addAttribute("1", "2");
+        moduleLoader.results.put("foo_norm", foo);
+        moduleLoader.results.put("bar_norm", newBar);
+        
+        final Module newM1 = registry.resolveModule("foo");
+        final Module newM2 = registry.resolveModule("bar");
+        assertNotSame(m1, newM1);
+        assertNotSame(m2, newM2);
+        assertModule(newM1, "foo_norm", newM2);
+        assertModule(newM2, "bar_norm", TestUtil.<String, Object>map("1", "2"));
+        assertEquals(TestUtil.set(m3), m2.getDependencies());
+        
+        assertEquals(6, moduleLoader.paths.size());
+    }
+    
+    public void testInvalidate_ModuleNotLoadedIsRetried() throws Exception
+    {
+        final ModuleInfo foo = new ModuleInfo("foo", moduleLoader);
+        foo.addDependency("bar");
+        moduleLoader.results.put("foo_norm", foo);
+        moduleLoader.results.put("bar_norm", new ModuleNotLoadedException());
+        
+        try {
+            registry.resolveModule("foo");
+            fail();
+        }
+        catch (ModuleNotLoadedException ex) {
+            // expected
+        }
+        
+        assertEquals(0, registry.invalidate(Collections.<String>emptySet()));
+        
+        moduleLoader.results.put("foo_norm", foo);
+        moduleLoader.results.put("bar_norm", new ModuleInfo("bar", moduleLoader));
+        final Module m1 = registry.resolveModule("foo");
+        assertModule(m1, "foo_norm", registry.resolveModule("bar"));
+    }
+    
+    public void testInvalidateChanged() throws Exception
+    {
+        final ValidatingMockModuleLoader moduleLoader = new ValidatingMockModuleLoader();
+        final ModuleRegistry registry = new ModuleRegistry(moduleLoader);
+        final ModuleInfo foo = new ModuleInfo("foo", moduleLoader);
+        foo.addDependency("bar");
+        final ModuleInfo bar = new ModuleInfo("bar", moduleLoader);
+        final ModuleInfo baz = new ModuleInfo("baz", moduleLoader);
+        moduleLoader.results.put("foo_norm", foo);
+        moduleLoader.results.put("bar_norm", bar);
+        moduleLoader.results.put("baz_norm", baz);
+        moduleLoader.validityKeys.put("foo_norm", "1");
+        moduleLoader.validityKeys.put("bar_norm", "1");
+        moduleLoader.validityKeys.put("baz_norm", "1");
+        registry.enableValidityTracking();
+        
+        final Module m1 = registry.resolveModule("foo");
+        final Module m3 = registry.resolveModule("baz");
+        
+        assertEquals(0, registry.invalidateChanged());
+        assertSame(m1, registry.resolveModule("foo"));
+        
+        moduleLoader.validityKeys.put("bar_norm", "2");
+        assertEquals(2, registry.invalidateChanged());
+        assertSame(m3, registry.resolveModule("baz"));
+        
+        moduleLoader.results.put("foo_norm", foo);
+        moduleLoader.results.put("bar_norm", bar);
+        assertNotSame(m1, registry.resolveModule("foo"));
+        assertEquals(0, registry.invalidateChanged());
+    }
+    
+    public void testInvalidateChanged_ValidityTrackingDisabled() throws Exception
+    {
+        final ValidatingMockModuleLoader moduleLoader = new ValidatingMockModuleLoader();
+        final ModuleRegistry registry = new ModuleRegistry(moduleLoader);
+        moduleLoader.results.put("foo_norm", new ModuleInfo("foo", moduleLoader));
+        moduleLoader.validityKeys.put("foo_norm", "1");
+        
+        final Module m1 = registry.resolveModule("foo");
+        assertEquals(0, moduleLoader.validityKeyCalls);
+        
+        // The validity key of the module is unknown so it is considered changed.
+        assertEquals(1, registry.invalidateChanged());
+        
+        moduleLoader.results.put("foo_norm", new ModuleInfo("foo", moduleLoader));
+        final Module m2 = registry.resolveModule("foo");
+        assertNotSame(m1, m2);
+        assertEquals(0, registry.invalidateChanged());
+        assertSame(m2, registry.resolveModule("foo"));
+    }
+    
+    public void testInvalidateChanged_LoaderProvidesValidityKeys() throws Exception
+    {
+        final ValidatingMockModuleLoader moduleLoader = new ValidatingMockModuleLoader();
+        final ModuleRegistry registry = new ModuleRegistry(moduleLoader);
+        registry.enableValidityTracking();
+        final ModuleInfo foo = new ModuleInfo("foo", moduleLoader);
+        foo.addDependency("bar");
+        foo.setValidityKey("1");
+        final ModuleInfo bar = new ModuleInfo("bar", moduleLoader);
+        bar.setValidityKey("1");
+        moduleLoader.results.put("foo_norm", foo);
+        moduleLoader.results.put("bar_norm", bar);
+        moduleLoader.validityKeys.put("foo_norm", "1");
+        moduleLoader.validityKeys.put("bar_norm", "1");
+        
+        final Module m1 = registry.resolveModule("foo");
+        // The key is obtained only before the first module is loaded.
+        assertEquals(1, moduleLoader.validityKeyCalls);
+        
+        assertEquals(0, registry.invalidateChanged());
+        assertSame(m1, registry.resolveModule("foo"));
+        
+        moduleLoader.validityKeys.put("bar_norm", "2");
+        assertEquals(2, registry.invalidateChanged());
+    }
+    
+    public void testInvalidateChanged_NonValidatingLoader() throws Exception
+    {
+        moduleLoader.results.put("foo_norm", new ModuleInfo("foo", moduleLoader));
+        final Module m1 = registry.resolveModule("foo");
+        
+        assertEquals(0, registry.invalidateChanged());
+        assertSame(m1, registry.resolveModule("foo"));
+    }
+    
+    public void testInvalidateAll() throws Exception
+    {
+        final ModuleInfo foo = new ModuleInfo("foo", moduleLoader);
+        foo.addDependency("bar");
+        moduleLoader.results.put("foo_norm", foo);
+        moduleLoader.results.put("bar_norm", new ModuleInfo("bar", moduleLoader));
+        final Module m1 = registry.resolveModule("foo");
+        
+        assertEquals(2, registry.invalidateAll());
+        
+        moduleLoader.results.put("foo_norm", foo);
+        moduleLoader.results.put("bar_norm", new ModuleInfo("bar", moduleLoader));
+        assertNotSame(m1, registry.resolveModule("foo"));
+    }
+    
+    public void testMetrics() throws Exception
+    {
+        final ModuleInfo foo = new ModuleInfo("foo", moduleLoader);
+        foo.addDependency("bar");
+        final ModuleInfo baz = new ModuleInfo("baz", moduleLoader);
+        baz.addDependency("qux");
+        moduleLoader.results.put("foo_norm", foo);
+        moduleLoader.results.put("bar_norm", new ModuleInfo("bar", moduleLoader));
+        moduleLoader.results.put("baz_norm", baz);
+        moduleLoader.results.put("qux_norm", new ModuleNotLoadedException());
+        
+        final MetadataMetrics metrics = new MetadataMetrics(3);
+        registry.setMetrics(metrics);
+        
+        registry.resolveModule("foo");
+        registry.resolveModule("bar");
+        for (int i = 0; i < 2; ++i) {
+            try {
+                registry.resolveModule("baz");
+                fail();
+            }
+            catch (ModuleNotLoadedException ex) {
+                // expected
+            }
+        }
+        
+        assertEquals(4, metrics.normalise.count.get());
+        assertEquals(4, metrics.load.count.get());
+        assertEquals(4, metrics.link.count.get());
+        assertEquals(0, metrics.parse.count.get());
+        assertEquals(1, metrics.registryHits.get());
+        assertEquals(4, metrics.registryMisses.get());
+        assertEquals(1, metrics.negativeCacheHits.get());
+        assertEquals(1, metrics.loadFailures.get());
+        
+        final ArrayList<MetadataMetrics.ModuleLoadTime> slowest = metrics.getSlowestModules();
+        assertEquals(3, slowest.size());
+        for (int i = 1; i < slowest.size(); ++i) {
+            assertTrue(slowest.get(i - 1).nanos >= slowest.get(i).nanos);
+        }
+        
+        // No metrics are collected after they are reset.
+        registry.setMetrics(null);
+        registry.resolveModule("foo");
+        assertEquals(1, metrics.registryHits.get());
+        assertNull(MetadataMetrics.current());
+    }
+    
     private static void assertModule(final Module module, final String path, final Module... dependencies)
     {
         assertModule(module, path, Collections.<String, Object>emptyMap(), dependencies);
@@ -528,4 +773,22 @@ public class ModuleRegistryTest extends TestCase
             return path.endsWith("_norm") ? path : path + "_norm";
         }
     }
+    
+    private static class ValidatingMockModuleLoader extends MockModuleLoader implements ValidatingModuleLoader
+    {
+        public final HashMap<String, String> validityKeys = new HashMap<String, String>();
+        public int validityKeyCalls;
+        
+        // Does nothing, just prevents synthetic garbage to be created by a java compiler.
+        public ValidatingMockModuleLoader()
+        {
+        }
+        
+        public String getValidityKey(final String normalisedPath)
+        {
+            assertNotNull(normalisedPath);
+            ++validityKeyCalls;
+            return validityKeys.get(normalisedPath);
+        }
+    }
 }
@@ -0,0 +1,347 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import antmodular.Module;
+import antmodular.ModuleInfo;
+import antmodular.ModuleLoader;
+import antmodular.ModuleNotLoadedException;
+import antmodular.ModuleRegistry;
+
+import junit.framework.TestCase;
+
+public class ModuleRegistry_ConcurrentUseTest extends TestCase
+{
+    private ConcurrentMockModuleLoader moduleLoader;
+    private ModuleRegistry registry;
+    
+    @Override
+    protected void setUp()
+    {
+        moduleLoader = new ConcurrentMockModuleLoader();
+        registry = new ModuleRegistry(moduleLoader, 4);
+    }
+    
+    @Override
+    protected void tearDown()
+    {
+        registry = null;
+        moduleLoader = null;
+    }
+    
+    public void testInvalidLoaderThreadCount()
+    {
+        try {
+            new ModuleRegistry(moduleLoader, 0);
+            fail();
+        }
+        catch (IllegalArgumentException ex) {
+            assertEquals("Invalid loader thread count: '0'. It must be a positive value.", ex.getMessage());
+        }
+    }
+    
+    public void testDiamondDependencies() throws Exception
+    {
+        final ModuleInfo foo = new ModuleInfo("foo", moduleLoader);
+        foo.addDependency("bar");
+        foo.addDependency("baz");
+        foo.addAttribute("1", "2");
+        final ModuleInfo bar = new ModuleInfo("bar", moduleLoader);
+        bar.addDependency("qux");
+        final ModuleInfo baz = new ModuleInfo("baz", moduleLoader);
+        baz.addDependency("qux");
+        final ModuleInfo qux = new ModuleInfo("qux", moduleLoader);
+        moduleLoader.results.put("foo_norm", foo);
+        moduleLoader.results.put("bar_norm", bar);
+        moduleLoader.results.put("baz_norm", baz);
+        moduleLoader.results.put("qux_norm", qux);
+        
+        final Module m1 = registry.resolveModule("foo");
+        final Module m2 = registry.resolveModule("bar");
+        final Module m3 = registry.resolveModule("baz");
+        final Module m4 = registry.resolveModule("qux");
+        
+        assertEquals("foo_norm", m1.getPath());
+        assertEquals(TestUtil.map("1", "2"), m1.getAttributes());
+        assertEquals(TestUtil.set(m2, m3), m1.getDependencies());
+        assertEquals(TestUtil.set(m4), m2.getDependencies());
+        assertEquals(TestUtil.set(m4), m3.getDependencies());
+        assertEquals(TestUtil.set(), m4.getDependencies());
+        
+        assertEquals(4, moduleLoader.paths.size());
+        assertEquals(TestUtil.set("foo_norm", "bar_norm", "baz_norm", "qux_norm"),
+                new HashSet<String>(moduleLoader.paths));
+    }
+    
+    public void testResolveModules() throws Exception
+    {
+        final int n = 100;
+        final ArrayList<String> roots = new ArrayList<String>();
+        for (int i = 0; i < n; ++i) {
+            final ModuleInfo moduleInfo = new ModuleInfo("m" + i, moduleLoader);
+            moduleInfo.addDependency("common");
+            moduleLoader.results.put("m" + i + "_norm", moduleInfo);
+            roots.add("m" + i);
+        }
+        moduleLoader.results.put("common_norm", new ModuleInfo("common", moduleLoader));
+        
+        final List<Module> modules = registry.resolveModules(roots.iterator());
+        
+        assertEquals(n, modules.size());
+        final Module common = registry.resolveModule("common");
+        for (int i = 0; i < n; ++i) {
+            assertEquals("m" + i + "_norm", modules.get(i).getPath());
+            assertEquals(TestUtil.set(common), modules.get(i).getDependencies());
+        }
+        assertEquals(n + 1, moduleLoader.paths.size());
+    }
+    
+    public void testResolveModules_ModuleNotLoaded() throws Exception
+    {
+        moduleLoader.results.put("foo_norm", new ModuleInfo("foo", moduleLoader));
+        final ModuleNotLoadedException error = new ModuleNotLoadedException();
+        moduleLoader.results.put("bar_norm", error);
+        final Iterator<String> roots = Arrays.asList("foo", "bar", "baz").iterator();
+        
+        try {
+            registry.resolveModules(roots);
+            fail();
+        }
+        catch (ModuleNotLoadedException ex) {
+            assertSame(error, ex);
+        }
+        assertEquals("baz", roots.next());
+    }
+    
+    public void testResolveModules_Collection() throws Exception
+    {
+        final ModuleInfo foo = new ModuleInfo("foo", moduleLoader);
+        foo.addDependency("common");
+        final ModuleInfo bar = new ModuleInfo("bar", moduleLoader);
+        bar.addDependency("common");
+        moduleLoader.results.put("foo_norm", foo);
+        moduleLoader.results.put("bar_norm", bar);
+        moduleLoader.results.put("common_norm", new ModuleInfo("common", moduleLoader));
+        moduleLoader.delays.put("foo_norm", Long.valueOf(200));
+        
+        final List<Module> modules = registry.resolveModules(Arrays.asList("foo", "bar", "foo_norm"));
+        
+        assertEquals(3, modules.size());
+        assertEquals("foo_norm", modules.get(0).getPath());
+        assertEquals("bar_norm", modules.get(1).getPath());
+        assertSame(modules.get(0), modules.get(2));
+        assertEquals(3, moduleLoader.paths.size());
+        // bar/ is scheduled before foo/ is linked, so it is loaded while foo/ is still being loaded.
+        assertEquals("bar_norm", moduleLoader.loadedPaths.get(0));
+    }
+    
+    public void testResolveModules_Collection_ModuleNotLoaded() throws Exception
+    {
+        final ModuleNotLoadedException fooError = new ModuleNotLoadedException("foo is not loaded");
+        final ModuleNotLoadedException barError = new ModuleNotLoadedException("bar is not loaded");
+        moduleLoader.results.put("foo_norm", fooError);
+        moduleLoader.results.put("bar_norm", barError);
+        moduleLoader.delays.put("foo_norm", Long.valueOf(100));
+        
+        // The error reported does not depend on which metadata are loaded first.
+        try {
+            registry.resolveModules(Arrays.asList("foo", "bar"));
+            fail();
+        }
+        catch (ModuleNotLoadedException ex) {
+            assertSame(fooError, ex);
+        }
+    }
+    
+    public void testCyclicDependencies() throws Exception
+    {
+        final ModuleInfo foo = new ModuleInfo("foo", moduleLoader);
+        foo.addDependency("bar");
+        final ModuleInfo bar = new ModuleInfo("bar", moduleLoader);
+        bar.addDependency("foo");
+        moduleLoader.results.put("foo_norm", foo);
+        moduleLoader.results.put("bar_norm", bar);
+        
+        final Module m1 = registry.resolveModule("foo");
+        final Module m2 = registry.resolveModule("bar");
+        
+        assertEquals(TestUtil.set(m2), m1.getDependencies());
+        assertEquals(TestUtil.set(m1), m2.getDependencies());
+        assertEquals(2, moduleLoader.paths.size());
+    }
+    
+    public void testLargeGraph_EachModuleIsLoadedOnce() throws Exception
+    {
+        final int n = 500;
+        for (int i = 0; i < n; ++i) {
+            final ModuleInfo moduleInfo = new ModuleInfo("m" + i, moduleLoader);
+            for (int j = i + 1; j < n && j < i + 5; ++j) {
+                moduleInfo.addDependency("m" + j);
+            }
+            moduleLoader.results.put("m" + i + "_norm", moduleInfo);
+        }
+        
+        final Module root = registry.resolveModule("m0");
+        
+        assertEquals(n, moduleLoader.paths.size());
+        assertEquals(n, new HashSet<String>(moduleLoader.paths).size());
+        assertEquals(4, root.getDependencies().size());
+        for (int i = 0; i < n; ++i) {
+            assertSame(registry.resolveModule("m" + i), registry.resolveModule("m" + i + "_norm"));
+        }
+        assertEquals(n, moduleLoader.paths.size());
+    }
+    
+    public void testModuleNotLoaded_DependeeModule() throws Exception
+    {
+        final ModuleInfo foo = new ModuleInfo("foo", moduleLoader);
+        foo.addDependency("bar");
+        final ModuleNotLoadedException exception = new ModuleNotLoadedException("bar is not loaded");
+        moduleLoader.results.put("foo_norm", foo);
+        moduleLoader.results.put("bar_norm", exception);
+        
+        try {
+            registry.resolveModule("foo");
+            fail();
+        }
+        catch (ModuleNotLoadedException ex) {
+            assertSame(exception, ex);
+        }
+        
+        // Negative caching: neither module is loaded again.
+        try {
+            registry.resolveModule("foo");
+            fail();
+        }
+        catch (ModuleNotLoadedException ex) {
+            assertEquals("foo_norm", ex.getMessage());
+        }
+        try {
+            registry.resolveModule("bar");
+            fail();
+        }
+        catch (ModuleNotLoadedException ex) {
+            assertEquals("bar_norm", ex.getMessage());
+        }
+        assertEquals(2, moduleLoader.paths.size());
+    }
+    
+    /* The error reported is the one the sequential loading encounters first, even if
+       the metadata of some other failed module are loaded earlier. */
+    public void testModuleNotLoaded_DeterministicError() throws Exception
+    {
+        final ModuleInfo foo = new ModuleInfo("foo", moduleLoader);
+        foo.addDependency("bar");
+        final ModuleInfo bar = new ModuleInfo("bar", moduleLoader);
+        bar.addDependency("baz");
+        bar.addDependency("qux");
+        final ModuleNotLoadedException bazException = new ModuleNotLoadedException("baz is not loaded");
+        final ModuleNotLoadedException quxException = new ModuleNotLoadedException("qux is not loaded");
+        moduleLoader.results.put("foo_norm", foo);
+        moduleLoader.results.put("bar_norm", bar);
+        moduleLoader.results.put("baz_norm", bazException);
+        moduleLoader.results.put("qux_norm", quxException);
+        moduleLoader.delays.put("baz_norm", Long.valueOf(100));
+        
+        final ModuleNotLoadedException expected =
+                bar.getDependencies().iterator().next().equals("baz_norm") ? bazException : quxException;
+        
+        try {
+            registry.resolveModule("foo");
+            fail();
+        }
+        catch (ModuleNotLoadedException ex) {
+            assertSame(expected, ex);
+        }
+    }
+    
+    public void testRuntimeExceptionIsPropagated() throws Exception
+    {
+        final ModuleInfo foo = new ModuleInfo("foo", moduleLoader);
+        foo.addDependency("bar");
+        final RuntimeException exception = new RuntimeException("test");
+        moduleLoader.results.put("foo_norm", foo);
+        moduleLoader.results.put("bar_norm", exception);
+        
+        try {
+            registry.resolveModule("foo");
+            fail();
+        }
+        catch (RuntimeException ex) {
+            assertSame(exception, ex);
+        }
+    }
+    
+    private static class ConcurrentMockModuleLoader implements ModuleLoader
+    {
+        public final List<String> paths = Collections.synchronizedList(new ArrayList<String>());
+        // The paths of the modules in the order their metadata are loaded.
+        public final List<String> loadedPaths = Collections.synchronizedList(new ArrayList<String>());
+        public final ConcurrentHashMap<String, Object> results = new ConcurrentHashMap<String, Object>();
+        public final ConcurrentHashMap<String, Long> delays = new ConcurrentHashMap<String, Long>();
+        
+        // Does nothing, just prevents synthetic garbage to be created by a java compiler.
+        public ConcurrentMockModuleLoader()
+        {
+        }
+        
+        public ModuleInfo loadModule(final String path) throws ModuleNotLoadedException
+        {
+            assertNotNull(path);
+            paths.add(path);
+            final Long delay = delays.get(path);
+            if (delay != null) {
+                try {
+                    Thread.sleep(delay.longValue());
+                }
+                catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            final Object result = results.get(path);
+            assertNotNull(result);
+            loadedPaths.add(path);
+            if (result instanceof ModuleNotLoadedException) {
+                throw (ModuleNotLoadedException) result;
+            }
+            if (result instanceof RuntimeException) {
+                throw (RuntimeException) result;
+            }
+            return (ModuleInfo) result;
+        }
+        
+        public String normalisePath(final String path)
+        {
+            assertNotNull(path);
+            return path.endsWith("_norm") ? path : path + "_norm";
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+
+import antmodular.ModuleSet;
+
+public class ModuleSetTest extends TestCase
+{
+    private File baseDir;
+    private Project project;
+    private ModuleSet moduleSet;
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        baseDir = TestFiles.createTempDir("ModuleSetTest");
+        project = new Project();
+        project.setBaseDir(baseDir);
+        moduleSet = new ModuleSet();
+        moduleSet.setProject(project);
+        moduleSet.setDir(baseDir);
+    }
+    
+    @Override
+    protected void tearDown()
+    {
+        TestFiles.delete(baseDir);
+        moduleSet = null;
+        project = null;
+        baseDir = null;
+    }
+    
+    public void testDiscover_DefaultIncludes() throws Exception
+    {
+        createFile("a/META-INF/MANIFEST.MF");
+        createFile("a/nested/META-INF/MANIFEST.MF");
+        createFile("b/c/META-INF/MANIFEST.MF");
+        createFile("d/META-INF/OTHER.MF");
+        createDir("e/META-INF/MANIFEST.MF");
+        createFile("f/MANIFEST.MF");
+        
+        assertEquals(paths("a", "b/c"), discover());
+    }
+    
+    public void testDiscover_RootDirIsModule() throws Exception
+    {
+        createFile("META-INF/MANIFEST.MF");
+        createFile("a/META-INF/MANIFEST.MF");
+        
+        assertEquals(paths(""), discover());
+    }
+    
+    public void testDiscover_NoModules() throws Exception
+    {
+        createFile("a/b/c.txt");
+        
+        assertEquals(paths(), discover());
+    }
+    
+    public void testDiscover_Excludes() throws Exception
+    {
+        createFile("a/META-INF/MANIFEST.MF");
+        createFile("legacy/b/META-INF/MANIFEST.MF");
+        createFile("c/test-data/META-INF/MANIFEST.MF");
+        createFile("c/d/META-INF/MANIFEST.MF");
+        moduleSet.setExcludes("legacy/**, **/test-data");
+        
+        assertEquals(paths("a", "c/d"), discover());
+    }
+    
+    public void testDiscover_DefaultExcludes() throws Exception
+    {
+        createFile("a/META-INF/MANIFEST.MF");
+        createFile(".git/b/META-INF/MANIFEST.MF");
+        
+        assertEquals(paths("a"), discover());
+        
+        moduleSet.setDefaultexcludes(false);
+        
+        assertEquals(paths("a", ".git/b"), discover());
+    }
+    
+    public void testDiscover_CustomIncludes() throws Exception
+    {
+        createFile("modules/a/build.xml");
+        createFile("modules/b/build.xml");
+        createFile("modules/c/d/build.xml");
+        createFile("other/e/build.xml");
+        createFile("tools/f/module.properties");
+        moduleSet.setIncludes("modules/*/build.xml tools/**/module.properties");
+        
+        assertEquals(paths("modules/a", "modules/b", "tools/f"), discover());
+    }
+    
+    public void testDiscover_ManyModules() throws Exception
+    {
+        final HashSet<String> expected = new HashSet<String>();
+        for (int i = 0; i < 20; ++i) {
+            for (int j = 0; j < 10; ++j) {
+                final String path = "group" + i + "/module" + j;
+                createFile(path + "/META-INF/MANIFEST.MF");
+                createFile(path + "/src/Foo.java");
+                expected.add(new File(baseDir, path).getPath());
+            }
+        }
+        moduleSet.setThreadCount(4);
+        
+        assertEquals(expected, discover());
+    }
+    
+    public void testDiscover_RelativeDir() throws Exception
+    {
+        createFile("x/a/META-INF/MANIFEST.MF");
+        moduleSet.setDir(new File("x"));
+        
+        assertEquals(paths("x/a"), discover());
+    }
+    
+    public void testDiscover_SymbolicLinkCycle() throws Exception
+    {
+        createFile("a/META-INF/MANIFEST.MF");
+        createDir("b");
+        if (!link(baseDir, new File(baseDir, "b/loop"))) {
+            // Symbolic links are not supported.
+            return;
+        }
+        
+        assertEquals(paths("a"), discover());
+    }
+    
+    public void testCancel() throws Exception
+    {
+        for (int i = 0; i < 100; ++i) {
+            createFile("m" + i + "/META-INF/MANIFEST.MF");
+        }
+        final ModuleSet.Discovery discovery = moduleSet.discover();
+        assertTrue(discovery.hasNext());
+        discovery.next();
+        
+        discovery.cancel();
+        
+        assertFalse(discovery.hasNext());
+    }
+    
+    public void testDirUndefined()
+    {
+        moduleSet.setDir(null);
+        
+        try {
+            moduleSet.discover();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The attribute 'dir' of the element <moduleset> is undefined.", ex.getMessage());
+        }
+    }
+    
+    public void testDirDoesNotExist()
+    {
+        final File dir = new File(baseDir, "nonExistent");
+        moduleSet.setDir(dir);
+        
+        try {
+            moduleSet.discover();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The directory '" + dir + "' of the element <moduleset> does not exist.", ex.getMessage());
+        }
+    }
+    
+    public void testIncludePatternWithNoMarker()
+    {
+        moduleSet.setIncludes("**/*.MF");
+        
+        try {
+            moduleSet.discover();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The include pattern '**" + File.separator + "*.MF' of the element <moduleset> must end " +
+                    "with the path of a file that marks a module directory.", ex.getMessage());
+        }
+    }
+    
+    public void testEmptyIncludes()
+    {
+        moduleSet.setIncludes(" , ");
+        
+        try {
+            moduleSet.discover();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The attribute 'includes' of the element <moduleset> is empty.", ex.getMessage());
+        }
+    }
+    
+    public void testInvalidThreadCount()
+    {
+        try {
+            moduleSet.setThreadCount(0);
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("Invalid thread count: '0'. It must be a positive value.", ex.getMessage());
+        }
+    }
+    
+    private Set<String> discover()
+    {
+        final HashSet<String> result = new HashSet<String>();
+        final ModuleSet.Discovery discovery = moduleSet.discover();
+        while (discovery.hasNext()) {
+            assertTrue(result.add(discovery.next()));
+        }
+        return result;
+    }
+    
+    private Set<String> paths(final String... relativePaths)
+    {
+        final HashSet<String> result = new HashSet<String>();
+        for (final String relativePath : relativePaths) {
+            result.add(relativePath.length() == 0 ? baseDir.getPath() : new File(baseDir, relativePath).getPath());
+        }
+        return result;
+    }
+    
+    private void createFile(final String relativePath) throws Exception
+    {
+        final File file = new File(baseDir, relativePath);
+        file.getParentFile().mkdirs();
+        assertTrue(file.createNewFile());
+    }
+    
+    private void createDir(final String relativePath)
+    {
+        assertTrue(new File(baseDir, relativePath).mkdirs());
+    }
+    
+    private static boolean link(final File target, final File link)
+    {
+        try {
+            final Process process = Runtime.getRuntime().exec(new String[] {"ln", "-s",
+                    target.getAbsolutePath(), link.getAbsolutePath()});
+            return process.waitFor() == 0;
+        }
+        catch (Exception ex) {
+            return false;
+        }
+    }
+}
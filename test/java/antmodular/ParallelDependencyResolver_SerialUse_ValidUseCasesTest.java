@@ -25,6 +25,7 @@ package antmodular;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.regex.Pattern;
 
@@ -762,6 +763,53 @@ public class ParallelDependencyResolver_SerialUse_ValidUseCasesTest extends Test
         }
     }
     
+    public void testPriority() throws Exception
+    {
+        final Module module1 = module("a");
+        final Module module2 = module("b");
+        final Module module3 = module("c");
+        final Module module4 = module("d");
+        module4.setDependencies(new Module[]{module1});
+        
+        // The modules with greater paths have the higher priority.
+        resolver.init(Arrays.asList(module1, module2, module3, module4), new Comparator<Module>()
+        {
+            public int compare(final Module m1, final Module m2)
+            {
+                return m1.getPath().compareTo(m2.getPath());
+            }
+        });
+        
+        assertSame(module3, resolver.getFreeModule());
+        assertSame(module2, resolver.getFreeModule());
+        assertSame(module1, resolver.getFreeModule());
+        assertSame(null, resolver.pollFreeModule());
+        resolver.moduleProcessed(module1);
+        assertSame(module4, resolver.pollFreeModule());
+        resolver.moduleProcessed(module2);
+        resolver.moduleProcessed(module3);
+        resolver.moduleProcessed(module4);
+        assertSame(null, resolver.getFreeModule());
+    }
+    
+    public void testPriority_SamePriority() throws Exception
+    {
+        final Module module1 = module("foo");
+        final Module module2 = module("bar");
+        final Module module3 = module("baz");
+        
+        // The module that has become free most recently is acquired first.
+        resolver.init(Arrays.asList(module1, module2, module3), new Comparator<Module>()
+        {
+            public int compare(final Module m1, final Module m2)
+            {
+                return 0;
+            }
+        });
+        
+        assertEquals(Arrays.asList(module3, module2, module1), flushModules(resolver, 3));
+    }
+    
     private static ArrayList<Module> flushModules(final ParallelDependencyResolver resolver, final int moduleCount)
     {
         final ArrayList<Module> result = new ArrayList<Module>();
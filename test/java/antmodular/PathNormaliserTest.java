@@ -0,0 +1,203 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.File;
+import java.util.Random;
+
+import antmodular.ModuleUtil;
+import antmodular.PathNormaliser;
+
+import junit.framework.TestCase;
+
+public class PathNormaliserTest extends TestCase
+{
+    /* The cases of ModuleUtil_NormalisePathTest:
+     * {expected normalised path, path, base directory, normalise case}.
+     */
+    private static final String[][] CASES = {
+        {".", "", "", "false"},
+        {"foo", "foo", "", "false"},
+        {"foo", "foo/", "", "false"},
+        {"foo/bar/baz", "foo/bar/baz", "", "false"},
+        {"foo/bar/baz", "foo/bar/baz/", "", "false"},
+        {".", ".", "", "false"},
+        {".", "./", "", "false"},
+        {"foo/bar/baz", "./foo/bar/baz", "", "false"},
+        {"foo/bar/baz", "foo/bar/./baz/", "", "false"},
+        {"foo/baz", "foo/bar/../baz/", "", "false"},
+        {"foo/baz", "foo/./bar/.././baz/quux/../", "", "false"},
+        {"foo/baz", "foo/./bar/.././baz/quux/../", "/hello/world", "false"},
+        {"../foo", "../foo/", "/hello/world", "false"},
+        {"../foo/baz", "../foo/bar/../baz/./quux/..", "/hello/world", "false"},
+        {"..", "../../hello", "/hello/world", "false"},
+        {"../universe", "../../hello/universe", "/hello/world", "false"},
+        {"..", "../../hello/universe/..", "/hello/world", "false"},
+        {"foo", "../world/foo", "/hello/world", "false"},
+        {".", "../world", "/hello/world", "false"},
+        {"foo/baz", "../qwe/../../hello/world/foo/bar/../baz/./quux/..", "/hello/world", "false"},
+        {"foo/baz", "../qwe/../../../hello/world/foo/bar/../baz/./quux/..", "/hello/world", "false"},
+        {".", "/hello/world", "/hello/world", "false"},
+        {".", "/hello/../../hello/world/foo/..", "/hello/world", "false"},
+        {"..", "/hello", "/hello/world", "false"},
+        {"../..", "/", "/hello/world", "false"},
+        {"foo", "/hello/world/foo", "/hello/world", "false"},
+        {"foo/bar", "/hello/world/foo/./bar/baz/..", "/hello/world/", "false"},
+        {"bar", "foo/../bar/baz/..", "hello/./../world", "false"},
+        {"foo/bar", "/hello/world/foo/./bar/baz/..", "/hello/./world", "false"},
+        {"foo/bar", "/world/foo/./bar/baz/..", "/hello/./../../world", "false"},
+        {"baz", "foo/bar/../../../baz", "/", "false"},
+        {"foo/baz", "../../../foo/bar/../baz", "/", "false"},
+        {".", "../../..", "/", "false"},
+        {"baz", "foo/bar/../../../baz", "/hello/world/../../../", "false"},
+        {"../../foo/bar", "../../foo/bar", "/hello/world", "false"},
+        {"../../../foo/world/baz", "../../../foo/world/../world/baz", "/hello/world/baz", "false"},
+        {"fOO/Bar", "/hello/world/fOO/Bar", "/hello/world/", "false"},
+        {"foo/bar", "/hello/world/fOO/Bar", "/hello/world/", "true"}
+    };
+    
+    public void testNormalise_NullBaseDir()
+    {
+        try {
+            new PathNormaliser(null);
+            fail();
+        }
+        catch (NullPointerException ex) {
+            assertEquals("baseDir", ex.getMessage());
+        }
+    }
+    
+    public void testNormalise_NegativeCacheSize()
+    {
+        try {
+            new PathNormaliser(new File(""), false, -1);
+            fail();
+        }
+        catch (IllegalArgumentException ex) {
+            assertEquals("cacheSize", ex.getMessage());
+        }
+    }
+    
+    public void testNormalise_NullPath()
+    {
+        try {
+            new PathNormaliser(new File("")).normalise(null);
+            fail();
+        }
+        catch (NullPointerException ex) {
+            assertEquals("path", ex.getMessage());
+        }
+    }
+    
+    public void testNormalise_ModuleUtilCases()
+    {
+        for (final String[] c : CASES) {
+            final File baseDir = new File(c[2]);
+            final boolean normaliseCase = Boolean.parseBoolean(c[3]);
+            
+            assertEquals(c[1], c[0], new PathNormaliser(baseDir, normaliseCase, 0).normalise(c[1]));
+            assertEquals(c[1], c[0], new PathNormaliser(baseDir, normaliseCase, 16).normalise(c[1]));
+            assertEquals(c[1], c[0], ModuleUtil.normalisePath(c[1], baseDir, normaliseCase));
+        }
+    }
+    
+    public void testNormalise_SameResultsAsModuleUtil_RandomPaths()
+    {
+        final String[] baseDirs = {"", "hello/./../world", "/", "/hello/world", "/hello/world/baz",
+                "/hello/./../../world", "/hello/world/../../../"};
+        final String[] elements = {"hello", "world", "baz", "foo", "Foo", ".", "..", ""};
+        final Random random = new Random(239);
+        
+        for (final String baseDirPath : baseDirs) {
+            final File baseDir = new File(baseDirPath);
+            final PathNormaliser normaliser = new PathNormaliser(baseDir, false, 64);
+            final PathNormaliser caseNormaliser = new PathNormaliser(baseDir, true, 0);
+            
+            for (int i = 0; i < 2000; ++i) {
+                final StringBuilder buf = new StringBuilder();
+                if (random.nextBoolean()) {
+                    buf.append('/');
+                }
+                for (int j = 0, n = random.nextInt(8); j < n; ++j) {
+                    if (j > 0) {
+                        buf.append('/');
+                    }
+                    buf.append(elements[random.nextInt(elements.length)]);
+                }
+                final String path = buf.toString();
+                
+                assertEquals(path, ModuleUtil.normalisePath(path, baseDir), normaliser.normalise(path));
+                assertEquals(path, ModuleUtil.normalisePath(path, baseDir, true),
+                        caseNormaliser.normalise(path));
+            }
+        }
+    }
+    
+    public void testNormalise_ResultsAreCached()
+    {
+        final PathNormaliser normaliser = new PathNormaliser(new File("/hello/world"), false, 16);
+        
+        assertEquals(0, normaliser.getCachedPathCount());
+        
+        final String normalisedPath = normaliser.normalise("foo/../bar");
+        assertEquals("bar", normalisedPath);
+        assertEquals(1, normaliser.getCachedPathCount());
+        
+        assertSame(normalisedPath, normaliser.normalise("foo/../bar"));
+        assertEquals(1, normaliser.getCachedPathCount());
+        
+        assertEquals("bar", normaliser.normalise("/hello/world/bar"));
+        assertEquals(2, normaliser.getCachedPathCount());
+    }
+    
+    public void testNormalise_CacheIsBounded()
+    {
+        final PathNormaliser normaliser = new PathNormaliser(new File("/hello/world"), false, 2);
+        
+        final String foo = normaliser.normalise("foo");
+        normaliser.normalise("bar");
+        // Making 'foo' the most recently used path so that 'bar' is evicted first.
+        assertSame(foo, normaliser.normalise("foo"));
+        normaliser.normalise("baz");
+        
+        assertEquals(2, normaliser.getCachedPathCount());
+        assertSame(foo, normaliser.normalise("foo"));
+        assertEquals(2, normaliser.getCachedPathCount());
+    }
+    
+    public void testNormalise_NoCache()
+    {
+        final PathNormaliser normaliser = new PathNormaliser(new File("/hello/world"), false, 0);
+        
+        assertEquals("foo", normaliser.normalise("foo"));
+        assertEquals("foo", normaliser.normalise("foo"));
+        assertEquals(0, normaliser.getCachedPathCount());
+    }
+    
+    public void testGetBaseDir()
+    {
+        final File baseDir = new File("/hello/world");
+        
+        assertSame(baseDir, new PathNormaliser(baseDir).getBaseDir());
+    }
+}
@@ -0,0 +1,262 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.TestCase;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.MagicNames;
+import org.apache.tools.ant.types.Reference;
+
+import antmodular.CallTargetForModules;
+import antmodular.ModuleInfo;
+import antmodular.ModuleRegistry;
+import antmodular.SharedModuleRegistry;
+import antmodular.ValidatingModuleLoader;
+
+public class SharedModuleRegistryTest extends TestCase
+{
+    private MockProject project;
+    private SharedModuleRegistry sharedRegistry;
+    private CountingModuleLoader moduleLoader;
+    
+    @Override
+    protected void setUp()
+    {
+        project = new MockProject();
+        project.setProperty(MagicNames.ANT_FILE, "ant_file");
+        sharedRegistry = new SharedModuleRegistry();
+        sharedRegistry.setProject(project);
+        moduleLoader = new CountingModuleLoader();
+    }
+    
+    @Override
+    protected void tearDown()
+    {
+        moduleLoader = null;
+        sharedRegistry = null;
+        project = null;
+    }
+    
+    public void testGetRegistry_SameRegistryIsReturned() throws Exception
+    {
+        final ModuleInfo foo = new ModuleInfo("foo/", moduleLoader);
+        moduleLoader.modules.put("foo/", foo);
+        sharedRegistry.addConfigured(moduleLoader);
+        
+        final ModuleRegistry registry = sharedRegistry.getRegistry();
+        assertNotNull(registry);
+        final Module m1 = registry.resolveModule("foo");
+        
+        assertSame(registry, sharedRegistry.getRegistry());
+        assertSame(m1, sharedRegistry.getRegistry().resolveModule("foo"));
+        assertEquals(1, moduleLoader.loadCount("foo/"));
+    }
+    
+    public void testGetRegistry_NoModuleLoader()
+    {
+        try {
+            sharedRegistry.getRegistry();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("No module loader is defined.", ex.getMessage());
+        }
+    }
+    
+    public void testAddConfigured_MoreThanOneModuleLoader()
+    {
+        sharedRegistry.addConfigured(moduleLoader);
+        
+        try {
+            sharedRegistry.addConfigured(new MockModuleLoader());
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("Only a single module loader element is allowed.", ex.getMessage());
+        }
+    }
+    
+    public void testAddConfigured_NullModuleLoader()
+    {
+        try {
+            sharedRegistry.addConfigured(null);
+            fail();
+        }
+        catch (NullPointerException ex) {
+            assertEquals("moduleLoader", ex.getMessage());
+        }
+    }
+    
+    public void testSetLoaderThreadCount_InvalidValue()
+    {
+        try {
+            sharedRegistry.setLoaderThreadCount(0);
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("Invalid loader thread count: '0'. It must be a positive value.", ex.getMessage());
+        }
+    }
+    
+    public void testSetInvalidation_UnsupportedMode()
+    {
+        try {
+            sharedRegistry.setInvalidation("always");
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("Unsupported invalidation mode: 'always'. Expected: 'none' or 'mtime'.", ex.getMessage());
+        }
+    }
+    
+    public void testMtimeInvalidation_NonValidatingModuleLoader()
+    {
+        sharedRegistry.addConfigured(new MockModuleLoader());
+        sharedRegistry.setInvalidation("mtime");
+        
+        try {
+            sharedRegistry.getRegistry();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The invalidation mode 'mtime' requires the module loader to implement " +
+                    "'antmodular.ValidatingModuleLoader'.", ex.getMessage());
+        }
+    }
+    
+    public void testMtimeInvalidation_ChangedModulesAreReloaded() throws Exception
+    {
+        final ModuleInfo foo = new ModuleInfo("foo/", moduleLoader);
+        foo.addDependency("bar/");
+        moduleLoader.modules.put("foo/", foo);
+        moduleLoader.modules.put("bar/", new ModuleInfo("bar/", moduleLoader));
+        moduleLoader.modules.put("baz/", new ModuleInfo("baz/", moduleLoader));
+        moduleLoader.validityKeys.put("foo/", "1");
+        moduleLoader.validityKeys.put("bar/", "1");
+        moduleLoader.validityKeys.put("baz/", "1");
+        sharedRegistry.addConfigured(moduleLoader);
+        sharedRegistry.setInvalidation("mtime");
+        
+        final Module m1 = sharedRegistry.getRegistry().resolveModule("foo");
+        final Module m3 = sharedRegistry.getRegistry().resolveModule("baz");
+        assertSame(m1, sharedRegistry.getRegistry().resolveModule("foo"));
+        
+        moduleLoader.validityKeys.put("bar/", "2");
+        
+        final ModuleRegistry registry = sharedRegistry.getRegistry();
+        assertNotSame(m1, registry.resolveModule("foo"));
+        assertSame(m3, registry.resolveModule("baz"));
+        assertEquals(2, moduleLoader.loadCount("foo/"));
+        assertEquals(2, moduleLoader.loadCount("bar/"));
+        assertEquals(1, moduleLoader.loadCount("baz/"));
+    }
+    
+    public void testGetRegistryByReference_InvalidType()
+    {
+        project.addReference("registry", "notARegistry");
+        
+        try {
+            SharedModuleRegistry.getRegistry(new Reference(project, "registry"));
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("Invalid module registry type is found via the reference 'registry'. " +
+                    "Expected: 'antmodular.SharedModuleRegistry', found: 'java.lang.String'.", ex.getMessage());
+        }
+    }
+    
+    public void testCallTargetForModules_ModulesAreLoadedOnce()
+    {
+        final ModuleInfo foo = new ModuleInfo("foo/", moduleLoader);
+        foo.addDependency("bar/");
+        final ModuleInfo bar = new ModuleInfo("bar/", moduleLoader);
+        moduleLoader.modules.put("foo/", foo);
+        moduleLoader.modules.put("bar/", bar);
+        sharedRegistry.addConfigured(moduleLoader);
+        project.addReference("registry", sharedRegistry);
+        
+        for (int i = 0; i < 3; ++i) {
+            final MockCallTargetTask barTask = new MockCallTargetTask(project);
+            final MockCallTargetTask fooTask = new MockCallTargetTask(project);
+            project.tasks.add(barTask);
+            project.tasks.add(fooTask);
+            
+            final CallTargetForModules task = new CallTargetForModules();
+            task.setProject(project);
+            task.init();
+            task.setTarget("testTarget");
+            task.setModuleRefId("moduleRef");
+            task.createModule().setPath("foo");
+            task.setModuleRegistryRefId(new Reference(project, "registry"));
+            
+            task.perform();
+            
+            TestUtil.assertCallTargetState(barTask, true, "testTarget", true, false, "moduleRef", bar,
+                    TestUtil.<String, Object>map(), TestUtil.<String, Object>map("registry", sharedRegistry));
+            TestUtil.assertCallTargetState(fooTask, true, "testTarget", true, false, "moduleRef", foo,
+                    TestUtil.<String, Object>map(), TestUtil.<String, Object>map("registry", sharedRegistry));
+        }
+        
+        assertEquals(1, moduleLoader.loadCount("foo/"));
+        assertEquals(1, moduleLoader.loadCount("bar/"));
+    }
+    
+    private static class CountingModuleLoader extends MockModuleLoader implements ValidatingModuleLoader
+    {
+        public final ArrayList<String> loadedPaths = new ArrayList<String>();
+        public final HashMap<String, String> validityKeys = new HashMap<String, String>();
+        
+        // Does nothing, just prevents synthetic garbage to be created by a java compiler.
+        public CountingModuleLoader()
+        {
+        }
+        
+        @Override
+        public synchronized ModuleInfo loadModule(final String path) throws ModuleNotLoadedException
+        {
+            loadedPaths.add(path);
+            return super.loadModule(path);
+        }
+        
+        public synchronized String getValidityKey(final String normalisedPath)
+        {
+            assertNotNull(normalisedPath);
+            return validityKeys.get(normalisedPath);
+        }
+        
+        public synchronized int loadCount(final String path)
+        {
+            int count = 0;
+            for (final String loadedPath : loadedPaths) {
+                if (loadedPath.equals(path)) {
+                    ++count;
+                }
+            }
+            return count;
+        }
+    }
+}
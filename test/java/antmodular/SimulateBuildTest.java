@@ -0,0 +1,214 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+
+import antmodular.ModuleDurations;
+import antmodular.SimulateBuild;
+
+public class SimulateBuildTest extends TestCase
+{
+    private Project project;
+    private SimulateBuild task;
+    private MockModuleLoader moduleLoader;
+    private File durationsFile;
+    private RecordingBuildListener listener;
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        project = new Project();
+        listener = new RecordingBuildListener(SimulateBuild.class);
+        project.addBuildListener(listener);
+        task = new SimulateBuild();
+        task.setProject(project);
+        
+        // A chain of two long modules and three short independent modules.
+        moduleLoader = new MockModuleLoader();
+        moduleLoader.addModule("long2/", "long1");
+        moduleLoader.addModule("long1/");
+        moduleLoader.addModule("short1/");
+        moduleLoader.addModule("short2/");
+        moduleLoader.addModule("short3/");
+        
+        durationsFile = File.createTempFile("SimulateBuildTest", ".durations");
+        final ModuleDurations durations = new ModuleDurations(durationsFile);
+        durations.put("long1/", 10);
+        durations.put("long2/", 10);
+        durations.put("short1/", 5);
+        durations.put("short2/", 5);
+        durations.put("short3/", 5);
+        durations.write();
+    }
+    
+    @Override
+    protected void tearDown()
+    {
+        durationsFile.delete();
+        durationsFile = null;
+        moduleLoader = null;
+        task = null;
+        listener = null;
+        project = null;
+    }
+    
+    public void testRecordedDurations()
+    {
+        configureTask();
+        task.setThreadCountProperty("threads");
+        task.setSchedulingPolicyProperty("policy");
+        task.execute();
+        
+        assertEquals(Arrays.asList(
+                "Simulated 5 modules: total duration 35 ms, critical path 20 ms.",
+                "threads depthFirst criticalPath",
+                "      1         35           35",
+                "      2         25           20",
+                "      3         25           20",
+                "      4         20           20",
+                "Recommended thread count: 2 with the scheduling policy 'criticalPath' " +
+                        "(estimated total time 20 ms; the least is 20 ms)."), listener.messages);
+        assertEquals("2", project.getProperty("threads"));
+        assertEquals("criticalPath", project.getProperty("policy"));
+    }
+    
+    public void testSinglePolicy()
+    {
+        configureTask();
+        task.setSchedulingPolicies("depthFirst");
+        task.setThreadCountProperty("threads");
+        task.execute();
+        
+        assertEquals("4", project.getProperty("threads"));
+    }
+    
+    public void testTolerance()
+    {
+        configureTask();
+        task.setSchedulingPolicies("depthFirst");
+        task.setTolerance(30);
+        task.setThreadCountProperty("threads");
+        task.execute();
+        
+        assertEquals("2", project.getProperty("threads"));
+    }
+    
+    public void testUnitDurations()
+    {
+        configureTask();
+        task.setDurationsFile(null);
+        task.setMaxThreadCount(2);
+        task.setThreadCountProperty("threads");
+        task.execute();
+        
+        assertEquals("Simulated 5 modules: total duration 5 units, critical path 2 units.", listener.messages.get(0));
+        assertEquals("2", project.getProperty("threads"));
+    }
+    
+    public void testPropertyIsNotOverridden()
+    {
+        project.setProperty("threads", "8");
+        configureTask();
+        task.setThreadCountProperty("threads");
+        task.execute();
+        
+        assertEquals("8", project.getProperty("threads"));
+    }
+    
+    public void testInvalidThreadCountRange()
+    {
+        configureTask();
+        task.setMinThreadCount(3);
+        task.setMaxThreadCount(2);
+        
+        try {
+            task.execute();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The minimal thread count '3' is greater than the maximal thread count '2'.",
+                    ex.getMessage());
+        }
+    }
+    
+    public void testSchedulingPoliciesAreInvalid()
+    {
+        try {
+            task.setSchedulingPolicies("depthFirst,fifo");
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("Unsupported scheduling policy: 'fifo'. Expected: 'depthFirst' or 'criticalPath'.",
+                    ex.getMessage());
+        }
+        try {
+            task.setSchedulingPolicies(" , ");
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("At least one scheduling policy is required.", ex.getMessage());
+        }
+    }
+    
+    public void testToleranceIsNegative()
+    {
+        try {
+            task.setTolerance(-1);
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("Invalid tolerance: '-1'. It must be a non-negative value.", ex.getMessage());
+        }
+    }
+    
+    public void testNoModules()
+    {
+        task.addConfigured(moduleLoader);
+        
+        try {
+            task.execute();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("At least one <module> element is required.", ex.getMessage());
+        }
+    }
+    
+    private void configureTask()
+    {
+        task.createModule().setPath("long2");
+        task.createModule().setPath("short1");
+        task.createModule().setPath("short2");
+        task.createModule().setPath("short3");
+        task.addConfigured(moduleLoader);
+        task.setDurationsFile(durationsFile);
+        task.setMaxThreadCount(4);
+    }
+}
@@ -0,0 +1,254 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.MagicNames;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.ProjectHelper;
+import org.apache.tools.ant.Target;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.types.resources.FileResource;
+
+import antmodular.TemplateProjectHelper;
+import antmodular.TemplateProjectHelper.TemplateCache;
+
+import junit.framework.TestCase;
+
+public class TemplateProjectHelperTest extends TestCase
+{
+    private File baseDir;
+    private File buildFile;
+    private TemplateCache cache;
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        baseDir = TestFiles.createTempDir("TemplateProjectHelperTest");
+        buildFile = new File(baseDir, "build.xml");
+        cache = new TemplateCache();
+        
+        TestFiles.writeFile(new File(baseDir, "common.xml"),
+                "<project name=\"common\">\n" +
+                "  <property name=\"common.prop\" value=\"${main.prop}-common\"/>\n" +
+                "  <target name=\"commonTarget\">\n" +
+                "    <property name=\"commonTarget.prop\" value=\"${module}\"/>\n" +
+                "  </target>\n" +
+                "</project>\n");
+        TestFiles.writeFile(buildFile,
+                "<project name=\"main\" default=\"a\" basedir=\".\">\n" +
+                "  <property name=\"main.prop\" value=\"main-${module}\"/>\n" +
+                "  <import file=\"common.xml\"/>\n" +
+                "  <extension-point name=\"ep\"/>\n" +
+                "  <target name=\"a\" depends=\"b,commonTarget\" description=\"Target A\">\n" +
+                "    <property name=\"a.prop\" value=\"${b.prop}-a\"/>\n" +
+                "    <condition property=\"a.cond\">\n" +
+                "      <equals arg1=\"${module}\" arg2=\"m1\"/>\n" +
+                "    </condition>\n" +
+                "  </target>\n" +
+                "  <target name=\"b\" if=\"module\">\n" +
+                "    <property name=\"b.prop\" value=\"${module}-b\"/>\n" +
+                "  </target>\n" +
+                "  <target name=\"c\" extensionOf=\"ep\">\n" +
+                "    <property name=\"c.prop\" value=\"${module}-c\"/>\n" +
+                "  </target>\n" +
+                "</project>\n");
+    }
+    
+    @Override
+    protected void tearDown()
+    {
+        TestFiles.delete(baseDir);
+        cache = null;
+        buildFile = null;
+        baseDir = null;
+    }
+    
+    public void testCanParseBuildFile()
+    {
+        final TemplateProjectHelper helper = new TemplateProjectHelper();
+        
+        assertFalse(helper.canParseBuildFile(new FileResource(buildFile)));
+        
+        final TemplateCache outerCache = TemplateProjectHelper.enterTemplateMode(cache);
+        try {
+            assertNull(outerCache);
+            assertTrue(helper.canParseBuildFile(new FileResource(buildFile)));
+            
+            final TemplateCache nestedOuterCache = TemplateProjectHelper.enterTemplateMode(new TemplateCache());
+            TemplateProjectHelper.exitTemplateMode(nestedOuterCache);
+            
+            assertSame(cache, nestedOuterCache);
+            assertTrue(helper.canParseBuildFile(new FileResource(buildFile)));
+        }
+        finally {
+            TemplateProjectHelper.exitTemplateMode(outerCache);
+        }
+        
+        assertFalse(helper.canParseBuildFile(new FileResource(buildFile)));
+    }
+    
+    public void testConfigureProject_MultipleProjects()
+    {
+        final Project p1 = configureProject("m1");
+        final Project p2 = configureProject("m2");
+        
+        assertTrue(p1.getReference(MagicNames.REFID_PROJECT_HELPER) instanceof TemplateProjectHelper);
+        assertTrue(p2.getReference(MagicNames.REFID_PROJECT_HELPER) instanceof TemplateProjectHelper);
+        
+        for (final Project p : new Project[] {p1, p2}) {
+            assertEquals("main", p.getName());
+            assertEquals("a", p.getDefaultTarget());
+            assertEquals(baseDir.getAbsoluteFile(), p.getBaseDir());
+            assertSame(p, p.getReference("main"));
+            assertEquals(buildFile.getAbsolutePath(), p.getProperty("ant.file.main"));
+            assertTrue(p.getTargets().containsKey("a"));
+            assertTrue(p.getTargets().containsKey("b"));
+            assertTrue(p.getTargets().containsKey("c"));
+            assertTrue(p.getTargets().containsKey("ep"));
+            assertTrue(p.getTargets().containsKey("commonTarget"));
+            assertTrue(p.getTargets().containsKey("common.commonTarget"));
+            assertEquals("Target A", p.getTargets().get("a").getDescription());
+            assertSame(p, p.getTargets().get("a").getProject());
+        }
+        assertEquals("main-m1", p1.getProperty("main.prop"));
+        assertEquals("main-m1-common", p1.getProperty("common.prop"));
+        assertEquals("main-m2", p2.getProperty("main.prop"));
+        assertEquals("main-m2-common", p2.getProperty("common.prop"));
+        
+        p2.executeTarget("a");
+        
+        assertEquals("m2-b-a", p2.getProperty("a.prop"));
+        assertEquals("m2", p2.getProperty("commonTarget.prop"));
+        assertNull(p2.getProperty("a.cond"));
+        assertNull(p1.getProperty("a.prop"));
+        
+        p1.executeTarget("a");
+        p1.executeTarget("ep");
+        
+        assertEquals("m1-b-a", p1.getProperty("a.prop"));
+        assertEquals("m1", p1.getProperty("commonTarget.prop"));
+        assertEquals("true", p1.getProperty("a.cond"));
+        assertEquals("m1-c", p1.getProperty("c.prop"));
+        assertNull(p2.getProperty("c.prop"));
+        
+        for (final Task task : p1.getTargets().get("a").getTasks()) {
+            assertSame(p1, task.getProject());
+            assertSame(p1.getTargets().get("a"), task.getOwningTarget());
+        }
+    }
+    
+    public void testConfigureProject_TemplateIsReused() throws Exception
+    {
+        configureProject("m1");
+        final long lastModified = buildFile.lastModified();
+        
+        // The same size and modification time: the template is reused.
+        replaceInFile(buildFile, "main-", "MAIN-");
+        buildFile.setLastModified(lastModified);
+        
+        assertEquals("main-m2", configureProject("m2").getProperty("main.prop"));
+        
+        // The modification time is changed: the build file is parsed again.
+        buildFile.setLastModified(lastModified - 10000);
+        
+        assertEquals("MAIN-m3", configureProject("m3").getProperty("main.prop"));
+    }
+    
+    public void testConfigureProject_TemplateIsNotSharedBetweenCaches() throws Exception
+    {
+        configureProject("m1");
+        final long lastModified = buildFile.lastModified();
+        
+        replaceInFile(buildFile, "main-", "MAIN-");
+        buildFile.setLastModified(lastModified);
+        
+        // The template parsed for the previous cache is not seen by a new one.
+        cache = new TemplateCache();
+        assertEquals("MAIN-m2", configureProject("m2").getProperty("main.prop"));
+    }
+    
+    public void testConfigureProject_BuildFileIsChanged() throws Exception
+    {
+        configureProject("m1");
+        final long lastModified = buildFile.lastModified();
+        
+        replaceInFile(buildFile, "<target name=\"c\"", "<target name=\"d\"/>\n  <target name=\"c\"");
+        buildFile.setLastModified(lastModified);
+        
+        final Project p = configureProject("m2");
+        
+        assertTrue(p.getTargets().containsKey("d"));
+    }
+    
+    public void testConfigureProject_InvalidProjectAttribute() throws Exception
+    {
+        replaceInFile(buildFile, "basedir=\".\"", "foo=\"bar\"");
+        
+        try {
+            configureProject("m1");
+            fail();
+        }
+        catch (BuildException ex) {
+            assertTrue(ex.getMessage().contains("foo"));
+        }
+    }
+    
+    public void testConfigureProject_NotInTemplateMode()
+    {
+        final Project p = new Project();
+        p.init();
+        p.setUserProperty("module", "m1");
+        ProjectHelper.configureProject(p, buildFile);
+        
+        assertFalse(p.getReference(MagicNames.REFID_PROJECT_HELPER) instanceof TemplateProjectHelper);
+        assertEquals("main-m1", p.getProperty("main.prop"));
+    }
+    
+    private Project configureProject(final String module)
+    {
+        final Project p = new Project();
+        p.init();
+        p.setUserProperty("module", module);
+        final TemplateCache outerCache = TemplateProjectHelper.enterTemplateMode(cache);
+        try {
+            ProjectHelper.configureProject(p, buildFile);
+        }
+        finally {
+            TemplateProjectHelper.exitTemplateMode(outerCache);
+        }
+        final Target implicitTarget = p.getTargets().get("");
+        assertNotNull(implicitTarget);
+        return p;
+    }
+    
+    private static void replaceInFile(final File file, final String target, final String replacement)
+            throws IOException
+    {
+        TestFiles.writeFile(file, TestFiles.readFile(file).replace(target, replacement));
+    }
+    
+}
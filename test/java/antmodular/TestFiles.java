@@ -0,0 +1,128 @@
+/* Copyright (c) 2023, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package antmodular;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.ProjectHelper;
+
+public class TestFiles
+{
+    public static File createTempDir(final String prefix) throws IOException
+    {
+        final File dir = File.createTempFile(prefix, "");
+        dir.delete();
+        dir.mkdir();
+        return dir;
+    }
+    
+    /**
+     * <p>Writes a given build file to a given directory and creates an Ant project
+     * configured from this build file.</p>
+     * 
+     * @param baseDir the directory to write the file {@code build.xml} to.
+     * @param buildFileContent the content of the build file.
+     * 
+     * @return the Ant project configured.
+     * 
+     * @throws IOException if the build file cannot be written.
+     */
+    public static Project createProject(final File baseDir, final String buildFileContent) throws IOException
+    {
+        final File buildFile = new File(baseDir, "build.xml");
+        writeFile(buildFile, buildFileContent);
+        final Project project = new Project();
+        project.init();
+        ProjectHelper.configureProject(project, buildFile);
+        return project;
+    }
+    
+    public static void writeFile(final File file, final String content) throws IOException
+    {
+        final File parent = file.getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        final Writer out = new OutputStreamWriter(new FileOutputStream(file), "utf-8");
+        try {
+            out.write(content);
+        }
+        finally {
+            out.close();
+        }
+    }
+    
+    public static String readFile(final File file) throws IOException
+    {
+        final Reader in = new InputStreamReader(new FileInputStream(file), "utf-8");
+        try {
+            final StringBuilder buf = new StringBuilder();
+            final char[] chars = new char[1024];
+            int n;
+            while ((n = in.read(chars)) != -1) {
+                buf.append(chars, 0, n);
+            }
+            return buf.toString();
+        }
+        finally {
+            in.close();
+        }
+    }
+    
+    /**
+     * <p>Deletes a given file or directory recursively. Symbolic links to directories are
+     * deleted but not followed.</p>
+     * 
+     * @param file the file to delete.
+     */
+    public static void delete(final File file)
+    {
+        final File[] children = file.listFiles();
+        if (children != null && !isSymbolicLink(file)) {
+            for (final File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+    
+    private static boolean isSymbolicLink(final File file)
+    {
+        try {
+            final File parent = file.getAbsoluteFile().getParentFile();
+            return parent != null &&
+                    !new File(parent.getCanonicalFile(), file.getName()).equals(file.getCanonicalFile());
+        }
+        catch (IOException ex) {
+            return false;
+        }
+    }
+}